@@ -0,0 +1,488 @@
+/*
+ * CorpusGenerator.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Random;
+
+import net.percederberg.grammatica.parser.ProductionPattern;
+import net.percederberg.grammatica.parser.ProductionPatternAlternative;
+import net.percederberg.grammatica.parser.ProductionPatternElement;
+import net.percederberg.grammatica.parser.TokenPattern;
+import net.percederberg.grammatica.parser.re.Matcher;
+import net.percederberg.grammatica.parser.re.RegExp;
+import net.percederberg.grammatica.parser.re.RegExpException;
+
+/**
+ * A random corpus generator. This class generates random sentences
+ * from a grammar, by walking the production patterns from the start
+ * production and sampling strings for each token pattern. The
+ * generation is seeded, so the same seed will always produce the
+ * same sentences. Below the maximum depth, each production
+ * alternative is selected randomly according to its weight. At the
+ * maximum depth, the alternative producing the fewest tokens is
+ * always selected, so the generation is guaranteed to terminate.
+ * The generated sentences are normally valid input for the grammar,
+ * but there are no guarantees, since sampled tokens may for instance
+ * collide with keywords.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class CorpusGenerator {
+
+    /**
+     * The token count used for productions that cannot produce any
+     * finite sentence.
+     */
+    private static final int INFINITE = Integer.MAX_VALUE / 2;
+
+    /**
+     * The grammar to generate sentences from.
+     */
+    private Grammar grammar;
+
+    /**
+     * The random number generator.
+     */
+    private Random random;
+
+    /**
+     * The maximum production nesting depth.
+     */
+    private int maxDepth = 20;
+
+    /**
+     * The maximum number of extra repetitions for unbounded
+     * repetitions.
+     */
+    private int maxRepeat = 3;
+
+    /**
+     * The token string samplers. This map contains either a string
+     * or a regular expression for each token pattern id.
+     */
+    private HashMap tokens = new HashMap();
+
+    /**
+     * The minimum number of tokens produced by each production
+     * pattern. This map is indexed by the production pattern id.
+     */
+    private HashMap minTokens = new HashMap();
+
+    /**
+     * The alternative weights. This map contains an integer array
+     * for each production pattern id with custom weights.
+     */
+    private HashMap weights = new HashMap();
+
+    /**
+     * The token separator string.
+     */
+    private String separator;
+
+    /**
+     * Creates a new corpus generator.
+     *
+     * @param grammar        the grammar to use
+     * @param seed           the random number generator seed
+     *
+     * @throws GrammarException if some token pattern couldn't be
+     *             sampled, or if a production cannot produce any
+     *             finite sentence
+     */
+    public CorpusGenerator(Grammar grammar, long seed)
+        throws GrammarException {
+
+        this.grammar = grammar;
+        this.random = new Random(seed);
+        initializeTokens();
+        initializeProductions();
+    }
+
+    /**
+     * Initializes the token samplers and the token separator.
+     *
+     * @throws GrammarException if some token pattern couldn't be
+     *             sampled
+     */
+    private void initializeTokens() throws GrammarException {
+        TokenPattern  pattern;
+
+        for (int i = 0; i < grammar.getTokenPatternCount(); i++) {
+            pattern = grammar.getTokenPattern(i);
+            if (pattern.getType() == TokenPattern.STRING_TYPE) {
+                tokens.put(new Integer(pattern.getId()), pattern.getPattern());
+            } else {
+                try {
+                    tokens.put(new Integer(pattern.getId()),
+                               new RegExp(pattern.getPattern()));
+                } catch (RegExpException e) {
+                    throw new GrammarException(
+                        grammar.getFileName(),
+                        "cannot generate strings for token " +
+                        pattern.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+        if (isIgnored(" ")) {
+            separator = " ";
+        } else if (isIgnored("\n")) {
+            separator = "\n";
+        } else {
+            separator = "";
+        }
+    }
+
+    /**
+     * Checks if a string is completely matched by an ignored token
+     * pattern.
+     *
+     * @param str            the string to check
+     *
+     * @return true if the string is ignored, or
+     *         false otherwise
+     */
+    private boolean isIgnored(String str) {
+        TokenPattern  pattern;
+        Object        sampler;
+        Matcher       m;
+
+        for (int i = 0; i < grammar.getTokenPatternCount(); i++) {
+            pattern = grammar.getTokenPattern(i);
+            sampler = tokens.get(new Integer(pattern.getId()));
+            if (!pattern.isIgnore()) {
+                continue;
+            } else if (sampler instanceof RegExp) {
+                m = ((RegExp) sampler).matcher(str);
+                try {
+                    if (m.matchFromBeginning() && m.length() == str.length()) {
+                        return true;
+                    }
+                } catch (IOException ignore) {
+                    // Cannot happen for strings
+                }
+            } else if (str.equals(sampler)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calculates the minimum number of tokens produced by each
+     * production pattern. The calculation is repeated until no more
+     * changes are found.
+     *
+     * @throws GrammarException if a production cannot produce any
+     *             finite sentence
+     */
+    private void initializeProductions() throws GrammarException {
+        ProductionPattern  pattern;
+        boolean            changed = true;
+        int                count;
+
+        for (int i = 0; i < grammar.getProductionPatternCount(); i++) {
+            pattern = grammar.getProductionPattern(i);
+            minTokens.put(new Integer(pattern.getId()), new Integer(INFINITE));
+        }
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < grammar.getProductionPatternCount(); i++) {
+                pattern = grammar.getProductionPattern(i);
+                count = INFINITE;
+                for (int j = 0; j < pattern.getAlternativeCount(); j++) {
+                    count = Math.min(count,
+                                     getMinTokens(pattern.getAlternative(j)));
+                }
+                if (count < getMinTokens(pattern)) {
+                    minTokens.put(new Integer(pattern.getId()),
+                                  new Integer(count));
+                    changed = true;
+                }
+            }
+        }
+        for (int i = 0; i < grammar.getProductionPatternCount(); i++) {
+            pattern = grammar.getProductionPattern(i);
+            if (getMinTokens(pattern) >= INFINITE) {
+                throw new GrammarException(
+                    grammar.getFileName(),
+                    "cannot generate sentences for production " +
+                    pattern.getName());
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum production nesting depth.
+     *
+     * @return the maximum production nesting depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Sets the maximum production nesting depth. When this depth is
+     * reached, the shortest possible alternatives will be used. The
+     * default depth is 20.
+     *
+     * @param maxDepth       the maximum production nesting depth
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Returns the maximum number of extra repetitions.
+     *
+     * @return the maximum number of extra repetitions
+     */
+    public int getMaxRepeat() {
+        return maxRepeat;
+    }
+
+    /**
+     * Sets the maximum number of extra repetitions. This limit is
+     * used for both production elements and token regular
+     * expressions that allow an unbounded number of repetitions.
+     * The default value is 3.
+     *
+     * @param maxRepeat      the maximum number of extra repetitions
+     */
+    public void setMaxRepeat(int maxRepeat) {
+        this.maxRepeat = maxRepeat;
+    }
+
+    /**
+     * Sets the weight of a production pattern alternative. The
+     * weights determine the probability of each alternative being
+     * selected, relative to the other alternatives in the same
+     * production. By default all alternatives have weight one (1).
+     * A weight of zero (0) means that the alternative is only used
+     * at the maximum depth.
+     *
+     * @param production     the production pattern name
+     * @param alt            the alternative index, starting at 0
+     * @param weight         the alternative weight
+     *
+     * @throws IllegalArgumentException if the production or
+     *             alternative didn't exist, or if the weight was
+     *             negative
+     */
+    public void setWeight(String production, int alt, int weight)
+        throws IllegalArgumentException {
+
+        ProductionPattern  pattern;
+        int[]              list;
+
+        pattern = grammar.getProductionPatternByName(production);
+        if (pattern == null) {
+            throw new IllegalArgumentException("no production named " +
+                                               production);
+        } else if (alt < 0 || alt >= pattern.getAlternativeCount()) {
+            throw new IllegalArgumentException("no alternative " + alt +
+                                               " in " + production);
+        } else if (weight < 0) {
+            throw new IllegalArgumentException("negative weight " + weight);
+        }
+        list = (int[]) weights.get(new Integer(pattern.getId()));
+        if (list == null) {
+            list = new int[pattern.getAlternativeCount()];
+            for (int i = 0; i < list.length; i++) {
+                list[i] = 1;
+            }
+            weights.put(new Integer(pattern.getId()), list);
+        }
+        list[alt] = weight;
+    }
+
+    /**
+     * Generates a random sentence from the start production.
+     *
+     * @return the random sentence
+     */
+    public String generateSentence() {
+        StringBuffer  buffer = new StringBuffer();
+
+        generate(grammar.getProductionPattern(0), 1, buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Writes random sentences to an output stream. Sentences are
+     * generated until the specified number of characters has been
+     * written, each one on a separate line. Note that the output is
+     * only valid input for the grammar as a whole if sentences may
+     * be repeated, otherwise each line must be processed separately.
+     *
+     * @param out            the output stream to write to
+     * @param size           the minimum number of characters
+     *
+     * @return the number of characters written
+     *
+     * @throws IOException if the output couldn't be written
+     */
+    public long generate(Writer out, long size) throws IOException {
+        long    count = 0;
+        String  str;
+
+        while (count < size) {
+            str = generateSentence();
+            out.write(str);
+            out.write("\n");
+            count += str.length() + 1;
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * Generates a random sentence for a production pattern.
+     *
+     * @param pattern        the production pattern
+     * @param depth          the current nesting depth
+     * @param buffer         the string buffer to append to
+     */
+    private void generate(ProductionPattern pattern,
+                          int depth,
+                          StringBuffer buffer) {
+
+        ProductionPatternAlternative  alt;
+        ProductionPatternElement      elem;
+        int                           count;
+
+        alt = selectAlternative(pattern, depth);
+        for (int i = 0; i < alt.getElementCount(); i++) {
+            elem = alt.getElement(i);
+            count = elem.getMinCount();
+            if (depth < maxDepth && elem.getMaxCount() > count) {
+                count += random.nextInt(Math.min(elem.getMaxCount() - count,
+                                                 maxRepeat) + 1);
+            }
+            for (int j = 0; j < count; j++) {
+                if (elem.isToken()) {
+                    generateToken(elem.getId(), buffer);
+                } else {
+                    generate(grammar.getProductionPatternById(elem.getId()),
+                             depth + 1,
+                             buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates a random token string.
+     *
+     * @param id             the token pattern id
+     * @param buffer         the string buffer to append to
+     */
+    private void generateToken(int id, StringBuffer buffer) {
+        Object  sampler = tokens.get(new Integer(id));
+
+        if (buffer.length() > 0) {
+            buffer.append(separator);
+        }
+        if (sampler instanceof RegExp) {
+            buffer.append(((RegExp) sampler).generate(random, maxRepeat));
+        } else {
+            buffer.append(sampler);
+        }
+    }
+
+    /**
+     * Selects a production pattern alternative. Below the maximum
+     * depth, a weighted random alternative is returned. Otherwise
+     * the alternative producing the fewest tokens is returned.
+     *
+     * @param pattern        the production pattern
+     * @param depth          the current nesting depth
+     *
+     * @return the production pattern alternative selected
+     */
+    private ProductionPatternAlternative selectAlternative(
+        ProductionPattern pattern,
+        int depth) {
+
+        int[]  list = (int[]) weights.get(new Integer(pattern.getId()));
+        int    total = 0;
+        int    value;
+        int    best = 0;
+
+        if (depth < maxDepth) {
+            for (int i = 0; i < pattern.getAlternativeCount(); i++) {
+                total += (list == null) ? 1 : list[i];
+            }
+            value = (total > 0) ? random.nextInt(total) : -1;
+            for (int i = 0; value >= 0 && i < pattern.getAlternativeCount(); i++) {
+                value -= (list == null) ? 1 : list[i];
+                if (value < 0) {
+                    return pattern.getAlternative(i);
+                }
+            }
+        }
+        for (int i = 1; i < pattern.getAlternativeCount(); i++) {
+            if (getMinTokens(pattern.getAlternative(i)) <
+                getMinTokens(pattern.getAlternative(best))) {
+
+                best = i;
+            }
+        }
+        return pattern.getAlternative(best);
+    }
+
+    /**
+     * Returns the minimum number of tokens produced by a production
+     * pattern.
+     *
+     * @param pattern        the production pattern
+     *
+     * @return the minimum number of tokens produced
+     */
+    private int getMinTokens(ProductionPattern pattern) {
+        return ((Integer) minTokens.get(new Integer(pattern.getId()))).intValue();
+    }
+
+    /**
+     * Returns the minimum number of tokens produced by a production
+     * pattern alternative.
+     *
+     * @param alt            the production pattern alternative
+     *
+     * @return the minimum number of tokens produced
+     */
+    private int getMinTokens(ProductionPatternAlternative alt) {
+        ProductionPatternElement  elem;
+        int                       count = 0;
+        int                       tokens;
+
+        for (int i = 0; i < alt.getElementCount(); i++) {
+            elem = alt.getElement(i);
+            if (elem.isToken()) {
+                tokens = 1;
+            } else {
+                tokens = getMinTokens(
+                    grammar.getProductionPatternById(elem.getId()));
+            }
+            count += Math.min(elem.getMinCount() * (long) tokens, INFINITE);
+            count = Math.min(count, INFINITE);
+        }
+        return count;
+    }
+}
@@ -137,6 +137,11 @@ public class Grammar extends Object {
      */
     private HashMap lines = new HashMap();
 
+    /**
+     * The grammar warnings found in the verification.
+     */
+    private LinkedList warnings = new LinkedList();
+
     /**
      * Creates a new grammar from the specified file.
      *
@@ -172,7 +177,9 @@ public class Grammar extends Object {
      * @throws GrammarException if the grammar wasn't valid
      */
     private void verify() throws GrammarException {
-        String  type;
+        String          type;
+        Tokenizer       tokenizer;
+        TokenPattern[]  patterns;
 
         // Check grammar type
         type = (String) declarations.get(GRAMMAR_TYPE_DECLARATION);
@@ -189,8 +196,36 @@ public class Grammar extends Object {
         }
 
         // Check tokens and productions
+        tokenizer = createTokenizer(null);
         if (productions.size() > 0) {
-            createParser(createTokenizer(null));
+            createParser(tokenizer);
+        }
+
+        // Check for slow token patterns
+        patterns = tokenizer.getFallbackPatterns();
+        for (int i = 0; i < patterns.length; i++) {
+            addWarning(patterns[i].getName(),
+                       "token " + patterns[i].getName() + " is matched " +
+                       "with the slower " + patterns[i].getDebugInfo());
+        }
+    }
+
+    /**
+     * Adds a grammar warning.
+     *
+     * @param name           the token or production pattern name
+     * @param message        the warning message
+     */
+    private void addWarning(String name, String message) {
+        LineRange  range = (LineRange) lines.get(name);
+
+        if (range == null) {
+            warnings.add(new GrammarException(fileName, message));
+        } else {
+            warnings.add(new GrammarException(fileName,
+                                              message,
+                                              range.getStart(),
+                                              range.getEnd()));
         }
     }
 
@@ -291,6 +326,24 @@ public class Grammar extends Object {
         return fileName;
     }
 
+    /**
+     * Returns the grammar warnings. The warnings are found when the
+     * grammar is verified, and concern grammar constructs that are
+     * valid but may cause problems. Currently this only includes the
+     * regular expression tokens that are matched by the slower
+     * native Java regexp library.
+     *
+     * @return an array with the grammar warnings
+     *
+     * @since 1.7
+     */
+    public GrammarException[] getWarnings() {
+        GrammarException[]  res = new GrammarException[warnings.size()];
+
+        warnings.toArray(res);
+        return res;
+    }
+
     /**
      * Returns the declaration value for the specified name.
      *
@@ -15,16 +15,18 @@
 package net.percederberg.grammatica;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 import net.percederberg.grammatica.output.CSharpParserGenerator;
 import net.percederberg.grammatica.output.JavaParserGenerator;
 import net.percederberg.grammatica.output.VisualBasicParserGenerator;
 import net.percederberg.grammatica.parser.Analyzer;
-import net.percederberg.grammatica.parser.Node;
 import net.percederberg.grammatica.parser.ParseException;
 import net.percederberg.grammatica.parser.Parser;
 import net.percederberg.grammatica.parser.ParserCreationException;
@@ -62,9 +64,18 @@ public class Grammatica extends Object {
         "  --parse <file>\n" +
         "      Debugs the grammar by using it to parse the specified\n" +
         "      file. No code has to be generated for this.\n" +
-        "  --profile <file(s)>\n" +
+        "  --profile <file(s)> [--warmup <n>] [--iterations <n>]\n" +
+        "            [--json]\n" +
         "      Profiles the grammar by using it to parse the specified\n" +
-        "      file(s) and printing a statistic summary.\n" +
+        "      file(s) and printing a statistic summary. A number of\n" +
+        "      warm-up iterations (default 5) are run before measuring\n" +
+        "      (default 10 iterations). The hottest token and production\n" +
+        "      patterns are also listed. The summary is printed as JSON\n" +
+        "      if the --json option is specified.\n" +
+        "  --generate <size> [--seed <number>]\n" +
+        "      Generates random sentences from the grammar, one per line,\n" +
+        "      until at least the specified number of characters have\n" +
+        "      been printed. The random seed defaults to zero (0).\n" +
         "  --csoutput <dir>\n" +
         "      Creates a C# parser for the grammar (in source code).\n" +
         "      The specified directory will be used as output directory\n" +
@@ -126,7 +137,8 @@ public class Grammatica extends Object {
      * @param args           the command-line parameters
      */
     public static void main(String[] args) {
-        Grammar  grammar = null;
+        Grammar             grammar = null;
+        GrammarException[]  warnings;
 
         // Parse command-line arguments
         if (args.length == 1 && args[0].equals("--help")) {
@@ -156,6 +168,10 @@ public class Grammatica extends Object {
             printInternalError(e);
             System.exit(2);
         }
+        warnings = grammar.getWarnings();
+        for (int i = 0; i < warnings.length; i++) {
+            printWarning(warnings[i]);
+        }
 
         // Check action parameter
         try {
@@ -170,6 +186,8 @@ public class Grammatica extends Object {
                 parse(grammar, new File(args[2]));
             } else if (args[1].equals("--profile")) {
                 profile(grammar, args, 2);
+            } else if (args[1].equals("--generate")) {
+                generate(args, grammar);
             } else if (args[1].equals("--javaoutput")) {
                 writeJavaCode(args, grammar);
             } else if (args[1].equals("--csoutput")) {
@@ -284,10 +302,30 @@ public class Grammatica extends Object {
      * @param e              the detailed exception
      */
     private static void printError(GrammarException e) {
+        printMessage("Error", e);
+    }
+
+    /**
+     * Prints a grammar warning message.
+     *
+     * @param e              the detailed warning
+     */
+    private static void printWarning(GrammarException e) {
+        printMessage("Warning", e);
+    }
+
+    /**
+     * Prints a grammar error or warning message.
+     *
+     * @param type           the message type
+     * @param e              the detailed exception
+     */
+    private static void printMessage(String type, GrammarException e) {
         StringBuffer  buffer = new StringBuffer();
         String        lines;
 
-        buffer.append("Error: in ");
+        buffer.append(type);
+        buffer.append(": in ");
         buffer.append(e.getFile());
         if (e.getStartLine() > 0) {
             if (e.getStartLine() == e.getEndLine()) {
@@ -493,87 +531,124 @@ public class Grammatica extends Object {
     }
 
     /**
-     * Parses the specified file with the grammar and prints
-     * profiling information.
+     * Parses the command-line arguments and profiles the grammar on
+     * the specified files. The profiling results are printed in
+     * either text or JSON format.
      *
      * @param grammar        the grammar to use
-     * @param files          the files to parse
+     * @param args           the command-line arguments
      * @param first          the index of the first file
      */
-    private static void profile(Grammar grammar, String[] files, int first) {
-        File       file = new File(files[first]);
-        Tokenizer  tokenizer;
-        Parser     parser;
-        Node       node;
-        int        fileCount = files.length - first;
-        long       time;
-        int        counter;
+    private static void profile(Grammar grammar, String[] args, int first) {
+        Profiler  profiler = new Profiler(grammar);
+        boolean   json = false;
+        String    file = null;
 
-        // Profile tokenizer
+        // Read command-line arguments
         try {
-            System.out.println("Tokenizing " + fileCount + " file(s)...");
-            tokenizer = grammar.createTokenizer(new FileReader(file));
-            time = System.currentTimeMillis();
-            counter = 0;
-            for (int i = first; i < files.length; i++) {
-                if (i > first) {
-                    file = new File(files[i]);
-                    tokenizer.reset(new FileReader(file));
-                }
-                while (tokenizer.next() != null) {
-                    counter++;
+            for (int i = first; i < args.length; i++) {
+                if (args[i].equals("--warmup") && i + 1 < args.length) {
+                    profiler.setWarmup(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--iterations") &&
+                           i + 1 < args.length) {
+                    profiler.setIterations(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--json")) {
+                    json = true;
+                } else if (args[i].startsWith("--")) {
+                    printHelp("unrecognized option: " + args[i]);
+                    System.exit(1);
+                } else {
+                    file = args[i];
+                    profiler.addFile(new File(file));
                 }
             }
-            time = System.currentTimeMillis() - time + 1;
-            System.out.println("  Time elapsed:  " + time + " millisec");
-            System.out.println("  Tokens found:  " + counter);
-            System.out.println("  Average speed: " + (counter / time) +
-                               " tokens/millisec");
-            System.out.println();
+        } catch (NumberFormatException e) {
+            printHelp("invalid number: " + e.getMessage());
+            System.exit(1);
         } catch (FileNotFoundException e) {
-            printError(file.toString(), e);
+            printError(file, e);
             System.exit(1);
-        } catch (GrammarException e) {
-            printInternalError(e);
-            System.exit(2);
-        } catch (ParseException e) {
-            printError(file.toString(), e);
+        } catch (IOException e) {
+            printError(e);
+            System.exit(1);
+        }
+        if (file == null) {
+            printHelp("missing action file parameter");
             System.exit(1);
         }
 
-        // Profile parser
+        // Profile tokenizer and parser
         try {
-            System.out.println("Parsing " + fileCount + " file(s)...");
-            file = new File(files[first]);
-            tokenizer = grammar.createTokenizer(new FileReader(file));
-            parser = grammar.createParser(tokenizer);
-            time = System.currentTimeMillis();
-            counter = 0;
-            for (int i = first; i < files.length; i++) {
-                if (i > first) {
-                    file = new File(files[i]);
-                    parser.reset(new FileReader(file));
-                }
-                node = parser.parse();
-                counter += 1 + node.getDescendantCount();
+            if (!json) {
+                System.out.println("Profiling with " + profiler.getWarmup() +
+                                   " warm-up and " +
+                                   profiler.getIterations() +
+                                   " measured iteration(s)...");
+                System.out.println();
             }
-            time = System.currentTimeMillis() - time + 1;
-            System.out.println("  Time elapsed:  " + time + " millisec");
-            System.out.println("  Nodes found:   " + counter);
-            System.out.println("  Average speed: " + (counter / time) +
-                               " nodes/millisec");
-            System.out.println();
-        } catch (FileNotFoundException e) {
-            printError(file.toString(), e);
-            System.exit(1);
+            profiler.profileTokenizer();
+            profiler.profileParser();
+            profiler.profilePatterns();
         } catch (GrammarException e) {
             printInternalError(e);
             System.exit(2);
         } catch (ParserCreationException e) {
             printInternalError(e);
             System.exit(2);
+        } catch (ParseException e) {
+            printError(profiler.getCurrentInput(), e);
+            System.exit(1);
         } catch (ParserLogException e) {
-            printError(file.toString(), e);
+            printError(profiler.getCurrentInput(), e);
+            System.exit(1);
+        }
+        if (json) {
+            profiler.printJson(System.out);
+        } else {
+            profiler.printText(System.out);
+        }
+    }
+
+    /**
+     * Parses the command-line arguments and prints a random corpus
+     * generated from the grammar.
+     *
+     * @param args           the command-line arguments
+     * @param grammar        the grammar to use
+     */
+    private static void generate(String[] args, Grammar grammar) {
+        CorpusGenerator  gen;
+        long             size = 0;
+        long             seed = 0;
+        Writer           out;
+
+        // Read command-line arguments
+        try {
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--generate")) {
+                    size = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                    seed = Long.parseLong(args[++i]);
+                } else {
+                    printHelp("unrecognized option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            printHelp("invalid number: " + e.getMessage());
+            System.exit(1);
+        }
+
+        // Write random corpus
+        try {
+            gen = new CorpusGenerator(grammar, seed);
+            out = new BufferedWriter(new OutputStreamWriter(System.out));
+            gen.generate(out, size);
+        } catch (GrammarException e) {
+            printError(e);
+            System.exit(1);
+        } catch (IOException e) {
+            printError(e);
             System.exit(1);
         }
     }
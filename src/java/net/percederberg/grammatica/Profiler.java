@@ -0,0 +1,838 @@
+/*
+ * Profiler.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.percederberg.grammatica.parser.Node;
+import net.percederberg.grammatica.parser.ParseException;
+import net.percederberg.grammatica.parser.ParseProfile;
+import net.percederberg.grammatica.parser.Parser;
+import net.percederberg.grammatica.parser.ParserCreationException;
+import net.percederberg.grammatica.parser.ParserLogException;
+import net.percederberg.grammatica.parser.Tokenizer;
+
+/**
+ * A grammar performance profiler. This class measures the tokenizer
+ * and parser performance for a grammar on a set of input files. The
+ * files are read into memory before profiling, and a number of
+ * warm-up iterations are run before measuring, so that class loading
+ * and JIT compilation doesn't affect the results. Each measured
+ * iteration processes all the files, recording the time for each
+ * file separately. The memory allocation is measured for the
+ * current thread if supported by the JVM, and the number of garbage
+ * collections is measured for the whole JVM.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class Profiler {
+
+    /**
+     * The grammar to profile.
+     */
+    private Grammar grammar;
+
+    /**
+     * The number of warm-up iterations.
+     */
+    private int warmup = 5;
+
+    /**
+     * The number of measured iterations.
+     */
+    private int iterations = 10;
+
+    /**
+     * The list of input names.
+     */
+    private ArrayList names = new ArrayList();
+
+    /**
+     * The list of input texts.
+     */
+    private ArrayList texts = new ArrayList();
+
+    /**
+     * The index of the input currently being processed, or -1 if
+     * none.
+     */
+    private int current = -1;
+
+    /**
+     * The tokenizer profiling result, or null if not available.
+     */
+    private Result tokenizerResult = null;
+
+    /**
+     * The parser profiling result, or null if not available.
+     */
+    private Result parserResult = null;
+
+    /**
+     * The pattern profiling counters, or null if not available.
+     */
+    private ParseProfile patternProfile = null;
+
+    /**
+     * The maximum number of pattern rows to print.
+     */
+    private int maxPatternRows = 10;
+
+    /**
+     * Creates a new grammar profiler.
+     *
+     * @param grammar        the grammar to profile
+     */
+    public Profiler(Grammar grammar) {
+        this.grammar = grammar;
+    }
+
+    /**
+     * Returns the number of warm-up iterations.
+     *
+     * @return the number of warm-up iterations
+     */
+    public int getWarmup() {
+        return warmup;
+    }
+
+    /**
+     * Sets the number of warm-up iterations. The default value is 5.
+     *
+     * @param warmup         the number of warm-up iterations
+     */
+    public void setWarmup(int warmup) {
+        this.warmup = Math.max(warmup, 0);
+    }
+
+    /**
+     * Returns the number of measured iterations.
+     *
+     * @return the number of measured iterations
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Sets the number of measured iterations. The default value is
+     * 10.
+     *
+     * @param iterations     the number of measured iterations
+     */
+    public void setIterations(int iterations) {
+        this.iterations = Math.max(iterations, 1);
+    }
+
+    /**
+     * Adds an input file to profile. The file contents will be read
+     * immediately.
+     *
+     * @param file           the input file
+     *
+     * @throws IOException if the file couldn't be read
+     */
+    public void addFile(File file) throws IOException {
+        Reader        input = new FileReader(file);
+        StringBuffer  buffer = new StringBuffer();
+        char[]        chars = new char[4096];
+        int           length;
+
+        try {
+            while ((length = input.read(chars)) > 0) {
+                buffer.append(chars, 0, length);
+            }
+        } finally {
+            input.close();
+        }
+        addInput(file.toString(), buffer.toString());
+    }
+
+    /**
+     * Adds an input text to profile.
+     *
+     * @param name           the input name
+     * @param text           the input text
+     */
+    public void addInput(String name, String text) {
+        names.add(name);
+        texts.add(text);
+    }
+
+    /**
+     * Returns the name of the input being processed. If profiling
+     * failed with an error, this is the name of the erroneous input.
+     *
+     * @return the name of the input being processed, or
+     *         null if no input is being processed
+     */
+    public String getCurrentInput() {
+        return (current < 0) ? null : (String) names.get(current);
+    }
+
+    /**
+     * Returns the tokenizer profiling result.
+     *
+     * @return the tokenizer profiling result, or
+     *         null if the tokenizer hasn't been profiled
+     */
+    public Result getTokenizerResult() {
+        return tokenizerResult;
+    }
+
+    /**
+     * Returns the parser profiling result.
+     *
+     * @return the parser profiling result, or
+     *         null if the parser hasn't been profiled
+     */
+    public Result getParserResult() {
+        return parserResult;
+    }
+
+    /**
+     * Returns the pattern profiling counters.
+     *
+     * @return the pattern profiling counters, or
+     *         null if the patterns haven't been profiled
+     */
+    public ParseProfile getPatternProfile() {
+        return patternProfile;
+    }
+
+    /**
+     * Sets the maximum number of token and production pattern rows
+     * to print. The default value is 10.
+     *
+     * @param maxPatternRows the maximum number of pattern rows
+     */
+    public void setMaxPatternRows(int maxPatternRows) {
+        this.maxPatternRows = maxPatternRows;
+    }
+
+    /**
+     * Profiles the grammar tokenizer. The tokenizer is created once
+     * and reset for each input.
+     *
+     * @return the tokenizer profiling result
+     *
+     * @throws GrammarException if the tokenizer couldn't be created
+     * @throws ParseException if the input couldn't be tokenized
+     */
+    public Result profileTokenizer() throws GrammarException, ParseException {
+        Tokenizer  tokenizer = grammar.createTokenizer(null);
+        Result     res = new Result("tokens", iterations * texts.size());
+        long       time;
+        int        count;
+
+        for (int i = 0; i < warmup + iterations; i++) {
+            if (i == warmup) {
+                res.start();
+            }
+            for (current = 0; current < texts.size(); current++) {
+                time = System.nanoTime();
+                tokenizer.reset(new StringReader((String) texts.get(current)));
+                count = 0;
+                while (tokenizer.next() != null) {
+                    count++;
+                }
+                time = System.nanoTime() - time;
+                if (i >= warmup) {
+                    res.add(time, count);
+                }
+            }
+        }
+        res.stop();
+        current = -1;
+        tokenizerResult = res;
+        return res;
+    }
+
+    /**
+     * Profiles the grammar parser. The parser is created once and
+     * reset for each input. The parse tree nodes are counted after
+     * each parse, outside the measured time.
+     *
+     * @return the parser profiling result
+     *
+     * @throws GrammarException if the tokenizer couldn't be created
+     * @throws ParserCreationException if the parser couldn't be
+     *             created
+     * @throws ParserLogException if the input couldn't be parsed
+     */
+    public Result profileParser()
+        throws GrammarException, ParserCreationException, ParserLogException {
+
+        Parser  parser = grammar.createParser(grammar.createTokenizer(null));
+        Result  res = new Result("nodes", iterations * texts.size());
+        long    time;
+        Node    node;
+
+        for (int i = 0; i < warmup + iterations; i++) {
+            if (i == warmup) {
+                res.start();
+            }
+            for (current = 0; current < texts.size(); current++) {
+                time = System.nanoTime();
+                parser.reset(new StringReader((String) texts.get(current)));
+                node = parser.parse();
+                time = System.nanoTime() - time;
+                if (i >= warmup) {
+                    res.pause();
+                    res.add(time, 1 + node.getDescendantCount());
+                    res.resume();
+                }
+            }
+        }
+        res.stop();
+        current = -1;
+        parserResult = res;
+        return res;
+    }
+
+    /**
+     * Profiles the individual token and production patterns. Each
+     * input is parsed once with a runtime profile enabled, which
+     * counts the pattern matches and the time spent in each matcher
+     * and production. This is done separately from the other
+     * measurements, since the profile counters add overhead.
+     *
+     * @return the pattern profiling counters
+     *
+     * @throws GrammarException if the tokenizer couldn't be created
+     * @throws ParserCreationException if the parser couldn't be
+     *             created
+     * @throws ParserLogException if the input couldn't be parsed
+     */
+    public ParseProfile profilePatterns()
+        throws GrammarException, ParserCreationException, ParserLogException {
+
+        ParseProfile  profile = new ParseProfile();
+        Parser        parser;
+
+        parser = grammar.createParser(grammar.createTokenizer(null));
+        parser.setProfile(profile);
+        for (current = 0; current < texts.size(); current++) {
+            parser.reset(new StringReader((String) texts.get(current)));
+            parser.parse();
+        }
+        current = -1;
+        patternProfile = profile;
+        return profile;
+    }
+
+    /**
+     * Prints the profiling results in a human-readable text format.
+     *
+     * @param out            the output stream to use
+     */
+    public void printText(PrintStream out) {
+        if (tokenizerResult != null) {
+            out.println("Tokenizing " + texts.size() + " file(s)...");
+            tokenizerResult.printText(out);
+            out.println();
+        }
+        if (parserResult != null) {
+            out.println("Parsing " + texts.size() + " file(s)...");
+            parserResult.printText(out);
+            out.println();
+        }
+        if (patternProfile != null) {
+            out.println("Pattern profile (single pass)...");
+            patternProfile.printReport(out, maxPatternRows);
+            out.println();
+        }
+    }
+
+    /**
+     * Prints the profiling results in JSON format.
+     *
+     * @param out            the output stream to use
+     */
+    public void printJson(PrintStream out) {
+        StringBuffer  buffer = new StringBuffer();
+
+        buffer.append("{\n");
+        buffer.append("  \"grammar\": ");
+        appendQuoted(buffer, grammar.getFileName());
+        buffer.append(",\n  \"files\": [");
+        for (int i = 0; i < names.size(); i++) {
+            buffer.append((i > 0) ? ", " : "");
+            appendQuoted(buffer, (String) names.get(i));
+        }
+        buffer.append("],\n  \"warmup\": ");
+        buffer.append(warmup);
+        buffer.append(",\n  \"iterations\": ");
+        buffer.append(iterations);
+        if (tokenizerResult != null) {
+            buffer.append(",\n  \"tokenizer\": ");
+            tokenizerResult.appendJson(buffer, "  ");
+        }
+        if (parserResult != null) {
+            buffer.append(",\n  \"parser\": ");
+            parserResult.appendJson(buffer, "  ");
+        }
+        if (patternProfile != null) {
+            buffer.append(",\n  \"patterns\": ");
+            appendJson(buffer, patternProfile);
+        }
+        buffer.append("\n}");
+        out.println(buffer.toString());
+    }
+
+    /**
+     * Appends the pattern profiling counters as a JSON object to a
+     * buffer.
+     *
+     * @param buffer         the buffer to append to
+     * @param profile        the pattern profiling counters
+     */
+    private void appendJson(StringBuffer buffer, ParseProfile profile) {
+        ParseProfile.Entry[]  entries;
+        int                   matchers = ParseProfile.REGEXP_MATCHER + 1;
+
+        buffer.append("{\n    \"matchers\": [");
+        for (int i = 0; i < matchers; i++) {
+            buffer.append((i > 0) ? "," : "");
+            buffer.append("\n      {\"name\": ");
+            appendQuoted(buffer, profile.getMatcherName(i));
+            buffer.append(", \"calls\": " + profile.getMatcherCalls(i));
+            buffer.append(", \"timeNanos\": " + profile.getMatcherTime(i));
+            buffer.append("}");
+        }
+        buffer.append("\n    ],\n    \"regExpRematches\": ");
+        buffer.append(profile.getRegExpRematchCount());
+        buffer.append(",\n    \"tokens\": [");
+        entries = profile.getTokenEntries();
+        for (int i = 0; i < entries.length; i++) {
+            buffer.append((i > 0) ? "," : "");
+            buffer.append("\n      {\"name\": ");
+            appendQuoted(buffer, entries[i].getName());
+            buffer.append(", \"count\": " + entries[i].getCount());
+            buffer.append(", \"chars\": " + entries[i].getCharCount());
+            buffer.append("}");
+        }
+        buffer.append("\n    ],\n    \"productions\": [");
+        entries = profile.getProductionEntries();
+        for (int i = 0; i < entries.length; i++) {
+            buffer.append((i > 0) ? "," : "");
+            buffer.append("\n      {\"name\": ");
+            appendQuoted(buffer, entries[i].getName());
+            buffer.append(", \"count\": " + entries[i].getCount());
+            buffer.append(", \"timeNanos\": " + entries[i].getTime());
+            buffer.append(", \"lookAhead\": " + entries[i].getLookAhead());
+            buffer.append("}");
+        }
+        buffer.append("\n    ]\n  }");
+    }
+
+    /**
+     * Appends a quoted JSON string to a buffer.
+     *
+     * @param buffer         the buffer to append to
+     * @param str            the string to quote, or null
+     */
+    static void appendQuoted(StringBuffer buffer, String str) {
+        char  c;
+
+        if (str == null) {
+            buffer.append("null");
+            return;
+        }
+        buffer.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            c = str.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.append('\\');
+                buffer.append(c);
+            } else if (c < 32) {
+                buffer.append("\\u00");
+                buffer.append(Character.forDigit(c / 16, 16));
+                buffer.append(Character.forDigit(c % 16, 16));
+            } else {
+                buffer.append(c);
+            }
+        }
+        buffer.append('"');
+    }
+
+    /**
+     * Formats a number with three decimals.
+     *
+     * @param value          the number to format
+     *
+     * @return the formatted number
+     */
+    static String format(double value) {
+        return String.valueOf(Math.round(value * 1000) / 1000.0);
+    }
+
+
+    /**
+     * A profiling result. This class contains the timing and memory
+     * statistics for a number of measured samples, where each sample
+     * corresponds to processing a single input once. All times are
+     * measured in nanoseconds.
+     *
+     * @author   Per Cederberg
+     * @version  1.7
+     * @since    1.7
+     */
+    public static class Result {
+
+        /**
+         * The thread allocation method, or null if not supported by
+         * the JVM. This is the getThreadAllocatedBytes(long) method
+         * in the HotSpot-specific ThreadMXBean interface.
+         */
+        private static Method allocMethod = null;
+
+        /**
+         * The thread management bean.
+         */
+        private static ThreadMXBean threadBean = null;
+
+        /**
+         * The unit of the processed items, for example "tokens".
+         */
+        private String unit;
+
+        /**
+         * The sample times.
+         */
+        private long[] samples;
+
+        /**
+         * The number of samples added.
+         */
+        private int sampleCount = 0;
+
+        /**
+         * The total number of processed items.
+         */
+        private long items = 0;
+
+        /**
+         * The total measured time.
+         */
+        private long time = 0;
+
+        /**
+         * The number of allocated bytes, or -1 if not available.
+         */
+        private long allocated = 0;
+
+        /**
+         * The number of garbage collections.
+         */
+        private long gcCount = 0;
+
+        /**
+         * The garbage collection time in milliseconds.
+         */
+        private long gcTime = 0;
+
+        static {
+            try {
+                threadBean = ManagementFactory.getThreadMXBean();
+                allocMethod = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes",
+                               new Class[] { Long.TYPE });
+                if (!allocMethod.getDeclaringClass().isInstance(threadBean)) {
+                    allocMethod = null;
+                }
+            } catch (Exception ignore) {
+                allocMethod = null;
+            }
+        }
+
+        /**
+         * Creates a new empty profiling result.
+         *
+         * @param unit           the unit of the processed items
+         * @param samples        the expected number of samples
+         */
+        Result(String unit, int samples) {
+            this.unit = unit;
+            this.samples = new long[samples];
+        }
+
+        /**
+         * Returns the unit of the processed items.
+         *
+         * @return the unit of the processed items
+         */
+        public String getUnit() {
+            return unit;
+        }
+
+        /**
+         * Returns the number of measured samples.
+         *
+         * @return the number of measured samples
+         */
+        public int getSampleCount() {
+            return sampleCount;
+        }
+
+        /**
+         * Returns the total number of processed items in all samples.
+         *
+         * @return the total number of processed items
+         */
+        public long getItemCount() {
+            return items;
+        }
+
+        /**
+         * Returns the total measured time in nanoseconds.
+         *
+         * @return the total measured time in nanoseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns a sample time percentile. The nearest-rank method
+         * is used, so the returned value is always one of the sample
+         * times.
+         *
+         * @param percent        the percentile, from 0 to 100
+         *
+         * @return the sample time percentile in nanoseconds, or
+         *         zero (0) if no samples were measured
+         */
+        public long getPercentile(double percent) {
+            long[]  sorted;
+            int     pos;
+
+            if (sampleCount <= 0) {
+                return 0;
+            }
+            sorted = new long[sampleCount];
+            System.arraycopy(samples, 0, sorted, 0, sampleCount);
+            Arrays.sort(sorted);
+            pos = (int) Math.ceil(percent / 100.0 * sampleCount) - 1;
+            return sorted[Math.max(0, Math.min(pos, sampleCount - 1))];
+        }
+
+        /**
+         * Returns the number of bytes allocated while measuring.
+         * This is only the memory allocated by the current thread.
+         *
+         * @return the number of allocated bytes, or
+         *         -1 if not supported by the JVM
+         */
+        public long getAllocatedBytes() {
+            return allocated;
+        }
+
+        /**
+         * Returns the number of garbage collections while measuring.
+         *
+         * @return the number of garbage collections
+         */
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        /**
+         * Returns the garbage collection time while measuring.
+         *
+         * @return the garbage collection time in milliseconds
+         */
+        public long getGcTime() {
+            return gcTime;
+        }
+
+        /**
+         * Starts the measurement of memory and garbage collections.
+         */
+        void start() {
+            allocated = -getThreadAllocatedBytes();
+            gcCount = -getTotalGcCount();
+            gcTime = -getTotalGcTime();
+        }
+
+        /**
+         * Pauses the memory measurement. Any memory allocated until
+         * the measurement is resumed will not be counted.
+         */
+        void pause() {
+            allocated += getThreadAllocatedBytes();
+        }
+
+        /**
+         * Resumes a paused memory measurement.
+         */
+        void resume() {
+            allocated -= getThreadAllocatedBytes();
+        }
+
+        /**
+         * Stops the measurement of memory and garbage collections.
+         */
+        void stop() {
+            allocated += getThreadAllocatedBytes();
+            gcCount += getTotalGcCount();
+            gcTime += getTotalGcTime();
+            if (allocMethod == null) {
+                allocated = -1;
+            }
+        }
+
+        /**
+         * Adds a measured sample.
+         *
+         * @param time           the sample time in nanoseconds
+         * @param items          the number of processed items
+         */
+        void add(long time, long items) {
+            if (sampleCount >= samples.length) {
+                long[] copy = new long[samples.length * 2 + 1];
+                System.arraycopy(samples, 0, copy, 0, sampleCount);
+                samples = copy;
+            }
+            samples[sampleCount++] = time;
+            this.items += items;
+            this.time += time;
+        }
+
+        /**
+         * Prints this result in a human-readable text format.
+         *
+         * @param out            the output stream to use
+         */
+        public void printText(PrintStream out) {
+            double  millis = time / 1000000.0;
+            double  perMilli = (millis > 0) ? items / millis : 0;
+
+            out.println("  Samples:       " + sampleCount);
+            out.println("  Time elapsed:  " + format(millis) + " millisec");
+            out.println("  Items found:   " + items + " " + unit);
+            out.println("  Average speed: " + format(perMilli) + " " +
+                        unit + "/millisec");
+            out.println("  Sample time:   p50 " +
+                        format(getPercentile(50) / 1000000.0) + ", p99 " +
+                        format(getPercentile(99) / 1000000.0) + ", max " +
+                        format(getPercentile(100) / 1000000.0) +
+                        " millisec");
+            if (allocated >= 0 && items > 0) {
+                out.println("  Allocation:    " +
+                            format((double) allocated / items) +
+                            " bytes/" + unit.substring(0, unit.length() - 1));
+            }
+            out.println("  GC count:      " + gcCount + " (" + gcTime +
+                        " millisec)");
+        }
+
+        /**
+         * Appends this result as a JSON object to a buffer.
+         *
+         * @param buffer         the buffer to append to
+         * @param indent         the current indentation string
+         */
+        void appendJson(StringBuffer buffer, String indent) {
+            String  prefix = ",\n" + indent + "  ";
+
+            buffer.append("{\n");
+            buffer.append(indent);
+            buffer.append("  \"unit\": ");
+            appendQuoted(buffer, unit);
+            buffer.append(prefix + "\"samples\": " + sampleCount);
+            buffer.append(prefix + "\"items\": " + items);
+            buffer.append(prefix + "\"timeNanos\": " + time);
+            buffer.append(prefix + "\"p50Nanos\": " + getPercentile(50));
+            buffer.append(prefix + "\"p99Nanos\": " + getPercentile(99));
+            buffer.append(prefix + "\"maxNanos\": " + getPercentile(100));
+            buffer.append(prefix + "\"allocatedBytes\": " + allocated);
+            buffer.append(prefix + "\"gcCount\": " + gcCount);
+            buffer.append(prefix + "\"gcMillis\": " + gcTime);
+            buffer.append("\n");
+            buffer.append(indent);
+            buffer.append("}");
+        }
+
+        /**
+         * Returns the number of bytes allocated by the current thread.
+         *
+         * @return the number of bytes allocated, or
+         *         zero (0) if not supported by the JVM
+         */
+        private static long getThreadAllocatedBytes() {
+            Object[]  args;
+
+            if (allocMethod == null) {
+                return 0;
+            }
+            try {
+                args = new Object[] {
+                    new Long(Thread.currentThread().getId())
+                };
+                return ((Long) allocMethod.invoke(threadBean, args)).longValue();
+            } catch (Exception e) {
+                allocMethod = null;
+                return 0;
+            }
+        }
+
+        /**
+         * Returns the total number of garbage collections in the JVM.
+         *
+         * @return the total number of garbage collections
+         */
+        private static long getTotalGcCount() {
+            List  list = ManagementFactory.getGarbageCollectorMXBeans();
+            long  count = 0;
+
+            for (int i = 0; i < list.size(); i++) {
+                count += Math.max(0, ((GarbageCollectorMXBean) list.get(i))
+                                     .getCollectionCount());
+            }
+            return count;
+        }
+
+        /**
+         * Returns the total garbage collection time in the JVM.
+         *
+         * @return the total garbage collection time in milliseconds
+         */
+        private static long getTotalGcTime() {
+            List  list = ManagementFactory.getGarbageCollectorMXBeans();
+            long  total = 0;
+
+            for (int i = 0; i < list.size(); i++) {
+                total += Math.max(0, ((GarbageCollectorMXBean) list.get(i))
+                                     .getCollectionTime());
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * CaseFolding.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A precomputed case folding table. Two characters are considered
+ * equal in case-insensitive mode if they have the same lower-case
+ * character, as returned by Character.toLowerCase(char). The table
+ * contains the lower-case character for each character, and allows
+ * finding all the case variants of a character. It is used when
+ * creating case-insensitive automata, so that the case variants can
+ * be merged into the same transitions. The table is created when
+ * this class is first used.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+final class CaseFolding {
+
+    /**
+     * The lower-case character for each character.
+     */
+    private static final char[] LOWER = new char[65536];
+
+    /**
+     * The characters that are neither the upper-case nor the title
+     * case character of their lower-case character. These are the
+     * only characters that cannot be found directly from their
+     * lower-case character.
+     */
+    private static final char[] SPECIAL;
+
+    /**
+     * Initializes the case folding table.
+     */
+    static {
+        StringBuffer  buffer = new StringBuffer();
+        char          lower;
+        char          c;
+
+        for (int i = 0; i < LOWER.length; i++) {
+            c = (char) i;
+            lower = Character.toLowerCase(c);
+            LOWER[i] = lower;
+            if (c != lower &&
+                c != Character.toUpperCase(lower) &&
+                c != Character.toTitleCase(lower)) {
+
+                buffer.append(c);
+            }
+        }
+        SPECIAL = buffer.toString().toCharArray();
+    }
+
+    /**
+     * Prevents instances of this class from being created.
+     */
+    private CaseFolding() {
+        // Nothing to do here
+    }
+
+    /**
+     * Returns the lower-case character for a character.
+     *
+     * @param c              the character to convert
+     *
+     * @return the lower-case character
+     */
+    public static char toLowerCase(char c) {
+        return LOWER[c];
+    }
+
+    /**
+     * Returns a string converted to lower case. Each character is
+     * converted separately.
+     *
+     * @param str            the string to convert
+     *
+     * @return the lower-case string
+     */
+    public static String toLowerCase(String str) {
+        StringBuffer  buffer = new StringBuffer(str.length());
+
+        for (int i = 0; i < str.length(); i++) {
+            buffer.append(LOWER[str.charAt(i)]);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Returns all the case variants of a character. These are all
+     * the characters having the same lower-case character, including
+     * the character itself.
+     *
+     * @param c              the character to check
+     *
+     * @return an array with all the case variants
+     */
+    public static char[] getVariants(char c) {
+        StringBuffer  buffer = new StringBuffer();
+        char          lower = LOWER[c];
+
+        addVariant(buffer, lower, lower);
+        addVariant(buffer, lower, c);
+        addVariant(buffer, lower, Character.toUpperCase(lower));
+        addVariant(buffer, lower, Character.toTitleCase(lower));
+        for (int i = 0; i < SPECIAL.length; i++) {
+            addVariant(buffer, lower, SPECIAL[i]);
+        }
+        return buffer.toString().toCharArray();
+    }
+
+    /**
+     * Adds a case variant to a string buffer. The character is only
+     * added if it has the specified lower-case character, and isn't
+     * already present in the buffer.
+     *
+     * @param buffer         the string buffer
+     * @param lower          the lower-case character
+     * @param c              the character to add
+     */
+    private static void addVariant(StringBuffer buffer, char lower, char c) {
+        if (LOWER[c] == lower && buffer.toString().indexOf(c) < 0) {
+            buffer.append(c);
+        }
+    }
+}
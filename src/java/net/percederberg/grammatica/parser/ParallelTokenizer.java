@@ -0,0 +1,865 @@
+/*
+ * ParallelTokenizer.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A tokenizer that splits a large input text into chunks and
+ * tokenizes the chunks in parallel. Each chunk is tokenized by a
+ * separate task in an executor service (such as a fork-join pool),
+ * starting after the first line break following the chunk boundary.
+ * The tokens are returned in order by the next() method, while the
+ * following chunks are still being tokenized. The input text can be
+ * any character sequence, such as a string or a character buffer
+ * decoded from a memory-mapped file.<p>
+ *
+ * The chunk start is only a guess, since a token (such as a comment
+ * or a string) may span the line break. Each chunk is therefore
+ * tokenized until the first token starting in the next chunk, and
+ * the next chunk is only used from the point where its tokens line
+ * up with the real end of the previous chunk. If no such point is
+ * found, the chunk is tokenized again from the real end. The tokens
+ * returned are thus identical to those returned by the sequential
+ * Tokenizer.next() method, including the token list feature and
+ * any parse exceptions.<p>
+ *
+ * Subclasses must implement the newTokenizer() method to create a
+ * tokenizer for the grammar. A tokenizer is created for each
+ * concurrent task, and the tokenizers are reused for the following
+ * chunks. This class may only be used by a single thread at a time.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public abstract class ParallelTokenizer {
+
+    /**
+     * The default chunk size in characters.
+     */
+    public static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * The executor service used for the tokenizing tasks.
+     */
+    private ExecutorService executor;
+
+    /**
+     * The chunk size in characters.
+     */
+    private int chunkSize;
+
+    /**
+     * The maximum number of chunks tokenized ahead of the current
+     * chunk. This limits the memory used for the tokens not yet
+     * returned.
+     */
+    private int maxPending;
+
+    /**
+     * The token list flag.
+     */
+    private boolean useTokenList = false;
+
+    /**
+     * The list of available tokenizers.
+     */
+    private ArrayList tokenizers = new ArrayList();
+
+    /**
+     * The input text, or null if not set.
+     */
+    private CharSequence input = null;
+
+    /**
+     * The total number of chunks in the input text.
+     */
+    private int chunkCount = 0;
+
+    /**
+     * The number of chunks submitted for tokenizing.
+     */
+    private int submitted = 0;
+
+    /**
+     * The queue of pending chunk futures, in chunk order.
+     */
+    private ArrayList pending = new ArrayList();
+
+    /**
+     * The next chunk to use, or null if not yet available. This
+     * chunk is kept until its tokens line up with the current
+     * position.
+     */
+    private Chunk next = null;
+
+    /**
+     * The chunk currently being read, or null for none.
+     */
+    private Chunk current = null;
+
+    /**
+     * The index of the next item to read in the current chunk.
+     */
+    private int index = 0;
+
+    /**
+     * The line number offset for the current chunk. The chunks are
+     * tokenized from line one (1), since the real line number isn't
+     * known in advance.
+     */
+    private int lineOffset = 0;
+
+    /**
+     * The current input offset.
+     */
+    private int offset = 0;
+
+    /**
+     * The current line number.
+     */
+    private int line = 1;
+
+    /**
+     * The current column number.
+     */
+    private int column = 1;
+
+    /**
+     * The previous token in the token list.
+     */
+    private Token previousToken = null;
+
+    /**
+     * The number of characters examined after the current offset.
+     * The chunk items only include the look-ahead from the same
+     * chunk, so the look-ahead from the previous items is added.
+     *
+     * @see Token#getLookAhead
+     */
+    private int lookAhead = 0;
+
+    /**
+     * Creates a new parallel tokenizer with the default chunk size.
+     *
+     * @param executor       the executor service to use
+     */
+    public ParallelTokenizer(ExecutorService executor) {
+        this(executor, CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new parallel tokenizer. A smaller chunk size makes
+     * the first tokens available sooner, but increases the number
+     * of chunk boundaries to check.
+     *
+     * @param executor       the executor service to use
+     * @param chunkSize      the chunk size in characters
+     *
+     * @throws IllegalArgumentException if the chunk size wasn't
+     *             positive
+     */
+    public ParallelTokenizer(ExecutorService executor, int chunkSize)
+        throws IllegalArgumentException {
+
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("invalid chunk size: " +
+                                               chunkSize);
+        }
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.maxPending = Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    /**
+     * Creates a new tokenizer. This method is called when a task
+     * needs a tokenizer and none is available. The tokenizer input
+     * stream will be reset before use, so it may be created with an
+     * empty or null input stream. This method may be called from
+     * several threads at once.
+     *
+     * @return the new tokenizer
+     *
+     * @throws ParserCreationException if the tokenizer couldn't be
+     *             created
+     */
+    protected abstract Tokenizer newTokenizer()
+        throws ParserCreationException;
+
+    /**
+     * Checks if the token list feature is used.
+     *
+     * @return true if the token list feature is used, or
+     *         false otherwise
+     *
+     * @see Tokenizer#getUseTokenList
+     */
+    public boolean getUseTokenList() {
+        return useTokenList;
+    }
+
+    /**
+     * Sets the token list feature flag. The token list feature makes
+     * all tokens (including ignored tokens) link to each other in a
+     * linked list, just as in the sequential tokenizer.
+     *
+     * @param useTokenList   the token list feature flag
+     *
+     * @see Tokenizer#setUseTokenList
+     */
+    public void setUseTokenList(boolean useTokenList) {
+        this.useTokenList = useTokenList;
+    }
+
+    /**
+     * Resets this tokenizer for usage with another input text. Any
+     * tasks for the previous input text are cancelled, and the tasks
+     * for the first chunks of the new input text are submitted.
+     *
+     * @param input          the new input text, or null for none
+     */
+    public void reset(CharSequence input) {
+        for (int i = 0; i < pending.size(); i++) {
+            ((Future) pending.get(i)).cancel(false);
+        }
+        pending.clear();
+        this.input = input;
+        this.chunkCount = 0;
+        this.submitted = 0;
+        this.next = null;
+        this.current = null;
+        this.index = 0;
+        this.lineOffset = 0;
+        this.offset = 0;
+        this.line = 1;
+        this.column = 1;
+        this.previousToken = null;
+        this.lookAhead = 0;
+        if (input != null) {
+            chunkCount = (input.length() + chunkSize - 1) / chunkSize;
+            chunkCount = Math.max(chunkCount, 1);
+            submitChunks();
+        }
+    }
+
+    /**
+     * Finds the next token in the input text. This method will
+     * return null when the end of the input text has been reached.
+     * It will throw the same parse exceptions as the sequential
+     * tokenizer, and the tokens following an exception can be read
+     * in the same way.
+     *
+     * @return the next token found, or
+     *         null if the end of the input text was reached
+     *
+     * @throws ParseException if the input text couldn't be parsed
+     *             correctly
+     *
+     * @see Tokenizer#next
+     */
+    public Token next() throws ParseException {
+        Object  item;
+        Token   token;
+
+        while ((item = nextItem()) != null) {
+            if (item instanceof ParseException) {
+                throw (ParseException) item;
+            }
+            token = (Token) item;
+            if (useTokenList) {
+                token.setPreviousToken(previousToken);
+                previousToken = token;
+            }
+            if (token.getPattern().isError()) {
+                throw new ParseException(
+                    ParseException.INVALID_TOKEN_ERROR,
+                    token.getPattern().getErrorMessage(),
+                    token.getStartLine(),
+                    token.getStartColumn());
+            } else if (!token.getPattern().isIgnore()) {
+                return token;
+            }
+        }
+        previousToken = null;
+        return null;
+    }
+
+    /**
+     * Returns the next token or parse exception. The chunks are read
+     * in order, and their positions are adjusted to the real line
+     * numbers.
+     *
+     * @return the next token or parse exception, or
+     *         null if the end of the input text was reached
+     *
+     * @throws ParseException if a chunk couldn't be tokenized
+     */
+    private Object nextItem() throws ParseException {
+        Object  item;
+
+        while (current == null || index >= current.size()) {
+            if (!nextChunk()) {
+                return null;
+            }
+        }
+        item = current.getItem(index, lineOffset);
+        index++;
+        lookAhead -= current.offsets[index] - offset;
+        lookAhead = Math.max(lookAhead, current.lookAheads[index]);
+        if (item instanceof Token) {
+            ((Token) item).setLookAhead(lookAhead);
+        }
+        offset = current.offsets[index];
+        line = current.lines[index] + lineOffset;
+        column = current.columns[index];
+        if (item instanceof ParseException &&
+            ((ParseException) item).getErrorType() ==
+            ParseException.ABORTED_ERROR) {
+
+            reset(null);
+        }
+        return item;
+    }
+
+    /**
+     * Selects the next chunk to read. If the next speculative chunk
+     * has an item starting at the current position, it is read from
+     * that item. Otherwise the input is tokenized again from the
+     * current position, until it lines up with the speculative
+     * chunk or reaches the chunk end.
+     *
+     * @return true if a chunk was selected, or
+     *         false if the end of the input text was reached
+     *
+     * @throws ParseException if a chunk couldn't be tokenized
+     */
+    private boolean nextChunk() throws ParseException {
+        int  pos;
+
+        while (true) {
+            if (next == null && pending.size() == 0) {
+                current = null;
+                return false;
+            } else if (next == null) {
+                next = waitChunk();
+            }
+            pos = next.find(offset);
+            if (pos >= 0) {
+                current = next;
+                index = pos;
+                lineOffset = line - next.lines[pos];
+                next = null;
+                return true;
+            } else if (offset >= next.bound) {
+                next = null;
+            } else {
+                current = tokenize(input,
+                                   offset,
+                                   line,
+                                   column,
+                                   next.bound,
+                                   next);
+                index = 0;
+                lineOffset = 0;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Waits for the next pending chunk to be tokenized. Additional
+     * chunks are submitted for tokenizing if possible.
+     *
+     * @return the chunk tokenized
+     *
+     * @throws ParseException if the chunk couldn't be tokenized
+     */
+    private Chunk waitChunk() throws ParseException {
+        Future     future = (Future) pending.remove(0);
+        Throwable  e;
+
+        submitChunks();
+        try {
+            return (Chunk) future.get();
+        } catch (InterruptedException ignore) {
+            Thread.currentThread().interrupt();
+            throw new ParseException(ParseException.INTERNAL_ERROR,
+                                     "tokenizer thread interrupted",
+                                     -1,
+                                     -1);
+        } catch (ExecutionException ex) {
+            e = ex.getCause();
+            if (e instanceof ParseException) {
+                throw (ParseException) e;
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e instanceof Error) {
+                throw (Error) e;
+            }
+            throw new ParseException(ParseException.INTERNAL_ERROR,
+                                     e.getMessage(),
+                                     -1,
+                                     -1);
+        }
+    }
+
+    /**
+     * Submits chunks for tokenizing, until the maximum number of
+     * pending chunks has been reached.
+     */
+    private void submitChunks() {
+        ChunkTask  task;
+
+        while (submitted < chunkCount && pending.size() < maxPending) {
+            task = new ChunkTask(input, submitted++, chunkCount);
+            pending.add(executor.submit(task));
+        }
+    }
+
+    /**
+     * Tokenizes a chunk of the input text. The chunk starts after the
+     * first line break at or after the chunk boundary, and ends with
+     * the first token starting in the next chunk.
+     *
+     * @param input          the input text
+     * @param chunk          the chunk number
+     * @param count          the total number of chunks
+     *
+     * @return the chunk tokenized
+     *
+     * @throws ParseException if no tokenizer could be created
+     */
+    private Chunk tokenize(CharSequence input, int chunk, int count)
+        throws ParseException {
+
+        int  start = 0;
+        int  bound = input.length();
+
+        if (chunk > 0) {
+            start = findLineStart(input, chunk * chunkSize);
+        }
+        if (chunk + 1 < count) {
+            bound = findLineStart(input, (chunk + 1) * chunkSize);
+        }
+        return tokenize(input, start, 1, 1, bound, null);
+    }
+
+    /**
+     * Tokenizes a part of the input text. The tokenizing stops at the
+     * first token starting at or after the bound, or at an item start
+     * offset in the specified chunk.
+     *
+     * @param input          the input text
+     * @param start          the start offset
+     * @param line           the start line number
+     * @param column         the start column number
+     * @param bound          the bound offset
+     * @param sync           the chunk to line up with, or null
+     *
+     * @return the chunk tokenized
+     *
+     * @throws ParseException if no tokenizer could be created
+     */
+    private Chunk tokenize(CharSequence input,
+                           int start,
+                           int line,
+                           int column,
+                           int bound,
+                           Chunk sync)
+        throws ParseException {
+
+        Chunk      chunk = new Chunk(start, line, column, bound);
+        Tokenizer  tokenizer = acquire();
+        Object     item;
+        int        pos = start;
+
+        tokenizer.reset(new InputReader(input, start), line, column);
+        try {
+            while (pos < bound && (sync == null || sync.find(pos) < 0)) {
+                try {
+                    item = tokenizer.nextToken();
+                } catch (ParseException e) {
+                    item = e;
+                }
+                if (item == null) {
+                    break;
+                }
+                pos = start + tokenizer.getCurrentOffset();
+                chunk.add(item,
+                          pos,
+                          tokenizer.getCurrentLine(),
+                          tokenizer.getCurrentColumn(),
+                          tokenizer.getLookAhead());
+                if (item instanceof ParseException &&
+                    ((ParseException) item).getErrorType() ==
+                    ParseException.ABORTED_ERROR) {
+
+                    break;
+                }
+            }
+        } finally {
+            tokenizer.reset(null);
+            release(tokenizer);
+        }
+        return chunk;
+    }
+
+    /**
+     * Acquires a tokenizer. If no tokenizer is available, a new one
+     * is created.
+     *
+     * @return the tokenizer to use
+     *
+     * @throws ParseException if no tokenizer could be created
+     */
+    private Tokenizer acquire() throws ParseException {
+        synchronized (tokenizers) {
+            if (tokenizers.size() > 0) {
+                return (Tokenizer) tokenizers.remove(tokenizers.size() - 1);
+            }
+        }
+        try {
+            return newTokenizer();
+        } catch (ParserCreationException e) {
+            throw new ParseException(ParseException.INTERNAL_ERROR,
+                                     e.getMessage(),
+                                     -1,
+                                     -1);
+        }
+    }
+
+    /**
+     * Releases a tokenizer for reuse.
+     *
+     * @param tokenizer      the tokenizer to release
+     */
+    private void release(Tokenizer tokenizer) {
+        synchronized (tokenizers) {
+            tokenizers.add(tokenizer);
+        }
+    }
+
+    /**
+     * Finds the start of the first line starting at or after an
+     * offset.
+     *
+     * @param input          the input text
+     * @param offset         the input offset
+     *
+     * @return the line start offset, or
+     *         the input length if no more lines were found
+     */
+    private static int findLineStart(CharSequence input, int offset) {
+        int  length = input.length();
+
+        for (int i = Math.min(offset, length) - 1; i < length; i++) {
+            if (input.charAt(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+
+    /**
+     * A tokenized chunk. The chunk contains a list of tokens and
+     * parse exceptions, together with the input offset, line and
+     * column number of each item. The positions after the last item
+     * are also stored.
+     */
+    private static class Chunk {
+
+        /**
+         * The chunk bound offset. No items starting at or after this
+         * offset are added to the chunk.
+         */
+        public int bound;
+
+        /**
+         * The list of tokens and parse exceptions.
+         */
+        public ArrayList items = new ArrayList();
+
+        /**
+         * The item start offsets, followed by the chunk end offset.
+         */
+        public int[] offsets = new int[16];
+
+        /**
+         * The item start line numbers, followed by the chunk end line
+         * number.
+         */
+        public int[] lines = new int[16];
+
+        /**
+         * The item start column numbers, followed by the chunk end
+         * column number.
+         */
+        public int[] columns = new int[16];
+
+        /**
+         * The look-ahead character counts after each item, starting
+         * at index one (1).
+         */
+        public int[] lookAheads = new int[16];
+
+        /**
+         * Creates a new empty chunk.
+         *
+         * @param start          the start offset
+         * @param line           the start line number
+         * @param column         the start column number
+         * @param bound          the bound offset
+         */
+        public Chunk(int start, int line, int column, int bound) {
+            this.bound = bound;
+            this.offsets[0] = start;
+            this.lines[0] = line;
+            this.columns[0] = column;
+        }
+
+        /**
+         * Returns the number of items in this chunk.
+         *
+         * @return the number of items in this chunk
+         */
+        public int size() {
+            return items.size();
+        }
+
+        /**
+         * Returns an item in this chunk. The item line numbers are
+         * adjusted by the specified offset.
+         *
+         * @param index          the item index
+         * @param lineOffset     the line number offset
+         *
+         * @return the token or parse exception
+         */
+        public Object getItem(int index, int lineOffset) {
+            Object          item = items.get(index);
+            ParseException  e;
+
+            if (lineOffset == 0) {
+                return item;
+            } else if (item instanceof Token) {
+                ((Token) item).move(lineOffset, 0);
+                return item;
+            } else {
+                e = (ParseException) item;
+                return new ParseException(e.getErrorType(),
+                                          e.getInfo(),
+                                          e.getLine() + lineOffset,
+                                          e.getColumn(),
+                                          e.getEndLine() + lineOffset,
+                                          e.getEndColumn());
+            }
+        }
+
+        /**
+         * Adds an item to this chunk.
+         *
+         * @param item           the token or parse exception
+         * @param offset         the end offset
+         * @param line           the end line number
+         * @param column         the end column number
+         * @param lookAhead      the look-ahead character count
+         */
+        public void add(Object item,
+                        int offset,
+                        int line,
+                        int column,
+                        int lookAhead) {
+
+            int  size = items.size() + 1;
+
+            if (size >= offsets.length) {
+                offsets = grow(offsets);
+                lines = grow(lines);
+                columns = grow(columns);
+                lookAheads = grow(lookAheads);
+            }
+            items.add(item);
+            offsets[size] = offset;
+            lines[size] = line;
+            columns[size] = column;
+            lookAheads[size] = lookAhead;
+        }
+
+        /**
+         * Finds the item starting at an offset. The chunk end offset
+         * is also checked, returning the number of items if it
+         * matches.
+         *
+         * @param offset         the input offset
+         *
+         * @return the item index, or
+         *         -1 if no item started at the offset
+         */
+        public int find(int offset) {
+            int  low = 0;
+            int  high = items.size();
+            int  mid;
+
+            while (low <= high) {
+                mid = (low + high) >>> 1;
+                if (offsets[mid] < offset) {
+                    low = mid + 1;
+                } else if (offsets[mid] > offset) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns a copy of an array with twice the size.
+         *
+         * @param array          the array to copy
+         *
+         * @return the new array
+         */
+        private static int[] grow(int[] array) {
+            int[]  res = new int[array.length * 2];
+
+            System.arraycopy(array, 0, res, 0, array.length);
+            return res;
+        }
+    }
+
+
+    /**
+     * A chunk tokenizing task.
+     */
+    private class ChunkTask implements Callable {
+
+        /**
+         * The input text.
+         */
+        private CharSequence input;
+
+        /**
+         * The chunk number.
+         */
+        private int chunk;
+
+        /**
+         * The total number of chunks.
+         */
+        private int count;
+
+        /**
+         * Creates a new chunk tokenizing task.
+         *
+         * @param input          the input text
+         * @param chunk          the chunk number
+         * @param count          the total number of chunks
+         */
+        public ChunkTask(CharSequence input, int chunk, int count) {
+            this.input = input;
+            this.chunk = chunk;
+            this.count = count;
+        }
+
+        /**
+         * Tokenizes the chunk.
+         *
+         * @return the chunk tokenized
+         *
+         * @throws ParseException if no tokenizer could be created
+         */
+        public Object call() throws ParseException {
+            return tokenize(input, chunk, count);
+        }
+    }
+
+
+    /**
+     * A character reader for a part of a character sequence. The
+     * characters are read from the start offset to the end of the
+     * sequence.
+     */
+    private static class InputReader extends Reader {
+
+        /**
+         * The input text, or null if closed.
+         */
+        private CharSequence input;
+
+        /**
+         * The current offset.
+         */
+        private int pos;
+
+        /**
+         * Creates a new input reader.
+         *
+         * @param input          the input text
+         * @param start          the start offset
+         */
+        public InputReader(CharSequence input, int start) {
+            this.input = input;
+            this.pos = start;
+        }
+
+        /**
+         * Reads characters into a portion of an array.
+         *
+         * @param cbuf           the destination buffer
+         * @param off            the offset at which to start storing
+         * @param len            the maximum number of characters to read
+         *
+         * @return the number of characters read, or
+         *         -1 if the end of the input has been reached
+         *
+         * @throws IOException if the reader has been closed
+         */
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int  count;
+
+            if (input == null) {
+                throw new IOException("reader has been closed");
+            }
+            count = Math.min(len, input.length() - pos);
+            if (count <= 0) {
+                return (len <= 0) ? 0 : -1;
+            } else if (input instanceof String) {
+                ((String) input).getChars(pos, pos + count, cbuf, off);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    cbuf[off + i] = input.charAt(pos + i);
+                }
+            }
+            pos += count;
+            return count;
+        }
+
+        /**
+         * Closes this reader.
+         */
+        public void close() {
+            input = null;
+        }
+    }
+}
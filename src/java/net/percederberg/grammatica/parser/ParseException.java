@@ -71,6 +71,16 @@ public class ParseException extends Exception {
      */
     public static final int ANALYSIS_ERROR = 6;
 
+    /**
+     * The aborted error type constant. This type is used when the
+     * input processing was stopped early, due to too many errors
+     * being found. The additional information provided should
+     * contain the reason for stopping.
+     *
+     * @since 1.7
+     */
+    public static final int ABORTED_ERROR = 7;
+
     /**
      * The error type.
      */
@@ -97,6 +107,16 @@ public class ParseException extends Exception {
      */
     private int column;
 
+    /**
+     * The end line number.
+     */
+    private int endLine;
+
+    /**
+     * The end column number.
+     */
+    private int endColumn;
+
     /**
      * Creates a new parse exception.
      *
@@ -137,6 +157,34 @@ public class ParseException extends Exception {
         this.details = details;
         this.line = line;
         this.column = column;
+        this.endLine = line;
+        this.endColumn = column;
+    }
+
+    /**
+     * Creates a new parse exception. This constructor is used for
+     * errors covering a range of characters, such as a sequence of
+     * unexpected characters.
+     *
+     * @param type           the parse error type
+     * @param info           the additional information
+     * @param line           the line number, or -1 for unknown
+     * @param column         the column number, or -1 for unknown
+     * @param endLine        the end line number, or -1 for unknown
+     * @param endColumn      the end column number, or -1 for unknown
+     *
+     * @since 1.7
+     */
+    public ParseException(int type,
+                          String info,
+                          int line,
+                          int column,
+                          int endLine,
+                          int endColumn) {
+
+        this(type, info, null, line, column);
+        this.endLine = endLine;
+        this.endColumn = endColumn;
     }
 
     /**
@@ -186,6 +234,34 @@ public class ParseException extends Exception {
         return column;
     }
 
+    /**
+     * Returns the line number where the error ended. For errors
+     * only concerning a single position, this is the same as the
+     * start line number.
+     *
+     * @return the end line number of the error, or
+     *         -1 if unknown
+     *
+     * @since 1.7
+     */
+    public int getEndLine() {
+        return endLine;
+    }
+
+    /**
+     * Returns the column number where the error ended. For errors
+     * only concerning a single position, this is the same as the
+     * start column number.
+     *
+     * @return the end column number of the error, or
+     *         -1 if unknown
+     *
+     * @since 1.7
+     */
+    public int getEndColumn() {
+        return endColumn;
+    }
+
     /**
      * Returns the detailed error message. This message will contain
      * the same string as getErrorMessage(), but with line number and
@@ -229,7 +305,11 @@ public class ParseException extends Exception {
             buffer.append("unexpected end of file");
             break;
         case UNEXPECTED_CHAR_ERROR:
-            buffer.append("unexpected character '");
+            if (info != null && info.length() > 1) {
+                buffer.append("unexpected characters '");
+            } else {
+                buffer.append("unexpected character '");
+            }
             buffer.append(info);
             buffer.append("'");
             break;
@@ -250,6 +330,10 @@ public class ParseException extends Exception {
         case ANALYSIS_ERROR:
             buffer.append(info);
             break;
+        case ABORTED_ERROR:
+            buffer.append("processing aborted: ");
+            buffer.append(info);
+            break;
         default:
             buffer.append("internal error");
             if (info != null) {
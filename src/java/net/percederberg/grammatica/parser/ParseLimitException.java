@@ -0,0 +1,98 @@
+/*
+ * ParseLimitException.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A parse limit exception. This exception is thrown by the parser
+ * when one of the limits in the parse options has been exceeded, or
+ * when the parsing was cancelled. The parsing is stopped
+ * immediately, so the log only contains a single aborted error
+ * describing the limit. This exception is a subclass of the parser
+ * log exception, so it must be caught before it.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ *
+ * @see ParseOptions
+ */
+public class ParseLimitException extends ParserLogException {
+
+    /**
+     * The deadline limit type constant. This type is used when the
+     * parse deadline has passed.
+     */
+    public static final int DEADLINE_LIMIT = 1;
+
+    /**
+     * The cancelled limit type constant. This type is used when the
+     * parsing was cancelled.
+     */
+    public static final int CANCELLED_LIMIT = 2;
+
+    /**
+     * The token count limit type constant. This type is used when
+     * too many tokens have been consumed.
+     */
+    public static final int TOKEN_COUNT_LIMIT = 3;
+
+    /**
+     * The nesting depth limit type constant. This type is used when
+     * the productions are nested too deeply.
+     */
+    public static final int DEPTH_LIMIT = 4;
+
+    /**
+     * The token length limit type constant. This type is used when
+     * a token is too long.
+     */
+    public static final int TOKEN_LENGTH_LIMIT = 5;
+
+    /**
+     * The node count limit type constant. This type is used when
+     * too many parse tree nodes have been created.
+     */
+    public static final int NODE_COUNT_LIMIT = 6;
+
+    /**
+     * The limit type.
+     */
+    private int type;
+
+    /**
+     * Creates a new parse limit exception.
+     *
+     * @param type           the limit type
+     * @param info           the limit description
+     * @param line           the line number, or -1 for unknown
+     * @param column         the column number, or -1 for unknown
+     */
+    public ParseLimitException(int type, String info, int line, int column) {
+        this.type = type;
+        addError(new ParseException(ParseException.ABORTED_ERROR,
+                                    info,
+                                    line,
+                                    column));
+    }
+
+    /**
+     * Returns the limit type.
+     *
+     * @return the limit type
+     */
+    public int getLimitType() {
+        return type;
+    }
+}
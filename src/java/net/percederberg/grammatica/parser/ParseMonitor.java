@@ -0,0 +1,330 @@
+/*
+ * ParseMonitor.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A global parser activity monitor. Monitors receive callbacks for
+ * notable events in all tokenizers and parsers, such as the start
+ * and end of each parse, reads from the input stream and parse
+ * errors. This class is used for connecting the parser to external
+ * monitoring tools, such as Java Flight Recorder or JMX. This class
+ * provides empty implementations of all the callback methods, so
+ * subclasses only need to override the methods of interest.
+ *
+ * Monitors are registered globally, and the callbacks may be called
+ * concurrently from any thread using a parser. When no monitor is
+ * registered, the cost for the parser is a single field check per
+ * event. Note that no callbacks are made for individual tokens or
+ * productions, see ParseProfile for that.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ *
+ * @see ParseProfile
+ */
+public abstract class ParseMonitor {
+
+    /**
+     * The registered monitors, or null if none are registered. This
+     * array is replaced whenever monitors are added or removed.
+     */
+    private static volatile ParseMonitor[] monitors = null;
+
+    /**
+     * Registers a new monitor. The monitor will receive callbacks
+     * from all parsers until it is removed.
+     *
+     * @param monitor        the monitor to add
+     */
+    public static synchronized void addMonitor(ParseMonitor monitor) {
+        ParseMonitor[]  list = monitors;
+        int             size = (list == null) ? 0 : list.length;
+        ParseMonitor[]  copy = new ParseMonitor[size + 1];
+
+        if (size > 0) {
+            System.arraycopy(list, 0, copy, 0, size);
+        }
+        copy[size] = monitor;
+        monitors = copy;
+    }
+
+    /**
+     * Removes a previously registered monitor. If the monitor wasn't
+     * registered, nothing is done.
+     *
+     * @param monitor        the monitor to remove
+     */
+    public static synchronized void removeMonitor(ParseMonitor monitor) {
+        ParseMonitor[]  list = monitors;
+        ParseMonitor[]  copy;
+        int             pos = -1;
+
+        for (int i = 0; list != null && i < list.length; i++) {
+            if (list[i] == monitor) {
+                pos = i;
+            }
+        }
+        if (pos < 0) {
+            return;
+        } else if (list.length == 1) {
+            monitors = null;
+        } else {
+            copy = new ParseMonitor[list.length - 1];
+            System.arraycopy(list, 0, copy, 0, pos);
+            System.arraycopy(list, pos + 1, copy, pos, copy.length - pos);
+            monitors = copy;
+        }
+    }
+
+    /**
+     * Checks if any monitor is registered.
+     *
+     * @return true if a monitor is registered, or
+     *         false otherwise
+     */
+    public static boolean isEnabled() {
+        return monitors != null;
+    }
+
+    /**
+     * Called when a parse starts. This callback is always followed
+     * by a call to parseFinished() in the same thread.
+     *
+     * @param parser         the parser used
+     */
+    public void parseStarted(Parser parser) {
+        // Nothing done by default
+    }
+
+    /**
+     * Called when a parse has finished, either successfully or with
+     * an error.
+     *
+     * @param parser         the parser used
+     * @param time           the elapsed time, in nanoseconds
+     * @param chars          the number of input characters read
+     * @param tokens         the number of tokens consumed
+     * @param error          the error thrown, or null for success
+     */
+    public void parseFinished(Parser parser,
+                              long time,
+                              int chars,
+                              int tokens,
+                              Exception error) {
+        // Nothing done by default
+    }
+
+    /**
+     * Called when the parser preparation starts. This includes the
+     * look-ahead calculation for all the production patterns. This
+     * callback is always followed by a call to prepareFinished() in
+     * the same thread.
+     *
+     * @param parser         the parser being prepared
+     */
+    public void prepareStarted(Parser parser) {
+        // Nothing done by default
+    }
+
+    /**
+     * Called when the parser preparation has finished, either
+     * successfully or with an error.
+     *
+     * @param parser         the parser prepared
+     * @param time           the elapsed time, in nanoseconds
+     * @param error          the error thrown, or null for success
+     */
+    public void prepareFinished(Parser parser,
+                                long time,
+                                ParserCreationException error) {
+        // Nothing done by default
+    }
+
+    /**
+     * Called when a tokenizer has reached the end of the input
+     * stream, when a parse using the tokenizer has finished, or when
+     * the tokenizer is reset. The counts only include the tokens and
+     * characters read since the previous call for the same input,
+     * so they can be summed. Ignored tokens are not counted.
+     *
+     * @param tokenizer      the tokenizer used
+     * @param chars          the number of input characters read
+     * @param tokens         the number of tokens returned
+     */
+    public void tokenizeFinished(Tokenizer tokenizer, int chars, int tokens) {
+        // Nothing done by default
+    }
+
+    /**
+     * Called when characters have been read from an input stream
+     * into a tokenizer buffer.
+     *
+     * @param chars          the number of characters read
+     * @param time           the elapsed time, in nanoseconds
+     */
+    public void bufferRead(int chars, long time) {
+        // Nothing done by default
+    }
+
+    /**
+     * Called when a regular expression token pattern is added that
+     * isn't supported by the NFA matcher, and the slower native
+     * Java regular expression matcher is used instead.
+     *
+     * @param pattern        the token pattern added
+     */
+    public void regExpFallback(TokenPattern pattern) {
+        // Nothing done by default
+    }
+
+    /**
+     * Called when the parser finds an error outside of an error
+     * recovery, i.e. when a new error recovery starts. Errors found
+     * during the error recovery are not reported.
+     *
+     * @param parser         the parser used
+     * @param error          the parse error found
+     */
+    public void errorRecovery(Parser parser, ParseException error) {
+        // Nothing done by default
+    }
+
+    /**
+     * Notifies all monitors that a parse has started.
+     *
+     * @param parser         the parser used
+     */
+    static void fireParseStarted(Parser parser) {
+        ParseMonitor[]  list = monitors;
+
+        for (int i = 0; list != null && i < list.length; i++) {
+            list[i].parseStarted(parser);
+        }
+    }
+
+    /**
+     * Notifies all monitors that a parse has finished.
+     *
+     * @param parser         the parser used
+     * @param time           the elapsed time, in nanoseconds
+     * @param chars          the number of input characters read
+     * @param tokens         the number of tokens consumed
+     * @param error          the error thrown, or null for success
+     */
+    static void fireParseFinished(Parser parser,
+                                  long time,
+                                  int chars,
+                                  int tokens,
+                                  Exception error) {
+
+        ParseMonitor[]  list = monitors;
+
+        for (int i = 0; list != null && i < list.length; i++) {
+            list[i].parseFinished(parser, time, chars, tokens, error);
+        }
+    }
+
+    /**
+     * Notifies all monitors that a parser preparation has started.
+     *
+     * @param parser         the parser being prepared
+     */
+    static void firePrepareStarted(Parser parser) {
+        ParseMonitor[]  list = monitors;
+
+        for (int i = 0; list != null && i < list.length; i++) {
+            list[i].prepareStarted(parser);
+        }
+    }
+
+    /**
+     * Notifies all monitors that a parser preparation has finished.
+     *
+     * @param parser         the parser prepared
+     * @param time           the elapsed time, in nanoseconds
+     * @param error          the error thrown, or null for success
+     */
+    static void firePrepareFinished(Parser parser,
+                                    long time,
+                                    ParserCreationException error) {
+
+        ParseMonitor[]  list = monitors;
+
+        for (int i = 0; list != null && i < list.length; i++) {
+            list[i].prepareFinished(parser, time, error);
+        }
+    }
+
+    /**
+     * Notifies all monitors that a tokenizer has finished.
+     *
+     * @param tokenizer      the tokenizer used
+     * @param chars          the number of input characters read
+     * @param tokens         the number of tokens returned
+     */
+    static void fireTokenizeFinished(Tokenizer tokenizer,
+                                     int chars,
+                                     int tokens) {
+
+        ParseMonitor[]  list = monitors;
+
+        for (int i = 0; list != null && i < list.length; i++) {
+            list[i].tokenizeFinished(tokenizer, chars, tokens);
+        }
+    }
+
+    /**
+     * Notifies all monitors that characters were read into a buffer.
+     *
+     * @param chars          the number of characters read
+     * @param time           the elapsed time, in nanoseconds
+     */
+    static void fireBufferRead(int chars, long time) {
+        ParseMonitor[]  list = monitors;
+
+        for (int i = 0; list != null && i < list.length; i++) {
+            list[i].bufferRead(chars, time);
+        }
+    }
+
+    /**
+     * Notifies all monitors that a native Java regular expression
+     * is used for a token pattern.
+     *
+     * @param pattern        the token pattern added
+     */
+    static void fireRegExpFallback(TokenPattern pattern) {
+        ParseMonitor[]  list = monitors;
+
+        for (int i = 0; list != null && i < list.length; i++) {
+            list[i].regExpFallback(pattern);
+        }
+    }
+
+    /**
+     * Notifies all monitors that an error recovery has started.
+     *
+     * @param parser         the parser used
+     * @param error          the parse error found
+     */
+    static void fireErrorRecovery(Parser parser, ParseException error) {
+        ParseMonitor[]  list = monitors;
+
+        for (int i = 0; list != null && i < list.length; i++) {
+            list[i].errorRecovery(parser, error);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * ParseOptions.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A set of parse options. The options contain a deadline, a
+ * cancellation flag and various resource limits that are checked by
+ * the parser during parsing. If any of these are exceeded, the
+ * parsing is stopped immediately and a parse limit exception is
+ * thrown. All the limits are disabled by default, i.e. set to zero
+ * (0). The options may be shared between several parsers, but only
+ * the cancellation flag should be modified while parsing.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ *
+ * @see Parser#setOptions(ParseOptions)
+ * @see ParseLimitException
+ */
+public class ParseOptions {
+
+    /**
+     * The parse deadline, in milliseconds since the epoch. A value
+     * of zero (0) means that no deadline is used.
+     */
+    private long deadline = 0;
+
+    /**
+     * The cancellation flag. This flag may be set from another
+     * thread while parsing.
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * The maximum number of tokens to consume.
+     */
+    private int maxTokens = 0;
+
+    /**
+     * The maximum production nesting depth.
+     */
+    private int maxDepth = 0;
+
+    /**
+     * The maximum token length in characters.
+     */
+    private int maxTokenLength = 0;
+
+    /**
+     * The maximum number of parse tree nodes to create.
+     */
+    private int maxNodes = 0;
+
+    /**
+     * Creates a new set of parse options without any limits.
+     */
+    public ParseOptions() {
+        // Nothing to initialize
+    }
+
+    /**
+     * Returns the parse deadline.
+     *
+     * @return the deadline in milliseconds since the epoch, or
+     *         zero (0) if no deadline is used
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets the parse deadline. The deadline is an absolute point in
+     * time, as returned by System.currentTimeMillis(). The deadline
+     * is checked periodically, so parsing may continue for a short
+     * while after it has passed.
+     *
+     * @param deadline       the deadline in milliseconds since the
+     *                       epoch, or zero (0) for none
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Sets the parse deadline relative to the current time.
+     *
+     * @param millis         the number of milliseconds from now
+     */
+    public void setTimeout(long millis) {
+        this.deadline = System.currentTimeMillis() + millis;
+    }
+
+    /**
+     * Checks if the cancellation flag has been set.
+     *
+     * @return true if parsing has been cancelled, or
+     *         false otherwise
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Sets the cancellation flag. Any parser using these options
+     * will stop at the next check. This method may be called from
+     * any thread.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Clears the cancellation flag, allowing the options to be
+     * reused for another parse.
+     */
+    public void clearCancelled() {
+        this.cancelled = false;
+    }
+
+    /**
+     * Returns the maximum number of tokens to consume.
+     *
+     * @return the maximum token count, or
+     *         zero (0) if no limit is used
+     */
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    /**
+     * Sets the maximum number of tokens to consume. Ignored tokens
+     * aren't counted.
+     *
+     * @param maxTokens      the maximum token count, or zero (0)
+     *                       for no limit
+     */
+    public void setMaxTokens(int maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * Returns the maximum production nesting depth.
+     *
+     * @return the maximum nesting depth, or
+     *         zero (0) if no limit is used
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Sets the maximum production nesting depth. The start
+     * production has a depth of one (1).
+     *
+     * @param maxDepth       the maximum nesting depth, or zero (0)
+     *                       for no limit
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Returns the maximum token length.
+     *
+     * @return the maximum token length, or
+     *         zero (0) if no limit is used
+     */
+    public int getMaxTokenLength() {
+        return maxTokenLength;
+    }
+
+    /**
+     * Sets the maximum token length. Note that the length is
+     * checked once the token has been read by the tokenizer.
+     *
+     * @param maxTokenLength the maximum token length, or zero (0)
+     *                       for no limit
+     */
+    public void setMaxTokenLength(int maxTokenLength) {
+        this.maxTokenLength = maxTokenLength;
+    }
+
+    /**
+     * Returns the maximum number of parse tree nodes to create.
+     *
+     * @return the maximum node count, or
+     *         zero (0) if no limit is used
+     */
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * Sets the maximum number of parse tree nodes to create. Both
+     * the production and token nodes are counted, regardless of
+     * whether the analyzer keeps them in the tree.
+     *
+     * @param maxNodes       the maximum node count, or zero (0)
+     *                       for no limit
+     */
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+}
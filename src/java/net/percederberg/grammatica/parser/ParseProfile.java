@@ -0,0 +1,531 @@
+/*
+ * ParseProfile.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * A set of runtime profiling counters. The profile counts the number
+ * of matches and matched characters for each token pattern, the
+ * number of calls and time spent in each token matcher, and the
+ * number of times each production pattern was entered, together
+ * with the inclusive time and the deepest look-ahead used. The
+ * profile is opt-in and is only updated when set in a tokenizer or
+ * parser, so it has no cost otherwise. Note that the profile itself
+ * adds overhead to the measured times, especially for the token
+ * matchers. A profile may only be used by one thread at a time.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ *
+ * @see Tokenizer#setProfile(ParseProfile)
+ * @see Parser#setProfile(ParseProfile)
+ */
+public class ParseProfile {
+
+    /**
+     * The string DFA token matcher constant.
+     */
+    public static final int STRING_DFA_MATCHER = 0;
+
+    /**
+     * The NFA token matcher constant.
+     */
+    public static final int NFA_MATCHER = 1;
+
+    /**
+     * The regular expression token matcher constant.
+     */
+    public static final int REGEXP_MATCHER = 2;
+
+    /**
+     * The token matcher names, indexed by matcher constant.
+     */
+    private static final String[] MATCHER_NAMES = {
+        "String DFA", "NFA", "Regular expression"
+    };
+
+    /**
+     * The number of calls to each token matcher.
+     */
+    private long[] matcherCalls = new long[MATCHER_NAMES.length];
+
+    /**
+     * The time spent in each token matcher, in nanoseconds.
+     */
+    private long[] matcherTime = new long[MATCHER_NAMES.length];
+
+    /**
+     * The number of repeated native Java regexp matches, due to the
+     * input window being too small.
+     */
+    private long regExpRematches = 0;
+
+    /**
+     * The token pattern entries. This map is indexed by the token
+     * pattern id.
+     */
+    private HashMap tokens = new HashMap();
+
+    /**
+     * The production pattern entries. This map is indexed by the
+     * production pattern id.
+     */
+    private HashMap productions = new HashMap();
+
+    /**
+     * The stack of entered production entries.
+     */
+    private Entry[] stack = new Entry[32];
+
+    /**
+     * The production start times, matching the entry stack.
+     */
+    private long[] startTimes = new long[32];
+
+    /**
+     * The production entry stack size.
+     */
+    private int stackSize = 0;
+
+    /**
+     * Creates a new empty profile.
+     */
+    public ParseProfile() {
+        // Nothing to initialize
+    }
+
+    /**
+     * Clears all the profiling counters.
+     */
+    public void clear() {
+        for (int i = 0; i < MATCHER_NAMES.length; i++) {
+            matcherCalls[i] = 0;
+            matcherTime[i] = 0;
+        }
+        regExpRematches = 0;
+        tokens.clear();
+        productions.clear();
+        stackSize = 0;
+    }
+
+    /**
+     * Returns the name of a token matcher.
+     *
+     * @param matcher        the token matcher constant
+     *
+     * @return the token matcher name
+     */
+    public String getMatcherName(int matcher) {
+        return MATCHER_NAMES[matcher];
+    }
+
+    /**
+     * Returns the number of calls to a token matcher.
+     *
+     * @param matcher        the token matcher constant
+     *
+     * @return the number of calls to the token matcher
+     */
+    public long getMatcherCalls(int matcher) {
+        return matcherCalls[matcher];
+    }
+
+    /**
+     * Returns the time spent in a token matcher.
+     *
+     * @param matcher        the token matcher constant
+     *
+     * @return the time spent in the token matcher, in nanoseconds
+     */
+    public long getMatcherTime(int matcher) {
+        return matcherTime[matcher];
+    }
+
+    /**
+     * Returns the number of repeated native Java regexp matches. A
+     * match is repeated with a larger input window whenever the
+     * previous match attempt reached the end of the window. A high
+     * number indicates regular expression tokens that match long
+     * strings.
+     *
+     * @return the number of repeated native Java regexp matches
+     */
+    public long getRegExpRematchCount() {
+        return regExpRematches;
+    }
+
+    /**
+     * Returns the token pattern entries. The entries are sorted by
+     * the match count, with the most frequent token first.
+     *
+     * @return an array with the token pattern entries
+     */
+    public Entry[] getTokenEntries() {
+        return sort(tokens, new Comparator() {
+            public int compare(Object a, Object b) {
+                return compareLong(((Entry) b).count, ((Entry) a).count);
+            }
+        });
+    }
+
+    /**
+     * Returns the production pattern entries. The entries are sorted
+     * by the inclusive time, with the most expensive production
+     * first.
+     *
+     * @return an array with the production pattern entries
+     */
+    public Entry[] getProductionEntries() {
+        return sort(productions, new Comparator() {
+            public int compare(Object a, Object b) {
+                return compareLong(((Entry) b).time, ((Entry) a).time);
+            }
+        });
+    }
+
+    /**
+     * Adds time spent in a token matcher.
+     *
+     * @param matcher        the token matcher constant
+     * @param time           the time spent, in nanoseconds
+     */
+    void addMatcherTime(int matcher, long time) {
+        matcherCalls[matcher]++;
+        matcherTime[matcher] += time;
+    }
+
+    /**
+     * Adds a repeated native Java regexp match.
+     */
+    void addRegExpRematch() {
+        regExpRematches++;
+    }
+
+    /**
+     * Adds a token match.
+     *
+     * @param pattern        the token pattern matched
+     * @param length         the match length
+     */
+    void addToken(TokenPattern pattern, int length) {
+        Entry  entry = getEntry(tokens, pattern.getId(), pattern.getName());
+
+        entry.count++;
+        entry.chars += length;
+    }
+
+    /**
+     * Enters a production pattern. The inclusive time for the
+     * production will be measured until the production is exited.
+     *
+     * @param pattern        the production pattern entered
+     */
+    void enterProduction(ProductionPattern pattern) {
+        Entry    entry;
+        Entry[]  entries;
+        long[]   times;
+
+        entry = getEntry(productions, pattern.getId(), pattern.getName());
+        entry.count++;
+        entry.active++;
+        if (stackSize >= stack.length) {
+            entries = new Entry[stack.length * 2];
+            times = new long[stack.length * 2];
+            System.arraycopy(stack, 0, entries, 0, stackSize);
+            System.arraycopy(startTimes, 0, times, 0, stackSize);
+            stack = entries;
+            startTimes = times;
+        }
+        stack[stackSize] = entry;
+        startTimes[stackSize++] = System.nanoTime();
+    }
+
+    /**
+     * Exits the current production pattern. The time spent in the
+     * production is only added for the outermost invocation of a
+     * recursive production, so that the time isn't counted twice.
+     */
+    void exitProduction() {
+        Entry  entry;
+
+        if (stackSize > 0) {
+            entry = stack[--stackSize];
+            stack[stackSize] = null;
+            entry.active--;
+            if (entry.active == 0) {
+                entry.time += System.nanoTime() - startTimes[stackSize];
+            }
+        }
+    }
+
+    /**
+     * Records a token look-ahead in the current production pattern.
+     *
+     * @param steps          the number of tokens peeked, one (1)
+     *                       for the next token
+     */
+    void addLookAhead(int steps) {
+        Entry  entry;
+
+        if (stackSize > 0) {
+            entry = stack[stackSize - 1];
+            if (steps > entry.lookAhead) {
+                entry.lookAhead = steps;
+            }
+        }
+    }
+
+    /**
+     * Prints a report of the profiling counters. The report contains
+     * tables with the token matchers, the most frequent token
+     * patterns and the most expensive production patterns.
+     *
+     * @param out            the output stream to use
+     * @param maxRows        the maximum number of pattern rows
+     */
+    public void printReport(PrintStream out, int maxRows) {
+        Entry[]  entries;
+
+        out.println(pad("  Matcher", 30) + pad("Calls", 12) + "Time (ms)");
+        for (int i = 0; i < MATCHER_NAMES.length; i++) {
+            out.println(pad("  " + MATCHER_NAMES[i], 30) +
+                        pad(String.valueOf(matcherCalls[i]), 12) +
+                        formatMillis(matcherTime[i]));
+        }
+        if (regExpRematches > 0) {
+            out.println(pad("  Regular expression re-matches", 30) +
+                        regExpRematches);
+        }
+        out.println();
+        entries = getTokenEntries();
+        out.println(pad("  Token", 30) + pad("Count", 12) + "Chars");
+        for (int i = 0; i < entries.length && i < maxRows; i++) {
+            out.println(pad("  " + entries[i].name, 30) +
+                        pad(String.valueOf(entries[i].count), 12) +
+                        entries[i].chars);
+        }
+        out.println();
+        entries = getProductionEntries();
+        out.println(pad("  Production", 30) + pad("Count", 12) +
+                    pad("Time (ms)", 12) + "Look-ahead");
+        for (int i = 0; i < entries.length && i < maxRows; i++) {
+            out.println(pad("  " + entries[i].name, 30) +
+                        pad(String.valueOf(entries[i].count), 12) +
+                        pad(formatMillis(entries[i].time), 12) +
+                        entries[i].lookAhead);
+        }
+    }
+
+    /**
+     * Returns an entry from a map, creating it if needed.
+     *
+     * @param map            the entry map
+     * @param id             the pattern id
+     * @param name           the pattern name
+     *
+     * @return the pattern entry found or created
+     */
+    private Entry getEntry(HashMap map, int id, String name) {
+        Integer  key = new Integer(id);
+        Entry    entry = (Entry) map.get(key);
+
+        if (entry == null) {
+            entry = new Entry(id, name);
+            map.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the sorted entries from a map.
+     *
+     * @param map            the entry map
+     * @param comp           the entry comparator
+     *
+     * @return an array with the sorted entries
+     */
+    private Entry[] sort(HashMap map, Comparator comp) {
+        ArrayList  list = new ArrayList(map.values());
+
+        Collections.sort(list, comp);
+        return (Entry[]) list.toArray(new Entry[list.size()]);
+    }
+
+    /**
+     * Compares two long values.
+     *
+     * @param a              the first value
+     * @param b              the second value
+     *
+     * @return a negative number if a is less than b, zero if they
+     *         are equal, or a positive number otherwise
+     */
+    private static int compareLong(long a, long b) {
+        return (a < b) ? -1 : ((a == b) ? 0 : 1);
+    }
+
+    /**
+     * Pads a string with spaces to the specified length.
+     *
+     * @param str            the string to pad
+     * @param length         the minimum length
+     *
+     * @return the padded string
+     */
+    private static String pad(String str, int length) {
+        StringBuffer  buffer = new StringBuffer(str);
+
+        do {
+            buffer.append(' ');
+        } while (buffer.length() < length);
+        return buffer.toString();
+    }
+
+    /**
+     * Formats a nanosecond time as milliseconds with three decimals.
+     *
+     * @param nanos          the time in nanoseconds
+     *
+     * @return the formatted number of milliseconds
+     */
+    private static String formatMillis(long nanos) {
+        return String.valueOf(Math.round(nanos / 1000.0) / 1000.0);
+    }
+
+
+    /**
+     * A profile entry for a token or production pattern.
+     *
+     * @author   Per Cederberg
+     * @version  1.7
+     * @since    1.7
+     */
+    public static class Entry {
+
+        /**
+         * The pattern id.
+         */
+        private int id;
+
+        /**
+         * The pattern name.
+         */
+        private String name;
+
+        /**
+         * The number of matches or production entries.
+         */
+        private long count = 0;
+
+        /**
+         * The total number of matched characters.
+         */
+        private long chars = 0;
+
+        /**
+         * The inclusive production time, in nanoseconds.
+         */
+        private long time = 0;
+
+        /**
+         * The deepest production look-ahead, in tokens.
+         */
+        private int lookAhead = 0;
+
+        /**
+         * The number of active (recursive) production invocations.
+         */
+        private int active = 0;
+
+        /**
+         * Creates a new profile entry.
+         *
+         * @param id             the pattern id
+         * @param name           the pattern name
+         */
+        Entry(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        /**
+         * Returns the pattern id.
+         *
+         * @return the pattern id
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Returns the pattern name.
+         *
+         * @return the pattern name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of token matches or production entries.
+         *
+         * @return the number of matches or entries
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the total number of characters matched by a token
+         * pattern.
+         *
+         * @return the number of matched characters, or
+         *         zero (0) for production patterns
+         */
+        public long getCharCount() {
+            return chars;
+        }
+
+        /**
+         * Returns the inclusive time spent in a production pattern.
+         * The time includes all nested productions and the token
+         * matching.
+         *
+         * @return the inclusive time in nanoseconds, or
+         *         zero (0) for token patterns
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the deepest look-ahead used while in a production
+         * pattern. This is the maximum number of tokens peeked while
+         * the production was the innermost one being parsed.
+         *
+         * @return the maximum look-ahead in tokens, or
+         *         zero (0) for token patterns
+         */
+        public int getLookAhead() {
+            return lookAhead;
+        }
+    }
+}
@@ -24,7 +24,7 @@ import java.util.HashMap;
  * interface, as well as token handling.
  *
  * @author   Per Cederberg
- * @version  1.6
+ * @version  1.7
  */
 public abstract class Parser {
 
@@ -64,9 +64,11 @@ public abstract class Parser {
      * The error log. All parse errors will be added to this log as
      * the parser attempts to recover from the error. If the error
      * count is higher than zero (0), this log will be thrown as the
-     * result from the parse() method.
+     * result from the parse() method. The log is only created once
+     * the first error is found, so that parsing correct input
+     * doesn't allocate any exceptions.
      */
-    private ParserLogException errorLog = new ParserLogException();
+    private ParserLogException errorLog = null;
 
     /**
      * The error recovery counter. This counter is initially set to a
@@ -77,6 +79,67 @@ public abstract class Parser {
      */
     private int errorRecovery = -1;
 
+    /**
+     * The maximum number of errors to log. When this number of
+     * errors has been reached, the parsing is aborted. A value of
+     * zero (0) or less means that no limit is used.
+     */
+    private int maxErrors = 0;
+
+    /**
+     * The aborted flag. This flag is set when parsing has been
+     * stopped early, either due to the maximum error count or due to
+     * an aborted error from the tokenizer. Once set, no more tokens
+     * are read and no more errors are logged.
+     */
+    private boolean aborted = false;
+
+    /**
+     * The parse options, or null for none.
+     */
+    private ParseOptions options = null;
+
+    /**
+     * The runtime profile to update, or null for none.
+     */
+    private ParseProfile profile = null;
+
+    /**
+     * The number of tokens consumed in the current parse.
+     */
+    private int tokenCount = 0;
+
+    /**
+     * The number of tokens and productions parsed in the current
+     * parse.
+     */
+    private int nodeCount = 0;
+
+    /**
+     * The parse limit error, or null if no limit was exceeded. If
+     * set, this error is thrown as the result from the parse()
+     * method.
+     */
+    private ParseLimitException limitError = null;
+
+    /**
+     * The token list flag. If set, tokens are read from a token list
+     * instead of from the tokenizer.
+     */
+    private boolean useTokenList = false;
+
+    /**
+     * The next token to read from the token list, or null at the end
+     * of the list.
+     */
+    private Token listToken = null;
+
+    /**
+     * The maximum look-ahead length in the grammar, or zero (0) if
+     * not yet calculated.
+     */
+    private int maxLookAhead = 0;
+
     /**
      * Creates a new parser.
      *
@@ -182,6 +245,96 @@ public abstract class Parser {
         return analyzer;
     }
 
+    /**
+     * Returns the maximum number of errors to log before parsing is
+     * aborted.
+     *
+     * @return the maximum error count, or
+     *         zero (0) if no limit is used
+     *
+     * @see #setMaxErrors(int)
+     *
+     * @since 1.7
+     */
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * Sets the maximum number of errors to log before parsing is
+     * aborted. When the limit is reached, an aborted error is added
+     * to the error log and the parsing stops immediately without
+     * consuming any more input. By default no limit is used.
+     *
+     * @param maxErrors      the maximum error count, or zero (0)
+     *                       for no limit
+     *
+     * @see ParseException#ABORTED_ERROR
+     *
+     * @since 1.7
+     */
+    public void setMaxErrors(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Returns the parse options in use by this parser.
+     *
+     * @return the parse options, or
+     *         null if no options are used
+     *
+     * @since 1.7
+     */
+    public ParseOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Sets the parse options to use. The options specify a deadline,
+     * a cancellation flag and various resource limits to check while
+     * parsing. If any limit is exceeded, the parse() method will
+     * throw a parse limit exception.
+     *
+     * @param options        the parse options, or null for none
+     *
+     * @see ParseLimitException
+     *
+     * @since 1.7
+     */
+    public void setOptions(ParseOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Returns the runtime profile updated by this parser.
+     *
+     * @return the runtime profile, or
+     *         null if no profiling is made
+     *
+     * @since 1.7
+     */
+    public ParseProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Sets the runtime profile to update. The profile will count the
+     * production entries, the inclusive time and the look-ahead used
+     * in each production. The profile is also set in the tokenizer,
+     * in order to count the token matches. By default no profiling
+     * is made.
+     *
+     * @param profile        the runtime profile, or null for none
+     *
+     * @see Tokenizer#setProfile(ParseProfile)
+     *
+     * @since 1.7
+     */
+    public void setProfile(ParseProfile profile) {
+        this.profile = profile;
+        tokenizer.setProfile(profile);
+    }
+
     /**
      * Sets the parser initialized flag. Normally this flag is set by
      * the prepare() method, but this method allows further
@@ -244,6 +397,7 @@ public abstract class Parser {
         for (int i = 0; i < patterns.size(); i++) {
             checkPattern((ProductionPattern) patterns.get(i));
         }
+        maxLookAhead = 0;
         setInitialized(true);
     }
 
@@ -327,6 +481,9 @@ public abstract class Parser {
     public void reset(Reader input) {
         this.tokenizer.reset(input);
         this.analyzer.reset();
+        this.tokens.clear();
+        this.useTokenList = false;
+        this.listToken = null;
     }
 
     /**
@@ -348,6 +505,9 @@ public abstract class Parser {
     public void reset(Reader input, Analyzer analyzer) {
         this.tokenizer.reset(input);
         this.analyzer = analyzer;
+        this.tokens.clear();
+        this.useTokenList = false;
+        this.listToken = null;
     }
 
     /**
@@ -358,7 +518,9 @@ public abstract class Parser {
      * reuse a parser for multiple input streams. In case of a parse
      * error, the parser will attempt to recover and throw all the
      * errors found in a parser log exception at the end of the
-     * parsing.
+     * parsing. If any of the limits in the parse options are
+     * exceeded, the parsing is stopped and a parse limit exception
+     * is thrown instead.
      *
      * @return the parse tree
      *
@@ -367,20 +529,125 @@ public abstract class Parser {
      * @throws ParserLogException if the input couldn't be parsed
      *             correctly
      *
+     * @see #setOptions(ParseOptions)
+     * @see ParseMonitor
+     *
      * @see #prepare
      * @see #reset
      * @see Tokenizer#reset
      */
     public Node parse() throws ParserCreationException, ParserLogException {
+        return parse(null, null);
+    }
+
+    /**
+     * Parses a token list after an edit and returns an updated parse
+     * tree. The token list change is normally created by the
+     * Tokenizer.retokenize() method, and the parse tree by a previous
+     * successful parse of the token list. Only the smallest
+     * production enclosing the changed tokens is parsed again and
+     * replaced in the parse tree. The analyzer callbacks are
+     * therefore only made for the new nodes. The enclosing
+     * productions aren't notified of the new child node, so any
+     * values computed from their child nodes must be updated by the
+     * caller.<p>
+     *
+     * A production can only be parsed again if enough of its first
+     * tokens are unchanged to cover the grammar look-ahead, and if
+     * the new production ends before the same token as the old one.
+     * Otherwise the enclosing production is tried instead, and as a
+     * last resort the whole token list is parsed. The analyzer
+     * callbacks may therefore have been made for productions that
+     * were discarded. If the edit only changed ignored tokens (such
+     * as white space), the parse tree is returned unmodified.<p>
+     *
+     * The parse tree nodes must not have been modified or discarded
+     * by the analyzer, and the token list feature must have been
+     * used by the tokenizer. If the change is null, the input is
+     * instead parsed from the tokenizer, as in parse().
+     *
+     * @param tree           the previous parse tree, or null for none
+     * @param change         the token list change, or null for none
+     *
+     * @return the updated parse tree
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     * @throws ParserLogException if the input couldn't be parsed
+     *             correctly
+     *
+     * @see Tokenizer#retokenize(Token, int, int, String)
+     * @see Tokenizer#setUseTokenList(boolean)
+     *
+     * @since 1.7
+     */
+    public Node parse(Node tree, TokenChange change)
+        throws ParserCreationException, ParserLogException {
+
+        Node       root = null;
+        long       start;
+        Exception  error = null;
+
+        if (!ParseMonitor.isEnabled()) {
+            return parseInput(tree, change);
+        }
+        start = System.nanoTime();
+        ParseMonitor.fireParseStarted(this);
+        try {
+            root = parseInput(tree, change);
+        } catch (ParserCreationException e) {
+            error = e;
+            throw e;
+        } catch (ParserLogException e) {
+            error = e;
+            throw e;
+        } catch (RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            ParseMonitor.fireParseFinished(this,
+                                           System.nanoTime() - start,
+                                           tokenizer.getCurrentOffset(),
+                                           tokenCount,
+                                           error);
+            tokenizer.fireTokenizeFinished();
+        }
+        return root;
+    }
+
+    /**
+     * Parses the token stream and returns a parse tree. This method
+     * contains the actual implementation of parse(), without the
+     * parse monitor callbacks.
+     *
+     * @param tree           the previous parse tree, or null for none
+     * @param change         the token list change, or null for none
+     *
+     * @return the parse tree found
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     * @throws ParserLogException if the input couldn't be parsed
+     *             correctly
+     */
+    private Node parseInput(Node tree, TokenChange change)
+        throws ParserCreationException, ParserLogException {
+
         Node  root = null;
 
         // Initialize parser
         if (!initialized) {
             prepare();
         }
-        this.tokens.clear();
-        this.errorLog = new ParserLogException();
-        this.errorRecovery = -1;
+        if (change == null) {
+            resetState(false, null);
+        } else {
+            root = parseChange(tree, change);
+            if (root != null) {
+                return root;
+            }
+            resetState(true, findFirstToken(change));
+        }
 
         // Parse input
         try {
@@ -390,13 +657,339 @@ public abstract class Parser {
         }
 
         // Check for errors
-        if (errorLog.getErrorCount() > 0) {
+        if (limitError != null) {
+            throw limitError;
+        }
+        if (errorLog != null) {
             throw errorLog;
         }
 
         return root;
     }
 
+    /**
+     * Resets the parser state before parsing.
+     *
+     * @param useTokenList   the token list flag
+     * @param first          the first token in the token list
+     */
+    private void resetState(boolean useTokenList, Token first) {
+        this.tokens.clear();
+        this.errorLog = null;
+        this.errorRecovery = -1;
+        this.aborted = false;
+        this.tokenCount = 0;
+        this.nodeCount = 0;
+        this.limitError = null;
+        this.useTokenList = useTokenList;
+        this.listToken = first;
+    }
+
+    /**
+     * Parses the productions enclosing a token list change. The
+     * smallest enclosing production is tried first, and then each
+     * larger one in turn. The new production replaces the old one
+     * in the parse tree if no errors were found and it ends before
+     * the same token.
+     *
+     * @param tree           the previous parse tree, or null for none
+     * @param change         the token list change
+     *
+     * @return the updated parse tree, or
+     *         null if the whole token list must be parsed
+     *
+     * @throws ParserLogException if a parse limit was exceeded
+     */
+    private Node parseChange(Node tree, TokenChange change)
+        throws ParserLogException {
+
+        Token  before = findToken(change.getPreviousToken(), false);
+        Token  after = findToken(change.getNextToken(), true);
+        Token  first;
+        Token  last;
+        Node   node;
+        Node   result = null;
+
+        if (tree == null) {
+            return null;
+        }
+        if (!hasTokens(change.getFirstRemovedToken()) &&
+            !hasTokens(change.getFirstAddedToken(),
+                       change.getLastAddedToken())) {
+
+            return tree;
+        }
+        node = findAncestor(before, after, tree);
+        for (; node != null && node != tree; node = node.getParent()) {
+            first = getFirstToken(node);
+            last = getLastToken(node);
+            if (first == null || last == null ||
+                countTokens(first, before) < getMaxLookAhead()) {
+
+                continue;
+            }
+            resetState(true, first);
+            try {
+                result = parseProduction(((Production) node).getPattern(),
+                                         getDepth(node));
+            } catch (ParseException e) {
+                addError(e, true);
+            }
+            if (limitError != null) {
+                throw limitError;
+            }
+            last = findToken(last.getNextToken(), true);
+            if (peekToken(0) == last && errorLog == null) {
+                ((Production) node.getParent()).replaceChild(node, result);
+                return tree;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a production pattern from the next tokens. This method
+     * is used for parsing a production again after an edit.
+     *
+     * @param pattern        the production pattern to parse
+     * @param depth          the production nesting depth
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     *
+     * @since 1.7
+     */
+    abstract Node parseProduction(ProductionPattern pattern, int depth)
+        throws ParseException;
+
+    /**
+     * Returns the maximum look-ahead length in the grammar. This is
+     * the maximum number of tokens that the parser may check before
+     * deciding how to continue parsing.
+     *
+     * @return the maximum look-ahead length
+     */
+    private int getMaxLookAhead() {
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+
+        if (maxLookAhead > 0) {
+            return maxLookAhead;
+        }
+        maxLookAhead = 1;
+        for (int i = 0; i < patterns.size(); i++) {
+            pattern = (ProductionPattern) patterns.get(i);
+            maxLookAhead = max(maxLookAhead, pattern.getLookAhead());
+            for (int j = 0; j < pattern.getAlternativeCount(); j++) {
+                alt = pattern.getAlternative(j);
+                maxLookAhead = max(maxLookAhead, alt.getLookAhead());
+                for (int k = 0; k < alt.getElementCount(); k++) {
+                    maxLookAhead = max(maxLookAhead,
+                                       alt.getElement(k).getLookAhead());
+                }
+            }
+        }
+        return maxLookAhead;
+    }
+
+    /**
+     * Returns the maximum of a length and a look-ahead set length.
+     *
+     * @param length         the current maximum length
+     * @param set            the look-ahead set, or null
+     *
+     * @return the maximum length
+     */
+    private int max(int length, LookAheadSet set) {
+        return (set == null) ? length : Math.max(length, set.getMaxLength());
+    }
+
+    /**
+     * Finds the closest token in a token list that isn't ignored.
+     *
+     * @param token          the token to start from, or null
+     * @param forward        the search forward flag
+     *
+     * @return the closest token that isn't ignored, or
+     *         null if not found
+     */
+    private Token findToken(Token token, boolean forward) {
+        while (token != null && token.getPattern().isIgnore()) {
+            if (forward) {
+                token = token.getNextToken();
+            } else {
+                token = token.getPreviousToken();
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Finds the first token in the token list of a change.
+     *
+     * @param change         the token list change
+     *
+     * @return the first token in the token list, or
+     *         null if the token list is empty
+     */
+    private Token findFirstToken(TokenChange change) {
+        Token  token = change.getPreviousToken();
+
+        if (token == null) {
+            token = change.getFirstAddedToken();
+        }
+        if (token == null) {
+            token = change.getNextToken();
+        }
+        while (token != null && token.getPreviousToken() != null) {
+            token = token.getPreviousToken();
+        }
+        return token;
+    }
+
+    /**
+     * Checks if a token list contains any tokens that aren't
+     * ignored.
+     *
+     * @param first          the first token, or null for none
+     *
+     * @return true if a token that isn't ignored was found, or
+     *         false otherwise
+     */
+    private boolean hasTokens(Token first) {
+        return hasTokens(first, null);
+    }
+
+    /**
+     * Checks if a range in a token list contains any tokens that
+     * aren't ignored.
+     *
+     * @param first          the first token, or null for none
+     * @param last           the last token, or null for all
+     *
+     * @return true if a token that isn't ignored was found, or
+     *         false otherwise
+     */
+    private boolean hasTokens(Token first, Token last) {
+        for (Token token = first; token != null; token = token.getNextToken()) {
+            if (!token.getPattern().isIgnore()) {
+                return true;
+            } else if (token == last) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the tokens in a token list range that aren't ignored.
+     * The counting stops at the maximum look-ahead length.
+     *
+     * @param first          the first token
+     * @param last           the last token
+     *
+     * @return the number of tokens found
+     */
+    private int countTokens(Token first, Token last) {
+        int  count = 0;
+
+        for (Token token = first; token != null; token = token.getNextToken()) {
+            if (!token.getPattern().isIgnore()) {
+                count++;
+            }
+            if (token == last || count >= getMaxLookAhead()) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the closest common ancestor to two tokens in a parse
+     * tree.
+     *
+     * @param first          the first token, or null
+     * @param last           the last token, or null
+     * @param tree           the parse tree root node
+     *
+     * @return the closest common ancestor, or
+     *         null if not found in the parse tree
+     */
+    private Node findAncestor(Node first, Node last, Node tree) {
+        int  firstDepth = getDepth(first);
+        int  lastDepth = getDepth(last);
+
+        if (first == null || last == null) {
+            return null;
+        }
+        for (; firstDepth > lastDepth; firstDepth--) {
+            first = first.getParent();
+        }
+        for (; lastDepth > firstDepth; lastDepth--) {
+            last = last.getParent();
+        }
+        while (first != last) {
+            first = first.getParent();
+            last = last.getParent();
+        }
+        for (Node node = first; node != null; node = node.getParent()) {
+            if (node == tree) {
+                return first;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the depth of a node in a parse tree. The root node has
+     * depth one (1).
+     *
+     * @param node           the parse tree node, or null
+     *
+     * @return the node depth, or
+     *         zero (0) if the node was null
+     */
+    private int getDepth(Node node) {
+        int  depth = 0;
+
+        for (; node != null; node = node.getParent()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the first token in a parse tree node.
+     *
+     * @param node           the parse tree node
+     *
+     * @return the first token, or
+     *         null if the node contained no tokens
+     */
+    private Token getFirstToken(Node node) {
+        while (node != null && !(node instanceof Token)) {
+            node = node.getChildAt(0);
+        }
+        return (Token) node;
+    }
+
+    /**
+     * Returns the last token in a parse tree node.
+     *
+     * @param node           the parse tree node
+     *
+     * @return the last token, or
+     *         null if the node contained no tokens
+     */
+    private Token getLastToken(Node node) {
+        while (node != null && !(node instanceof Token)) {
+            node = node.getChildAt(node.getChildCount() - 1);
+        }
+        return (Token) node;
+    }
+
     /**
      * Parses the token stream and returns a parse tree.
      *
@@ -428,20 +1021,183 @@ public abstract class Parser {
      * recovery flag is set, this method will set the error recovery
      * counter thus enter error recovery mode. Only lexical or
      * syntactical errors require recovery, so this flag shouldn't be
-     * set otherwise.
+     * set otherwise. If the maximum error count is reached or an
+     * aborted error is added, the parsing will be aborted.
      *
      * @param e              the error to add
      * @param recovery       the recover flag
      */
     void addError(ParseException e, boolean recovery) {
+        if (aborted) {
+            return;
+        }
+        if (e.getErrorType() == ParseException.ABORTED_ERROR) {
+            logError(e);
+            abort();
+            return;
+        }
         if (errorRecovery <= 0) {
-            errorLog.addError(e);
+            logError(e);
+            if (ParseMonitor.isEnabled()) {
+                ParseMonitor.fireErrorRecovery(this, e);
+            }
+            if (maxErrors > 0 && errorLog.getErrorCount() >= maxErrors) {
+                e = new ParseException(
+                    ParseException.ABORTED_ERROR,
+                    "too many errors (" + maxErrors + ")",
+                    e.getLine(),
+                    e.getColumn());
+                logError(e);
+                abort();
+                return;
+            }
         }
         if (recovery) {
             errorRecovery = 3;
         }
     }
 
+    /**
+     * Adds an error to the error log, creating the log if needed.
+     *
+     * @param e              the error to add
+     */
+    private void logError(ParseException e) {
+        if (errorLog == null) {
+            errorLog = new ParserLogException();
+        }
+        errorLog.addError(e);
+    }
+
+    /**
+     * Aborts the parsing. All buffered tokens are discarded and no
+     * more tokens will be read from the tokenizer, causing the
+     * parsing to terminate as if the end of the input had been
+     * reached. No more analyzer callbacks will be made.
+     */
+    private void abort() {
+        aborted = true;
+        errorRecovery = 3;
+        tokens.clear();
+    }
+
+    /**
+     * Enters a production pattern. This method is called by the
+     * parser subclasses each time a new production pattern is
+     * parsed, and must always be matched by a call to
+     * exitProduction(). The runtime profile is updated and the parse
+     * options are checked. The parsing will be aborted if any limit
+     * is exceeded.
+     *
+     * @param pattern        the production pattern entered
+     * @param depth          the current production nesting depth
+     *
+     * @throws ParseException if a parse limit was exceeded
+     *
+     * @since 1.7
+     */
+    void enterProduction(ProductionPattern pattern, int depth)
+        throws ParseException {
+
+        if (profile != null) {
+            profile.enterProduction(pattern);
+        }
+        if (options != null && !aborted) {
+            nodeCount++;
+            if (options.getMaxDepth() > 0 && depth > options.getMaxDepth()) {
+                limit(ParseLimitException.DEPTH_LIMIT,
+                      "nesting depth exceeds " + options.getMaxDepth());
+            }
+            checkNodeLimits();
+        }
+    }
+
+    /**
+     * Exits a production pattern. This method is called by the
+     * parser subclasses each time a production pattern has been
+     * parsed, even if an error was thrown.
+     *
+     * @since 1.7
+     */
+    void exitProduction() {
+        if (profile != null) {
+            profile.exitProduction();
+        }
+    }
+
+    /**
+     * Checks the parse options when consuming a token. The parsing
+     * will be aborted if any limit is exceeded.
+     *
+     * @param token          the token consumed
+     *
+     * @throws ParseException if a parse limit was exceeded
+     */
+    private void checkToken(Token token) throws ParseException {
+        int  max;
+
+        nodeCount++;
+        max = options.getMaxTokens();
+        if (max > 0 && tokenCount > max) {
+            limit(ParseLimitException.TOKEN_COUNT_LIMIT,
+                  "token count exceeds " + max);
+        }
+        max = options.getMaxTokenLength();
+        if (max > 0 && token.getImage().length() > max) {
+            limit(ParseLimitException.TOKEN_LENGTH_LIMIT,
+                  "token length exceeds " + max);
+        }
+        checkNodeLimits();
+    }
+
+    /**
+     * Checks the node count, cancellation flag and deadline in the
+     * parse options. The cancellation flag and deadline are only
+     * checked for the first and then every 64th node, in order to
+     * keep the overhead low.
+     *
+     * @throws ParseException if a parse limit was exceeded
+     */
+    private void checkNodeLimits() throws ParseException {
+        int  max = options.getMaxNodes();
+
+        if (max > 0 && nodeCount > max) {
+            limit(ParseLimitException.NODE_COUNT_LIMIT,
+                  "node count exceeds " + max);
+        }
+        if ((nodeCount & 0x3f) == 1) {
+            if (options.isCancelled()) {
+                limit(ParseLimitException.CANCELLED_LIMIT,
+                      "parsing cancelled");
+            }
+            if (options.getDeadline() > 0 &&
+                System.currentTimeMillis() > options.getDeadline()) {
+
+                limit(ParseLimitException.DEADLINE_LIMIT,
+                      "parse deadline passed");
+            }
+        }
+    }
+
+    /**
+     * Aborts the parsing due to an exceeded parse limit. The parse
+     * limit exception is stored for the parse() method to throw,
+     * and its error is thrown to unwind the parsing.
+     *
+     * @param type           the parse limit type
+     * @param info           the parse limit description
+     *
+     * @throws ParseException always thrown by this method
+     */
+    private void limit(int type, String info) throws ParseException {
+        int  line = tokenizer.getCurrentLine();
+        int  column = tokenizer.getCurrentColumn();
+
+        limitError = new ParseLimitException(type, info, line, column);
+        abort();
+        throw limitError.getError(0);
+    }
+
     /**
      * Returns the production pattern with the specified id.
      *
@@ -560,6 +1316,10 @@ public abstract class Parser {
 
         if (token != null) {
             tokens.remove(0);
+            tokenCount++;
+            if (options != null) {
+                checkToken(token);
+            }
             return token;
         } else {
             throw new ParseException(
@@ -617,9 +1377,15 @@ public abstract class Parser {
     Token peekToken(int steps) {
         Token  token;
 
+        if (profile != null) {
+            profile.addLookAhead(steps + 1);
+        }
         while (steps >= tokens.size()) {
+            if (aborted) {
+                return null;
+            }
             try {
-                token = tokenizer.next();
+                token = useTokenList ? nextListToken() : tokenizer.next();
                 if (token == null) {
                     return null;
                 } else {
@@ -632,6 +1398,30 @@ public abstract class Parser {
         return (Token) tokens.get(steps);
     }
 
+    /**
+     * Reads the next token from the token list. Any ignored tokens
+     * are skipped, and a parse exception is thrown for tokens
+     * matching a token pattern with the error flag set. This
+     * corresponds to reading tokens from the tokenizer.
+     *
+     * @return the next token found, or
+     *         null if the end of the token list was reached
+     *
+     * @throws ParseException if the token had an error pattern
+     */
+    private Token nextListToken() throws ParseException {
+        Token  token = findToken(listToken, true);
+
+        listToken = (token == null) ? null : token.getNextToken();
+        if (token != null && token.getPattern().isError()) {
+            throw new ParseException(ParseException.INVALID_TOKEN_ERROR,
+                                     token.getPattern().getErrorMessage(),
+                                     token.getStartLine(),
+                                     token.getStartColumn());
+        }
+        return token;
+    }
+
     /**
      * Returns a string representation of this parser. The string will
      * contain all the production definitions and various additional
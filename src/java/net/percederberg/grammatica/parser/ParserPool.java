@@ -0,0 +1,122 @@
+/*
+ * ParserPool.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * A pool of reusable parsers. The pool keeps a number of prepared
+ * parsers for a single grammar, so that parsing many small inputs
+ * doesn't require creating and analyzing the grammar structures
+ * every time. The tokenizer character buffer, the token queue and
+ * other internal structures are also reused. Subclasses must
+ * implement the newParser() method to create new parsers when the
+ * pool is empty. This class is thread-safe, but each acquired
+ * parser may only be used by a single thread at a time.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public abstract class ParserPool {
+
+    /**
+     * The list of available parsers.
+     */
+    private ArrayList parsers = new ArrayList();
+
+    /**
+     * The maximum number of available parsers kept in the pool.
+     */
+    private int maxSize;
+
+    /**
+     * Creates a new parser pool.
+     *
+     * @param maxSize        the maximum number of parsers to keep
+     */
+    public ParserPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Creates a new parser. This method is called when the pool is
+     * empty. The parser input stream will be reset before use, so it
+     * may be created with an empty or null input stream.
+     *
+     * @return the new parser
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             created
+     */
+    protected abstract Parser newParser() throws ParserCreationException;
+
+    /**
+     * Returns the number of available parsers in the pool.
+     *
+     * @return the number of available parsers
+     */
+    public synchronized int getSize() {
+        return parsers.size();
+    }
+
+    /**
+     * Acquires a parser from the pool. If no parser is available, a
+     * new one is created. The parser returned is reset to read from
+     * the specified input stream, and should be released back to
+     * the pool after use.
+     *
+     * @param input          the input stream to read
+     *
+     * @return the parser to use
+     *
+     * @throws ParserCreationException if a new parser couldn't be
+     *             created or prepared
+     *
+     * @see #release(Parser)
+     */
+    public Parser acquire(Reader input) throws ParserCreationException {
+        Parser  parser = null;
+
+        synchronized (this) {
+            if (parsers.size() > 0) {
+                parser = (Parser) parsers.remove(parsers.size() - 1);
+            }
+        }
+        if (parser == null) {
+            parser = newParser();
+            parser.prepare();
+        }
+        parser.reset(input);
+        return parser;
+    }
+
+    /**
+     * Releases a parser back to the pool. The input stream of the
+     * parser is closed. If the pool is already full, the parser is
+     * discarded.
+     *
+     * @param parser         the parser to release
+     */
+    public void release(Parser parser) {
+        parser.reset(null);
+        synchronized (this) {
+            if (parsers.size() < maxSize) {
+                parsers.add(parser);
+            }
+        }
+    }
+}
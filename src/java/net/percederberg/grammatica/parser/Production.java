@@ -23,7 +23,7 @@ import java.util.ArrayList;
  * patterns (i.e. grammar rules).
  *
  * @author   Per Cederberg
- * @version  1.1
+ * @version  1.7
  */
 public class Production extends Node {
 
@@ -125,6 +125,30 @@ public class Production extends Node {
         }
     }
 
+    /**
+     * Replaces a child node. The new node will be added at the same
+     * position in the list of children. If the new node is null, the
+     * child node is only removed.
+     *
+     * @param child          the child node to replace
+     * @param node           the new child node, or null
+     *
+     * @since 1.7
+     */
+    void replaceChild(Node child, Node node) {
+        int  index = children.indexOf(child);
+
+        if (index < 0) {
+            return;
+        } else if (node == null) {
+            children.remove(index);
+        } else {
+            node.setParent(this);
+            children.set(index, node);
+        }
+        child.setParent(null);
+    }
+
     /**
      * Returns a string representation of this production.
      *
@@ -52,6 +52,21 @@ public class ProductionPatternElement {
      */
     private LookAheadSet lookAhead;
 
+    /**
+     * The sorted list of token id:s that may start this element.
+     * This list is calculated by the parser when prepared.
+     */
+    private int[] firstTokens;
+
+    /**
+     * The sorted list of error recovery synchronization token id:s.
+     * These are the tokens that may start this element or any
+     * subsequent element in the alternative, as well as any token
+     * that may follow the production. This list is calculated by
+     * the parser when prepared.
+     */
+    private int[] syncTokens;
+
     /**
      * Creates a new element. If the maximum value if zero (0) or
      * negative, it will be set to Integer.MAX_VALUE.
@@ -80,6 +95,8 @@ public class ProductionPatternElement {
         }
         this.max = max;
         this.lookAhead = null;
+        this.firstTokens = null;
+        this.syncTokens = null;
     }
 
     /**
@@ -216,4 +233,54 @@ public class ProductionPatternElement {
     void setLookAhead(LookAheadSet lookAhead) {
         this.lookAhead = lookAhead;
     }
+
+    /**
+     * Returns the sorted list of token id:s that may start this
+     * element.
+     *
+     * @return the sorted list of initial token id:s, or
+     *         null if not yet calculated
+     *
+     * @since 1.7
+     */
+    int[] getFirstTokens() {
+        return firstTokens;
+    }
+
+    /**
+     * Sets the sorted list of token id:s that may start this
+     * element.
+     *
+     * @param firstTokens    the sorted list of initial token id:s
+     *
+     * @since 1.7
+     */
+    void setFirstTokens(int[] firstTokens) {
+        this.firstTokens = firstTokens;
+    }
+
+    /**
+     * Returns the sorted list of error recovery synchronization
+     * token id:s.
+     *
+     * @return the sorted list of synchronization token id:s, or
+     *         null if not yet calculated
+     *
+     * @since 1.7
+     */
+    int[] getSyncTokens() {
+        return syncTokens;
+    }
+
+    /**
+     * Sets the sorted list of error recovery synchronization token
+     * id:s.
+     *
+     * @param syncTokens     the sorted list of synchronization token id:s
+     *
+     * @since 1.7
+     */
+    void setSyncTokens(int[] syncTokens) {
+        this.syncTokens = syncTokens;
+    }
 }
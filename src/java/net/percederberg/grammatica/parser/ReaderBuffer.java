@@ -26,29 +26,62 @@ import java.io.Reader;
  * position is advanced, the buffer content prior to the current
  * position is subject to removal to make space for reading new
  * content. A few characters before the current position are always
- * kept to enable boundary condition checks.
+ * kept to enable boundary condition checks.<p>
+ *
+ * The characters are stored in a circular buffer, so that removing
+ * old content never requires copying the remaining characters. The
+ * buffer is only enlarged (by doubling its size) when the look-ahead
+ * doesn't fit, and each read from the input source fills as much of
+ * the free buffer space as possible. The character indices used in
+ * the CharSequence methods are relative to the first character kept
+ * in the buffer, just as the current position.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  * @since    1.5
  */
 public class ReaderBuffer implements CharSequence {
 
     /**
-     * The stream reading block size. All reads from the underlying
-     * character stream will be made in multiples of this block size.
-     * Also the character buffer size will always be a multiple of
-     * this factor.
+     * The default stream reading block size. All reads from the
+     * underlying character stream will be made for at least the
+     * block size, and the initial character buffer will hold
+     * several blocks.
      */
     public static final int BLOCK_SIZE = 1024;
 
     /**
-     * The character buffer.
+     * The maximum character buffer size kept when resetting the
+     * buffer. Larger buffers are discarded on reset, so that a
+     * single large input doesn't keep memory allocated.
+     */
+    private static final int MAX_RESET_SIZE = BLOCK_SIZE * 64;
+
+    /**
+     * The number of characters kept before the current position
+     * when removing old content.
+     */
+    private static final int KEEP_SIZE = 16;
+
+    /**
+     * The stream reading block size.
+     */
+    private int blockSize;
+
+    /**
+     * The character buffer. The buffer size is always a power of
+     * two, so that indices can be wrapped with a bit mask.
+     */
+    private char[] buffer;
+
+    /**
+     * The character buffer index of the first character. All other
+     * characters follow, wrapping around at the end of the buffer.
      */
-    private char[] buffer = new char[BLOCK_SIZE * 4];
+    private int head = 0;
 
     /**
-     * The current character buffer position.
+     * The current position, relative to the first character.
      */
     private int pos = 0;
 
@@ -57,6 +90,13 @@ public class ReaderBuffer implements CharSequence {
      */
     private int length = 0;
 
+    /**
+     * The input offset of the first character in the buffer. This
+     * is the number of characters removed from the beginning of the
+     * buffer.
+     */
+    private int start = 0;
+
     /**
      * The input source character reader.
      */
@@ -75,12 +115,96 @@ public class ReaderBuffer implements CharSequence {
     private int column = 1;
 
     /**
-     * Creates a new tokenizer character buffer.
+     * The number of characters examined from the current position.
+     * This is the largest peek offset plus one, and is cleared when
+     * the position is moved.
+     */
+    private int peekLength = 0;
+
+    /**
+     * Creates a new tokenizer character buffer. The default block
+     * size will be used.
      *
      * @param input           the input source character reader
      */
     public ReaderBuffer(Reader input) {
+        this(input, BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a new tokenizer character buffer with the specified
+     * block size. A large block size (e.g. 64 kB) reduces the number
+     * of reads from file input sources.
+     *
+     * @param input           the input source character reader
+     * @param blockSize       the stream reading block size
+     *
+     * @throws IllegalArgumentException if the block size wasn't
+     *             positive
+     *
+     * @since 1.7
+     */
+    public ReaderBuffer(Reader input, int blockSize)
+        throws IllegalArgumentException {
+
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("invalid block size: " +
+                                               blockSize);
+        }
+        this.blockSize = blockSize;
+        this.buffer = new char[initialSize()];
+        this.input = input;
+    }
+
+    /**
+     * Returns the stream reading block size.
+     *
+     * @return the stream reading block size
+     *
+     * @since 1.7
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Resets this buffer for reading another input source. The
+     * previous input source will be closed, but the character buffer
+     * will be kept for reuse unless it has grown very large. This
+     * avoids allocating a new buffer for each input source.
+     *
+     * @param input           the new input source character reader
+     *
+     * @since 1.7
+     */
+    public void reset(Reader input) {
+        reset(input, 1, 1);
+    }
+
+    /**
+     * Resets this buffer for reading another input source, starting
+     * at the specified line and column numbers. This is used when
+     * the input source is a part of a larger text.
+     *
+     * @param input           the new input source character reader
+     * @param line            the line number of the first character
+     * @param column          the column number of the first character
+     *
+     * @since 1.7
+     */
+    void reset(Reader input, int line, int column) {
+        char[]  chars = buffer;
+        int     size = initialSize();
+
+        dispose();
+        if (chars == null || chars.length > Math.max(size, MAX_RESET_SIZE)) {
+            chars = new char[size];
+        }
+        this.buffer = chars;
+        this.start = 0;
         this.input = input;
+        this.line = line;
+        this.column = column;
     }
 
     /**
@@ -90,8 +214,11 @@ public class ReaderBuffer implements CharSequence {
      */
     public void dispose() {
         buffer = null;
+        head = 0;
+        start += pos;
         pos = 0;
         length = 0;
+        peekLength = 0;
         if (input != null) {
             try {
                 input.close();
@@ -102,6 +229,20 @@ public class ReaderBuffer implements CharSequence {
         }
     }
 
+    /**
+     * Returns the number of characters examined from the current
+     * position. This is the largest peek offset since the position
+     * was last moved, plus one. Peeks beyond the end of the input
+     * are also included, since the input might be extended.
+     *
+     * @return the number of characters examined
+     *
+     * @since 1.7
+     */
+    int peekLength() {
+        return peekLength;
+    }
+
     /**
      * Returns the current position in the buffer.
      *
@@ -111,6 +252,19 @@ public class ReaderBuffer implements CharSequence {
         return pos;
     }
 
+    /**
+     * Returns the current input offset. This is the total number of
+     * characters read from the input source before the current
+     * position.
+     *
+     * @return the current input offset
+     *
+     * @since 1.7
+     */
+    public int offset() {
+        return start + pos;
+    }
+
     /**
      * Returns the current line number. This number is the input
      * source line number of the current position.
@@ -153,7 +307,10 @@ public class ReaderBuffer implements CharSequence {
      *             not less than length()
      */
     public char charAt(int index) throws IndexOutOfBoundsException {
-        return buffer[index];
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        return buffer[(head + index) & (buffer.length - 1)];
     }
 
     /**
@@ -172,7 +329,11 @@ public class ReaderBuffer implements CharSequence {
     public CharSequence subSequence(int start, int end)
         throws IndexOutOfBoundsException {
 
-        return new String(buffer, start, end - start);
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("range: " + start +
+                                                "-" + end);
+        }
+        return substring(start, end - start);
     }
 
     /**
@@ -183,7 +344,7 @@ public class ReaderBuffer implements CharSequence {
      * @return the current buffer content
      */
     public String toString() {
-        return new String(buffer, 0, length);
+        return substring(0, length);
     }
 
     /**
@@ -208,14 +369,20 @@ public class ReaderBuffer implements CharSequence {
     public int peek(int offset) throws IOException {
         int  index = pos + offset;
 
+        if (offset >= peekLength) {
+            peekLength = offset + 1;
+        }
         // Avoid most calls to ensureBuffered(), since we are in a
         // performance hotspot here. This check is not exhaustive,
         // but only present here to speed things up.
         if (index >= length) {
             ensureBuffered(offset + 1);
             index = pos + offset;
+            if (index >= length) {
+                return -1;
+            }
         }
-        return (index >= length) ? -1 : buffer[index];
+        return buffer[(head + index) & (buffer.length - 1)];
     }
 
     /**
@@ -247,8 +414,9 @@ public class ReaderBuffer implements CharSequence {
                 count = offset;
             }
             updateLineColumnNumbers(count);
-            result = new String(buffer, pos, count);
+            result = substring(pos, count);
             pos += count;
+            peekLength = 0;
             if (input == null && pos >= length) {
                 dispose();
             }
@@ -256,6 +424,33 @@ public class ReaderBuffer implements CharSequence {
         }
     }
 
+    /**
+     * Returns a string with characters from the buffer. The
+     * characters may wrap around the end of the character buffer.
+     *
+     * @param index          the index of the first character
+     * @param count          the number of characters
+     *
+     * @return the string with the characters
+     */
+    private String substring(int index, int count) {
+        int     first;
+        char[]  chars;
+
+        if (count == 0) {
+            return "";
+        }
+        index = (head + index) & (buffer.length - 1);
+        first = buffer.length - index;
+        if (count <= first) {
+            return new String(buffer, index, count);
+        }
+        chars = new char[count];
+        System.arraycopy(buffer, index, chars, 0, first);
+        System.arraycopy(buffer, 0, chars, first, count - first);
+        return new String(chars);
+    }
+
     /**
      * Updates the line and column numbers counters. This method
      * requires all the characters to be processed (i.e. returned as
@@ -265,8 +460,10 @@ public class ReaderBuffer implements CharSequence {
      * @param offset          the number of characters to process
      */
     private void updateLineColumnNumbers(int offset) {
+        int  mask = buffer.length - 1;
+
         for (int i = 0; i < offset; i++) {
-            if (buffer[pos + i] == '\n') {
+            if (buffer[(head + pos + i) & mask] == '\n') {
                 line++;
                 column = 1;
             } else {
@@ -280,9 +477,9 @@ public class ReaderBuffer implements CharSequence {
      * This method will read characters from the input stream and
      * appends them to the buffer if needed. This method is safe to
      * call even after end of file has been reached. This method also
-     * handles removal of characters at the beginning of the buffer
-     * once the current position is high enough. It will also enlarge
-     * the buffer as needed.
+     * handles removal of characters at the beginning of the buffer,
+     * which only requires moving the buffer head. It will also
+     * enlarge the buffer as needed.
      *
      * @param offset         the read offset, from 0 and up
      *
@@ -290,8 +487,12 @@ public class ReaderBuffer implements CharSequence {
      *             the input stream
      */
     private void ensureBuffered(int offset) throws IOException {
-        int  size;
-        int  readSize;
+        int      size;
+        int      tail;
+        int      readSize;
+        boolean  monitor;
+        long     time = 0;
+        int      count = 0;
 
         // Check for end of stream or already read characters
         if (input == null || pos + offset < length) {
@@ -299,23 +500,30 @@ public class ReaderBuffer implements CharSequence {
         }
 
         // Remove (almost all) old characters from buffer
-        if (pos > BLOCK_SIZE) {
-            length -= (pos - 16);
-            System.arraycopy(buffer, pos - 16, buffer, 0, length);
-            pos = 16;
+        if (pos > KEEP_SIZE) {
+            size = pos - KEEP_SIZE;
+            head = (head + size) & (buffer.length - 1);
+            start += size;
+            length -= size;
+            pos = KEEP_SIZE;
         }
 
         // Calculate number of characters to read
         size = pos + offset - length + 1;
-        if (size % BLOCK_SIZE != 0) {
-            size = (1 + size / BLOCK_SIZE) * BLOCK_SIZE;
-        }
-        ensureCapacity(length + size);
+        ensureCapacity(length + Math.max(size, blockSize));
 
-        // Read characters
+        // Read characters into the free buffer space
+        monitor = ParseMonitor.isEnabled();
+        if (monitor) {
+            time = System.nanoTime();
+            count = length;
+        }
         try {
             while (input != null && size > 0) {
-                readSize = input.read(buffer, length, size);
+                tail = (head + length) & (buffer.length - 1);
+                readSize = Math.min(buffer.length - length,
+                                    buffer.length - tail);
+                readSize = input.read(buffer, tail, readSize);
                 if (readSize > 0) {
                     length += readSize;
                     size -= readSize;
@@ -328,24 +536,50 @@ public class ReaderBuffer implements CharSequence {
             input = null;
             throw e;
         }
+        if (monitor) {
+            ParseMonitor.fireBufferRead(length - count,
+                                        System.nanoTime() - time);
+        }
     }
 
     /**
      * Ensures that the buffer has at least the specified capacity.
+     * The buffer size is doubled until large enough, and the
+     * characters are copied to the beginning of the new buffer.
      *
      * @param size           the minimum buffer size
      */
     private void ensureCapacity(int size) {
         char[]  newbuf;
+        int     newsize = buffer.length;
+        int     first;
 
-        if (buffer.length >= size) {
+        if (newsize >= size) {
             return;
         }
-        if (size % BLOCK_SIZE != 0) {
-            size = (1 + size / BLOCK_SIZE) * BLOCK_SIZE;
+        while (newsize < size) {
+            newsize *= 2;
         }
-        newbuf = new char[size];
-        System.arraycopy(buffer, 0, newbuf, 0, length);
+        newbuf = new char[newsize];
+        first = Math.min(length, buffer.length - head);
+        System.arraycopy(buffer, head, newbuf, 0, first);
+        System.arraycopy(buffer, 0, newbuf, first, length - first);
         buffer = newbuf;
+        head = 0;
+    }
+
+    /**
+     * Returns the initial character buffer size. This is the
+     * smallest power of two holding at least four blocks.
+     *
+     * @return the initial character buffer size
+     */
+    private int initialSize() {
+        int  size = 1;
+
+        while (size < blockSize * 4) {
+            size *= 2;
+        }
+        return size;
     }
 }
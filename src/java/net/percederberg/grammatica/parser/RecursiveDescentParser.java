@@ -16,6 +16,9 @@ package net.percederberg.grammatica.parser;
 
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 
 /**
@@ -29,6 +32,11 @@ import java.util.Iterator;
  */
 public class RecursiveDescentParser extends Parser {
 
+    /**
+     * The current production nesting depth.
+     */
+    private int depth = 0;
+
     /**
      * Creates a new parser.
      *
@@ -123,6 +131,34 @@ public class RecursiveDescentParser extends Parser {
      *             initialized correctly
      */
     public void prepare() throws ParserCreationException {
+        long  start;
+
+        if (!ParseMonitor.isEnabled()) {
+            prepareInput();
+            return;
+        }
+        start = System.nanoTime();
+        ParseMonitor.firePrepareStarted(this);
+        try {
+            prepareInput();
+        } catch (ParserCreationException e) {
+            ParseMonitor.firePrepareFinished(this,
+                                             System.nanoTime() - start,
+                                             e);
+            throw e;
+        }
+        ParseMonitor.firePrepareFinished(this, System.nanoTime() - start, null);
+    }
+
+    /**
+     * Initializes the parser. This method contains the actual
+     * implementation of prepare(), without the parse monitor
+     * callbacks.
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     */
+    private void prepareInput() throws ParserCreationException {
         Iterator  iter;
 
         // Performs production pattern checks
@@ -135,6 +171,9 @@ public class RecursiveDescentParser extends Parser {
             calculateLookAhead((ProductionPattern) iter.next());
         }
 
+        // Calculate error recovery synchronization sets
+        calculateSyncTokens(calculateFollow());
+
         // Set initialized flag
         setInitialized(true);
     }
@@ -167,6 +206,31 @@ public class RecursiveDescentParser extends Parser {
         return node;
     }
 
+    /**
+     * Parses a production pattern from the next tokens. This method
+     * is used for parsing a production again after an edit.
+     *
+     * @param pattern        the production pattern to parse
+     * @param depth          the production nesting depth
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     *
+     * @since 1.7
+     */
+    Node parseProduction(ProductionPattern pattern, int depth)
+        throws ParseException {
+
+        this.depth = depth - 1;
+        try {
+            return parsePattern(pattern);
+        } finally {
+            this.depth = 0;
+        }
+    }
+
     /**
      * Parses a production pattern. A parse tree node may or may not
      * be created depending on the analyzer callbacks.
@@ -184,17 +248,24 @@ public class RecursiveDescentParser extends Parser {
         ProductionPatternAlternative  alt;
         ProductionPatternAlternative  defaultAlt;
 
-        defaultAlt = pattern.getDefaultAlternative();
-        for (int i = 0; i < pattern.getAlternativeCount(); i++) {
-            alt = pattern.getAlternative(i);
-            if (defaultAlt != alt && isNext(alt)) {
-                return parseAlternative(alt);
+        depth++;
+        try {
+            enterProduction(pattern, depth);
+            defaultAlt = pattern.getDefaultAlternative();
+            for (int i = 0; i < pattern.getAlternativeCount(); i++) {
+                alt = pattern.getAlternative(i);
+                if (defaultAlt != alt && isNext(alt)) {
+                    return parseAlternative(alt);
+                }
             }
+            if (defaultAlt == null || !isNext(defaultAlt)) {
+                throwParseException(findUnion(pattern));
+            }
+            return parseAlternative(defaultAlt);
+        } finally {
+            depth--;
+            exitProduction();
         }
-        if (defaultAlt == null || !isNext(defaultAlt)) {
-            throwParseException(findUnion(pattern));
-        }
-        return parseAlternative(defaultAlt);
     }
 
     /**
@@ -221,12 +292,57 @@ public class RecursiveDescentParser extends Parser {
             } catch (ParseException e) {
                 addError(e, true);
                 nextToken();
+                i = recover(alt, i);
+                if (i < 0) {
+                    break;
+                }
                 i--;
             }
         }
         return exitNode(node);
     }
 
+    /**
+     * Recovers from a parse error inside a production pattern
+     * alternative. This method skips tokens until one is found in
+     * the synchronization set for the failed element. That token
+     * determines where parsing resumes. If it can start the failed
+     * element or a subsequent one, that element position is
+     * returned. Otherwise the token can only follow the production,
+     * and the rest of the alternative is abandoned.
+     *
+     * @param alt            the production pattern alternative
+     * @param pos            the failed pattern element position
+     *
+     * @return the pattern element position to resume at, or
+     *         -1 if the alternative should be abandoned
+     *
+     * @throws ParseException if the input couldn't be read
+     */
+    private int recover(ProductionPatternAlternative alt, int pos)
+        throws ParseException {
+
+        int[]  sync = alt.getElement(pos).getSyncTokens();
+        Token  token = peekToken(0);
+
+        if (sync == null) {
+            return pos;
+        }
+        while (token != null && !contains(sync, token.getId())) {
+            nextToken();
+            token = peekToken(0);
+        }
+        if (token == null) {
+            return pos;
+        }
+        for (int i = pos; i < alt.getElementCount(); i++) {
+            if (contains(alt.getElement(i).getFirstTokens(), token.getId())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Parses a production pattern element. All nodes parsed may or
      * may not be added to the parse tree node specified, depending
@@ -747,6 +863,177 @@ public class RecursiveDescentParser extends Parser {
         return result;
     }
 
+    /**
+     * Calculates the follow sets for all production patterns. The
+     * follow set of a production contains the tokens that may appear
+     * directly after it in a valid input. The sets are calculated
+     * iteratively until no set changes. This method requires the
+     * production look-ahead sets to be calculated first.
+     *
+     * @return the map with follow sets, indexed by production pattern
+     */
+    private HashMap calculateFollow() {
+        HashMap                       result = new HashMap();
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+        ProductionPatternElement      elem;
+        HashSet                       follow;
+        boolean                       changed = true;
+        Iterator                      iter;
+        int                           i;
+        int                           j;
+
+        iter = getPatterns().iterator();
+        while (iter.hasNext()) {
+            result.put(iter.next(), new HashSet());
+        }
+        while (changed) {
+            changed = false;
+            iter = getPatterns().iterator();
+            while (iter.hasNext()) {
+                pattern = (ProductionPattern) iter.next();
+                for (i = 0; i < pattern.getAlternativeCount(); i++) {
+                    alt = pattern.getAlternative(i);
+                    for (j = 0; j < alt.getElementCount(); j++) {
+                        elem = alt.getElement(j);
+                        if (elem.isProduction()) {
+                            follow = (HashSet) result.get(getPattern(elem.getId()));
+                            if (elem.getMaxCount() > 1) {
+                                changed |= addFirst(follow, elem);
+                            }
+                            changed |= addFollow(follow, alt, j + 1, result);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the tokens that may follow a position in a production
+     * pattern alternative to a set. If all the remaining elements are
+     * optional, the follow set of the production is also added.
+     *
+     * @param set            the token set to add to
+     * @param alt            the production pattern alternative
+     * @param pos            the pattern element position
+     * @param follow         the map with production follow sets
+     *
+     * @return true if the token set was modified, or
+     *         false otherwise
+     */
+    private boolean addFollow(HashSet set,
+                              ProductionPatternAlternative alt,
+                              int pos,
+                              HashMap follow) {
+
+        ProductionPatternElement  elem;
+        boolean                   changed = false;
+
+        for (int i = pos; i < alt.getElementCount(); i++) {
+            elem = alt.getElement(i);
+            changed |= addFirst(set, elem);
+            if (elem.getMinCount() > 0) {
+                return changed;
+            }
+        }
+        changed |= set.addAll((HashSet) follow.get(alt.getPattern()));
+        return changed;
+    }
+
+    /**
+     * Adds the tokens that may start a production pattern element to
+     * a set.
+     *
+     * @param set            the token set to add to
+     * @param elem           the production pattern element
+     *
+     * @return true if the token set was modified, or
+     *         false otherwise
+     */
+    private boolean addFirst(HashSet set, ProductionPatternElement elem) {
+        LookAheadSet  lookAhead;
+        int[]         initials;
+        boolean       changed = false;
+
+        if (elem.isToken()) {
+            return set.add(new Integer(elem.getId()));
+        }
+        lookAhead = getPattern(elem.getId()).getLookAhead();
+        initials = lookAhead.getInitialTokens();
+        for (int i = 0; i < initials.length; i++) {
+            changed |= set.add(new Integer(initials[i]));
+        }
+        return changed;
+    }
+
+    /**
+     * Calculates the error recovery synchronization sets for all
+     * production pattern elements. The synchronization set of an
+     * element contains all tokens that may start the element or any
+     * subsequent element in the same alternative, as well as the
+     * follow set of the production.
+     *
+     * @param follow         the map with production follow sets
+     */
+    private void calculateSyncTokens(HashMap follow) {
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+        ProductionPatternElement      elem;
+        HashSet                       first;
+        HashSet                       sync;
+        Iterator                      iter;
+
+        iter = getPatterns().iterator();
+        while (iter.hasNext()) {
+            pattern = (ProductionPattern) iter.next();
+            for (int i = 0; i < pattern.getAlternativeCount(); i++) {
+                alt = pattern.getAlternative(i);
+                sync = new HashSet((HashSet) follow.get(pattern));
+                for (int j = alt.getElementCount() - 1; j >= 0; j--) {
+                    elem = alt.getElement(j);
+                    first = new HashSet();
+                    addFirst(first, elem);
+                    sync.addAll(first);
+                    elem.setFirstTokens(toSortedArray(first));
+                    elem.setSyncTokens(toSortedArray(sync));
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a set of token id:s to a sorted array.
+     *
+     * @param set            the set of Integer token id:s
+     *
+     * @return the sorted array of token id:s
+     */
+    private int[] toSortedArray(HashSet set) {
+        int[]     result = new int[set.size()];
+        Iterator  iter = set.iterator();
+
+        for (int i = 0; iter.hasNext(); i++) {
+            result[i] = ((Integer) iter.next()).intValue();
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Checks if a sorted array of token id:s contains a token id.
+     *
+     * @param tokens         the sorted array of token id:s, or null
+     * @param id             the token id to search for
+     *
+     * @return true if the token id was found, or
+     *         false otherwise
+     */
+    private boolean contains(int[] tokens, int id) {
+        return tokens != null && Arrays.binarySearch(tokens, id) >= 0;
+    }
+
     /**
      * Returns the union of all alternative look-ahead sets in a
      * production pattern.
@@ -21,7 +21,7 @@ package net.percederberg.grammatica.parser;
  * token patterns.
  *
  * @author   Per Cederberg
- * @version  1.4
+ * @version  1.7
  */
 public class Token extends Node {
 
@@ -66,6 +66,12 @@ public class Token extends Node {
      */
     private Token next = null;
 
+    /**
+     * The number of characters after this token that were examined
+     * by the tokenizer when matching this or any previous token.
+     */
+    private int lookAhead = 0;
+
     /**
      * Creates a new token.
      *
@@ -154,6 +160,55 @@ public class Token extends Node {
         return endColumn;
     }
 
+    /**
+     * Moves this token to another position. The line offset is added
+     * to both the start and end lines. The column offset is only
+     * added to the columns on the first line, as the columns on any
+     * following lines are unaffected.
+     *
+     * @param lines          the number of lines to move
+     * @param columns        the number of columns to move
+     *
+     * @since 1.7
+     */
+    void move(int lines, int columns) {
+        if (endLine == startLine) {
+            endColumn += columns;
+        }
+        startLine += lines;
+        startColumn += columns;
+        endLine += lines;
+    }
+
+    /**
+     * Returns the number of characters after this token that were
+     * examined by the tokenizer. This includes the characters
+     * examined when matching any previous token, so a change after
+     * the look-ahead characters cannot affect this or any previous
+     * token.
+     *
+     * @return the number of look-ahead characters
+     *
+     * @since 1.7
+     */
+    int getLookAhead() {
+        return lookAhead;
+    }
+
+    /**
+     * Sets the number of characters after this token that were
+     * examined by the tokenizer.
+     *
+     * @param lookAhead      the number of look-ahead characters
+     *
+     * @see #getLookAhead
+     *
+     * @since 1.7
+     */
+    void setLookAhead(int lookAhead) {
+        this.lookAhead = lookAhead;
+    }
+
     /**
      * Returns the token pattern.
      *
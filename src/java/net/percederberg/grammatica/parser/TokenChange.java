@@ -0,0 +1,184 @@
+/*
+ * TokenChange.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A token list change. This class describes the tokens replaced in a
+ * token list after an edit. The removed tokens are unlinked from the
+ * token list, but remain linked to each other. The added tokens are
+ * linked into the token list in their place. Either range may be
+ * empty, in which case its first and last tokens are null.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ *
+ * @see Tokenizer#retokenize(Token, int, int, String)
+ */
+public class TokenChange {
+
+    /**
+     * The first token removed, or null for none.
+     */
+    private Token firstRemoved;
+
+    /**
+     * The last token removed, or null for none.
+     */
+    private Token lastRemoved;
+
+    /**
+     * The first token added, or null for none.
+     */
+    private Token firstAdded;
+
+    /**
+     * The last token added, or null for none.
+     */
+    private Token lastAdded;
+
+    /**
+     * The last unchanged token before the change, or null for none.
+     */
+    private Token previous;
+
+    /**
+     * The first unchanged token after the change, or null for none.
+     */
+    private Token next;
+
+    /**
+     * Creates a new token list change.
+     *
+     * @param firstRemoved   the first token removed, or null for none
+     * @param lastRemoved    the last token removed, or null for none
+     * @param firstAdded     the first token added, or null for none
+     * @param lastAdded      the last token added, or null for none
+     * @param previous       the last unchanged token before the
+     *                       change, or null for none
+     * @param next           the first unchanged token after the
+     *                       change, or null for none
+     */
+    public TokenChange(Token firstRemoved,
+                       Token lastRemoved,
+                       Token firstAdded,
+                       Token lastAdded,
+                       Token previous,
+                       Token next) {
+
+        this.firstRemoved = firstRemoved;
+        this.lastRemoved = lastRemoved;
+        this.firstAdded = firstAdded;
+        this.lastAdded = lastAdded;
+        this.previous = previous;
+        this.next = next;
+    }
+
+    /**
+     * Returns the first token removed from the token list.
+     *
+     * @return the first token removed, or
+     *         null if no tokens were removed
+     */
+    public Token getFirstRemovedToken() {
+        return firstRemoved;
+    }
+
+    /**
+     * Returns the last token removed from the token list.
+     *
+     * @return the last token removed, or
+     *         null if no tokens were removed
+     */
+    public Token getLastRemovedToken() {
+        return lastRemoved;
+    }
+
+    /**
+     * Returns the first token added to the token list.
+     *
+     * @return the first token added, or
+     *         null if no tokens were added
+     */
+    public Token getFirstAddedToken() {
+        return firstAdded;
+    }
+
+    /**
+     * Returns the last token added to the token list.
+     *
+     * @return the last token added, or
+     *         null if no tokens were added
+     */
+    public Token getLastAddedToken() {
+        return lastAdded;
+    }
+
+    /**
+     * Returns the last unchanged token before the change. This is
+     * the token preceding the added tokens in the token list.
+     *
+     * @return the last unchanged token before the change, or
+     *         null if the change started at the beginning of the list
+     */
+    public Token getPreviousToken() {
+        return previous;
+    }
+
+    /**
+     * Returns the first unchanged token after the change. This is
+     * the token following the added tokens in the token list. If the
+     * first token in the list was removed and no tokens were added,
+     * this is the new first token in the list.
+     *
+     * @return the first unchanged token after the change, or
+     *         null if the change extended to the end of the list
+     */
+    public Token getNextToken() {
+        return next;
+    }
+
+    /**
+     * Returns a string representation of this object.
+     *
+     * @return a string representation of this object
+     */
+    public String toString() {
+        StringBuffer  buffer = new StringBuffer();
+
+        buffer.append("Removed: ");
+        append(buffer, firstRemoved, lastRemoved);
+        buffer.append("\nAdded: ");
+        append(buffer, firstAdded, lastAdded);
+        return buffer.toString();
+    }
+
+    /**
+     * Appends a range of tokens to a string buffer.
+     *
+     * @param buffer         the string buffer
+     * @param first          the first token, or null for none
+     * @param last           the last token, or null for none
+     */
+    private void append(StringBuffer buffer, Token first, Token last) {
+        for (Token token = first; token != null; token = token.getNextToken()) {
+            buffer.append("\n  ");
+            buffer.append(token.toShortString());
+            if (token == last) {
+                break;
+            }
+        }
+    }
+}
@@ -53,6 +53,12 @@ class TokenNFA {
      */
     private StateQueue queue = new StateQueue();
 
+    /**
+     * The number of match attempts. This counter is used to detect
+     * repeated matches for shortest match patterns.
+     */
+    private int matchCount = 0;
+
     /**
      * Adds a string match to this automaton. New states and
      * transitions will be added to extend this automaton to support
@@ -137,9 +143,34 @@ class TokenNFA {
             debug += ", uses initial state";
         }
         parser.end.value = value;
+        if (parser.isShortestMatch()) {
+            parser.end.shortest = true;
+            debug += ", shortest match";
+        }
         value.setDebugInfo(debug);
     }
 
+    /**
+     * Checks if this NFA has any match starting with the specified
+     * character. Only the transitions from the initial state are
+     * checked, so a subsequent match attempt may still fail.
+     *
+     * @param ch             the character to check
+     *
+     * @return true if a match may start with the character, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean isInitialChar(char ch) {
+        if (ch < 128 && this.initialChar[ch] != null) {
+            return true;
+        }
+        this.queue.clear();
+        this.initial.matchTransitions(ch, this.queue, true);
+        return !this.queue.isEmpty();
+    }
+
     /**
      * Checks if this NFA matches the specified input text. The
      * matching will be performed from position zero (0) in the
@@ -162,12 +193,16 @@ class TokenNFA {
 
         // The first step of the match loop has been unrolled and
         // optimized for performance below.
+        this.matchCount++;
         this.queue.clear();
         peekChar = buffer.peek(0);
         if (0 <= peekChar && peekChar < 128) {
             state = this.initialChar[peekChar];
             if (state != null) {
                 this.queue.addLast(state);
+                if (state.epsilonOut) {
+                    state.matchEmpty(this.queue);
+                }
             }
         }
         if (peekChar >= 0) {
@@ -184,7 +219,12 @@ class TokenNFA {
                 this.queue.markEnd();
             }
             state = this.queue.removeFirst();
-            if (state.value != null) {
+            if (state.shortest) {
+                if (state.matchCount != this.matchCount) {
+                    state.matchCount = this.matchCount;
+                    match.update(pos, state.value);
+                }
+            } else if (state.value != null) {
                 match.update(pos, state.value);
             }
             if (peekChar >= 0) {
@@ -206,6 +246,18 @@ class TokenNFA {
          */
         protected TokenPattern value = null;
 
+        /**
+         * The shortest match flag. If set, only the first (shortest)
+         * match for this final state is used in each match attempt.
+         */
+        protected boolean shortest = false;
+
+        /**
+         * The match attempt number when this final state was last
+         * reached. This is only used for shortest match states.
+         */
+        protected int matchCount = 0;
+
         /**
          * The incoming transitions to this state.
          */
@@ -265,6 +317,8 @@ class TokenNFA {
          * Adds a new outgoing character transition. If the target
          * state specified was null and an identical transition
          * already exists, it will be reused and its target returned.
+         * In case-insensitive mode, all the case variants of the
+         * character are matched by a single transition.
          *
          * @param ch             he character to match
          * @param ignoreCase     the case-insensitive flag
@@ -273,14 +327,16 @@ class TokenNFA {
          * @return the transition target state
          */
         public State addOut(char ch, boolean ignoreCase, State state) {
-            if (ignoreCase) {
+            CharRangeTransition  trans;
+
+            if (ignoreCase && CaseFolding.getVariants(ch).length > 1) {
                 if (state == null) {
                     state = new State();
                 }
-                addOut(new CharTransition(Character.toLowerCase(ch), state));
-                addOut(new CharTransition(Character.toUpperCase(ch), state));
-                return state;
-            } else { 
+                trans = new CharRangeTransition(false, true, state);
+                trans.addCharacter(ch);
+                return addOut(trans);
+            } else {
                 if (state == null) {
                     state = findUniqueCharTransition(ch);
                     if (state != null) {
@@ -583,10 +639,18 @@ class TokenNFA {
 
     /**
      * A character range match transition. Used for user-defined
-     * character sets in regular expressions.
+     * character sets in regular expressions, and for single
+     * characters in case-insensitive mode. The result for the first
+     * 256 characters is precomputed into a bit set, so that no case
+     * conversion or character set scan is needed for them.
      */
     protected static class CharRangeTransition extends Transition {
 
+        /**
+         * The number of characters in the precomputed bit set.
+         */
+        private static final int BITS = 256;
+
         /**
          * The inverse match flag.
          */
@@ -603,6 +667,12 @@ class TokenNFA {
          */
         private Object[] contents = new Object[0];
 
+        /**
+         * The precomputed match bit set for the first characters, or
+         * null if not yet created.
+         */
+        private long[] bits = null;
+
         /**
          * Creates a new character range transition.
          *
@@ -653,7 +723,7 @@ class TokenNFA {
          */
         public void addCharacter(char c) {
             if (ignoreCase) {
-                c = Character.toLowerCase(c);
+                c = CaseFolding.toLowerCase(c);
             }
             addContent(new Character(c));
         }
@@ -666,8 +736,8 @@ class TokenNFA {
          */
         public void addRange(char min, char max) {
             if (ignoreCase) {
-                min = Character.toLowerCase(min);
-                max = Character.toLowerCase(max);
+                min = CaseFolding.toLowerCase(min);
+                max = CaseFolding.toLowerCase(max);
             }
             addContent(new Range(min, max));
         }
@@ -683,10 +753,13 @@ class TokenNFA {
             contents = new Object[temp.length + 1];
             System.arraycopy(temp, 0, contents, 0, temp.length);
             contents[temp.length] = obj;
+            bits = null;
         }
 
         /**
          * Checks if the specified character matches the transition.
+         * The precomputed bit set is used for the first characters,
+         * creating it if needed.
          *
          * @param ch             the character to check
          *
@@ -694,12 +767,36 @@ class TokenNFA {
          *         false otherwise
          */
         public boolean match(char ch) {
+            if (ch >= BITS) {
+                return matchContents(ch);
+            }
+            if (bits == null) {
+                bits = new long[BITS / 64];
+                for (int i = 0; i < BITS; i++) {
+                    if (matchContents((char) i)) {
+                        bits[i / 64] |= 1L << (i % 64);
+                    }
+                }
+            }
+            return (bits[ch / 64] & (1L << (ch % 64))) != 0;
+        }
+
+        /**
+         * Checks if the specified character matches the character
+         * set content.
+         *
+         * @param ch             the character to check
+         *
+         * @return true if the character matches, or
+         *         false otherwise
+         */
+        private boolean matchContents(char ch) {
             Object     obj;
             Character  c;
             Range      r;
 
             if (ignoreCase) {
-                ch = Character.toLowerCase(ch);
+                ch = CaseFolding.toLowerCase(ch);
             }
             for (int i = 0; i < contents.length; i++) {
                 obj = contents[i];
@@ -731,6 +828,7 @@ class TokenNFA {
 
             copy = new CharRangeTransition(inverse, ignoreCase, state);
             copy.contents = contents;
+            copy.bits = bits;
             return copy;
         }
 
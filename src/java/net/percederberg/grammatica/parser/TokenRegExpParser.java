@@ -21,6 +21,16 @@ import net.percederberg.grammatica.parser.re.RegExpException;
 /**
  * A regular expression parser. The parser creates an NFA for the
  * regular expression having a single start and acceptance states.
+ * Bounded repeats are supported by unrolling the repeated atom into
+ * multiple copies. Reluctant repeats are supported by matching the
+ * shortest string. This is only equivalent to the normal regular
+ * expression semantics if the reluctant repeat is the only repeat
+ * with a variable length, all alternatives match single characters
+ * and the expression cannot match the empty string. Otherwise the
+ * Java regular expression library may match a longer string, so for
+ * example "(abc|a)x*?" matches "abc" and "a*?(ab)*?b" matches "aabb"
+ * on the same input. Also "x*?" matches the empty string, which
+ * isn't a valid token.
  *
  * @author   Per Cederberg
  * @version  1.5
@@ -28,6 +38,13 @@ import net.percederberg.grammatica.parser.re.RegExpException;
  */
 class TokenRegExpParser {
 
+    /**
+     * The maximum repeat count for bounded repeats. Larger repeat
+     * counts would create too large automatons, so they are not
+     * supported.
+     */
+    public static final int MAX_REPEAT_COUNT = 100;
+
     /**
      * The regular expression pattern.
      */
@@ -44,6 +61,25 @@ class TokenRegExpParser {
      */
     private int pos;
 
+    /**
+     * The position of the first reluctant repeat, or -1 if none has
+     * been found.
+     */
+    private int reluctantPos = -1;
+
+    /**
+     * The number of repeats with a variable length found. This
+     * includes both greedy and reluctant repeats.
+     */
+    private int repeatCount = 0;
+
+    /**
+     * The position of the first alternative separator, or -1 if none
+     * has been found. Alternatives that only match single characters
+     * are not included.
+     */
+    private int alternativePos = -1;
+
     /**
      * The start NFA state for this regular expression.
      */
@@ -107,6 +143,58 @@ class TokenRegExpParser {
                 pos,
                 pattern);
         }
+        if (reluctantPos >= 0 &&
+            (repeatCount > 1 ||
+             alternativePos >= 0 ||
+             isEmptyMatch(start, new HashMap()))) {
+
+
+            throw new RegExpException(
+                RegExpException.UNSUPPORTED_SPECIAL_CHARACTER,
+                reluctantPos,
+                pattern);
+        }
+    }
+
+    /**
+     * Checks if the regular expression should match the shortest
+     * possible string. This is the case if the expression contains
+     * reluctant repeats.
+     *
+     * @return true if the shortest match should be used, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean isShortestMatch() {
+        return reluctantPos >= 0;
+    }
+
+    /**
+     * Checks if the end state can be reached from a state without
+     * reading any characters. Only epsilon transitions are followed.
+     *
+     * @param state          the current state to visit
+     * @param visited        the lookup map of visited states
+     *
+     * @return true if the end state can be reached, or
+     *         false otherwise
+     */
+    private boolean isEmptyMatch(TokenNFA.State state, HashMap visited) {
+        if (state == end) {
+            return true;
+        } else if (visited.containsKey(state)) {
+            return false;
+        }
+        visited.put(state, null);
+        for (int i = 0; i < state.outgoing.length; i++) {
+            if (state.outgoing[i] instanceof TokenNFA.EpsilonTransition &&
+                isEmptyMatch(state.outgoing[i].state, visited)) {
+
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -158,13 +246,21 @@ class TokenRegExpParser {
         TokenNFA.State  end = new TokenNFA.State();
         TokenNFA.State  subStart;
         TokenNFA.State  subEnd;
+        boolean         singleChars = true;
+        int             firstPos = -1;
 
         do {
             if (peekChar(0) == '|') {
+                if (firstPos < 0) {
+                    firstPos = pos;
+                }
                 readChar('|');
             }
             subStart = new TokenNFA.State();
             subEnd = parseTerm(subStart);
+            if (!isSingleChar(subStart, subEnd)) {
+                singleChars = false;
+            }
             if (subStart.incoming.length == 0) {
                 subStart.mergeInto(start);
             } else {
@@ -177,9 +273,42 @@ class TokenRegExpParser {
                 subEnd.addOut(new TokenNFA.EpsilonTransition(end));
             }
         } while (peekChar(0) == '|');
+        if (firstPos >= 0 && !singleChars && alternativePos < 0) {
+            alternativePos = firstPos;
+        }
         return end;
     }
 
+    /**
+     * Checks if a parsed term only matches a single character. This
+     * is the case if all transitions go directly from the start to
+     * the end state. Alternatives consisting only of such terms work
+     * like a character set, and so they do not affect the matching
+     * of reluctant repeats.
+     *
+     * @param start          the initial NFA state
+     * @param end            the terminating NFA state
+     *
+     * @return true if the term only matches a single character, or
+     *         false otherwise
+     */
+    private boolean isSingleChar(TokenNFA.State start, TokenNFA.State end) {
+        if (start.incoming.length > 0 ||
+            start.outgoing.length == 0 ||
+            end.outgoing.length > 0) {
+
+            return false;
+        }
+        for (int i = 0; i < start.outgoing.length; i++) {
+            if (start.outgoing[i] instanceof TokenNFA.EpsilonTransition ||
+                start.outgoing[i].state != end) {
+
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Parses a regular expression term. This method handles the
      * Term production in the grammar (see regexp.grammar).
@@ -226,6 +355,7 @@ class TokenRegExpParser {
     private TokenNFA.State parseFact(TokenNFA.State start) throws RegExpException {
         TokenNFA.State  placeholder = new TokenNFA.State();
         TokenNFA.State  end;
+        int             atomPos = pos;
 
         end = parseAtom(placeholder);
         switch (peekChar(0)) {
@@ -233,9 +363,28 @@ class TokenRegExpParser {
         case '*':
         case '+':
         case '{':
-            end = parseAtomModifier(placeholder, end);
+            end = parseAtomModifier(placeholder, end, atomPos);
             break;
         }
+        return addFact(start, placeholder, end);
+    }
+
+    /**
+     * Adds a parsed factor to a previous NFA state. The factor start
+     * state will either be merged into the previous state, or linked
+     * with an epsilon transition if the factor start state has any
+     * incoming transitions.
+     *
+     * @param start          the previous NFA state
+     * @param placeholder    the factor start NFA state
+     * @param end            the factor end NFA state
+     *
+     * @return the terminating NFA state
+     */
+    private TokenNFA.State addFact(TokenNFA.State start,
+                                   TokenNFA.State placeholder,
+                                   TokenNFA.State end) {
+
         if (placeholder.incoming.length > 0 && start.outgoing.length > 0) {
             start.addOut(new TokenNFA.EpsilonTransition(placeholder));
             return end;
@@ -296,9 +445,12 @@ class TokenRegExpParser {
     /**
      * Parses a regular expression atom modifier. This method handles
      * the AtomModifier production in the grammar (see regexp.grammar).
+     * Bounded repeats are handled by parsing the atom again for each
+     * additional copy needed.
      *
      * @param start          the initial NFA state
      * @param end            the terminal NFA state
+     * @param atomPos        the atom start position in the pattern
      *
      * @return the terminating NFA state
      *
@@ -306,7 +458,8 @@ class TokenRegExpParser {
      *             pattern string
      */
     private TokenNFA.State parseAtomModifier(TokenNFA.State start,
-                                             TokenNFA.State end)
+                                             TokenNFA.State end,
+                                             int atomPos)
         throws RegExpException {
 
         int  min = 0;
@@ -338,7 +491,9 @@ class TokenRegExpParser {
                 }
             }
             readChar('}');
-            if (max == 0 || (max > 0 && min > max)) {
+            if (max == 0 || (max > 0 && min > max) ||
+                min > MAX_REPEAT_COUNT || max > MAX_REPEAT_COUNT) {
+
                 throw new RegExpException(
                     RegExpException.INVALID_REPEAT_COUNT,
                     firstPos,
@@ -354,18 +509,129 @@ class TokenRegExpParser {
 
         // Read possessive or reluctant modifiers
         if (peekChar(0) == '?') {
-            throw new RegExpException(
-                RegExpException.UNSUPPORTED_SPECIAL_CHARACTER,
-                pos,
-                pattern);
+            readChar('?');
+            if (min != max && reluctantPos < 0) {
+                reluctantPos = pos - 1;
+            }
         } else if (peekChar(0) == '+') {
             throw new RegExpException(
                 RegExpException.UNSUPPORTED_SPECIAL_CHARACTER,
                 pos,
                 pattern);
         }
+        if (min != max) {
+            repeatCount++;
+        }
+
+        // Handle repeaters
+        if ((min <= 1 && max < 0) || (min == 0 && max == 1)) {
+            return addRepeat(start, end, min, max);
+        } else {
+            return addBoundedRepeat(start, end, min, max, atomPos);
+        }
+    }
+
+    /**
+     * Adds a bounded repeat to an atom. The atom will be copied as
+     * many times as needed, with epsilon transitions to the end for
+     * each optional copy. A repeat without an upper bound will have
+     * a last copy repeated zero or more times.
+     *
+     * @param start          the initial NFA state
+     * @param end            the terminal NFA state
+     * @param min            the minimum number of repeats
+     * @param max            the maximum number of repeats, or -1
+     *                       for an unbounded repeat
+     * @param atomPos        the atom start position in the pattern
+     *
+     * @return the terminating NFA state
+     *
+     * @throws RegExpException if an error was encountered in the
+     *             pattern string
+     */
+    private TokenNFA.State addBoundedRepeat(TokenNFA.State start,
+                                            TokenNFA.State end,
+                                            int min,
+                                            int max,
+                                            int atomPos)
+        throws RegExpException {
+
+        TokenNFA.State[]  skip;
+        int               optional;
+
+        for (int i = 1; i < min; i++) {
+            end = addAtomCopy(end, atomPos, 1, 1);
+        }
+        if (max < 0) {
+            return addAtomCopy(end, atomPos, 0, -1);
+        }
+        optional = max - Math.max(min, 1);
+        skip = new TokenNFA.State[optional + 1];
+        skip[0] = (min == 0) ? start : null;
+        for (int i = 1; i <= optional; i++) {
+            skip[i] = end;
+            end = addAtomCopy(end, atomPos, 1, 1);
+        }
+        for (int i = 0; i < skip.length; i++) {
+            if (skip[i] != null && skip[i] != end) {
+                skip[i].addOut(new TokenNFA.EpsilonTransition(end));
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Adds a new copy of an atom to a previous NFA state. The atom
+     * will be parsed again from the pattern string, after which the
+     * parsing will continue at the current position.
+     *
+     * @param start          the previous NFA state
+     * @param atomPos        the atom start position in the pattern
+     * @param min            the minimum number of repeats
+     * @param max            the maximum number of repeats, or -1
+     *                       for an unbounded repeat
+     *
+     * @return the terminating NFA state
+     *
+     * @throws RegExpException if an error was encountered in the
+     *             pattern string
+     */
+    private TokenNFA.State addAtomCopy(TokenNFA.State start,
+                                       int atomPos,
+                                       int min,
+                                       int max)
+        throws RegExpException {
+
+        TokenNFA.State  placeholder = new TokenNFA.State();
+        TokenNFA.State  end;
+        int             resumePos = pos;
+
+        pos = atomPos;
+        end = parseAtom(placeholder);
+        pos = resumePos;
+        if (min != 1 || max != 1) {
+            end = addRepeat(placeholder, end, min, max);
+        }
+        return addFact(start, placeholder, end);
+    }
+
+    /**
+     * Adds a simple repeat to an atom. Only the '?', '*' and '+'
+     * repeats are supported by this method.
+     *
+     * @param start          the initial NFA state
+     * @param end            the terminal NFA state
+     * @param min            the minimum number of repeats
+     * @param max            the maximum number of repeats, or -1
+     *                       for an unbounded repeat
+     *
+     * @return the terminating NFA state
+     */
+    private TokenNFA.State addRepeat(TokenNFA.State start,
+                                     TokenNFA.State end,
+                                     int min,
+                                     int max) {
 
-        // Handle supported repeaters
         if (min == 0 && max == 1) {
             return start.addOut(new TokenNFA.EpsilonTransition(end));
         } else if (min == 0 && max == -1) {
@@ -387,10 +653,8 @@ class TokenRegExpParser {
             }
             return end;
         } else {
-            throw new RegExpException(
-                RegExpException.INVALID_REPEAT_COUNT,
-                firstPos,
-                pattern);
+            throw new IllegalArgumentException(
+                "unsupported repeat count: " + min + "-" + max);
         }
     }
 
@@ -15,125 +15,192 @@
 package net.percederberg.grammatica.parser;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
 
 /**
  * A deterministic finite state automaton for matching exact strings.
- * It uses a sorted binary tree representation of the state
+ * It uses a double-array trie representation of the state
  * transitions in order to enable quick matches with a minimal memory
- * footprint. It only supports a single character transition between
- * states, but may be run in an all case-insensitive mode.
+ * footprint. Each state is an index into the base and check arrays.
+ * A transition from a state on a character leads to the base value
+ * of the state plus the character code, provided that the check
+ * value at that index is the original state. Each character used is
+ * assigned a small code, so that the arrays remain compact. It only
+ * supports a single character transition between states, but may be
+ * run in an all case-insensitive mode. In that mode all the case
+ * variants of a character are assigned the same code, so that no
+ * case conversion is needed when matching.<p>
+ *
+ * The double-array trie is rebuilt from all the strings when needed
+ * after a string match has been added. This is normally only done
+ * once, when the automaton is used for the first time.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  * @since    1.5
  */
 class TokenStringDFA {
 
     /**
-     * The lookup table for root states, indexed by the first ASCII
-     * character. This array is used to for speed optimizing the
-     * first step in the match.
+     * The root state index.
+     */
+    private static final int ROOT = 0;
+
+    /**
+     * The check value for unused array entries.
+     */
+    private static final int FREE = -1;
+
+    /**
+     * The number of characters in each character code page.
+     */
+    private static final int PAGE_SIZE = 256;
+
+    /**
+     * The case-insensitive match flag.
+     */
+    private boolean caseInsensitive;
+
+    /**
+     * The string matches added since the trie was last built. The
+     * strings are stored in lower-case for case-insensitive matches.
+     */
+    private ArrayList addedStrings = new ArrayList();
+
+    /**
+     * The token patterns for the string matches added since the trie
+     * was last built.
+     */
+    private ArrayList addedValues = new ArrayList();
+
+    /**
+     * The character code pages, indexed by the upper bits of the
+     * character value. Pages without any used characters are null,
+     * and unused characters have code zero (0).
+     */
+    private int[][] codes = new int[65536 / PAGE_SIZE][];
+
+    /**
+     * The characters for each character code. The first entry is
+     * unused.
      */
-    private State[] ascii = new State[128];
+    private char[] chars = new char[1];
 
     /**
-     * The automaton state transition tree for non-ASCII characters.
-     * Each transition from one state to another is added to the tree
-     * with the corresponding character.
+     * The state base values. The transitions from a state are
+     * located at the base value plus the character code.
      */
-    private State nonAscii = new State();
+    private int[] base = { 0 };
 
     /**
-     * Adds a string match to this automaton. New states and
-     * transitions will be added to extend this automaton to support
-     * the specified string.
+     * The state check values. This contains the previous state for
+     * each used state, or FREE for unused entries.
+     */
+    private int[] check = { ROOT };
+
+    /**
+     * The token pattern matched at each state, or null.
+     */
+    private TokenPattern[] values = { null };
+
+    /**
+     * Creates a new empty string automaton.
      *
-     * @param str              the string to match
      * @param caseInsensitive  the case-insensitive match flag
-     * @param value            the match value
+     *
+     * @since 1.7
      */
-    public void addMatch(String str, boolean caseInsensitive, TokenPattern value) {
-        State  state;
-        State  next;
-        char   c = str.charAt(0);
-        int    start = 0;
+    public TokenStringDFA(boolean caseInsensitive) {
+        this.caseInsensitive = caseInsensitive;
+    }
 
+    /**
+     * Adds a string match to this automaton. The automaton will be
+     * rebuilt to support the specified string the next time it is
+     * used.
+     *
+     * @param str            the string to match
+     * @param value          the match value
+     */
+    public void addMatch(String str, TokenPattern value) {
         if (caseInsensitive) {
-            c = Character.toLowerCase(c);
-        }
-        if (c < 128) {
-            state = ascii[c];
-            if (state == null) {
-                state = ascii[c] = new State();
-            }
-            start++;
-        } else {
-            state = nonAscii;
-        }
-        for (int i = start; i < str.length(); i++) {
-            next = state.tree.find(str.charAt(i), caseInsensitive);
-            if (next == null) {
-                next = new State();
-                state.tree.add(str.charAt(i), caseInsensitive, next);
-            }
-            state = next;
+            str = CaseFolding.toLowerCase(str);
         }
-        state.value = value;
+        addedStrings.add(str);
+        addedValues.add(value);
+    }
+
+    /**
+     * Checks if the automaton has any match starting with the
+     * specified character.
+     *
+     * @param c              the character to check
+     *
+     * @return true if a match may start with the character, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean isInitialChar(char c) {
+        build();
+        return transition(ROOT, c) >= 0;
     }
 
     /**
      * Checks if the automaton matches an input stream. The matching
      * will be performed from a specified position. This method will
-     * not read any characters from the stream, just peek ahead. The
-     * comparison can be done either in case-sensitive or
-     * case-insensitive mode.
+     * not read any characters from the stream, just peek ahead.
      *
-     * @param buffer           the input buffer to check
-     * @param caseInsensitive  the case-insensitive match flag
+     * @param buffer         the input buffer to check
      *
      * @return the match value, or
      *         null if no match was found
      *
      * @throws IOException if an I/O error occurred
      */
-    public TokenPattern match(ReaderBuffer buffer, boolean caseInsensitive)
-        throws IOException {
-
+    public TokenPattern match(ReaderBuffer buffer) throws IOException {
         TokenPattern  result = null;
-        State         state;
+        int           state = ROOT;
         int           pos = 0;
         int           c;
 
-        c = buffer.peek(0);
-        if (c < 0) {
-            return null;
-        }
-        if (caseInsensitive) {
-            c = Character.toLowerCase(c);
-        }
-        if (c < 128) {
-            state = ascii[c];
-            if (state == null) {
-                return null;
-            } else if (state.value != null) {
-                result = state.value;
-            }
-            pos++;
-        } else {
-            state = nonAscii;
-        }
+        build();
         while ((c = buffer.peek(pos)) >= 0) {
-            state = state.tree.find((char) c, caseInsensitive);
-            if (state == null) {
+            state = transition(state, c);
+            if (state < 0) {
                 break;
-            } else if (state.value != null) {
-                result = state.value;
+            } else if (values[state] != null) {
+                result = values[state];
             }
             pos++;
         }
         return result;
     }
 
+    /**
+     * Returns the next state for a character transition.
+     *
+     * @param state          the current state
+     * @param c              the transition character
+     *
+     * @return the next state, or
+     *         -1 if no transition exists
+     */
+    private int transition(int state, int c) {
+        int[]  page = codes[c / PAGE_SIZE];
+        int    code = (page == null) ? 0 : page[c % PAGE_SIZE];
+        int    next = base[state] + code;
+
+        if (code == 0 || next >= check.length || check[next] != state) {
+            return -1;
+        }
+        return next;
+    }
+
     /**
      * Returns a detailed string representation of this automaton.
      *
@@ -144,155 +211,350 @@ class TokenStringDFA {
     public String toString() {
         StringBuffer  buffer = new StringBuffer();
 
-        for (int i = 0; i < ascii.length; i++) {
-            if (ascii[i] != null) {
-                buffer.append((char) i);
-                if (ascii[i].value != null) {
+        build();
+        printTo(buffer, ROOT, "");
+        return buffer.toString();
+    }
+
+    /**
+     * Prints the transitions from a state to the specified string
+     * buffer. The transitions are printed in character order.
+     *
+     * @param buffer         the string buffer
+     * @param state          the state to print
+     * @param indent         the current indentation
+     */
+    private void printTo(StringBuffer buffer, int state, String indent) {
+        int  next;
+
+        for (int code = 1; code < chars.length; code++) {
+            next = transition(state, chars[code]);
+            if (next >= 0) {
+                if (buffer.length() > 0 &&
+                    buffer.charAt(buffer.length() - 1) == '\n') {
+                    buffer.append(indent);
+                }
+                buffer.append(chars[code]);
+                if (values[next] != null) {
                     buffer.append(": ");
-                    buffer.append(ascii[i].value);
+                    buffer.append(values[next]);
                     buffer.append("\n");
                 }
-                ascii[i].tree.printTo(buffer, " ");
+                printTo(buffer, next, indent + " ");
             }
         }
-        nonAscii.tree.printTo(buffer, "");
-        return buffer.toString();
     }
 
-
     /**
-     * An automaton state. This class represents a state in the DFA
-     * graph.
-     *
-     * @author   Per Cederberg
-     * @version  1.5
-     * @since    1.5
+     * Builds the double-array trie if any string matches have been
+     * added. All the strings already in the trie are extracted and
+     * merged with the new strings, so that the whole trie can be
+     * rebuilt. A later string match replaces any earlier one for the
+     * same string.
      */
-    class State {
-
-        /**
-         * The token pattern matched at this state.
-         */
-        protected TokenPattern value = null;
-
-        /**
-         * The automaton state transition tree. Each transition from one
-         * state to another is added to the tree with the corresponding
-         * character.
-         */
-        protected TransitionTree tree = new TransitionTree();
-    }
+    private void build() {
+        ArrayList       list = new ArrayList();
+        Object[]        item;
+        String[]        strings;
+        TokenPattern[]  patterns;
+        int             size = 0;
+        int             count = 1;
+        int             i;
 
+        if (addedStrings.isEmpty()) {
+            return;
+        }
+        addStrings(list);
+        for (i = 0; i < addedStrings.size(); i++) {
+            list.add(new Object[] { addedStrings.get(i), addedValues.get(i) });
+        }
+        addedStrings.clear();
+        addedValues.clear();
+        Collections.sort(list, new Comparator() {
+            public int compare(Object a, Object b) {
+                String  strA = (String) ((Object[]) a)[0];
+                String  strB = (String) ((Object[]) b)[0];
+
+                return strA.compareTo(strB);
+            }
+        });
+        strings = new String[list.size()];
+        patterns = new TokenPattern[list.size()];
+        for (i = 0; i < list.size(); i++) {
+            item = (Object[]) list.get(i);
+            if (size > 0 && strings[size - 1].equals(item[0])) {
+                size--;
+            }
+            strings[size] = (String) item[0];
+            patterns[size] = (TokenPattern) item[1];
+            size++;
+        }
+        for (i = 0; i < size; i++) {
+            count += strings[i].length();
+        }
+        createCodes(strings, size);
+        base = new int[count];
+        check = new int[count];
+        values = new TokenPattern[count];
+        for (i = 0; i < count; i++) {
+            check[i] = FREE;
+        }
+        check[ROOT] = ROOT;
+        buildStates(strings, patterns, size);
+        trim();
+    }
 
     /**
-     * An automaton state transition tree. This class contains a
-     * binary search tree for the automaton transitions from one
-     * state to another. All transitions are linked to a single
-     * character.
+     * Adds all the strings in the trie to a list. Each list item is
+     * an array with the string and the token pattern.
      *
-     * @author   Per Cederberg
-     * @version  1.5
-     * @since    1.5
+     * @param list           the list to add the strings to
      */
-    class TransitionTree {
-
-        /**
-         * The transition character. If this value is set to the zero
-         * character ('\0'), this tree is empty.
-         */
-        private char value = '\0';
-
-        /**
-         * The transition target state.
-         */
-        private State state = null;
-
-        /**
-         * The left subtree.
-         */
-        private TransitionTree left = null;
-
-        /**
-         * The right subtree.
-         */
-        private TransitionTree right = null;
-
-        /**
-         * Finds an automaton state from the specified transition
-         * character. This method searches this transition tree for a
-         * matching transition. The comparison can optionally be done
-         * with a lower-case conversion of the character.
-         *
-         * @param c              the character to search for
-         * @param lowerCase      the lower-case conversion flag
-         *
-         * @return the automaton state found, or
-         *         null if no transition exists
-         */
-        public State find(char c, boolean lowerCase) {
-            if (lowerCase) {
-                c = Character.toLowerCase(c);
+    private void addStrings(ArrayList list) {
+        LinkedList  queue = new LinkedList();
+        Object[]    item;
+        int         state;
+        String      str;
+        int         next;
+
+        queue.add(new Object[] { new Integer(ROOT), "" });
+        while (!queue.isEmpty()) {
+            item = (Object[]) queue.removeFirst();
+            state = ((Integer) item[0]).intValue();
+            str = (String) item[1];
+            if (values[state] != null) {
+                list.add(new Object[] { str, values[state] });
             }
-            if (value == '\0' || value == c) {
-                return state;
-            } else if (value > c) {
-                return left.find(c, false);
-            } else {
-                return right.find(c, false);
+            for (int code = 1; code < chars.length; code++) {
+                next = transition(state, chars[code]);
+                if (next >= 0) {
+                    queue.add(new Object[] {
+                        new Integer(next),
+                        str + chars[code]
+                    });
+                }
             }
         }
+    }
 
-        /**
-         * Adds a transition to this tree. If the lower-case flag is
-         * set, the character will be converted to lower-case before
-         * being added.
-         *
-         * @param c              the character to transition for
-         * @param lowerCase      the lower-case conversion flag
-         * @param state          the state to transition to
-         */
-        public void add(char c, boolean lowerCase, State state) {
-            if (lowerCase) {
-                c = Character.toLowerCase(c);
+    /**
+     * Creates the character codes for all characters in a set of
+     * strings. The codes are assigned in character order, so that
+     * the transitions from each state are also ordered by character.
+     * In case-insensitive mode, all the case variants of each
+     * character are assigned the same code.
+     *
+     * @param strings        the strings to use
+     * @param size           the number of strings to use
+     */
+    private void createCodes(String[] strings, int size) {
+        boolean[]  used = new boolean[65536];
+        int        count = 0;
+        char[]     variants;
+        String     str;
+        char       c;
+
+        for (int i = 0; i < size; i++) {
+            str = strings[i];
+            for (int j = 0; j < str.length(); j++) {
+                c = str.charAt(j);
+                if (!used[c]) {
+                    used[c] = true;
+                    count++;
+                }
             }
-            if (value == '\0') {
-                this.value = c;
-                this.state = state;
-                this.left = new TransitionTree();
-                this.right = new TransitionTree();
-            } else if (value > c) {
-                left.add(c, false, state);
+        }
+        codes = new int[65536 / PAGE_SIZE][];
+        chars = new char[count + 1];
+        count = 0;
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                count++;
+                chars[count] = (char) i;
+            }
+        }
+        for (int code = 1; code < chars.length; code++) {
+            if (caseInsensitive) {
+                variants = CaseFolding.getVariants(chars[code]);
             } else {
-                right.add(c, false, state);
+                variants = new char[] { chars[code] };
+            }
+            for (int i = 0; i < variants.length; i++) {
+                c = variants[i];
+                if (codes[c / PAGE_SIZE] == null) {
+                    codes[c / PAGE_SIZE] = new int[PAGE_SIZE];
+                }
+                codes[c / PAGE_SIZE][c % PAGE_SIZE] = code;
             }
         }
+    }
+
+    /**
+     * Creates the trie states for a sorted array of strings. The
+     * states are created in breadth-first order, so that the
+     * transitions from states close to the root are placed close to
+     * each other. A temporary bit set keeps track of the used array
+     * entries, so that used entries can be skipped quickly. States
+     * with several transitions are placed after the previous such
+     * state, as the earlier unused entries are normally too
+     * fragmented. These entries are instead used for the states with
+     * a single transition.
+     *
+     * @param strings        the sorted strings
+     * @param patterns       the token pattern for each string
+     * @param size           the number of strings to use
+     */
+    private void buildStates(String[] strings,
+                             TokenPattern[] patterns,
+                             int size) {
+
+        LinkedList  queue = new LinkedList();
+        BitSet      used = new BitSet();
+        int         firstFree = 1;
+        int         lastFree = 1;
+        int[]       item;
+        int[]       children = new int[chars.length];
+        int[]       starts = new int[chars.length + 1];
+        int         state;
+        int         start;
+        int         end;
+        int         depth;
+        int         count;
+        int         offset;
+        int         next;
+        char        c;
 
-        /**
-         * Prints the automaton tree to the specified string buffer.
-         *
-         * @param buffer         the string buffer
-         * @param indent         the current indentation
-         */
-        public void printTo(StringBuffer buffer, String indent) {
-            if (this.left != null) {
-                this.left.printTo(buffer, indent);
+        used.set(ROOT);
+        queue.add(new int[] { ROOT, 0, size, 0 });
+        while (!queue.isEmpty()) {
+            item = (int[]) queue.removeFirst();
+            state = item[0];
+            start = item[1];
+            end = item[2];
+            depth = item[3];
+            if (start < end && strings[start].length() == depth) {
+                values[state] = patterns[start];
+                start++;
             }
-            if (this.value != '\0') {
-                if (buffer.length() > 0 &&
-                    buffer.charAt(buffer.length() - 1) == '\n') {
-                    buffer.append(indent);
+            count = 0;
+            for (int i = start; i < end; i++) {
+                c = strings[i].charAt(depth);
+                if (count == 0 || chars[children[count - 1]] != c) {
+                    children[count] = codes[c / PAGE_SIZE][c % PAGE_SIZE];
+                    starts[count] = i;
+                    count++;
                 }
-                buffer.append(this.value);
-                if (this.state.value != null) {
-                    buffer.append(": ");
-                    buffer.append(this.state.value);
-                    buffer.append("\n");
+            }
+            starts[count] = end;
+            if (count > 0) {
+                // The base array may be replaced by findBase(), so
+                // the base value must be stored afterwards
+                if (count == 1) {
+                    offset = findBase(used, firstFree, children, count);
+                } else {
+                    lastFree = Math.max(firstFree, lastFree);
+                    offset = findBase(used, lastFree, children, count);
+                    lastFree = offset + children[0];
+                }
+                base[state] = offset;
+                for (int i = 0; i < count; i++) {
+                    next = base[state] + children[i];
+                    check[next] = state;
+                    used.set(next);
+                    queue.add(new int[] {
+                        next, starts[i], starts[i + 1], depth + 1
+                    });
                 }
-                this.state.tree.printTo(buffer, indent + " ");
+                firstFree = used.nextClearBit(firstFree);
+            }
+        }
+    }
+
+    /**
+     * Finds a base value where all the specified transitions lead to
+     * unused array entries. The arrays are enlarged if needed.
+     *
+     * @param used           the set of used array entries
+     * @param firstFree      the first array entry to check
+     * @param children       the sorted child character codes
+     * @param count          the number of child character codes
+     *
+     * @return the base value found
+     */
+    private int findBase(BitSet used,
+                         int firstFree,
+                         int[] children,
+                         int count) {
+
+        int      pos = used.nextClearBit(Math.max(firstFree, children[0]));
+        int      res;
+        boolean  found;
+
+        while (true) {
+            res = pos - children[0];
+            found = true;
+            for (int i = 1; found && i < count; i++) {
+                found = !used.get(res + children[i]);
             }
-            if (this.right != null) {
-                this.right.printTo(buffer, indent);
+            if (found) {
+                ensureCapacity(res + children[count - 1] + 1);
+                return res;
             }
+            pos = used.nextClearBit(pos + 1);
+        }
+    }
+
+    /**
+     * Ensures that the arrays have at least the specified size. The
+     * arrays are enlarged by at least half their current size.
+     *
+     * @param size           the minimum array size
+     */
+    private void ensureCapacity(int size) {
+        int[]           newBase;
+        int[]           newCheck;
+        TokenPattern[]  newValues;
+
+        if (size <= check.length) {
+            return;
+        }
+        size = Math.max(size, check.length + check.length / 2);
+        newBase = new int[size];
+        newCheck = new int[size];
+        newValues = new TokenPattern[size];
+        System.arraycopy(base, 0, newBase, 0, base.length);
+        System.arraycopy(check, 0, newCheck, 0, check.length);
+        System.arraycopy(values, 0, newValues, 0, values.length);
+        for (int i = check.length; i < size; i++) {
+            newCheck[i] = FREE;
+        }
+        base = newBase;
+        check = newCheck;
+        values = newValues;
+    }
+
+    /**
+     * Removes any unused entries at the end of the arrays.
+     */
+    private void trim() {
+        int             size = check.length;
+        int[]           newBase;
+        int[]           newCheck;
+        TokenPattern[]  newValues;
+
+        while (size > 1 && check[size - 1] == FREE) {
+            size--;
+        }
+        if (size < check.length) {
+            newBase = new int[size];
+            newCheck = new int[size];
+            newValues = new TokenPattern[size];
+            System.arraycopy(base, 0, newBase, 0, size);
+            System.arraycopy(check, 0, newCheck, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            base = newBase;
+            check = newCheck;
+            values = newValues;
         }
     }
 }
@@ -0,0 +1,378 @@
+/*
+ * TokenStringHash.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+
+/**
+ * A perfect hash table for looking up exact strings. The table is
+ * created from a fixed set of strings with the hash and displace
+ * algorithm. The strings are first divided into small buckets, and
+ * each bucket is assigned a displacement value that places all its
+ * strings in separate empty table slots. A lookup therefore only
+ * requires a single hash computation and one string comparison.
+ * The input characters are read directly from the input buffer, so
+ * no temporary strings are created. It may be used in an all
+ * case-insensitive mode.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+class TokenStringHash {
+
+    /**
+     * The average number of strings in each bucket.
+     */
+    private static final int BUCKET_SIZE = 4;
+
+    /**
+     * The maximum number of displacement values to try for each
+     * bucket before giving up.
+     */
+    private static final int MAX_DISPLACEMENT = 1 << 20;
+
+    /**
+     * The FNV-1a hash initial value.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /**
+     * The FNV-1a hash multiplier.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The case-insensitive match flag.
+     */
+    private boolean caseInsensitive;
+
+    /**
+     * The minimum string length in the table.
+     */
+    private int minLength = Integer.MAX_VALUE;
+
+    /**
+     * The maximum string length in the table.
+     */
+    private int maxLength = 0;
+
+    /**
+     * The displacement values for each bucket.
+     */
+    private int[] displacements;
+
+    /**
+     * The string hash values for each table slot.
+     */
+    private long[] hashes;
+
+    /**
+     * The strings for each table slot, or null for unused slots.
+     * The strings are stored in lower-case for case-insensitive
+     * matches.
+     */
+    private String[] strings;
+
+    /**
+     * The token patterns for each table slot.
+     */
+    private TokenPattern[] values;
+
+    /**
+     * Creates a new perfect hash table. If the same string is
+     * present more than once, the last token pattern is used.
+     *
+     * @param strings          the strings to match
+     * @param values           the match values
+     * @param caseInsensitive  the case-insensitive match flag
+     *
+     * @throws Exception if the perfect hash table couldn't be created
+     */
+    public TokenStringHash(String[] strings,
+                           TokenPattern[] values,
+                           boolean caseInsensitive)
+        throws Exception {
+
+        LinkedHashMap  map = new LinkedHashMap();
+        ArrayList[]    buckets;
+        Integer[]      order;
+        String[]       list;
+        long[]         keys;
+        String         str;
+        int            size;
+
+        this.caseInsensitive = caseInsensitive;
+        for (int i = 0; i < strings.length; i++) {
+            str = strings[i];
+            if (caseInsensitive) {
+                str = CaseFolding.toLowerCase(str);
+            }
+            map.remove(str);
+            map.put(str, values[i]);
+            minLength = Math.min(minLength, str.length());
+            maxLength = Math.max(maxLength, str.length());
+        }
+        list = (String[]) map.keySet().toArray(new String[map.size()]);
+        keys = new long[list.length];
+        for (int i = 0; i < list.length; i++) {
+            keys[i] = hash(list[i]);
+        }
+        size = list.length + list.length / BUCKET_SIZE + 1;
+        this.displacements = new int[list.length / BUCKET_SIZE + 1];
+        this.hashes = new long[size];
+        this.strings = new String[size];
+        this.values = new TokenPattern[size];
+        buckets = new ArrayList[displacements.length];
+        order = new Integer[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayList();
+            order[i] = new Integer(i);
+        }
+        for (int i = 0; i < list.length; i++) {
+            buckets[bucket(keys[i])].add(new Integer(i));
+        }
+        Arrays.sort(order, new BucketComparator(buckets));
+        for (int i = 0; i < order.length; i++) {
+            place(order[i].intValue(), buckets[order[i].intValue()], keys);
+        }
+        for (int i = 0; i < list.length; i++) {
+            int pos = slot(keys[i]);
+            this.hashes[pos] = keys[i];
+            this.strings[pos] = list[i];
+            this.values[pos] = (TokenPattern) map.get(list[i]);
+        }
+    }
+
+    /**
+     * Finds a displacement value for a bucket. The displacement
+     * value is chosen so that all strings in the bucket are placed
+     * in separate empty table slots. The table slots are reserved
+     * with an empty string.
+     *
+     * @param index          the bucket index
+     * @param bucket         the list of string indices in the bucket
+     * @param keys           the string hash values
+     *
+     * @throws Exception if no displacement value could be found
+     */
+    private void place(int index, ArrayList bucket, long[] keys)
+        throws Exception {
+
+        int[]    slots = new int[bucket.size()];
+        boolean  free;
+        long     key;
+
+        for (int d = 0; d < MAX_DISPLACEMENT; d++) {
+            free = true;
+            for (int i = 0; free && i < slots.length; i++) {
+                key = keys[((Integer) bucket.get(i)).intValue()];
+                slots[i] = slot(key, d);
+                free = strings[slots[i]] == null;
+                for (int j = 0; free && j < i; j++) {
+                    free = slots[i] != slots[j];
+                }
+            }
+            if (free) {
+                displacements[index] = d;
+                for (int i = 0; i < slots.length; i++) {
+                    strings[slots[i]] = "";
+                }
+                return;
+            }
+        }
+        throw new Exception("no perfect hash found for " + bucket.size() +
+                            " strings");
+    }
+
+    /**
+     * Checks if the table contains the first characters in an input
+     * stream. This method will not read any characters from the
+     * stream, just peek ahead.
+     *
+     * @param buffer         the input buffer to check
+     * @param length         the number of characters to check
+     *
+     * @return the match value, or
+     *         null if no match was found
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    public TokenPattern match(ReaderBuffer buffer, int length)
+        throws IOException {
+
+        long    hash = FNV_OFFSET;
+        String  str;
+        int     pos;
+
+        if (length < minLength || length > maxLength) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ read(buffer, i)) * FNV_PRIME;
+        }
+        pos = slot(hash);
+        str = strings[pos];
+        if (str == null || hashes[pos] != hash || str.length() != length) {
+            return null;
+        }
+        for (int i = 0; i < length; i++) {
+            if (read(buffer, i) != str.charAt(i)) {
+                return null;
+            }
+        }
+        return values[pos];
+    }
+
+    /**
+     * Reads a character from the input buffer. The character is
+     * converted to lower case with the case folding table if the
+     * case should be ignored.
+     *
+     * @param buffer         the input buffer
+     * @param pos            the character position
+     *
+     * @return the character read, or
+     *         -1 if the end of the input was reached
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private int read(ReaderBuffer buffer, int pos) throws IOException {
+        int  c = buffer.peek(pos);
+
+        if (c >= 0 && caseInsensitive) {
+            c = CaseFolding.toLowerCase((char) c);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the table slot for a string hash value.
+     *
+     * @param hash           the string hash value
+     *
+     * @return the table slot for the string
+     */
+    private int slot(long hash) {
+        return slot(hash, displacements[bucket(hash)]);
+    }
+
+    /**
+     * Returns the table slot for a string hash value and a bucket
+     * displacement value.
+     *
+     * @param hash           the string hash value
+     * @param displacement   the bucket displacement value
+     *
+     * @return the table slot for the string
+     */
+    private int slot(long hash, int displacement) {
+        long  h = hash + displacement * 0x9e3779b97f4a7c15L;
+
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        h = h ^ (h >>> 33);
+        return (int) ((h >>> 1) % strings.length);
+    }
+
+    /**
+     * Returns the bucket for a string hash value.
+     *
+     * @param hash           the string hash value
+     *
+     * @return the bucket index for the string
+     */
+    private int bucket(long hash) {
+        return (int) ((hash >>> 1) % displacements.length);
+    }
+
+    /**
+     * Returns the hash value for a string.
+     *
+     * @param str            the string to hash
+     *
+     * @return the string hash value
+     */
+    private static long hash(String str) {
+        long  hash = FNV_OFFSET;
+
+        for (int i = 0; i < str.length(); i++) {
+            hash = (hash ^ str.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns a detailed string representation of this table.
+     *
+     * @return a detailed string representation of this table
+     */
+    public String toString() {
+        StringBuffer  buffer = new StringBuffer();
+
+        for (int i = 0; i < strings.length; i++) {
+            if (strings[i] != null) {
+                buffer.append(strings[i]);
+                buffer.append(": ");
+                buffer.append(values[i]);
+                buffer.append("\n");
+            }
+        }
+        return buffer.toString();
+    }
+
+
+    /**
+     * A bucket comparator. This comparator orders buckets with
+     * more strings before buckets with fewer strings.
+     */
+    private static class BucketComparator implements Comparator {
+
+        /**
+         * The buckets to compare.
+         */
+        private ArrayList[] buckets;
+
+        /**
+         * Creates a new bucket comparator.
+         *
+         * @param buckets        the buckets to compare
+         */
+        public BucketComparator(ArrayList[] buckets) {
+            this.buckets = buckets;
+        }
+
+        /**
+         * Compares two bucket indices.
+         *
+         * @param a              the first bucket index
+         * @param b              the second bucket index
+         *
+         * @return a negative number if the first bucket is larger,
+         *         zero (0) if the buckets are equal size, or
+         *         a positive number if the first bucket is smaller
+         */
+        public int compare(Object a, Object b) {
+            int  size1 = buckets[((Integer) a).intValue()].size();
+            int  size2 = buckets[((Integer) b).intValue()].size();
+
+            return size2 - size1;
+        }
+    }
+}
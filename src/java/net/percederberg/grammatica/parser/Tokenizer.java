@@ -16,6 +16,9 @@ package net.percederberg.grammatica.parser;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.regex.Pattern;
 
 import net.percederberg.grammatica.parser.re.RegExp;
@@ -33,6 +36,11 @@ import net.percederberg.grammatica.parser.re.Matcher;
  */
 public class Tokenizer {
 
+    /**
+     * The number of characters in each initial character page.
+     */
+    private static final int PAGE_SIZE = 256;
+
     /**
      * The ignore character case flag.
      */
@@ -86,6 +94,55 @@ public class Tokenizer {
      */
     private Token previousToken = null;
 
+    /**
+     * The number of characters examined after the last token read,
+     * including those examined for any previous tokens.
+     *
+     * @see Token#getLookAhead
+     */
+    private int lookAhead = 0;
+
+    /**
+     * The maximum number of consecutive invalid characters. When
+     * this number of unmatched characters have been read in a row,
+     * the tokenizing is aborted. A value of zero (0) or less means
+     * that no limit is used.
+     */
+    private int maxInvalidChars = 0;
+
+    /**
+     * The number of consecutive invalid characters read. This
+     * counter is reset whenever a token is matched.
+     */
+    private int invalidChars = 0;
+
+    /**
+     * The initial character lookup table, indexed by the upper bits
+     * of the character value. Each page contains the set of token
+     * matchers that may start with each character. This table is
+     * used both for only running the relevant token matchers and for
+     * quickly skipping past characters that cannot be matched. The
+     * pages are created on demand after the token patterns have been
+     * added.
+     */
+    private MatcherSet[][] initialChars = null;
+
+    /**
+     * The runtime profile to update, or null for none.
+     */
+    private ParseProfile profile = null;
+
+    /**
+     * The number of tokens returned since the last parse monitor
+     * callback.
+     */
+    private int tokenCount = 0;
+
+    /**
+     * The input stream offset at the last parse monitor callback.
+     */
+    private int tokenOffset = 0;
+
     /**
      * Creates a new case-sensitive tokenizer for the specified input
      * stream.
@@ -107,7 +164,25 @@ public class Tokenizer {
      * @since 1.5
      */
     public Tokenizer(Reader input, boolean ignoreCase) {
-        this.buffer = new ReaderBuffer(input);
+        this(input, ignoreCase, ReaderBuffer.BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a new tokenizer for the specified input stream and
+     * read block size. A larger block size reduces the number of
+     * reads from the input stream, which may be faster for large
+     * files.
+     *
+     * @param input          the input stream to read
+     * @param ignoreCase     the character case ignore flag
+     * @param blockSize      the input stream read block size
+     *
+     * @see ReaderBuffer#ReaderBuffer(Reader, int)
+     *
+     * @since 1.7
+     */
+    public Tokenizer(Reader input, boolean ignoreCase, int blockSize) {
+        this.buffer = new ReaderBuffer(input, blockSize);
         this.ignoreCase = ignoreCase;
     }
 
@@ -148,6 +223,64 @@ public class Tokenizer {
         this.useTokenList = useTokenList;
     }
 
+    /**
+     * Returns the maximum number of consecutive invalid characters
+     * before the tokenizing is aborted.
+     *
+     * @return the maximum invalid character count, or
+     *         zero (0) if no limit is used
+     *
+     * @see #setMaxInvalidChars(int)
+     *
+     * @since 1.7
+     */
+    public int getMaxInvalidChars() {
+        return maxInvalidChars;
+    }
+
+    /**
+     * Sets the maximum number of consecutive invalid characters
+     * before the tokenizing is aborted. When the limit is reached,
+     * an aborted error is thrown and the rest of the input stream is
+     * discarded, so that subsequent calls to next() will return
+     * null. By default no limit is used.
+     *
+     * @param maxInvalidChars  the maximum invalid character count,
+     *                         or zero (0) for no limit
+     *
+     * @see ParseException#ABORTED_ERROR
+     *
+     * @since 1.7
+     */
+    public void setMaxInvalidChars(int maxInvalidChars) {
+        this.maxInvalidChars = maxInvalidChars;
+    }
+
+    /**
+     * Returns the runtime profile updated by this tokenizer.
+     *
+     * @return the runtime profile, or
+     *         null if no profiling is made
+     *
+     * @since 1.7
+     */
+    public ParseProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Sets the runtime profile to update. The profile will count the
+     * token matches and the time spent in each token matcher. By
+     * default no profiling is made.
+     *
+     * @param profile        the runtime profile, or null for none
+     *
+     * @since 1.7
+     */
+    public void setProfile(ParseProfile profile) {
+        this.profile = profile;
+    }
+
     /**
      * Returns a description of the token pattern with the specified
      * id.
@@ -190,6 +323,67 @@ public class Tokenizer {
         return buffer.columnNumber();
     }
 
+    /**
+     * Returns the current input offset. This number will be the
+     * number of characters read from the input stream before the
+     * next token returned.
+     *
+     * @return the current input offset
+     *
+     * @since 1.7
+     */
+    public int getCurrentOffset() {
+        return buffer.offset();
+    }
+
+    /**
+     * Returns the number of characters examined after the current
+     * offset. This includes the characters examined for any
+     * previous tokens.
+     *
+     * @return the number of look-ahead characters
+     *
+     * @see Token#getLookAhead
+     *
+     * @since 1.7
+     */
+    int getLookAhead() {
+        return lookAhead;
+    }
+
+    /**
+     * Returns the regular expression token patterns not supported by
+     * the NFA matcher. These patterns are matched with the native
+     * Java regular expression library instead, which is much slower.
+     * The token pattern debug info contains the reason for each
+     * pattern.
+     *
+     * @return an array with the native Java regexp token patterns
+     *
+     * @see TokenPattern#getDebugInfo()
+     *
+     * @since 1.7
+     */
+    public TokenPattern[] getFallbackPatterns() {
+        return (TokenPattern[]) regExpMatcher.patterns.clone();
+    }
+
+    /**
+     * Returns the string token patterns matched as keywords. Each of
+     * these strings is also matched by a regular expression token
+     * pattern, such as an identifier. Only the regular expressions
+     * are therefore matched against the input, and the matched
+     * string is then looked up in a keyword hash table. The result
+     * is the same as when matching the string patterns separately.
+     *
+     * @return an array with the keyword token patterns
+     *
+     * @since 1.7
+     */
+    public TokenPattern[] getKeywordPatterns() {
+        return stringDfaMatcher.getKeywordPatterns();
+    }
+
     /**
      * Adds a new token pattern to the tokenizer. The pattern will be
      * added last in the list, choosing a previous token pattern in
@@ -203,6 +397,8 @@ public class Tokenizer {
     public void addPattern(TokenPattern pattern)
         throws ParserCreationException {
 
+        initialChars = null;
+        stringDfaMatcher.prepared = false;
         switch (pattern.getType()) {
         case TokenPattern.STRING_TYPE:
             try {
@@ -218,9 +414,11 @@ public class Tokenizer {
         case TokenPattern.REGEXP_TYPE:
             try {
                 nfaMatcher.addPattern(pattern);
-            } catch (Exception ignore) {
+            } catch (Exception nfaError) {
                 try {
                     regExpMatcher.addPattern(pattern);
+                    pattern.setDebugInfo("native Java regexp, " +
+                                         nfaError.getMessage());
                 } catch (Exception e) {
                     throw new ParserCreationException(
                         ParserCreationException.INVALID_TOKEN_ERROR,
@@ -244,7 +442,8 @@ public class Tokenizer {
      * well as close the previous input stream. It is normally called
      * in order to reuse a parser and tokenizer pair with multiple
      * input streams, thereby avoiding the cost of re-analyzing the
-     * grammar structures.
+     * grammar structures. The character buffer is also kept and
+     * reused for the new input stream.
      *
      * @param input          the new input stream to read
      *
@@ -253,10 +452,47 @@ public class Tokenizer {
      * @since 1.5
      */
     public void reset(Reader input) {
-        this.buffer.dispose();
-        this.buffer = new ReaderBuffer(input);
+        reset(input, 1, 1);
+    }
+
+    /**
+     * Resets this tokenizer for usage with another input stream,
+     * starting at the specified line and column numbers. This is
+     * used when the input stream is a part of a larger text.
+     *
+     * @param input          the new input stream to read
+     * @param line           the line number of the first character
+     * @param column         the column number of the first character
+     *
+     * @since 1.7
+     */
+    void reset(Reader input, int line, int column) {
+        fireTokenizeFinished();
+        this.tokenCount = 0;
+        this.tokenOffset = 0;
+        this.buffer.reset(input, line, column);
         this.previousToken = null;
+        this.lookAhead = 0;
         this.lastMatch.clear();
+        this.invalidChars = 0;
+    }
+
+    /**
+     * Notifies the parse monitors about the tokens and characters
+     * read since the last notification. Nothing is done if no parse
+     * monitor is registered, or if nothing has been read.
+     */
+    void fireTokenizeFinished() {
+        int      offset = buffer.offset();
+        boolean  changed = tokenCount > 0 || offset > tokenOffset;
+
+        if (changed && ParseMonitor.isEnabled()) {
+            ParseMonitor.fireTokenizeFinished(this,
+                                              offset - tokenOffset,
+                                              tokenCount);
+        }
+        tokenCount = 0;
+        tokenOffset = offset;
     }
 
     /**
@@ -280,6 +516,7 @@ public class Tokenizer {
             token = nextToken();
             if (token == null) {
                 previousToken = null;
+                fireTokenizeFinished();
                 return null;
             }
             if (useTokenList) {
@@ -296,13 +533,237 @@ public class Tokenizer {
                     token.getStartColumn());
             }
         } while (token == null);
+        tokenCount++;
         return token;
     }
 
+    /**
+     * Re-tokenizes a token list after an edit. Only the tokens
+     * around the edit are re-tokenized, starting from the first
+     * token whose matching examined any edited character (as a
+     * previous token may grow into the edit) and ending as soon as
+     * a new token ends where an old token after the edit starts.
+     * If a native Java regular expression checks the characters
+     * before the match (i.e. lookbehind or word boundaries), the
+     * whole token list is re-tokenized instead. The new tokens then
+     * replace the old ones in the token list, and the positions of
+     * the following tokens are updated. If the edit doesn't add or
+     * remove any line breaks, only the positions of the tokens on
+     * the same line are updated. The token list must contain all
+     * the input characters, as created with the token list feature,
+     * since the characters outside the edit are read from the old
+     * tokens. Tokens matching a token pattern with the error flag
+     * set are added to the token list without throwing an exception.
+     * The current tokenizer input is discarded, so the reset method
+     * must be called before reading more tokens.<p>
+     *
+     * If the edited input contains invalid characters, a parse
+     * exception is thrown and the token list is left unmodified.
+     *
+     * @param token          the first token in the list, or any token
+     *                       before the edit, or null for an empty list
+     * @param offset         the edit offset (from the token start)
+     * @param length         the number of characters removed
+     * @param text           the characters inserted
+     *
+     * @return the token list change
+     *
+     * @throws IllegalArgumentException if the edit wasn't inside the
+     *             token list
+     * @throws ParseException if the edited input couldn't be
+     *             tokenized correctly
+     *
+     * @see #setUseTokenList
+     *
+     * @since 1.7
+     */
+    public TokenChange retokenize(Token token,
+                                  int offset,
+                                  int length,
+                                  String text)
+        throws ParseException {
+
+        Token    start = token;
+        Token    end;
+        Token    removed = null;
+        Token    first = null;
+        Token    last = null;
+        Token    next;
+        int      pos = 0;
+        int      editEnd = offset + length;
+        int      delta = text.length() - length;
+        int      endPos;
+        int      newPos = 0;
+        boolean  context = regExpMatcher.isContextDependent();
+
+        while (start != null && start.getNextToken() != null &&
+               pos + start.getImage().length() <= offset) {
+
+            pos += start.getImage().length();
+            start = start.getNextToken();
+        }
+        end = start;
+        endPos = pos;
+        while (end != null && endPos + end.getImage().length() < editEnd) {
+            endPos += end.getImage().length();
+            end = end.getNextToken();
+        }
+        if (end != null) {
+            endPos += end.getImage().length();
+        }
+        if (offset < 0 || length < 0 || endPos < editEnd) {
+            throw new IllegalArgumentException("edit outside token list");
+        }
+        while (start != null && start.getPreviousToken() != null &&
+               (context ||
+                pos + start.getPreviousToken().getLookAhead() > offset)) {
+
+            start = start.getPreviousToken();
+            pos -= start.getImage().length();
+        }
+        fireTokenizeFinished();
+        if (start == null) {
+            buffer.reset(new StringReader(text));
+        } else {
+            buffer.reset(new EditReader(start, offset - pos, length, text),
+                         start.getStartLine(),
+                         start.getStartColumn());
+        }
+        lastMatch.clear();
+        invalidChars = 0;
+        previousToken = null;
+        lookAhead = 0;
+        if (start != null && start.getPreviousToken() != null) {
+            lookAhead = start.getPreviousToken().getLookAhead();
+        }
+        try {
+            end = start;
+            endPos = 0;
+            while (true) {
+                while (end != null &&
+                       (pos + endPos < editEnd || endPos + delta < newPos)) {
+
+                    endPos += end.getImage().length();
+                    removed = end;
+                    end = end.getNextToken();
+                }
+                if (end != null && !context && endPos + delta == newPos) {
+                    break;
+                }
+                next = nextToken();
+                if (next == null) {
+                    end = null;
+                    break;
+                }
+                next.setPreviousToken(last);
+                if (first == null) {
+                    first = next;
+                }
+                last = next;
+                newPos += next.getImage().length();
+                tokenCount++;
+            }
+            if (end != null) {
+                moveTokens(end,
+                           buffer.lineNumber() - end.getStartLine(),
+                           buffer.columnNumber() - end.getStartColumn());
+            }
+        } finally {
+            fireTokenizeFinished();
+            buffer.dispose();
+        }
+        if (removed != null) {
+            next = start.getPreviousToken();
+            removed.setNextToken(null);
+            start.setPreviousToken(null);
+        } else {
+            next = (end == null) ? null : end.getPreviousToken();
+        }
+        if (first == null) {
+            linkTokens(next, end);
+        } else {
+            linkTokens(next, first);
+            linkTokens(last, end);
+            updateLookAhead(end, last.getLookAhead());
+        }
+        return new TokenChange((removed == null) ? null : start,
+                               removed,
+                               first,
+                               last,
+                               next,
+                               end);
+    }
+
+    /**
+     * Moves a token and all the following tokens in a token list.
+     * The column offset is only applied to the tokens starting on
+     * the same line as the first token. If the line offset is zero,
+     * the remaining tokens are left unmodified.
+     *
+     * @param token          the first token to move
+     * @param lines          the number of lines to move
+     * @param columns        the number of columns to move
+     */
+    private void moveTokens(Token token, int lines, int columns) {
+        int  line = token.getStartLine();
+
+        if (lines == 0 && columns == 0) {
+            return;
+        }
+        for (; token != null; token = token.getNextToken()) {
+            if (token.getStartLine() == line) {
+                token.move(lines, columns);
+            } else if (lines != 0) {
+                token.move(lines, 0);
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Updates the look-ahead character counts in a token list. The
+     * counts are only increased, until a token already has a large
+     * enough count. A decreased count for a previous token is thus
+     * not propagated, which only means that a later edit may
+     * re-tokenize more tokens than needed.
+     *
+     * @param token          the first token to update, or null
+     * @param lookAhead      the look-ahead count before the token
+     */
+    private void updateLookAhead(Token token, int lookAhead) {
+        for (; token != null; token = token.getNextToken()) {
+            lookAhead -= token.getImage().length();
+            if (lookAhead <= token.getLookAhead()) {
+                break;
+            }
+            token.setLookAhead(lookAhead);
+        }
+    }
+
+    /**
+     * Links two tokens in a token list. If the first token is null,
+     * the second token is made the first in the list.
+     *
+     * @param previous       the previous token, or null for none
+     * @param next           the next token, or null for none
+     */
+    private void linkTokens(Token previous, Token next) {
+        if (previous != null) {
+            previous.setNextToken(next);
+        } else if (next != null) {
+            next.setPreviousToken(null);
+        }
+    }
+
     /**
      * Finds the next token on the stream. This method will return
      * null when end of file has been reached. It will return a parse
-     * exception if no token matched the input stream.
+     * exception if no token matched the input stream. All the
+     * subsequent characters that cannot start a token are included
+     * in the same error. If too many consecutive characters didn't
+     * match, the remaining input will be discarded and an aborted
+     * error is returned.
      *
      * @return the next token found, or
      *         null if end of file was encountered
@@ -310,30 +771,65 @@ public class Tokenizer {
      * @throws ParseException if the input stream couldn't be read or
      *             parsed correctly
      */
-    private Token nextToken() throws ParseException {
+    Token nextToken() throws ParseException {
+        Token   token;
         String  str;
         int     line;
         int     column;
+        int     length;
+        int     limit;
+        int     c;
 
         try {
             lastMatch.clear();
-            stringDfaMatcher.match(buffer, lastMatch);
-            nfaMatcher.match(buffer, lastMatch);
-            regExpMatcher.match(buffer, lastMatch);
+            c = buffer.peek(0);
+            if (c < 0) {
+                // No match at end of file
+            } else if (profile == null) {
+                match(getInitialMatchers((char) c));
+            } else {
+                matchProfiled(getInitialMatchers((char) c));
+            }
             if (lastMatch.length() > 0) {
+                invalidChars = 0;
+                if (profile != null) {
+                    profile.addToken(lastMatch.pattern(), lastMatch.length());
+                }
                 line = buffer.lineNumber();
                 column = buffer.columnNumber();
+                updateLookAhead(lastMatch.length());
                 str = buffer.read(lastMatch.length());
-                return newToken(lastMatch.pattern(), str, line, column);
+                token = newToken(lastMatch.pattern(), str, line, column);
+                token.setLookAhead(lookAhead);
+                return token;
             } else if (buffer.peek(0) < 0) {
                 return null;
             } else {
                 line = buffer.lineNumber();
                 column = buffer.columnNumber();
-                throw new ParseException(ParseException.UNEXPECTED_CHAR_ERROR,
-                                         buffer.read(1),
-                                         line,
-                                         column);
+                limit = Integer.MAX_VALUE;
+                if (maxInvalidChars > 0) {
+                    limit = maxInvalidChars - invalidChars;
+                }
+                length = 1;
+                while (length < limit && (c = buffer.peek(length)) >= 0) {
+                    if (isInitialChar((char) c)) {
+                        break;
+                    }
+                    length++;
+                }
+                invalidChars += length;
+                if (maxInvalidChars > 0 && invalidChars >= maxInvalidChars) {
+                    buffer.dispose();
+                    throw new ParseException(
+                        ParseException.ABORTED_ERROR,
+                        "too many invalid characters (" + maxInvalidChars + ")",
+                        line,
+                        column);
+                }
+                updateLookAhead(length);
+                str = buffer.read(length);
+                throw newUnexpectedCharException(str, line, column);
             }
         } catch (IOException e) {
             throw new ParseException(ParseException.IO_ERROR,
@@ -343,6 +839,162 @@ public class Tokenizer {
         }
     }
 
+    /**
+     * Updates the look-ahead character count before reading some
+     * characters from the buffer. The characters examined from the
+     * current position are combined with those examined for the
+     * previous tokens.
+     *
+     * @param length         the number of characters to be read
+     */
+    private void updateLookAhead(int length) {
+        lookAhead = Math.max(buffer.peekLength(), lookAhead) - length;
+        lookAhead = Math.max(lookAhead, 0);
+    }
+
+    /**
+     * Matches the input stream with a set of token matchers. The
+     * matches are stored in the last match. The keywords can only
+     * match if the NFA matcher is used, and are checked last.
+     *
+     * @param matchers       the token matchers to use
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private void match(MatcherSet matchers) throws IOException {
+        if (matchers.stringDfa) {
+            stringDfaMatcher.match(buffer, lastMatch);
+        }
+        if (matchers.nfa) {
+            nfaMatcher.match(buffer, lastMatch);
+        }
+        if (matchers.regExps.length > 0) {
+            regExpMatcher.match(buffer, lastMatch, matchers.regExps);
+        }
+        if (matchers.nfa) {
+            stringDfaMatcher.matchKeyword(buffer, lastMatch);
+        }
+    }
+
+    /**
+     * Matches the input stream with a set of token matchers, while
+     * measuring the time spent in each one. The matches are stored
+     * in the last match. The keyword lookup time is included in the
+     * string DFA matcher time.
+     *
+     * @param matchers       the token matchers to use
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private void matchProfiled(MatcherSet matchers) throws IOException {
+        long  time = System.nanoTime();
+        long  next;
+        long  dfaTime = 0;
+
+        if (matchers.stringDfa) {
+            stringDfaMatcher.match(buffer, lastMatch);
+            next = System.nanoTime();
+            dfaTime = next - time;
+            time = next;
+        }
+        if (matchers.nfa) {
+            nfaMatcher.match(buffer, lastMatch);
+            next = System.nanoTime();
+            profile.addMatcherTime(ParseProfile.NFA_MATCHER, next - time);
+            time = next;
+        }
+        if (matchers.regExps.length > 0) {
+            regExpMatcher.match(buffer, lastMatch, matchers.regExps);
+            next = System.nanoTime();
+            profile.addMatcherTime(ParseProfile.REGEXP_MATCHER, next - time);
+            time = next;
+        }
+        if (matchers.nfa) {
+            stringDfaMatcher.matchKeyword(buffer, lastMatch);
+            next = System.nanoTime();
+            dfaTime += next - time;
+        }
+        if (matchers.stringDfa || matchers.nfa) {
+            profile.addMatcherTime(ParseProfile.STRING_DFA_MATCHER, dfaTime);
+        }
+    }
+
+    /**
+     * Checks if any token pattern may start with the specified
+     * character.
+     *
+     * @param c              the character to check
+     *
+     * @return true if a token may start with the character, or
+     *         false otherwise
+     */
+    private boolean isInitialChar(char c) {
+        return !getInitialMatchers(c).isEmpty();
+    }
+
+    /**
+     * Returns the set of token matchers that may start with the
+     * specified character. The initial character lookup table is
+     * used, creating the character page if needed.
+     *
+     * @param c              the character to check
+     *
+     * @return the set of token matchers to use
+     */
+    private MatcherSet getInitialMatchers(char c) {
+        MatcherSet[]  page;
+        MatcherSet    set;
+        int           first = c - c % PAGE_SIZE;
+
+        if (initialChars == null) {
+            initialChars = new MatcherSet[65536 / PAGE_SIZE][];
+        }
+        page = initialChars[c / PAGE_SIZE];
+        if (page == null) {
+            page = new MatcherSet[PAGE_SIZE];
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                set = new MatcherSet((char) (first + i));
+                if (i > 0 && set.equals(page[i - 1])) {
+                    set = page[i - 1];
+                }
+                page[i] = set;
+            }
+            initialChars[c / PAGE_SIZE] = page;
+        }
+        return page[c % PAGE_SIZE];
+    }
+
+    /**
+     * Creates an unexpected character parse exception. The exception
+     * will contain both the start and end position of the unmatched
+     * characters.
+     *
+     * @param str            the unmatched characters
+     * @param line           the line number of the first character
+     * @param column         the column number of the first character
+     *
+     * @return the parse exception created
+     */
+    private ParseException newUnexpectedCharException(String str,
+                                                      int line,
+                                                      int column) {
+
+        int  endLine = line;
+        int  endColumn = column + str.length() - 1;
+
+        for (int pos = 0; str.indexOf('\n', pos) >= 0;) {
+            pos = str.indexOf('\n', pos) + 1;
+            endLine++;
+            endColumn = str.length() - pos;
+        }
+        return new ParseException(ParseException.UNEXPECTED_CHAR_ERROR,
+                                  str,
+                                  line,
+                                  column,
+                                  endLine,
+                                  endColumn);
+    }
+
     /**
      * Factory method for creating a new token. This method can be
      * overridden to provide other token implementations than the
@@ -408,6 +1060,17 @@ public class Tokenizer {
         public abstract void match(ReaderBuffer buffer, TokenMatch match)
         throws IOException;
 
+        /**
+         * Checks if any token pattern in this matcher may start
+         * with the specified character.
+         *
+         * @param c          the character to check
+         *
+         * @return true if a match may start with the character, or
+         *         false otherwise
+         */
+        public abstract boolean isInitialChar(char c);
+
         /**
          * Returns the token pattern with the specified id. Only
          * token patterns handled by this matcher can be returned.
@@ -463,15 +1126,35 @@ public class Tokenizer {
      * A token pattern matcher using a DFA for string tokens. This
      * class only supports string tokens and must be complemented
      * with another matcher for regular expressions. Internally it
-     * uses a DFA to provide high performance.
+     * uses a DFA to provide high performance. String tokens that are
+     * also fully matched by a regular expression in the NFA matcher
+     * (i.e. keywords) are instead looked up in a perfect hash table
+     * after the other matchers have been run.
      */
     class StringDFAMatcher extends TokenMatcher {
 
+        /**
+         * The prepared flag. This flag is cleared whenever a token
+         * pattern is added to the tokenizer, since the keywords may
+         * then have changed.
+         */
+        protected boolean prepared = false;
+
         /**
          * The deterministic finite state automaton used for
-         * matching.
+         * matching. It is created when the matcher is prepared.
          */
-        private TokenStringDFA automaton = new TokenStringDFA();
+        private TokenStringDFA automaton = null;
+
+        /**
+         * The keyword hash table, or null if no keywords were found.
+         */
+        private TokenStringHash keywords = null;
+
+        /**
+         * The keyword token patterns.
+         */
+        private TokenPattern[] keywordPatterns = new TokenPattern[0];
 
         /**
          * Adds a string token pattern to this matcher.
@@ -481,14 +1164,24 @@ public class Tokenizer {
          * @throws Exception if the pattern couldn't be added to the matcher
          */
         public void addPattern(TokenPattern pattern) throws Exception {
-            automaton.addMatch(pattern.getPattern(), ignoreCase, pattern);
             super.addPattern(pattern);
+            prepared = false;
+        }
+
+        /**
+         * Returns the keyword token patterns.
+         *
+         * @return an array with the keyword token patterns
+         */
+        public TokenPattern[] getKeywordPatterns() {
+            prepare();
+            return (TokenPattern[]) keywordPatterns.clone();
         }
 
         /**
          * Searches for matching token patterns at the start of the
          * input stream. If a match is found, the token match object
-         * is updated.
+         * is updated. Keywords are not matched by this method.
          *
          * @param buffer         the input buffer to check
          * @param match          the token match to update
@@ -497,12 +1190,147 @@ public class Tokenizer {
          */
         public void match(ReaderBuffer buffer, TokenMatch match)
         throws IOException {
-            TokenPattern  res = automaton.match(buffer, ignoreCase);
+            TokenPattern  res;
 
+            prepare();
+            res = automaton.match(buffer);
             if (res != null) {
                 match.update(res.getPattern().length(), res);
             }
         }
+
+        /**
+         * Searches for a keyword matching the current longest match.
+         * This method must be called after all the other matchers,
+         * since a keyword can only match if a regular expression
+         * matched the same characters. If a keyword is found, the
+         * token match object is updated.
+         *
+         * @param buffer         the input buffer to check
+         * @param match          the token match to update
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public void matchKeyword(ReaderBuffer buffer, TokenMatch match)
+        throws IOException {
+            TokenPattern  res;
+
+            if (keywords != null && match.length() > 0) {
+                res = keywords.match(buffer, match.length());
+                if (res != null) {
+                    match.update(match.length(), res);
+                }
+            }
+        }
+
+        /**
+         * Checks if any token pattern in this matcher may start
+         * with the specified character. Keywords are not checked,
+         * since the NFA matcher will match the same characters.
+         *
+         * @param c          the character to check
+         *
+         * @return true if a match may start with the character, or
+         *         false otherwise
+         */
+        public boolean isInitialChar(char c) {
+            prepare();
+            return automaton.isInitialChar(c);
+        }
+
+        /**
+         * Prepares this matcher for matching. The string token
+         * patterns are divided into keywords and other strings. A
+         * string is a keyword if the NFA matcher matches all of it,
+         * since the NFA matcher will then always find a match at
+         * least as long as the string. If the keyword hash table
+         * couldn't be created, all strings are added to the DFA.
+         *
+         * @see #isKeyword(String)
+         */
+        private void prepare() {
+            ArrayList  list;
+            boolean[]  isKeyword;
+            String[]   keys;
+
+            if (prepared) {
+                return;
+            }
+            list = new ArrayList();
+            isKeyword = new boolean[patterns.length];
+            for (int i = 0; i < patterns.length; i++) {
+                isKeyword[i] = isKeyword(patterns[i].getPattern());
+                if (isKeyword[i]) {
+                    list.add(patterns[i]);
+                }
+            }
+            keywords = null;
+            keywordPatterns = new TokenPattern[list.size()];
+            list.toArray(keywordPatterns);
+            keys = new String[keywordPatterns.length];
+            for (int i = 0; i < keywordPatterns.length; i++) {
+                keys[i] = keywordPatterns[i].getPattern();
+            }
+            if (keys.length > 0) {
+                try {
+                    keywords = new TokenStringHash(keys,
+                                                   keywordPatterns,
+                                                   ignoreCase);
+                } catch (Exception e) {
+                    // Keywords are matched by the DFA instead
+                    keywordPatterns = new TokenPattern[0];
+                }
+            }
+            automaton = new TokenStringDFA(ignoreCase);
+            for (int i = 0; i < patterns.length; i++) {
+                if (keywords == null || !isKeyword[i]) {
+                    automaton.addMatch(patterns[i].getPattern(), patterns[i]);
+                }
+            }
+            prepared = true;
+        }
+
+        /**
+         * Checks if a string can be matched as a keyword. The NFA
+         * matcher must match all of the string. When ignoring case,
+         * the keyword also matches all the case variants of each
+         * character, so the NFA matcher must also match these. Each
+         * variant is checked in at least one string, instead of
+         * checking every possible combination of variants.
+         *
+         * @param str            the string to check
+         *
+         * @return true if the string can be matched as a keyword, or
+         *         false otherwise
+         */
+        private boolean isKeyword(String str) {
+            char[][]      variants;
+            char[]        chars;
+            int           count = 1;
+            StringBuffer  buffer;
+
+            if (!nfaMatcher.matchString(str)) {
+                return false;
+            } else if (!ignoreCase) {
+                return true;
+            }
+            variants = new char[str.length()][];
+            for (int i = 0; i < str.length(); i++) {
+                variants[i] = CaseFolding.getVariants(str.charAt(i));
+                count = Math.max(count, variants[i].length);
+            }
+            for (int i = 0; i < count; i++) {
+                buffer = new StringBuffer(str.length());
+                for (int j = 0; j < variants.length; j++) {
+                    chars = variants[j];
+                    buffer.append(chars[Math.min(i, chars.length - 1)]);
+                }
+                if (!nfaMatcher.matchString(buffer.toString())) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
 
@@ -522,6 +1350,17 @@ public class Tokenizer {
          */
         private TokenNFA automaton = new TokenNFA();
 
+        /**
+         * The input buffer used for matching strings, or null if not
+         * yet created.
+         */
+        private ReaderBuffer stringBuffer = null;
+
+        /**
+         * The token match used for matching strings.
+         */
+        private TokenMatch stringMatch = new TokenMatch();
+
         /**
          * Adds a token pattern to this matcher.
          *
@@ -552,6 +1391,45 @@ public class Tokenizer {
         throws IOException {
             automaton.match(buffer, match);
         }
+
+        /**
+         * Checks if any token pattern in this matcher may start
+         * with the specified character.
+         *
+         * @param c          the character to check
+         *
+         * @return true if a match may start with the character, or
+         *         false otherwise
+         */
+        public boolean isInitialChar(char c) {
+            return automaton.isInitialChar(c);
+        }
+
+        /**
+         * Checks if this matcher matches all of a string. The match
+         * from the start of the string must be exactly as long as the
+         * string. As the matching only depends on the characters read
+         * so far, any input starting with the string will then have a
+         * match at least as long as the string.
+         *
+         * @param str            the string to check
+         *
+         * @return true if the whole string was matched, or
+         *         false otherwise
+         */
+        public boolean matchString(String str) {
+            if (stringBuffer == null) {
+                stringBuffer = new ReaderBuffer(null);
+            }
+            stringBuffer.reset(new StringReader(str));
+            stringMatch.clear();
+            try {
+                automaton.match(stringBuffer, stringMatch);
+            } catch (IOException e) {
+                // Never thrown when reading from a string
+            }
+            return str.length() > 0 && stringMatch.length() == str.length();
+        }
     }
 
 
@@ -582,6 +1460,9 @@ public class Tokenizer {
             RE    re;
 
             re = new JavaRE(pattern.getPattern());
+            if (ParseMonitor.isEnabled()) {
+                ParseMonitor.fireRegExpFallback(pattern);
+            }
             regExps = new RE[temp.length + 1];
             System.arraycopy(temp, 0, regExps, 0, temp.length);
             regExps[temp.length] = re;
@@ -609,6 +1490,164 @@ public class Tokenizer {
                 }
             }
         }
+
+        /**
+         * Searches for matching token patterns at the start of the
+         * input stream. Only the specified regular expressions are
+         * checked. If a match is found, the token match object is
+         * updated.
+         *
+         * @param buffer         the input buffer to check
+         * @param match          the token match to update
+         * @param indices        the regular expression indices
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        public void match(ReaderBuffer buffer,
+                          TokenMatch match,
+                          int[] indices)
+        throws IOException {
+
+            for (int i = 0; i < indices.length; i++) {
+                int length = regExps[indices[i]].match(buffer);
+                if (length > 0) {
+                    match.update(length, patterns[indices[i]]);
+                }
+            }
+        }
+
+        /**
+         * Checks if any token pattern in this matcher may start
+         * with the specified character.
+         *
+         * @param c          the character to check
+         *
+         * @return true if a match may start with the character, or
+         *         false otherwise
+         */
+        public boolean isInitialChar(char c) {
+            return getInitialRegExps(c).length > 0;
+        }
+
+        /**
+         * Returns the regular expressions that may start with the
+         * specified character.
+         *
+         * @param c          the character to check
+         *
+         * @return an array with the regular expression indices
+         */
+        public int[] getInitialRegExps(char c) {
+            int[]  res = new int[regExps.length];
+            int    count = 0;
+            int[]  temp;
+
+            for (int i = 0; i < regExps.length; i++) {
+                if (regExps[i].isInitialChar(c)) {
+                    res[count++] = i;
+                }
+            }
+            temp = res;
+            res = new int[count];
+            System.arraycopy(temp, 0, res, 0, count);
+            return res;
+        }
+
+        /**
+         * Checks if any regular expression in this matcher checks
+         * the characters before the match. The matching of these
+         * depends on the previous tokens, so they cannot be
+         * re-tokenized separately.
+         *
+         * @return true if a regular expression depends on the
+         *         previous characters, or false otherwise
+         */
+        public boolean isContextDependent() {
+            for (int i = 0; i < regExps.length; i++) {
+                if (regExps[i] instanceof JavaRE &&
+                    !((JavaRE) regExps[i]).analyze) {
+
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     * A set of token matchers. The set contains the token matchers
+     * and regular expressions that may match from a specific initial
+     * character.
+     */
+    class MatcherSet {
+
+        /**
+         * The string DFA matcher flag.
+         */
+        protected boolean stringDfa;
+
+        /**
+         * The NFA matcher flag.
+         */
+        protected boolean nfa;
+
+        /**
+         * The regular expression matcher indices.
+         */
+        protected int[] regExps;
+
+        /**
+         * Creates a new token matcher set for an initial character.
+         *
+         * @param c          the initial character
+         */
+        public MatcherSet(char c) {
+            stringDfa = stringDfaMatcher.isInitialChar(c);
+            nfa = nfaMatcher.isInitialChar(c);
+            regExps = regExpMatcher.getInitialRegExps(c);
+        }
+
+        /**
+         * Checks if this set is empty.
+         *
+         * @return true if no token matcher is in the set, or
+         *         false otherwise
+         */
+        public boolean isEmpty() {
+            return !stringDfa && !nfa && regExps.length == 0;
+        }
+
+        /**
+         * Checks if this set is equal to another one.
+         *
+         * @param obj        the object to compare with
+         *
+         * @return true if the sets contain the same token matchers,
+         *         or false otherwise
+         */
+        public boolean equals(Object obj) {
+            MatcherSet  set;
+
+            if (obj instanceof MatcherSet) {
+                set = (MatcherSet) obj;
+                return stringDfa == set.stringDfa &&
+                       nfa == set.nfa &&
+                       Arrays.equals(regExps, set.regExps);
+            }
+            return false;
+        }
+
+        /**
+         * Returns a hash code for this set.
+         *
+         * @return a hash code for this set
+         */
+        public int hashCode() {
+            return Arrays.hashCode(regExps) * 4 +
+                   (stringDfa ? 2 : 0) +
+                   (nfa ? 1 : 0);
+        }
     }
 
 
@@ -629,6 +1668,17 @@ public class Tokenizer {
          * @throws IOException if an I/O error occurred
          */
         public abstract int match(ReaderBuffer buffer) throws IOException;
+
+        /**
+         * Checks if this regular expression may match from the
+         * specified initial character.
+         *
+         * @param c          the character to check
+         *
+         * @return true if a match may start with the character, or
+         *         false otherwise
+         */
+        public abstract boolean isInitialChar(char c);
     }
 
 
@@ -678,6 +1728,21 @@ public class Tokenizer {
             }
             return matcher.matchFromBeginning() ? matcher.length() : 0;
         }
+
+        /**
+         * Checks if this regular expression may match from the
+         * specified initial character. The initial characters
+         * aren't analyzed, so any character is assumed to start a
+         * match.
+         *
+         * @param c          the character to check
+         *
+         * @return true if a match may start with the character, or
+         *         false otherwise
+         */
+        public boolean isInitialChar(char c) {
+            return true;
+        }
     }
 
 
@@ -696,6 +1761,14 @@ public class Tokenizer {
          */
         java.util.regex.Matcher  matcher = null;
 
+        /**
+         * The initial character analysis flag. This flag is cleared
+         * if the regular expression checks the characters before the
+         * match (i.e. lookbehind or word boundaries), since those
+         * aren't known when analyzing an initial character.
+         */
+        boolean  analyze;
+
         /**
          * Creates a new native regular expression handler.
          *
@@ -710,11 +1783,22 @@ public class Tokenizer {
             } else {
                 pattern = Pattern.compile(regex);
             }
+            analyze = regex.indexOf("(?<") < 0 &&
+                      regex.indexOf("\\b") < 0 &&
+                      regex.indexOf("\\B") < 0 &&
+                      regex.indexOf("\\G") < 0;
         }
 
         /**
          * Checks if the start of the input stream matches this
-         * regular expression.
+         * regular expression. The match is performed in a bounded
+         * window starting at the current buffer position, initially
+         * the size of one buffer read block. If the matcher hits the
+         * end of the window, the window size is doubled and the match
+         * is repeated. This avoids scanning all the buffered input for
+         * each token. The window start is an anchoring bound, so "^"
+         * matches at the start of each token. A "$" match at the
+         * window end also requires a repeated match.
          *
          * @param buffer         the input buffer to check
          *
@@ -724,9 +1808,9 @@ public class Tokenizer {
          * @throws IOException if an I/O error occurred
          */
         public int match(ReaderBuffer buffer) throws IOException {
-            int      minSize = ReaderBuffer.BLOCK_SIZE;
+            int      window = buffer.getBlockSize();
+            boolean  more;
             boolean  match;
-            int      c;
 
             if (matcher == null) {
                 matcher = pattern.matcher(buffer);
@@ -734,15 +1818,188 @@ public class Tokenizer {
                 matcher.reset(buffer);
             }
             matcher.useTransparentBounds(true);
-            do {
-                c = buffer.peek(minSize);
-                matcher.region(buffer.position(), buffer.length());
+            while (true) {
+                more = buffer.peek(window) >= 0;
+                if (more) {
+                    matcher.region(buffer.position(),
+                                   buffer.position() + window);
+                } else {
+                    matcher.region(buffer.position(), buffer.length());
+                }
                 match = matcher.lookingAt();
-                if (matcher.hitEnd()) {
-                    minSize *= 2;
+                if (!more || !(matcher.hitEnd() || matcher.requireEnd())) {
+                    break;
+                }
+                window *= 2;
+                if (profile != null) {
+                    profile.addRegExpRematch();
                 }
-            } while (c >= 0 && matcher.hitEnd());
+            }
             return match ? matcher.end() - matcher.start() : 0;
         }
+
+        /**
+         * Checks if this regular expression may match from the
+         * specified initial character. The regular expression is
+         * matched against the single character. If it either
+         * matched or needed more input, a match may start with the
+         * character.
+         *
+         * @param c          the character to check
+         *
+         * @return true if a match may start with the character, or
+         *         false otherwise
+         */
+        public boolean isInitialChar(char c) {
+            java.util.regex.Matcher  m;
+
+            if (!analyze) {
+                return true;
+            }
+            m = pattern.matcher(String.valueOf(c));
+            return m.lookingAt() || m.hitEnd();
+        }
+    }
+
+
+    /**
+     * A character reader for an edited token list. The characters
+     * are read from the token images, starting with the first token.
+     * At the edit offset, the inserted characters are read instead
+     * of the removed characters.
+     */
+    private static class EditReader extends Reader {
+
+        /**
+         * The current token, or null at the end of the token list.
+         */
+        private Token token;
+
+        /**
+         * The current character index in the token image.
+         */
+        private int index = 0;
+
+        /**
+         * The number of token characters read or skipped.
+         */
+        private int pos = 0;
+
+        /**
+         * The edit offset.
+         */
+        private int offset;
+
+        /**
+         * The number of characters removed.
+         */
+        private int length;
+
+        /**
+         * The characters inserted, or null if already read.
+         */
+        private String text;
+
+        /**
+         * The number of inserted characters read.
+         */
+        private int textPos = 0;
+
+        /**
+         * Creates a new edit reader.
+         *
+         * @param token          the first token to read
+         * @param offset         the edit offset (from the token start)
+         * @param length         the number of characters removed
+         * @param text           the characters inserted
+         */
+        public EditReader(Token token, int offset, int length, String text) {
+            this.token = token;
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+
+        /**
+         * Reads characters into a portion of an array.
+         *
+         * @param cbuf           the destination buffer
+         * @param off            the offset at which to start storing
+         * @param len            the maximum number of characters
+         *
+         * @return the number of characters read, or
+         *         -1 if the end of the input has been reached
+         */
+        public int read(char[] cbuf, int off, int len) {
+            String  image;
+            int     count = 0;
+            int     limit;
+            int     n;
+
+            while (count < len) {
+                if (text != null && pos == offset) {
+                    n = Math.min(len - count, text.length() - textPos);
+                    text.getChars(textPos, textPos + n, cbuf, off + count);
+                    textPos += n;
+                    count += n;
+                    if (textPos < text.length()) {
+                        break;
+                    }
+                    text = null;
+                    skip(length);
+                }
+                if (token == null) {
+                    break;
+                }
+                image = token.getImage();
+                limit = image.length();
+                if (text != null) {
+                    limit = Math.min(limit, index + offset - pos);
+                }
+                n = Math.min(len - count, limit - index);
+                image.getChars(index, index + n, cbuf, off + count);
+                index += n;
+                pos += n;
+                count += n;
+                if (index >= image.length()) {
+                    token = token.getNextToken();
+                    index = 0;
+                }
+            }
+            return (count == 0 && len > 0) ? -1 : count;
+        }
+
+        /**
+         * Skips characters in the token list.
+         *
+         * @param n              the number of characters to skip
+         *
+         * @return the number of characters skipped
+         */
+        public long skip(long n) {
+            long  count = 0;
+            int   step;
+
+            while (count < n && token != null) {
+                step = (int) Math.min(n - count, token.getImage().length() -
+                                                 index);
+                index += step;
+                pos += step;
+                count += step;
+                if (index >= token.getImage().length()) {
+                    token = token.getNextToken();
+                    index = 0;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Closes this reader. This method does nothing, as the token
+         * list isn't modified.
+         */
+        public void close() {
+            // Nothing to do here
+        }
     }
 }
@@ -0,0 +1,240 @@
+/*
+ * Utf8Reader.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A character reader for UTF-8 encoded bytes. The bytes can be read
+ * from an input stream, a byte buffer or a byte channel (such as a
+ * file channel). The bytes are decoded directly into the character
+ * array passed to the read method, and a byte buffer is decoded
+ * without copying any bytes. Malformed byte sequences are replaced
+ * with the Unicode replacement character (U+FFFD).
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class Utf8Reader extends Reader {
+
+    /**
+     * The byte buffer size used for streams and channels.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The input stream, or null if not used.
+     */
+    private InputStream stream = null;
+
+    /**
+     * The input byte channel, or null if not used.
+     */
+    private ReadableByteChannel channel = null;
+
+    /**
+     * The byte buffer being decoded. The buffer is kept in read
+     * mode, with the remaining bytes being those not yet decoded.
+     */
+    private ByteBuffer bytes;
+
+    /**
+     * The UTF-8 character decoder.
+     */
+    private CharsetDecoder decoder;
+
+    /**
+     * The end of input flag. This flag is set when no more bytes
+     * can be read into the byte buffer.
+     */
+    private boolean eof = false;
+
+    /**
+     * The decoder flushed flag. This flag is set when all the input
+     * has been decoded.
+     */
+    private boolean flushed = false;
+
+    /**
+     * The pending character, or -1 for none. This is set when the
+     * second character of a surrogate pair didn't fit in the
+     * previous read.
+     */
+    private int pending = -1;
+
+    /**
+     * Creates a new UTF-8 reader for an input stream.
+     *
+     * @param stream         the input stream to read
+     */
+    public Utf8Reader(InputStream stream) {
+        this(ByteBuffer.allocate(BUFFER_SIZE));
+        this.stream = stream;
+        this.bytes.limit(0);
+        this.eof = false;
+    }
+
+    /**
+     * Creates a new UTF-8 reader for a byte channel. This can be
+     * used for reading from a file channel.
+     *
+     * @param channel        the input byte channel to read
+     */
+    public Utf8Reader(ReadableByteChannel channel) {
+        this(ByteBuffer.allocate(BUFFER_SIZE));
+        this.channel = channel;
+        this.bytes.limit(0);
+        this.eof = false;
+    }
+
+    /**
+     * Creates a new UTF-8 reader for a byte buffer. The bytes from
+     * the current buffer position to the buffer limit will be read.
+     * The buffer position isn't modified.
+     *
+     * @param buffer         the input byte buffer to read
+     */
+    public Utf8Reader(ByteBuffer buffer) {
+        this.bytes = buffer.duplicate();
+        this.eof = true;
+        this.decoder = Charset.forName("UTF-8").newDecoder();
+        this.decoder.onMalformedInput(CodingErrorAction.REPLACE);
+        this.decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Reads characters into a portion of an array.
+     *
+     * @param cbuf           the destination buffer
+     * @param off            the offset at which to start storing
+     * @param len            the maximum number of characters to read
+     *
+     * @return the number of characters read, or
+     *         -1 if the end of the input has been reached
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        char[]  pair;
+        int     count;
+
+        if (bytes == null) {
+            throw new IOException("reader has been closed");
+        } else if (len <= 0) {
+            return 0;
+        } else if (pending >= 0) {
+            cbuf[off] = (char) pending;
+            pending = -1;
+            return 1;
+        } else if (len == 1) {
+            pair = new char[2];
+            count = decode(CharBuffer.wrap(pair));
+            if (count > 1) {
+                pending = pair[1];
+            }
+            cbuf[off] = pair[0];
+            return (count <= 0) ? -1 : 1;
+        } else {
+            count = decode(CharBuffer.wrap(cbuf, off, len));
+            return (count <= 0) ? -1 : count;
+        }
+    }
+
+    /**
+     * Decodes bytes into a character buffer. This method will read
+     * more bytes from the input until at least one character has
+     * been decoded, or the end of the input is reached.
+     *
+     * @param out            the character buffer to fill
+     *
+     * @return the number of characters decoded
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private int decode(CharBuffer out) throws IOException {
+        int          start = out.position();
+        CoderResult  result;
+
+        while (!flushed) {
+            result = decoder.decode(bytes, out, eof);
+            if (result.isOverflow()) {
+                break;
+            } else if (result.isError()) {
+                result.throwException();
+            } else if (eof) {
+                flushed = decoder.flush(out).isUnderflow();
+                break;
+            } else if (out.position() > start) {
+                break;
+            } else {
+                fill();
+            }
+        }
+        return out.position() - start;
+    }
+
+    /**
+     * Reads more bytes from the input. Any remaining bytes are moved
+     * to the beginning of the byte buffer before reading.
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private void fill() throws IOException {
+        int  count;
+
+        bytes.compact();
+        if (stream != null) {
+            count = stream.read(bytes.array(),
+                                bytes.position(),
+                                bytes.remaining());
+            if (count > 0) {
+                bytes.position(bytes.position() + count);
+            }
+        } else {
+            count = channel.read(bytes);
+        }
+        if (count < 0) {
+            eof = true;
+        }
+        bytes.flip();
+    }
+
+    /**
+     * Closes this reader and the underlying input stream or channel.
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    public void close() throws IOException {
+        bytes = null;
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
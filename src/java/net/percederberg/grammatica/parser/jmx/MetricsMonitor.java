@@ -0,0 +1,313 @@
+/*
+ * MetricsMonitor.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser.jmx;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.percederberg.grammatica.parser.ParseMonitor;
+import net.percederberg.grammatica.parser.Parser;
+import net.percederberg.grammatica.parser.Tokenizer;
+
+/**
+ * A parse monitor aggregating parser metrics. The metrics are kept
+ * per tokenizer and parser class, so all instances created for the
+ * same grammar share a single set of counters. The parse counts,
+ * latencies and errors are recorded for the parser class, while the
+ * tokens read by any tokenizer are recorded for the tokenizer class.
+ * Each set of metrics is published as a platform MBean with an
+ * object name like the following:
+ *
+ * <pre>
+ *     net.percederberg.grammatica:type=ParserMetrics,name=MyParser
+ * </pre>
+ *
+ * The monitor is optional and must be registered before any metrics
+ * are recorded, normally at application startup:
+ *
+ * <pre>
+ *     MetricsMonitor.register();
+ * </pre>
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class MetricsMonitor extends ParseMonitor {
+
+    /**
+     * The JMX object name domain.
+     */
+    public static final String DOMAIN = "net.percederberg.grammatica";
+
+    /**
+     * The registered monitor instance, or null if not registered.
+     */
+    private static MetricsMonitor instance = null;
+
+    /**
+     * The metrics map. This map is indexed by the tokenizer or
+     * parser class name.
+     */
+    private ConcurrentHashMap metrics = new ConcurrentHashMap();
+
+    /**
+     * The flag for publishing the metrics as platform MBeans.
+     */
+    private volatile boolean publish;
+
+    /**
+     * Registers the metrics monitor. The metrics will be published as
+     * platform MBeans. Calling this method more than once has no
+     * effect.
+     *
+     * @return the registered metrics monitor
+     */
+    public static MetricsMonitor register() {
+        return register(true);
+    }
+
+    /**
+     * Registers the metrics monitor. Calling this method more than
+     * once has no effect, except that the metrics may be published
+     * later on.
+     *
+     * @param publish        the publish as platform MBeans flag
+     *
+     * @return the registered metrics monitor
+     */
+    public static synchronized MetricsMonitor register(boolean publish) {
+        if (instance == null) {
+            instance = new MetricsMonitor(publish);
+            ParseMonitor.addMonitor(instance);
+        } else if (publish && !instance.publish) {
+            instance.publishAll();
+        }
+        return instance;
+    }
+
+    /**
+     * Removes the metrics monitor. All published MBeans will also be
+     * unregistered, and the metrics will be discarded.
+     */
+    public static synchronized void unregister() {
+        if (instance != null) {
+            ParseMonitor.removeMonitor(instance);
+            instance.unpublishAll();
+            instance = null;
+        }
+    }
+
+    /**
+     * Returns the registered metrics monitor.
+     *
+     * @return the registered metrics monitor, or
+     *         null if not registered
+     */
+    public static synchronized MetricsMonitor getInstance() {
+        return instance;
+    }
+
+    /**
+     * Creates a new metrics monitor.
+     *
+     * @param publish        the publish as platform MBeans flag
+     */
+    private MetricsMonitor(boolean publish) {
+        this.publish = publish;
+    }
+
+    /**
+     * Returns the metrics for a tokenizer or parser class.
+     *
+     * @param cls            the tokenizer or parser class
+     *
+     * @return the metrics for the class, or
+     *         null if nothing has been recorded
+     */
+    public ParserMetrics getMetrics(Class cls) {
+        return getMetrics(cls.getName());
+    }
+
+    /**
+     * Returns the metrics for a tokenizer or parser class.
+     *
+     * @param name           the tokenizer or parser class name
+     *
+     * @return the metrics for the class, or
+     *         null if nothing has been recorded
+     */
+    public ParserMetrics getMetrics(String name) {
+        return (ParserMetrics) metrics.get(name);
+    }
+
+    /**
+     * Returns all the metrics recorded. The metrics are sorted by
+     * the class name.
+     *
+     * @return an array with all the metrics
+     */
+    public ParserMetrics[] getAllMetrics() {
+        ArrayList  list = new ArrayList(metrics.values());
+
+        Collections.sort(list, new Comparator() {
+            public int compare(Object a, Object b) {
+                String  nameA = ((ParserMetrics) a).getName();
+                String  nameB = ((ParserMetrics) b).getName();
+
+                return nameA.compareTo(nameB);
+            }
+        });
+        return (ParserMetrics[]) list.toArray(new ParserMetrics[list.size()]);
+    }
+
+    /**
+     * Called when a parse has finished.
+     *
+     * @param parser         the parser used
+     * @param time           the elapsed time, in nanoseconds
+     * @param chars          the number of input characters read
+     * @param tokens         the number of tokens consumed
+     * @param error          the error thrown, or null for success
+     */
+    public void parseFinished(Parser parser,
+                              long time,
+                              int chars,
+                              int tokens,
+                              Exception error) {
+
+        findMetrics(parser.getClass()).addParse(time, chars, tokens, error);
+    }
+
+    /**
+     * Called when a tokenizer has read tokens.
+     *
+     * @param tokenizer      the tokenizer used
+     * @param chars          the number of input characters read
+     * @param tokens         the number of tokens returned
+     */
+    public void tokenizeFinished(Tokenizer tokenizer, int chars, int tokens) {
+        findMetrics(tokenizer.getClass()).addTokens(chars, tokens);
+    }
+
+    /**
+     * Returns the metrics for a class, creating and publishing them
+     * if needed.
+     *
+     * @param cls            the tokenizer or parser class
+     *
+     * @return the metrics for the class
+     */
+    private ParserMetrics findMetrics(Class cls) {
+        String         name = cls.getName();
+        ParserMetrics  res = (ParserMetrics) metrics.get(name);
+        ParserMetrics  created;
+
+        if (res == null) {
+            created = new ParserMetrics(name);
+            res = (ParserMetrics) metrics.putIfAbsent(name, created);
+            if (res == null) {
+                res = created;
+                if (publish) {
+                    publish(res);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Publishes all the metrics as platform MBeans.
+     */
+    private synchronized void publishAll() {
+        Iterator  iter = metrics.values().iterator();
+
+        publish = true;
+        while (iter.hasNext()) {
+            publish((ParserMetrics) iter.next());
+        }
+    }
+
+    /**
+     * Unregisters all the published platform MBeans.
+     */
+    private synchronized void unpublishAll() {
+        MBeanServer  server;
+        Iterator     iter = metrics.values().iterator();
+        ObjectName   name;
+
+        if (!publish) {
+            return;
+        }
+        server = ManagementFactory.getPlatformMBeanServer();
+        while (iter.hasNext()) {
+            try {
+                name = getObjectName((ParserMetrics) iter.next());
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException ignore) {
+                // Nothing more to do
+            }
+        }
+        publish = false;
+    }
+
+    /**
+     * Publishes the metrics as a platform MBean. Any error, such as
+     * a name conflict with another class loader, is ignored since
+     * the metrics are still available from this monitor.
+     *
+     * @param m              the metrics to publish
+     */
+    private synchronized void publish(ParserMetrics m) {
+        MBeanServer  server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName   name;
+
+        try {
+            name = getObjectName(m);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(m, name);
+            }
+        } catch (JMException ignore) {
+            // Metrics still available from the monitor
+        }
+    }
+
+    /**
+     * Returns the JMX object name for a set of metrics.
+     *
+     * @param m              the metrics to name
+     *
+     * @return the JMX object name
+     *
+     * @throws JMException if the class name couldn't be used in an
+     *             object name
+     */
+    public static ObjectName getObjectName(ParserMetrics m)
+        throws JMException {
+
+        return new ObjectName(DOMAIN + ":type=ParserMetrics,name=" +
+                              m.getName());
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * ParserMetrics.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser.jmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.percederberg.grammatica.parser.ParseException;
+import net.percederberg.grammatica.parser.ParserLogException;
+
+/**
+ * The aggregated metrics for a tokenizer or parser class. The
+ * metrics are shared by all instances of the class, and may be
+ * updated concurrently from any number of threads. The parse latency
+ * histogram uses buckets with power-of-two boundaries. The first
+ * bucket contains parses faster than one microsecond, and bucket n
+ * contains parses taking from 2^(n-1) up to 2^n microseconds. The
+ * last bucket also contains all slower parses.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ *
+ * @see MetricsMonitor
+ */
+public class ParserMetrics implements ParserMetricsMBean {
+
+    /**
+     * The number of latency histogram buckets.
+     */
+    public static final int LATENCY_BUCKETS = 32;
+
+    /**
+     * The number of parse error types.
+     */
+    private static final int ERROR_TYPES = ParseException.ABORTED_ERROR + 1;
+
+    /**
+     * The minimum time between two rate samples, in nanoseconds.
+     */
+    private static final long RATE_INTERVAL = 1000000000L;
+
+    /**
+     * The parse count index.
+     */
+    private static final int PARSES = 0;
+
+    /**
+     * The failed parse count index.
+     */
+    private static final int FAILED = 1;
+
+    /**
+     * The token count index.
+     */
+    private static final int TOKENS = 2;
+
+    /**
+     * The input character count index.
+     */
+    private static final int CHARS = 3;
+
+    /**
+     * The total parse latency index.
+     */
+    private static final int LATENCY = 4;
+
+    /**
+     * The first error type count index.
+     */
+    private static final int ERRORS = 5;
+
+    /**
+     * The first latency histogram bucket index.
+     */
+    private static final int HISTOGRAM = ERRORS + ERROR_TYPES;
+
+    /**
+     * The tokenizer or parser class name.
+     */
+    private String name;
+
+    /**
+     * The striped metric counters.
+     */
+    private StripedCounters counters =
+        new StripedCounters(HISTOGRAM + LATENCY_BUCKETS);
+
+    /**
+     * The maximum parse latency, in nanoseconds.
+     */
+    private AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * The rate sample times, indexed by counter.
+     */
+    private long[] rateTimes = new long[CHARS + 1];
+
+    /**
+     * The counter values at the rate sample times.
+     */
+    private long[] rateCounts = new long[CHARS + 1];
+
+    /**
+     * The last computed rates, or negative if not yet computed.
+     */
+    private double[] rates = new double[CHARS + 1];
+
+    /**
+     * Creates new empty metrics.
+     *
+     * @param name           the tokenizer or parser class name
+     */
+    public ParserMetrics(String name) {
+        this.name = name;
+        reset();
+    }
+
+    /**
+     * Returns the tokenizer or parser class name.
+     *
+     * @return the tokenizer or parser class name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of completed parses.
+     *
+     * @return the number of completed parses
+     */
+    public long getParseCount() {
+        return counters.get(PARSES);
+    }
+
+    /**
+     * Returns the number of parses that failed with an error.
+     *
+     * @return the number of failed parses
+     */
+    public long getFailedParseCount() {
+        return counters.get(FAILED);
+    }
+
+    /**
+     * Returns the number of tokens read.
+     *
+     * @return the number of tokens read
+     */
+    public long getTokenCount() {
+        return counters.get(TOKENS);
+    }
+
+    /**
+     * Returns the number of input characters read.
+     *
+     * @return the number of input characters read
+     */
+    public long getCharCount() {
+        return counters.get(CHARS);
+    }
+
+    /**
+     * Returns the total number of parse errors found.
+     *
+     * @return the number of parse errors found
+     */
+    public long getErrorCount() {
+        long[]  errors = getErrorCounts();
+        long    sum = 0;
+
+        for (int i = 0; i < errors.length; i++) {
+            sum += errors[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the number of parse errors found by error type.
+     *
+     * @return an array with the error counts, indexed by the
+     *         ParseException error type constants
+     */
+    public long[] getErrorCounts() {
+        return counters.get(ERRORS, ERROR_TYPES);
+    }
+
+    /**
+     * Returns the recent number of parses per second. The rate is
+     * measured between samples taken at least one second apart.
+     *
+     * @return the recent number of parses per second
+     */
+    public double getParsesPerSecond() {
+        return getRate(PARSES);
+    }
+
+    /**
+     * Returns the recent number of tokens per second. The rate is
+     * measured between samples taken at least one second apart.
+     *
+     * @return the recent number of tokens per second
+     */
+    public double getTokensPerSecond() {
+        return getRate(TOKENS);
+    }
+
+    /**
+     * Returns the recent number of input characters per second. The
+     * rate is measured between samples taken at least one second
+     * apart.
+     *
+     * @return the recent number of characters per second
+     */
+    public double getCharsPerSecond() {
+        return getRate(CHARS);
+    }
+
+    /**
+     * Returns the parse latency histogram.
+     *
+     * @return an array with the parse counts for each latency bucket
+     */
+    public long[] getLatencyHistogram() {
+        return counters.get(HISTOGRAM, LATENCY_BUCKETS);
+    }
+
+    /**
+     * Returns the mean parse latency.
+     *
+     * @return the mean parse latency in microseconds
+     */
+    public double getMeanLatency() {
+        long  parses = getParseCount();
+
+        if (parses <= 0) {
+            return 0;
+        }
+        return counters.get(LATENCY) / 1000.0 / parses;
+    }
+
+    /**
+     * Returns the maximum parse latency.
+     *
+     * @return the maximum parse latency in microseconds
+     */
+    public long getMaxLatency() {
+        return maxLatency.get() / 1000;
+    }
+
+    /**
+     * Returns an approximate median parse latency. The value returned
+     * is the upper bound of the corresponding histogram bucket.
+     *
+     * @return the approximate median parse latency in microseconds
+     */
+    public long getMedianLatency() {
+        return getLatencyPercentile(50);
+    }
+
+    /**
+     * Returns an approximate 99th percentile parse latency. The value
+     * returned is the upper bound of the corresponding histogram
+     * bucket.
+     *
+     * @return the approximate 99th percentile latency in microseconds
+     */
+    public long getLatency99() {
+        return getLatencyPercentile(99);
+    }
+
+    /**
+     * Returns an approximate parse latency percentile. The value
+     * returned is the upper bound of the corresponding histogram
+     * bucket, but never more than the maximum latency.
+     *
+     * @param percentile     the percentile, from 0 to 100
+     *
+     * @return the approximate latency percentile in microseconds
+     */
+    public long getLatencyPercentile(double percentile) {
+        long[]  buckets = getLatencyHistogram();
+        long    total = 0;
+        long    rank;
+        long    sum = 0;
+
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i];
+        }
+        rank = (long) Math.ceil(percentile / 100.0 * total);
+        for (int i = 0; i < buckets.length && total > 0; i++) {
+            sum += buckets[i];
+            if (sum >= rank && sum > 0) {
+                return Math.min((1L << i) - 1, getMaxLatency());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Resets all the metrics to zero.
+     */
+    public synchronized void reset() {
+        long  now = System.nanoTime();
+
+        counters.clear();
+        maxLatency.set(0);
+        for (int i = 0; i < rates.length; i++) {
+            rateTimes[i] = now;
+            rateCounts[i] = 0;
+            rates[i] = -1;
+        }
+    }
+
+    /**
+     * Adds the metrics for a completed parse. Any parse errors in a
+     * parser log exception are counted by error type.
+     *
+     * @param time           the elapsed time, in nanoseconds
+     * @param chars          the number of input characters read
+     * @param tokens         the number of tokens consumed
+     * @param error          the error thrown, or null for success
+     */
+    public void addParse(long time, int chars, int tokens, Exception error) {
+        ParserLogException  log;
+        long                max;
+        int                 type;
+
+        counters.increment(PARSES);
+        counters.add(TOKENS, tokens);
+        counters.add(CHARS, chars);
+        counters.add(LATENCY, time);
+        counters.increment(HISTOGRAM + getLatencyBucket(time));
+        max = maxLatency.get();
+        while (time > max && !maxLatency.compareAndSet(max, time)) {
+            max = maxLatency.get();
+        }
+        if (error != null) {
+            counters.increment(FAILED);
+        }
+        if (error instanceof ParserLogException) {
+            log = (ParserLogException) error;
+            for (int i = 0; i < log.getErrorCount(); i++) {
+                addError(log.getError(i).getErrorType());
+            }
+        } else if (error instanceof ParseException) {
+            addError(((ParseException) error).getErrorType());
+        } else if (error != null) {
+            addError(ParseException.INTERNAL_ERROR);
+        }
+    }
+
+    /**
+     * Adds the metrics for a completed tokenization.
+     *
+     * @param chars          the number of input characters read
+     * @param tokens         the number of tokens read
+     */
+    public void addTokens(int chars, int tokens) {
+        counters.add(TOKENS, tokens);
+        counters.add(CHARS, chars);
+    }
+
+    /**
+     * Adds a parse error.
+     *
+     * @param type           the parse error type
+     */
+    private void addError(int type) {
+        if (type < 0 || type >= ERROR_TYPES) {
+            type = ParseException.INTERNAL_ERROR;
+        }
+        counters.increment(ERRORS + type);
+    }
+
+    /**
+     * Returns the recent rate for a counter. A new rate sample is
+     * taken if at least one second has passed since the previous
+     * sample. Until the first sample has been taken, the rate since
+     * the metrics were created or reset is returned.
+     *
+     * @param counter        the counter index
+     *
+     * @return the recent counter rate per second
+     */
+    private synchronized double getRate(int counter) {
+        long  now = System.nanoTime();
+        long  value = counters.get(counter);
+        long  elapsed = now - rateTimes[counter];
+
+        if (elapsed >= RATE_INTERVAL) {
+            rates[counter] = (value - rateCounts[counter]) * 1.0e9 / elapsed;
+            rateTimes[counter] = now;
+            rateCounts[counter] = value;
+        } else if (rates[counter] < 0) {
+            return (elapsed <= 0) ? 0 : value * 1.0e9 / elapsed;
+        }
+        return rates[counter];
+    }
+
+    /**
+     * Returns the latency histogram bucket for a parse time.
+     *
+     * @param time           the elapsed time, in nanoseconds
+     *
+     * @return the latency histogram bucket index
+     */
+    static int getLatencyBucket(long time) {
+        long  micros = time / 1000;
+        int   bucket;
+
+        if (micros <= 0) {
+            return 0;
+        }
+        bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, LATENCY_BUCKETS - 1);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * ParserMetricsMBean.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser.jmx;
+
+/**
+ * The JMX management interface for the parser metrics.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ *
+ * @see ParserMetrics
+ */
+public interface ParserMetricsMBean {
+
+    /**
+     * Returns the tokenizer or parser class name.
+     *
+     * @return the tokenizer or parser class name
+     */
+    String getName();
+
+    /**
+     * Returns the number of completed parses.
+     *
+     * @return the number of completed parses
+     */
+    long getParseCount();
+
+    /**
+     * Returns the number of parses that failed with an error.
+     *
+     * @return the number of failed parses
+     */
+    long getFailedParseCount();
+
+    /**
+     * Returns the number of tokens read.
+     *
+     * @return the number of tokens read
+     */
+    long getTokenCount();
+
+    /**
+     * Returns the number of input characters read.
+     *
+     * @return the number of input characters read
+     */
+    long getCharCount();
+
+    /**
+     * Returns the total number of parse errors found.
+     *
+     * @return the number of parse errors found
+     */
+    long getErrorCount();
+
+    /**
+     * Returns the number of parse errors found by error type.
+     *
+     * @return an array with the error counts, indexed by the
+     *         ParseException error type constants
+     */
+    long[] getErrorCounts();
+
+    /**
+     * Returns the recent number of parses per second.
+     *
+     * @return the recent number of parses per second
+     */
+    double getParsesPerSecond();
+
+    /**
+     * Returns the recent number of tokens per second.
+     *
+     * @return the recent number of tokens per second
+     */
+    double getTokensPerSecond();
+
+    /**
+     * Returns the recent number of input characters per second.
+     *
+     * @return the recent number of characters per second
+     */
+    double getCharsPerSecond();
+
+    /**
+     * Returns the parse latency histogram.
+     *
+     * @return an array with the parse counts for each latency bucket
+     */
+    long[] getLatencyHistogram();
+
+    /**
+     * Returns the mean parse latency.
+     *
+     * @return the mean parse latency in microseconds
+     */
+    double getMeanLatency();
+
+    /**
+     * Returns the maximum parse latency.
+     *
+     * @return the maximum parse latency in microseconds
+     */
+    long getMaxLatency();
+
+    /**
+     * Returns an approximate median parse latency.
+     *
+     * @return the approximate median parse latency in microseconds
+     */
+    long getMedianLatency();
+
+    /**
+     * Returns an approximate 99th percentile parse latency.
+     *
+     * @return the approximate 99th percentile latency in microseconds
+     */
+    long getLatency99();
+
+    /**
+     * Resets all the metrics to zero.
+     */
+    void reset();
+}
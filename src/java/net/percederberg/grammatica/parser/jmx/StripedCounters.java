@@ -0,0 +1,145 @@
+/*
+ * StripedCounters.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser.jmx;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed set of striped atomic counters. Each counter is split into
+ * a number of stripes, and each thread updates the stripe selected
+ * by its thread id. This reduces the contention when many threads
+ * update the same counter, at the cost of a slower read. The stripes
+ * for each thread are stored together and padded, so that threads
+ * updating different stripes don't share cache lines. The counter
+ * values read are not an atomic snapshot, since the counters may be
+ * updated concurrently.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+class StripedCounters {
+
+    /**
+     * The number of stripes. This must be a power of two.
+     */
+    private static final int STRIPES = 16;
+
+    /**
+     * The number of padding cells after the counters in each stripe.
+     * This corresponds to a 64 byte cache line.
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * The number of counters.
+     */
+    private int count;
+
+    /**
+     * The number of cells in each stripe.
+     */
+    private int width;
+
+    /**
+     * The counter cells. The cells are indexed by stripe first, and
+     * then by counter.
+     */
+    private AtomicLongArray cells;
+
+    /**
+     * Creates a new set of striped counters.
+     *
+     * @param count          the number of counters
+     */
+    public StripedCounters(int count) {
+        this.count = count;
+        this.width = count + PADDING;
+        this.cells = new AtomicLongArray(STRIPES * width + PADDING);
+    }
+
+    /**
+     * Returns the number of counters.
+     *
+     * @return the number of counters
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Adds a value to a counter.
+     *
+     * @param counter        the counter index
+     * @param value          the value to add
+     */
+    public void add(int counter, long value) {
+        int  stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+
+        cells.addAndGet(PADDING + stripe * width + counter, value);
+    }
+
+    /**
+     * Increments a counter by one.
+     *
+     * @param counter        the counter index
+     */
+    public void increment(int counter) {
+        add(counter, 1);
+    }
+
+    /**
+     * Returns the current value of a counter.
+     *
+     * @param counter        the counter index
+     *
+     * @return the sum of all the counter stripes
+     */
+    public long get(int counter) {
+        long  sum = 0;
+
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(PADDING + i * width + counter);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the current values of a range of counters.
+     *
+     * @param start          the first counter index
+     * @param length         the number of counters
+     *
+     * @return an array with the counter values
+     */
+    public long[] get(int start, int length) {
+        long[]  res = new long[length];
+
+        for (int i = 0; i < length; i++) {
+            res[i] = get(start + i);
+        }
+        return res;
+    }
+
+    /**
+     * Resets all counters to zero. Any concurrent updates may or may
+     * not be lost.
+     */
+    public void clear() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+    }
+}
@@ -16,6 +16,8 @@ package net.percederberg.grammatica.parser.re;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.Random;
 
 import net.percederberg.grammatica.parser.ReaderBuffer;
 
@@ -24,7 +26,7 @@ import net.percederberg.grammatica.parser.ReaderBuffer;
  * longest alternative element.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 class AlternativeElement extends Element {
 
@@ -49,18 +51,6 @@ class AlternativeElement extends Element {
         elem2 = second;
     }
 
-    /**
-     * Creates a copy of this element. The copy will be an instance
-     * of the same class matching the same strings. Copies of elements
-     * are necessary to allow elements to cache intermediate results
-     * while matching strings without interfering with other threads.
-     *
-     * @return a copy of this element
-     */
-    public Object clone() {
-        return new AlternativeElement(elem1, elem2);
-    }
-
     /**
      * Returns the length of a matching string starting at the
      * specified position. The number of matches to skip can also be
@@ -101,6 +91,105 @@ class AlternativeElement extends Element {
         return length;
     }
 
+    /**
+     * Finds all matches starting at a set of positions. These are
+     * the matches of either alternative.
+     *
+     * @param m              the matcher being used
+     * @param buffer         the input character buffer to match
+     * @param starts         the set of start positions
+     * @param empty          the set to add empty match positions to
+     * @param ends           the set to add match end positions to
+     *
+     * @throws IOException if an I/O error occurred
+     *
+     * @since 1.7
+     */
+    public void findMatches(Matcher m,
+                            ReaderBuffer buffer,
+                            BitSet starts,
+                            BitSet empty,
+                            BitSet ends)
+        throws IOException {
+
+        elem1.findMatches(m, buffer, starts, empty, ends);
+        elem2.findMatches(m, buffer, starts, empty, ends);
+    }
+
+    /**
+     * Checks if an empty match is always the last match returned by
+     * this element. This is the case if it is the last match for
+     * both alternatives, since the longest remaining match of either
+     * alternative is returned first.
+     *
+     * @return true if an empty match is always the last match, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean isEmptyMatchLast() {
+        return elem1.isEmptyMatchLast() && elem2.isEmptyMatchLast();
+    }
+
+    /**
+     * Returns the literal prefix of all strings matching this
+     * element. This is the common prefix of both alternatives.
+     *
+     * @return the literal prefix, or
+     *         an empty string if there is no common prefix
+     *
+     * @since 1.7
+     */
+    public String getPrefix() {
+        String  prefix1 = elem1.getPrefix();
+        String  prefix2 = elem2.getPrefix();
+        int     i = 0;
+
+        while (i < prefix1.length() && i < prefix2.length() &&
+               prefix1.charAt(i) == prefix2.charAt(i)) {
+
+            i++;
+        }
+        return prefix1.substring(0, i);
+    }
+
+    /**
+     * Adds the possible first characters of the strings matching
+     * this element.
+     *
+     * @param chars          the first character flags to modify
+     *
+     * @return true if this element may match an empty string, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean addFirstChars(boolean[] chars) {
+        boolean  empty1 = elem1.addFirstChars(chars);
+        boolean  empty2 = elem2.addFirstChars(chars);
+
+        return empty1 || empty2;
+    }
+
+    /**
+     * Appends a random string matching this element to a buffer.
+     * Unbounded repetitions will be limited to the specified number
+     * of extra occurrences.
+     *
+     * @param random         the random number generator
+     * @param maxRepeat      the maximum number of extra repetitions
+     * @param buffer         the string buffer to append to
+     *
+     * @since 1.7
+     */
+    public void generate(Random random, int maxRepeat, StringBuffer buffer) {
+        if (random.nextBoolean()) {
+            elem1.generate(random, maxRepeat, buffer);
+        } else {
+            elem2.generate(random, maxRepeat, buffer);
+        }
+    }
+
     /**
      * Prints this element to the specified output stream.
      *
@@ -16,6 +16,7 @@ package net.percederberg.grammatica.parser.re;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Random;
 
 import net.percederberg.grammatica.parser.ReaderBuffer;
 
@@ -176,6 +177,12 @@ class CharacterSetElement extends Element {
      */
     private Object[] contents = new Object[0];
 
+    /**
+     * The sample characters for generating random strings. This
+     * array is created on demand.
+     */
+    private char[] samples = null;
+
     /**
      * Creates a new character set element. If the inverted character
      * set flag is set, only characters NOT in the set will match.
@@ -247,18 +254,6 @@ class CharacterSetElement extends Element {
         contents[temp.length] = obj;
     }
 
-    /**
-     * Returns this element as the character set shouldn't be modified
-     * after creation. This partially breaks the contract of clone(),
-     * but as new characters are not added to the character set after
-     * creation, this will work correctly.
-     *
-     * @return this character set element
-     */
-    public Object clone() {
-        return this;
-    }
-
     /**
      * Returns the length of a matching string starting at the
      * specified position. The number of matches to skip can also be
@@ -332,6 +327,91 @@ class CharacterSetElement extends Element {
         return inverted;
     }
 
+    /**
+     * Returns the literal prefix of all strings matching this
+     * element. A character set has no literal prefix.
+     *
+     * @return an empty string
+     *
+     * @since 1.7
+     */
+    public String getPrefix() {
+        return "";
+    }
+
+    /**
+     * Adds the possible first characters of the strings matching
+     * this element. The flag for all larger characters is always
+     * set, since checking the whole character set is too expensive.
+     *
+     * @param chars          the first character flags to modify
+     *
+     * @return false, as the character set never matches an empty
+     *         string
+     *
+     * @since 1.7
+     */
+    public boolean addFirstChars(boolean[] chars) {
+        for (int i = 0; i < chars.length - 1; i++) {
+            if (inSet((char) i)) {
+                chars[i] = true;
+            }
+        }
+        chars[chars.length - 1] = true;
+        return false;
+    }
+
+    /**
+     * Appends a random string matching this element to a buffer.
+     * Unbounded repetitions will be limited to the specified number
+     * of extra occurrences.
+     *
+     * @param random         the random number generator
+     * @param maxRepeat      the maximum number of extra repetitions
+     * @param buffer         the string buffer to append to
+     *
+     * @since 1.7
+     */
+    public void generate(Random random, int maxRepeat, StringBuffer buffer) {
+        if (samples == null) {
+            samples = findSamples();
+        }
+        if (samples.length > 0) {
+            buffer.append(samples[random.nextInt(samples.length)]);
+        }
+    }
+
+    /**
+     * Finds the sample characters in this set. Printable ASCII
+     * characters, tabs and newlines are preferred. Only if none of
+     * those are in the set, all the other characters are checked.
+     *
+     * @return the array of sample characters
+     */
+    private char[] findSamples() {
+        StringBuffer  buffer = new StringBuffer();
+
+        for (char c = ' '; c < 127; c++) {
+            if (inSet(c)) {
+                buffer.append(c);
+            }
+        }
+        if (inSet('\t')) {
+            buffer.append('\t');
+        }
+        if (inSet('\n')) {
+            buffer.append('\n');
+        }
+        if (buffer.length() == 0) {
+            for (int i = 0; i <= Character.MAX_VALUE; i++) {
+                if (inSet((char) i)) {
+                    buffer.append((char) i);
+                }
+            }
+        }
+        return buffer.toString().toCharArray();
+    }
+
     /**
      * Prints this element to the specified output stream.
      *
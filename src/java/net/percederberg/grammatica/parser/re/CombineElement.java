@@ -16,18 +16,31 @@ package net.percederberg.grammatica.parser.re;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.Random;
 
 import net.percederberg.grammatica.parser.ReaderBuffer;
 
 /**
  * A regular expression combination element. This element matches two
- * consecutive elements.
+ * consecutive elements. The alternative matches are enumerated
+ * incrementally, so that a series of calls with increasing skip
+ * counts doesn't restart the search for each call. Alternatives with
+ * the same length as a previous one are also skipped, since they
+ * cannot change the result of the overall match. The enumeration
+ * state is stored in the matcher scratch data, so that this element
+ * is immutable and may be shared between matchers.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 class CombineElement extends Element {
 
+    /**
+     * The unknown first element match length constant.
+     */
+    private static final int UNKNOWN = -2;
+
     /**
      * The first element.
      */
@@ -39,26 +52,21 @@ class CombineElement extends Element {
     private Element elem2;
 
     /**
-     * Creates a new combine element.
-     *
-     * @param first          the first element
-     * @param second         the second element
+     * The matcher scratch data index.
      */
-    public CombineElement(Element first, Element second) {
-        elem1 = first;
-        elem2 = second;
-    }
+    private int index;
 
     /**
-     * Creates a copy of this element. The copy will be an instance
-     * of the same class matching the same strings. Copies of elements
-     * are necessary to allow elements to cache intermediate results
-     * while matching strings without interfering with other threads.
+     * Creates a new combine element.
      *
-     * @return a copy of this element
+     * @param first          the first element
+     * @param second         the second element
+     * @param index          the matcher scratch data index
      */
-    public Object clone() {
-        return new CombineElement(elem1, elem2);
+    public CombineElement(Element first, Element second, int index) {
+        this.elem1 = first;
+        this.elem2 = second;
+        this.index = index;
     }
 
     /**
@@ -81,27 +89,167 @@ class CombineElement extends Element {
     public int match(Matcher m, ReaderBuffer buffer, int start, int skip)
         throws IOException {
 
-        int  length1 = -1;
-        int  length2 = 0;
-        int  skip1 = 0;
-        int  skip2 = 0;
+        Search  s = (Search) m.getScratch(index);
 
-        while (skip >= 0) {
-            length1 = elem1.match(m, buffer, start, skip1);
-            if (length1 < 0) {
+        if (s == null) {
+            s = new Search();
+            m.setScratch(index, s);
+        }
+        if (start != s.start || skip <= s.skip) {
+            s.start = start;
+            s.skip = -1;
+            s.skip1 = 0;
+            s.skip2 = 0;
+            s.length1 = UNKNOWN;
+            s.lengths.clear();
+        }
+        while (s.skip < skip) {
+            s.length = matchNext(m, buffer, s);
+            if (s.length < 0) {
+                s.start = -1;
                 return -1;
             }
-            length2 = elem2.match(m, buffer, start + length1, skip2);
+            s.skip++;
+        }
+        return s.length;
+    }
+
+    /**
+     * Returns the length of the next matching string. Any string with
+     * the same length as a previous match will be skipped.
+     *
+     * @param m              the matcher being used
+     * @param buffer         the input character buffer to match
+     * @param s              the search state
+     *
+     * @return the length of the next matching string, or
+     *         -1 if no more matches were found
+     *
+     * @throws IOException if a I/O error occurred
+     */
+    private int matchNext(Matcher m, ReaderBuffer buffer, Search s)
+        throws IOException {
+
+        int  length2;
+
+        while (true) {
+            if (s.length1 == UNKNOWN) {
+                s.length1 = elem1.match(m, buffer, s.start, s.skip1);
+                if (s.length1 < 0) {
+                    return -1;
+                }
+            }
+            length2 = elem2.match(m, buffer, s.start + s.length1, s.skip2);
             if (length2 < 0) {
-                skip1++;
-                skip2 = 0;
+                s.skip1++;
+                s.skip2 = 0;
+                s.length1 = UNKNOWN;
             } else {
-                skip2++;
-                skip--;
+                s.skip2++;
+                if (!s.lengths.get(s.length1 + length2)) {
+                    s.lengths.set(s.length1 + length2);
+                    return s.length1 + length2;
+                }
             }
         }
+    }
+
+    /**
+     * Finds all matches starting at a set of positions. The second
+     * element is searched from the end positions of the first
+     * element, which avoids checking each combination of matches
+     * separately.
+     *
+     * @param m              the matcher being used
+     * @param buffer         the input character buffer to match
+     * @param starts         the set of start positions
+     * @param empty          the set to add empty match positions to
+     * @param ends           the set to add match end positions to
+     *
+     * @throws IOException if an I/O error occurred
+     *
+     * @since 1.7
+     */
+    public void findMatches(Matcher m,
+                            ReaderBuffer buffer,
+                            BitSet starts,
+                            BitSet empty,
+                            BitSet ends)
+        throws IOException {
 
-        return length1 + length2;
+        BitSet  empty1 = new BitSet();
+        BitSet  ends1 = new BitSet();
+        BitSet  empty2 = new BitSet();
+
+        elem1.findMatches(m, buffer, starts, empty1, ends1);
+        elem2.findMatches(m, buffer, empty1, empty, ends);
+        elem2.findMatches(m, buffer, ends1, empty2, ends);
+        ends.or(empty2);
+    }
+
+    /**
+     * Checks if an empty match is always the last match returned by
+     * this element. This is the case if it is the last match for
+     * both elements, since the empty match is then the final
+     * combination.
+     *
+     * @return true if an empty match is always the last match, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean isEmptyMatchLast() {
+        return elem1.isEmptyMatchLast() && elem2.isEmptyMatchLast();
+    }
+
+    /**
+     * Returns the literal prefix of all strings matching this
+     * element. The prefix of the second element is only included if
+     * the first element is a string.
+     *
+     * @return the literal prefix, or
+     *         an empty string if there is no common prefix
+     *
+     * @since 1.7
+     */
+    public String getPrefix() {
+        if (elem1 instanceof StringElement) {
+            return elem1.getPrefix() + elem2.getPrefix();
+        } else {
+            return elem1.getPrefix();
+        }
+    }
+
+    /**
+     * Adds the possible first characters of the strings matching
+     * this element. The first characters of the second element are
+     * only added if the first element may match an empty string.
+     *
+     * @param chars          the first character flags to modify
+     *
+     * @return true if this element may match an empty string, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean addFirstChars(boolean[] chars) {
+        return elem1.addFirstChars(chars) && elem2.addFirstChars(chars);
+    }
+
+    /**
+     * Appends a random string matching this element to a buffer.
+     * Unbounded repetitions will be limited to the specified number
+     * of extra occurrences.
+     *
+     * @param random         the random number generator
+     * @param maxRepeat      the maximum number of extra repetitions
+     * @param buffer         the string buffer to append to
+     *
+     * @since 1.7
+     */
+    public void generate(Random random, int maxRepeat, StringBuffer buffer) {
+        elem1.generate(random, maxRepeat, buffer);
+        elem2.generate(random, maxRepeat, buffer);
     }
 
     /**
@@ -115,4 +263,46 @@ class CombineElement extends Element {
         elem2.printTo(output, indent);
     }
 
+    /**
+     * The incremental search state for a start position. This is
+     * stored in the matcher scratch data, and reused for each new
+     * start position.
+     */
+    private static class Search {
+
+        /**
+         * The start position of the last match, or -1 for none.
+         */
+        protected int start = -1;
+
+        /**
+         * The skip count of the last match.
+         */
+        protected int skip = -1;
+
+        /**
+         * The length of the last match.
+         */
+        protected int length = -1;
+
+        /**
+         * The current number of first element matches to skip.
+         */
+        protected int skip1 = 0;
+
+        /**
+         * The current number of second element matches to skip.
+         */
+        protected int skip2 = 0;
+
+        /**
+         * The current first element match length, or UNKNOWN.
+         */
+        protected int length1 = UNKNOWN;
+
+        /**
+         * The set of match lengths already returned from start.
+         */
+        protected BitSet lengths = new BitSet();
+    }
 }
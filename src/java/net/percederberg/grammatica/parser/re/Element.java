@@ -17,28 +17,23 @@ package net.percederberg.grammatica.parser.re;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.Random;
 
 import net.percederberg.grammatica.parser.ReaderBuffer;
 
 /**
  * A regular expression element. This is the common base class for all
  * regular expression elements, i.e. the parts of the regular
- * expression.
+ * expression. Elements are immutable once created, so that they can
+ * be shared by all the matchers for a regular expression. Any
+ * intermediate results cached while matching are stored in the
+ * matcher scratch data instead.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
-abstract class Element implements Cloneable {
-
-    /**
-     * Creates a copy of this element. The copy will be an instance
-     * of the same class matching the same strings. Copies of elements
-     * are necessary to allow elements to cache intermediate results
-     * while matching strings without interfering with other threads.
-     *
-     * @return a copy of this element
-     */
-    public abstract Object clone();
+abstract class Element {
 
     /**
      * Returns the length of a matching string starting at the
@@ -63,6 +58,108 @@ abstract class Element implements Cloneable {
                               int skip)
         throws IOException;
 
+    /**
+     * Finds all matches starting at a set of positions. The end
+     * positions of all non-empty matches are added to one set, and
+     * the start positions with an empty match to another. This
+     * default implementation checks each start position separately,
+     * using all the matches returned by the match() method.
+     *
+     * @param m              the matcher being used
+     * @param buffer         the input character buffer to match
+     * @param starts         the set of start positions
+     * @param empty          the set to add empty match positions to
+     * @param ends           the set to add match end positions to
+     *
+     * @throws IOException if an I/O error occurred
+     *
+     * @since 1.7
+     */
+    public void findMatches(Matcher m,
+                            ReaderBuffer buffer,
+                            BitSet starts,
+                            BitSet empty,
+                            BitSet ends)
+        throws IOException {
+
+        int  length;
+
+        for (int pos = starts.nextSetBit(0); pos >= 0;
+             pos = starts.nextSetBit(pos + 1)) {
+
+            for (int skip = 0; true; skip++) {
+                length = match(m, buffer, pos, skip);
+                if (length < 0) {
+                    break;
+                } else if (length == 0) {
+                    empty.set(pos);
+                } else {
+                    ends.set(pos + length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if an empty match is always the last match returned by
+     * this element. A repeat stops trying further matches of the
+     * repeated element once an empty match is found, so only
+     * elements with this property can be searched for all matches at
+     * once. This default implementation returns true, which is
+     * correct for elements with a single match.
+     *
+     * @return true if an empty match is always the last match, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean isEmptyMatchLast() {
+        return true;
+    }
+
+    /**
+     * Returns the literal prefix of all strings matching this
+     * element. For case-insensitive regular expressions, the prefix
+     * is in lower case.
+     *
+     * @return the literal prefix, or
+     *         an empty string if there is no common prefix
+     *
+     * @since 1.7
+     */
+    public abstract String getPrefix();
+
+    /**
+     * Adds the possible first characters of the strings matching
+     * this element. The character flags array is indexed by the
+     * character value, with the last flag used for all larger
+     * characters. For case-insensitive regular expressions, only the
+     * lower case characters are added.
+     *
+     * @param chars          the first character flags to modify
+     *
+     * @return true if this element may match an empty string, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public abstract boolean addFirstChars(boolean[] chars);
+
+    /**
+     * Appends a random string matching this element to a buffer.
+     * Unbounded repetitions will be limited to the specified number
+     * of extra occurrences.
+     *
+     * @param random         the random number generator
+     * @param maxRepeat      the maximum number of extra repetitions
+     * @param buffer         the string buffer to append to
+     *
+     * @since 1.7
+     */
+    public abstract void generate(Random random,
+                                  int maxRepeat,
+                                  StringBuffer buffer);
+
     /**
      * Prints this element to the specified output stream.
      *
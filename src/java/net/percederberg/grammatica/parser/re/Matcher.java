@@ -62,15 +62,36 @@ public class Matcher {
      */
     private boolean endOfString;
 
+    /**
+     * The element scratch data. Each element that caches intermediate
+     * results while matching has its own slot in this array. The data
+     * is reused for all subsequent matches.
+     */
+    private Object[] scratch;
+
+    /**
+     * The search filter for finding candidate match positions.
+     */
+    private SearchFilter filter;
+
     /**
      * Creates a new matcher with the specified element.
      *
      * @param e              the base regular expression element
+     * @param scratchSize    the number of scratch data slots
+     * @param filter         the search filter to use
      * @param buffer         the input character buffer to work with
      * @param ignoreCase     the character case ignore flag
      */
-    Matcher(Element e, ReaderBuffer buffer, boolean ignoreCase) {
+    Matcher(Element e,
+            int scratchSize,
+            SearchFilter filter,
+            ReaderBuffer buffer,
+            boolean ignoreCase) {
+
         this.element = e;
+        this.scratch = new Object[scratchSize];
+        this.filter = filter;
         this.buffer = buffer;
         this.ignoreCase = ignoreCase;
         this.start = 0;
@@ -181,6 +202,34 @@ public class Matcher {
         endOfString = true;
     }
 
+    /**
+     * Returns the scratch data for an element. This method is called
+     * by the elements caching intermediate results while matching.
+     *
+     * @param index          the scratch data index
+     *
+     * @return the scratch data, or
+     *         null if not yet set
+     *
+     * @since 1.7
+     */
+    Object getScratch(int index) {
+        return scratch[index];
+    }
+
+    /**
+     * Sets the scratch data for an element. This method is called by
+     * the elements caching intermediate results while matching.
+     *
+     * @param index          the scratch data index
+     * @param data           the scratch data
+     *
+     * @since 1.7
+     */
+    void setScratch(int index, Object data) {
+        scratch[index] = data;
+    }
+
     /**
      * Attempts to find a match starting at the beginning of the
      * string.
@@ -214,6 +263,58 @@ public class Matcher {
         return length >= 0;
     }
 
+    /**
+     * Attempts to find the next match in the string. The search
+     * starts at the end of the latest match, or one character after
+     * it if the latest match was empty. If no match has been found,
+     * the search starts at the latest start position.
+     *
+     * @return true if a match was found, or
+     *         false otherwise
+     *
+     * @throws IOException if an I/O error occurred while reading an
+     *             input stream
+     *
+     * @see #find(int)
+     *
+     * @since 1.7
+     */
+    public boolean find() throws IOException {
+        return find((length == 0) ? start + 1 : end());
+    }
+
+    /**
+     * Attempts to find a match starting at or after the specified
+     * position in the string. This is much faster than calling
+     * matchFrom() for each position, as a literal prefix or the
+     * possible first characters of the regular expression are used
+     * to skip positions where no match can start. If no match was
+     * found, the start position isn't modified.
+     *
+     * @param pos            the first starting position to check
+     *
+     * @return true if a match was found, or
+     *         false otherwise
+     *
+     * @throws IOException if an I/O error occurred while reading an
+     *             input stream
+     *
+     * @since 1.7
+     */
+    public boolean find(int pos) throws IOException {
+        reset();
+        pos = filter.next(buffer, pos, ignoreCase);
+        while (pos >= 0) {
+            length = element.match(this, buffer, pos, 0);
+            if (length >= 0) {
+                start = pos;
+                return true;
+            }
+            pos = filter.next(buffer, pos + 1, ignoreCase);
+        }
+        return false;
+    }
+
     /**
      * Returns the latest matched string. If no string has been
      * matched, an empty string will be returned.
@@ -224,7 +325,7 @@ public class Matcher {
         if (length <= 0) {
             return "";
         } else {
-            int pos = buffer.position();
+            int pos = buffer.position() + start;
             return buffer.subSequence(pos, pos + length).toString();
         }
     }
@@ -18,6 +18,7 @@ import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Random;
 
 import net.percederberg.grammatica.parser.ReaderBuffer;
 
@@ -25,7 +26,9 @@ import net.percederberg.grammatica.parser.ReaderBuffer;
  * A regular expression. This class creates and holds an internal
  * data structure representing a regular expression. It also allows
  * creating matchers. This class is thread-safe. Multiple matchers may
- * operate simultanously on the same regular expression.
+ * operate simultanously on the same regular expression, as the
+ * compiled elements are immutable. The mutable matching state is
+ * kept in a small scratch array in each matcher instead.
  *
  * @author   Per Cederberg
  * @version  1.5
@@ -47,6 +50,17 @@ public class RegExp {
      */
     private boolean ignoreCase;
 
+    /**
+     * The number of matcher scratch data slots. Each element that
+     * caches intermediate results is assigned a unique slot.
+     */
+    private int scratchSize = 0;
+
+    /**
+     * The search filter for finding candidate match positions.
+     */
+    private SearchFilter filter;
+
     /**
      * The current position in the pattern. This variable is used by
      * the parsing methods.
@@ -90,6 +104,7 @@ public class RegExp {
                 pos,
                 pattern);
         }
+        this.filter = new SearchFilter(element);
     }
 
     /**
@@ -129,7 +144,27 @@ public class RegExp {
      * @since 1.5
      */
     public Matcher matcher(ReaderBuffer buffer) {
-        return new Matcher((Element) element.clone(), buffer, ignoreCase);
+        return new Matcher(element, scratchSize, filter, buffer, ignoreCase);
+    }
+
+    /**
+     * Generates a random string matching this regular expression.
+     * Unbounded repetitions, such as '*' or '+', will be limited to
+     * the specified number of extra occurrences. Note that the
+     * character case ignore flag isn't taken into account.
+     *
+     * @param random         the random number generator
+     * @param maxRepeat      the maximum number of extra repetitions
+     *
+     * @return a random string matching this regular expression
+     *
+     * @since 1.7
+     */
+    public String generate(Random random, int maxRepeat) {
+        StringBuffer  buffer = new StringBuffer();
+
+        element.generate(random, maxRepeat, buffer);
+        return buffer.toString();
     }
 
     /**
@@ -340,7 +375,7 @@ public class RegExp {
             type = RepeatElement.POSSESSIVE;
         }
 
-        return new RepeatElement(elem, min, max, type);
+        return new RepeatElement(elem, min, max, type, scratchSize++);
     }
 
     /**
@@ -665,7 +700,7 @@ public class RegExp {
         elem = (Element) list.get(list.size() - 1);
         for (i = list.size() - 2; i >= 0; i--) {
             prev = (Element) list.get(i);
-            elem = new CombineElement(prev, elem);
+            elem = new CombineElement(prev, elem, scratchSize++);
         }
         return elem;
     }
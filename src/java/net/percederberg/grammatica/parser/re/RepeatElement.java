@@ -17,16 +17,24 @@ package net.percederberg.grammatica.parser.re;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.BitSet;
+import java.util.Random;
 
 import net.percederberg.grammatica.parser.ReaderBuffer;
 
 /**
  * A regular expression element repeater. The element repeats the
  * matches from a specified element, attempting to reach the maximum
- * repetition count.
+ * repetition count. When all possible matches must be found, the
+ * search is memoized on the position and repetition count, so that
+ * nested repeats don't require exponential time. If possible, the
+ * search is made for all positions with the same repetition count
+ * at once, which avoids searching nested repeats again from each
+ * position. The memoized matches are stored in the matcher scratch
+ * data, so that this element is immutable and may be shared between
+ * matchers.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.7
  */
 class RepeatElement extends Element {
 
@@ -66,15 +74,14 @@ class RepeatElement extends Element {
     private int type;
 
     /**
-     * The start position of the last set of matches.
+     * The matcher scratch data index.
      */
-    private int matchStart;
+    private int index;
 
     /**
-     * A set with all matches starting as matchStart. A match with a
-     * specific length is reported by a non-zero bit in the bit set.
+     * The flag for an empty match always being the last match.
      */
-    private BitSet matches;
+    private boolean emptyMatchLast;
 
     /**
      * Creats a new element repeater.
@@ -83,12 +90,18 @@ class RepeatElement extends Element {
      * @param min            the minimum count
      * @param max            the maximum count
      * @param type           the repeat type constant
+     * @param index          the matcher scratch data index
      *
      * @see #GREEDY
      * @see #RELUCTANT
      * @see #POSSESSIVE
      */
-    public RepeatElement(Element elem, int min, int max, int type) {
+    public RepeatElement(Element elem,
+                         int min,
+                         int max,
+                         int type,
+                         int index) {
+
         this.elem = elem;
         this.min = min;
         if (max <= 0) {
@@ -97,20 +110,9 @@ class RepeatElement extends Element {
             this.max = max;
         }
         this.type = type;
-        this.matchStart = -1;
-        this.matches = null;
-    }
-
-    /**
-     * Creates a copy of this element. The copy will be an instance
-     * of the same class matching the same strings. Copies of elements
-     * are necessary to allow elements to cache intermediate results
-     * while matching strings without interfering with other threads.
-     *
-     * @return a copy of this element
-     */
-    public Object clone() {
-        return new RepeatElement((Element) elem.clone(), min, max, type);
+        this.index = index;
+        this.emptyMatchLast = type != RELUCTANT ||
+            !addFirstChars(new boolean[SearchFilter.FIRST_CHARS + 1]);
     }
 
     /**
@@ -131,9 +133,13 @@ class RepeatElement extends Element {
     public int match(Matcher m, ReaderBuffer buffer, int start, int skip)
         throws IOException {
 
+        Matches  res;
+
         if (skip == 0) {
-            matchStart = -1;
-            matches = null;
+            res = (Matches) m.getScratch(index);
+            if (res != null) {
+                res.start = -1;
+            }
         }
         switch (type) {
         case GREEDY:
@@ -152,7 +158,10 @@ class RepeatElement extends Element {
     /**
      * Returns the length of the longest possible matching string
      * starting at the specified position. The number of matches to
-     * skip can also be specified.
+     * skip can also be specified. The first match is the one found
+     * by repeating the first element match as far as possible, and
+     * any remaining matches are returned from the longest to the
+     * shortest.
      *
      * @param m              the matcher being used
      * @param buffer         the input character buffer to match
@@ -170,27 +179,35 @@ class RepeatElement extends Element {
                             int skip)
         throws IOException {
 
+        Matches  res;
+        int      length;
+
         // Check for simple case
         if (skip == 0) {
-            return matchPossessive(m, buffer, start, 0);
+            length = matchPossessive(m, buffer, start, 0);
+            if (length >= 0) {
+                return length;
+            }
         }
 
         // Find all matches
-        if (matchStart != start) {
-            matchStart = start;
-            matches = new BitSet();
-            findMatches(m, buffer, start, 0, 0, 0);
-        }
+        res = findAllMatches(m, buffer, start);
 
         // Find first non-skipped match
-        for (int i = matches.size(); i >= 0; i--) {
-            if (matches.get(i)) {
-                if (skip == 0) {
-                    return i;
-                }
-                skip--;
+        if (res.possessive >= 0) {
+            if (skip == 0) {
+                return res.possessive;
+            }
+            skip--;
+            if (skip < res.count &&
+                res.sorted[res.count - skip - 1] <= res.possessive) {
+
+                skip++;
             }
         }
+        if (skip < res.count) {
+            return res.sorted[res.count - skip - 1];
+        }
         return -1;
     }
 
@@ -215,21 +232,14 @@ class RepeatElement extends Element {
                                int skip)
         throws IOException {
 
+        Matches  res;
+
         // Find all matches
-        if (matchStart != start) {
-            matchStart = start;
-            matches = new BitSet();
-            findMatches(m, buffer, start, 0, 0, 0);
-        }
+        res = findAllMatches(m, buffer, start);
 
         // Find first non-skipped match
-        for (int i = 0; i <= matches.size(); i++) {
-            if (matches.get(i)) {
-                if (skip == 0) {
-                    return i;
-                }
-                skip--;
-            }
+        if (skip < res.count) {
+            return res.sorted[skip];
         }
         return -1;
     }
@@ -276,54 +286,282 @@ class RepeatElement extends Element {
     }
 
     /**
-     * Finds all matches and adds the lengths to the matches set.
+     * Finds all matches starting at the specified position. The
+     * matches are stored in the matcher scratch data, and are only
+     * searched for again if the start position has changed. For
+     * greedy repeats, the match found by repeating the first
+     * element match is also stored.
      *
      * @param m              the matcher being used
      * @param buffer         the input character buffer to match
      * @param start          the starting position
-     * @param length         the match length at the start position
+     *
+     * @return the matches starting at the specified position
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private Matches findAllMatches(Matcher m, ReaderBuffer buffer, int start)
+        throws IOException {
+
+        Matches  res = (Matches) m.getScratch(index);
+        BitSet   starts;
+        BitSet   empty;
+        BitSet   ends;
+
+        if (res == null) {
+            res = new Matches();
+            m.setScratch(index, res);
+        } else if (res.start == start) {
+            return res;
+        } else {
+            res.lengths.clear();
+            res.visited.clear();
+        }
+        res.start = start;
+        if (elem instanceof StringElement ||
+            elem instanceof CharacterSetElement ||
+            !elem.isEmptyMatchLast()) {
+
+            searchMatches(m, buffer, res, start);
+        } else {
+            starts = new BitSet();
+            starts.set(start);
+            empty = new BitSet();
+            ends = new BitSet();
+            findMatches(m, buffer, starts, empty, ends);
+            if (empty.get(start)) {
+                res.lengths.set(0);
+            }
+            for (int i = ends.nextSetBit(start); i >= 0;
+                 i = ends.nextSetBit(i + 1)) {
+
+                res.lengths.set(i - start);
+            }
+            res.sort();
+        }
+        if (type == GREEDY) {
+            res.possessive = matchPossessive(m, buffer, start, 0);
+        } else {
+            res.possessive = -1;
+        }
+        return res;
+    }
+
+    /**
+     * Returns the visited state index for a match length and count.
+     * The set of matches found from a state only depends on the
+     * length and the repetition count, so each state only needs to
+     * be searched once. Repetition counts above the minimum are
+     * equivalent for unbounded repeats.
+     *
+     * @param length         the match length at the state
      * @param count          the number of sub-elements matched
-     * @param attempt        the number of match attempts here
+     *
+     * @return the state index, or
+     *         -1 if the state cannot be indexed
+     */
+    private int getStateIndex(int length, int count) {
+        long  counts;
+        long  index;
+
+        if (max == Integer.MAX_VALUE) {
+            counts = min + 1;
+            count = Math.min(count, min);
+        } else {
+            counts = (long) max + 1;
+        }
+        index = length * counts + count;
+        return (index > Integer.MAX_VALUE) ? -1 : (int) index;
+    }
+
+    /**
+     * Finds all matches and adds the lengths to the matches set. This
+     * method is used when the element matches cannot all be searched
+     * for at once, as an empty element match may hide other matches.
+     * It is also used for elements with a single match, since each
+     * state is then quickly searched. The search states are
+     * processed from an explicit work list, so that long inputs
+     * don't cause deep recursion. All the element matches from a
+     * state are checked before the next state, which lets any nested
+     * element reuse its scratch data between the attempts. Any state
+     * already visited will be skipped, since all the matches from
+     * that state have already been found.
+     *
+     * @param m              the matcher being used
+     * @param buffer         the input character buffer to match
+     * @param res            the matches found so far
+     * @param start          the starting position
      *
      * @throws IOException if an I/O error occurred
      */
-    private void findMatches(Matcher m,
-                             ReaderBuffer buffer,
-                             int start,
-                             int length,
-                             int count,
-                             int attempt)
+    private void searchMatches(Matcher m,
+                               ReaderBuffer buffer,
+                               Matches res,
+                               int start)
         throws IOException {
 
+        int  length;
+        int  count;
         int  subLength;
 
-        // Check match ending here
-        if (count > max) {
-            return;
-        }
-        if (min <= count && attempt == 0) {
-            matches.set(length);
+        res.push(this, 0, 0);
+        while (res.size > 0) {
+            res.size -= 2;
+            length = res.states[res.size];
+            count = res.states[res.size + 1];
+            if (min <= count) {
+                res.lengths.set(length);
+            }
+            if (count >= max) {
+                continue;
+            }
+            for (int attempt = 0; true; attempt++) {
+                subLength = elem.match(m, buffer, start + length, attempt);
+                if (subLength < 0) {
+                    break;
+                } else if (subLength == 0) {
+                    if (min == count + 1) {
+                        res.lengths.set(length);
+                    }
+                    break;
+                }
+                res.push(this, length + subLength, count + 1);
+            }
         }
+        res.sort();
+    }
 
-        // Check element match
-        subLength = elem.match(m, buffer, start, attempt);
-        if (subLength < 0) {
+    /**
+     * Finds all matches starting at a set of positions. Unless the
+     * repeat is possessive, all positions with the same repetition
+     * count are searched at once. Repetition counts above the minimum
+     * are equivalent for unbounded repeats, so positions already
+     * reached with such a count are not searched again. This requires
+     * that an empty match is always the last element match, since
+     * the element matches after an empty match would otherwise be
+     * skipped.
+     *
+     * @param m              the matcher being used
+     * @param buffer         the input character buffer to match
+     * @param starts         the set of start positions
+     * @param empty          the set to add empty match positions to
+     * @param ends           the set to add match end positions to
+     *
+     * @throws IOException if an I/O error occurred
+     *
+     * @since 1.7
+     */
+    public void findMatches(Matcher m,
+                            ReaderBuffer buffer,
+                            BitSet starts,
+                            BitSet empty,
+                            BitSet ends)
+        throws IOException {
+
+        BitSet  current = starts;
+        BitSet  visited = new BitSet();
+        BitSet  subEmpty;
+        BitSet  next;
+
+        if (type == POSSESSIVE || !elem.isEmptyMatchLast()) {
+            super.findMatches(m, buffer, starts, empty, ends);
             return;
-        } else if (subLength == 0) {
-            if (min == count + 1) {
-                matches.set(length);
+        }
+        for (int count = 0; !current.isEmpty(); count++) {
+            if (min <= count && count == 0) {
+                empty.or(current);
+            } else if (min <= count) {
+                ends.or(current);
             }
-            return;
+            if (count >= max) {
+                break;
+            }
+            if (count == min && max == Integer.MAX_VALUE) {
+                visited.or(current);
+            }
+            subEmpty = new BitSet();
+            next = new BitSet();
+            elem.findMatches(m, buffer, current, subEmpty, next);
+            if (min == count + 1 && count == 0) {
+                empty.or(subEmpty);
+            } else if (min == count + 1) {
+                ends.or(subEmpty);
+            }
+            if (min <= count && max == Integer.MAX_VALUE) {
+                ends.or(next);
+                next.andNot(visited);
+                visited.or(next);
+            }
+            current = next;
         }
+    }
+
+    /**
+     * Checks if an empty match is always the last match returned by
+     * this element. This is the case unless the repeat is reluctant
+     * and may match an empty string, since the shortest match is
+     * then returned first.
+     *
+     * @return true if an empty match is always the last match, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean isEmptyMatchLast() {
+        return emptyMatchLast;
+    }
+
+    /**
+     * Returns the literal prefix of all strings matching this
+     * element. This is the prefix of the repeated element, unless
+     * zero repetitions are allowed.
+     *
+     * @return the literal prefix, or
+     *         an empty string if there is no common prefix
+     *
+     * @since 1.7
+     */
+    public String getPrefix() {
+        return (min > 0) ? elem.getPrefix() : "";
+    }
+
+    /**
+     * Adds the possible first characters of the strings matching
+     * this element.
+     *
+     * @param chars          the first character flags to modify
+     *
+     * @return true if this element may match an empty string, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean addFirstChars(boolean[] chars) {
+        boolean  empty = elem.addFirstChars(chars);
+
+        return empty || min == 0;
+    }
+
+    /**
+     * Appends a random string matching this element to a buffer.
+     * Unbounded repetitions will be limited to the specified number
+     * of extra occurrences.
+     *
+     * @param random         the random number generator
+     * @param maxRepeat      the maximum number of extra repetitions
+     * @param buffer         the string buffer to append to
+     *
+     * @since 1.7
+     */
+    public void generate(Random random, int maxRepeat, StringBuffer buffer) {
+        int  count = min;
 
-        // Find alternative and subsequent matches
-        findMatches(m, buffer, start, length, count, attempt + 1);
-        findMatches(m,
-                    buffer,
-                    start + subLength,
-                    length + subLength,
-                    count + 1,
-                    0);
+        if (max > min) {
+            count += random.nextInt(Math.min(max - min, maxRepeat) + 1);
+        }
+        for (int i = 0; i < count; i++) {
+            elem.generate(random, maxRepeat, buffer);
+        }
     }
 
     /**
@@ -342,4 +580,106 @@ class RepeatElement extends Element {
         output.println();
         elem.printTo(output, indent + "  ");
     }
+
+    /**
+     * The matches found for a start position. These are stored in
+     * the matcher scratch data, and reused for each new start
+     * position.
+     */
+    private static class Matches {
+
+        /**
+         * The start position of the matches, or -1 for none.
+         */
+        protected int start = -1;
+
+        /**
+         * The set of all match lengths. A match with a specific
+         * length is reported by a non-zero bit in the bit set.
+         */
+        protected BitSet lengths = new BitSet();
+
+        /**
+         * The set of all search states visited while finding the
+         * matches. Each state is a combination of a match length and
+         * a repetition count.
+         *
+         * @see RepeatElement#getStateIndex(int, int)
+         */
+        protected BitSet visited = new BitSet();
+
+        /**
+         * The work list of search states not yet processed. Each
+         * state is stored as a match length followed by a repetition
+         * count.
+         */
+        protected int[] states = new int[16];
+
+        /**
+         * The number of used entries in the work list.
+         */
+        protected int size = 0;
+
+        /**
+         * The match lengths in ascending order. This array is
+         * created from the set of match lengths once the search is
+         * complete, so that any skipped match can be found directly.
+         */
+        protected int[] sorted = new int[16];
+
+        /**
+         * The number of match lengths in the sorted array.
+         */
+        protected int count = 0;
+
+        /**
+         * The length of the match found by repeating the first
+         * element match, or -1 for none. This is only used for
+         * greedy repeats.
+         */
+        protected int possessive = -1;
+
+        /**
+         * Adds a search state to the work list, unless it has already
+         * been visited. The state is marked as visited when added.
+         *
+         * @param elem           the repeat element searched
+         * @param length         the match length at the state
+         * @param count          the number of sub-elements matched
+         */
+        public void push(RepeatElement elem, int length, int count) {
+            int    state = elem.getStateIndex(length, count);
+            int[]  temp;
+
+            if (state >= 0 && visited.get(state)) {
+                return;
+            } else if (state >= 0) {
+                visited.set(state);
+            }
+            if (size + 2 > states.length) {
+                temp = states;
+                states = new int[temp.length * 2];
+                System.arraycopy(temp, 0, states, 0, size);
+            }
+            states[size++] = length;
+            states[size++] = count;
+        }
+
+        /**
+         * Creates the sorted array from the set of match lengths.
+         */
+        public void sort() {
+            int  cardinality = lengths.cardinality();
+
+            if (cardinality > sorted.length) {
+                sorted = new int[cardinality];
+            }
+            count = 0;
+            for (int i = lengths.nextSetBit(0); i >= 0;
+                 i = lengths.nextSetBit(i + 1)) {
+
+                sorted[count++] = i;
+            }
+        }
+    }
 }
@@ -0,0 +1,216 @@
+/*
+ * SearchFilter.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser.re;
+
+import java.io.IOException;
+
+import net.percederberg.grammatica.parser.ReaderBuffer;
+
+/**
+ * A regular expression search filter. The filter quickly finds the
+ * candidate start positions for a match, so that the full regular
+ * expression only has to be matched at those positions. If all
+ * matches start with a literal prefix of two or more characters, the
+ * Boyer-Moore-Horspool algorithm is used to skip ahead to the next
+ * occurrence of the prefix. Otherwise a set of possible first
+ * characters is used, unless the regular expression can match an
+ * empty string. Once created, the filter is immutable.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+class SearchFilter {
+
+    /**
+     * The number of characters with individual first character
+     * flags. All characters above this limit share a single flag.
+     */
+    public static final int FIRST_CHARS = 256;
+
+    /**
+     * The number of entries in the prefix shift table. Characters
+     * are mapped to an entry by their lowest bits, so that the
+     * smallest shift is used for colliding characters.
+     */
+    private static final int SHIFTS = 256;
+
+    /**
+     * The literal prefix for all matches, or null if shorter than
+     * two characters.
+     */
+    private String prefix = null;
+
+    /**
+     * The prefix shift table, or null if no prefix is used. This
+     * contains the Boyer-Moore-Horspool shift distance for the last
+     * character checked.
+     */
+    private int[] shifts = null;
+
+    /**
+     * The possible first character flags, or null if any position
+     * may start a match. The array is indexed by the character
+     * value, with the last flag used for all larger characters.
+     */
+    private boolean[] firstChars = null;
+
+    /**
+     * Creates a new search filter for a regular expression element.
+     *
+     * @param elem           the base regular expression element
+     */
+    public SearchFilter(Element elem) {
+        String     str = elem.getPrefix();
+        boolean[]  chars = new boolean[FIRST_CHARS + 1];
+
+        if (str.length() > 1) {
+            prefix = str;
+            shifts = new int[SHIFTS];
+            for (int i = 0; i < SHIFTS; i++) {
+                shifts[i] = str.length();
+            }
+            for (int i = 0; i < str.length() - 1; i++) {
+                shifts[str.charAt(i) % SHIFTS] = str.length() - 1 - i;
+            }
+        }
+        if (!elem.addFirstChars(chars)) {
+            firstChars = chars;
+        }
+    }
+
+    /**
+     * Returns the next candidate start position for a match. Any
+     * position with fewer remaining characters than the prefix, and
+     * the end of the input if an empty match isn't possible, will
+     * not be returned.
+     *
+     * @param buffer         the input character buffer
+     * @param pos            the first position to check
+     * @param ignoreCase     the character case ignore flag
+     *
+     * @return the next candidate start position, or
+     *         -1 if no more candidates exist
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    public int next(ReaderBuffer buffer, int pos, boolean ignoreCase)
+        throws IOException {
+
+        if (prefix != null) {
+            return nextPrefix(buffer, pos, ignoreCase);
+        } else if (firstChars != null) {
+            return nextFirstChar(buffer, pos, ignoreCase);
+        } else if (pos > 0 && buffer.peek(pos - 1) < 0) {
+            return -1;
+        } else {
+            return pos;
+        }
+    }
+
+    /**
+     * Returns the next position starting with the literal prefix.
+     *
+     * @param buffer         the input character buffer
+     * @param pos            the first position to check
+     * @param ignoreCase     the character case ignore flag
+     *
+     * @return the next position with the prefix, or
+     *         -1 if the prefix wasn't found
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private int nextPrefix(ReaderBuffer buffer, int pos, boolean ignoreCase)
+        throws IOException {
+
+        int  last = prefix.length() - 1;
+        int  c;
+        int  i;
+
+        while (true) {
+            c = read(buffer, pos + last, ignoreCase);
+            if (c < 0) {
+                return -1;
+            }
+            if (c == prefix.charAt(last)) {
+                i = last - 1;
+                while (i >= 0 &&
+                       read(buffer, pos + i, ignoreCase) == prefix.charAt(i)) {
+
+                    i--;
+                }
+                if (i < 0) {
+                    return pos;
+                }
+            }
+            pos += shifts[c % SHIFTS];
+        }
+    }
+
+    /**
+     * Returns the next position with a possible first character.
+     *
+     * @param buffer         the input character buffer
+     * @param pos            the first position to check
+     * @param ignoreCase     the character case ignore flag
+     *
+     * @return the next position with a possible first character, or
+     *         -1 if no such position was found
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private int nextFirstChar(ReaderBuffer buffer,
+                              int pos,
+                              boolean ignoreCase)
+        throws IOException {
+
+        int  c;
+
+        while (true) {
+            c = read(buffer, pos, ignoreCase);
+            if (c < 0) {
+                return -1;
+            } else if (firstChars[Math.min(c, FIRST_CHARS)]) {
+                return pos;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Reads a character from the input buffer. The character is
+     * converted to lower case if the case should be ignored, in the
+     * same way as when matching the regular expression elements.
+     *
+     * @param buffer         the input character buffer
+     * @param pos            the character position
+     * @param ignoreCase     the character case ignore flag
+     *
+     * @return the character read, or
+     *         -1 if the end of the input was reached
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private int read(ReaderBuffer buffer, int pos, boolean ignoreCase)
+        throws IOException {
+
+        int  c = buffer.peek(pos);
+
+        if (c >= 0 && ignoreCase) {
+            c = Character.toLowerCase((char) c);
+        }
+        return c;
+    }
+}
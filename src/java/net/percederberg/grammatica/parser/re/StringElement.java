@@ -16,6 +16,7 @@ package net.percederberg.grammatica.parser.re;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Random;
 
 import net.percederberg.grammatica.parser.ReaderBuffer;
 
@@ -60,15 +61,6 @@ class StringElement extends Element {
         return value;
     }
 
-    /**
-     * Returns this element as it is immutable.
-     *
-     * @return this string element
-     */
-    public Object clone() {
-        return this;
-    }
-
     /**
      * Returns the length of a matching string starting at the
      * specified position. The number of matches to skip can also be
@@ -110,6 +102,52 @@ class StringElement extends Element {
         return value.length();
     }
 
+    /**
+     * Returns the literal prefix of all strings matching this
+     * element.
+     *
+     * @return the string to be matched
+     *
+     * @since 1.7
+     */
+    public String getPrefix() {
+        return value;
+    }
+
+    /**
+     * Adds the possible first characters of the strings matching
+     * this element.
+     *
+     * @param chars          the first character flags to modify
+     *
+     * @return true if the string is empty, or
+     *         false otherwise
+     *
+     * @since 1.7
+     */
+    public boolean addFirstChars(boolean[] chars) {
+        if (value.length() == 0) {
+            return true;
+        }
+        chars[Math.min(value.charAt(0), chars.length - 1)] = true;
+        return false;
+    }
+
+    /**
+     * Appends a random string matching this element to a buffer.
+     * Unbounded repetitions will be limited to the specified number
+     * of extra occurrences.
+     *
+     * @param random         the random number generator
+     * @param maxRepeat      the maximum number of extra repetitions
+     * @param buffer         the string buffer to append to
+     *
+     * @since 1.7
+     */
+    public void generate(Random random, int maxRepeat, StringBuffer buffer) {
+        buffer.append(value);
+    }
+
     /**
      * Prints this element to the specified output stream.
      *
@@ -0,0 +1,478 @@
+/*
+ * JfrParseMonitor.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.jfr;
+
+import java.util.ArrayList;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import net.percederberg.grammatica.parser.ParseException;
+import net.percederberg.grammatica.parser.ParseLimitException;
+import net.percederberg.grammatica.parser.ParseMonitor;
+import net.percederberg.grammatica.parser.Parser;
+import net.percederberg.grammatica.parser.ParserCreationException;
+import net.percederberg.grammatica.parser.ParserLogException;
+import net.percederberg.grammatica.parser.TokenPattern;
+
+/**
+ * A parse monitor emitting Java Flight Recorder events. The events
+ * are enabled and configured through the standard JFR settings, for
+ * example with "jdk.jfr" options in a .jfc file or on the command
+ * line. When an event is disabled, its callbacks only perform a
+ * cheap enabled check before returning, and no event objects are
+ * created. The parse and preparation callbacks also update a
+ * thread-local event stack. This class requires Java 11 or later,
+ * and is therefore built separately from the parser library.
+ *
+ * The monitor must be registered before the events are produced,
+ * normally at application startup:
+ *
+ * <pre>
+ *     JfrParseMonitor.register();
+ * </pre>
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class JfrParseMonitor extends ParseMonitor {
+
+    /**
+     * The registered monitor instance, or null if not registered.
+     */
+    private static JfrParseMonitor instance = null;
+
+    /**
+     * The parse event type.
+     */
+    private static final EventType PARSE_TYPE =
+        EventType.getEventType(ParseEvent.class);
+
+    /**
+     * The parser preparation event type.
+     */
+    private static final EventType PREPARE_TYPE =
+        EventType.getEventType(PrepareEvent.class);
+
+    /**
+     * The tokenizer buffer read event type.
+     */
+    private static final EventType BUFFER_READ_TYPE =
+        EventType.getEventType(BufferReadEvent.class);
+
+    /**
+     * The regular expression fallback event type.
+     */
+    private static final EventType REGEXP_FALLBACK_TYPE =
+        EventType.getEventType(RegExpFallbackEvent.class);
+
+    /**
+     * The error recovery event type.
+     */
+    private static final EventType ERROR_RECOVERY_TYPE =
+        EventType.getEventType(ErrorRecoveryEvent.class);
+
+    /**
+     * The active parse events for the current thread. Nested parses
+     * in the same thread are handled as a stack, with null entries
+     * for the parses started while the event was disabled.
+     */
+    private ThreadLocal<ArrayList<Event>> parseEvents =
+        new ThreadLocal<ArrayList<Event>>() {
+            protected ArrayList<Event> initialValue() {
+                return new ArrayList<Event>();
+            }
+        };
+
+    /**
+     * The active prepare events for the current thread. Nested
+     * preparations in the same thread are handled as a stack, with
+     * null entries for the preparations started while the event was
+     * disabled.
+     */
+    private ThreadLocal<ArrayList<Event>> prepareEvents =
+        new ThreadLocal<ArrayList<Event>>() {
+            protected ArrayList<Event> initialValue() {
+                return new ArrayList<Event>();
+            }
+        };
+
+    /**
+     * Registers the JFR parse monitor. Calling this method more than
+     * once has no effect.
+     */
+    public static synchronized void register() {
+        if (instance == null) {
+            instance = new JfrParseMonitor();
+            ParseMonitor.addMonitor(instance);
+        }
+    }
+
+    /**
+     * Removes the JFR parse monitor. No more events will be emitted
+     * after this call.
+     */
+    public static synchronized void unregister() {
+        if (instance != null) {
+            ParseMonitor.removeMonitor(instance);
+            instance = null;
+        }
+    }
+
+    /**
+     * Creates a new JFR parse monitor.
+     */
+    private JfrParseMonitor() {
+        // Nothing to initialize
+    }
+
+    /**
+     * Called when a parse starts.
+     *
+     * @param parser         the parser used
+     */
+    public void parseStarted(Parser parser) {
+        ParseEvent  event = null;
+
+        if (PARSE_TYPE.isEnabled()) {
+            event = new ParseEvent();
+            event.begin();
+        }
+        parseEvents.get().add(event);
+    }
+
+    /**
+     * Called when a parse has finished.
+     *
+     * @param parser         the parser used
+     * @param time           the elapsed time, in nanoseconds
+     * @param chars          the number of input characters read
+     * @param tokens         the number of tokens consumed
+     * @param error          the error thrown, or null for success
+     */
+    public void parseFinished(Parser parser,
+                              long time,
+                              int chars,
+                              int tokens,
+                              Exception error) {
+
+        ArrayList<Event>  list = parseEvents.get();
+        ParseEvent        event;
+
+        if (list.isEmpty()) {
+            return;
+        }
+        event = (ParseEvent) list.remove(list.size() - 1);
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.parser = parser.getClass().getName();
+            event.chars = chars;
+            event.tokens = tokens;
+            event.outcome = outcome(error);
+            if (error instanceof ParserLogException) {
+                event.errors = ((ParserLogException) error).getErrorCount();
+            }
+            event.commit();
+        }
+    }
+
+    /**
+     * Called when the parser preparation starts.
+     *
+     * @param parser         the parser being prepared
+     */
+    public void prepareStarted(Parser parser) {
+        PrepareEvent  event = null;
+
+        if (PREPARE_TYPE.isEnabled()) {
+            event = new PrepareEvent();
+            event.begin();
+        }
+        prepareEvents.get().add(event);
+    }
+
+    /**
+     * Called when the parser preparation has finished.
+     *
+     * @param parser         the parser prepared
+     * @param time           the elapsed time, in nanoseconds
+     * @param error          the error thrown, or null for success
+     */
+    public void prepareFinished(Parser parser,
+                                long time,
+                                ParserCreationException error) {
+
+        ArrayList<Event>  list = prepareEvents.get();
+        PrepareEvent      event;
+
+        if (list.isEmpty()) {
+            return;
+        }
+        event = (PrepareEvent) list.remove(list.size() - 1);
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.parser = parser.getClass().getName();
+            event.outcome = outcome(error);
+            event.commit();
+        }
+    }
+
+    /**
+     * Called when characters have been read from an input stream.
+     *
+     * @param chars          the number of characters read
+     * @param time           the elapsed time, in nanoseconds
+     */
+    public void bufferRead(int chars, long time) {
+        BufferReadEvent  event;
+
+        if (!BUFFER_READ_TYPE.isEnabled()) {
+            return;
+        }
+        event = new BufferReadEvent();
+        if (event.shouldCommit()) {
+            event.chars = chars;
+            event.readTime = time;
+            event.commit();
+        }
+    }
+
+    /**
+     * Called when a native Java regular expression is used for a
+     * token pattern.
+     *
+     * @param pattern        the token pattern added
+     */
+    public void regExpFallback(TokenPattern pattern) {
+        RegExpFallbackEvent  event;
+
+        if (!REGEXP_FALLBACK_TYPE.isEnabled()) {
+            return;
+        }
+        event = new RegExpFallbackEvent();
+        if (event.shouldCommit()) {
+            event.token = pattern.getName();
+            event.pattern = pattern.getPattern();
+            event.commit();
+        }
+    }
+
+    /**
+     * Called when a new error recovery starts.
+     *
+     * @param parser         the parser used
+     * @param error          the parse error found
+     */
+    public void errorRecovery(Parser parser, ParseException error) {
+        ErrorRecoveryEvent  event;
+
+        if (!ERROR_RECOVERY_TYPE.isEnabled()) {
+            return;
+        }
+        event = new ErrorRecoveryEvent();
+        if (event.shouldCommit()) {
+            event.parser = parser.getClass().getName();
+            event.errorType = error.getErrorType();
+            event.message = error.getErrorMessage();
+            event.line = error.getLine();
+            event.column = error.getColumn();
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the outcome description for an error.
+     *
+     * @param error          the error thrown, or null for success
+     *
+     * @return the outcome description
+     */
+    private static String outcome(Exception error) {
+        if (error == null) {
+            return "success";
+        } else if (error instanceof ParseLimitException) {
+            return "limit exceeded";
+        } else if (error instanceof ParserLogException) {
+            return "parse errors";
+        } else if (error instanceof ParserCreationException) {
+            return "invalid grammar";
+        } else {
+            return error.getClass().getName();
+        }
+    }
+
+
+    /**
+     * The parse event. This event covers a complete call to
+     * Parser.parse(), including any parser preparation.
+     */
+    @Name("net.percederberg.grammatica.Parse")
+    @Label("Parse")
+    @Category("Grammatica")
+    @Description("Parsing of an input stream")
+    static class ParseEvent extends Event {
+
+        /**
+         * The parser class name.
+         */
+        @Label("Parser")
+        String parser;
+
+        /**
+         * The number of input characters read.
+         */
+        @Label("Input Characters")
+        int chars;
+
+        /**
+         * The number of tokens consumed.
+         */
+        @Label("Tokens")
+        int tokens;
+
+        /**
+         * The number of parse errors.
+         */
+        @Label("Errors")
+        int errors;
+
+        /**
+         * The parse outcome.
+         */
+        @Label("Outcome")
+        String outcome;
+    }
+
+    /**
+     * The parser preparation event. This event covers the production
+     * pattern checks and look-ahead calculations.
+     */
+    @Name("net.percederberg.grammatica.Prepare")
+    @Label("Parser Preparation")
+    @Category("Grammatica")
+    @Description("Look-ahead calculation for a parser")
+    static class PrepareEvent extends Event {
+
+        /**
+         * The parser class name.
+         */
+        @Label("Parser")
+        String parser;
+
+        /**
+         * The preparation outcome.
+         */
+        @Label("Outcome")
+        String outcome;
+    }
+
+    /**
+     * The tokenizer buffer read event. The event is instant, since
+     * it is emitted after the read, but the read time is included.
+     */
+    @Name("net.percederberg.grammatica.BufferRead")
+    @Label("Tokenizer Buffer Read")
+    @Category("Grammatica")
+    @Description("Characters read from an input stream into a buffer")
+    static class BufferReadEvent extends Event {
+
+        /**
+         * The number of characters read.
+         */
+        @Label("Characters")
+        int chars;
+
+        /**
+         * The read time in nanoseconds.
+         */
+        @Label("Read Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long readTime;
+    }
+
+    /**
+     * The regular expression fallback event.
+     */
+    @Name("net.percederberg.grammatica.RegExpFallback")
+    @Label("Regular Expression Fallback")
+    @Category("Grammatica")
+    @Description("Token pattern using the slower native Java regexp matcher")
+    static class RegExpFallbackEvent extends Event {
+
+        /**
+         * The token pattern name.
+         */
+        @Label("Token")
+        String token;
+
+        /**
+         * The regular expression.
+         */
+        @Label("Pattern")
+        String pattern;
+    }
+
+    /**
+     * The error recovery event.
+     */
+    @Name("net.percederberg.grammatica.ErrorRecovery")
+    @Label("Error Recovery")
+    @Category("Grammatica")
+    @Description("Parse error starting an error recovery")
+    static class ErrorRecoveryEvent extends Event {
+
+        /**
+         * The parser class name.
+         */
+        @Label("Parser")
+        String parser;
+
+        /**
+         * The parse error type.
+         */
+        @Label("Error Type")
+        int errorType;
+
+        /**
+         * The parse error message.
+         */
+        @Label("Message")
+        String message;
+
+        /**
+         * The error line number.
+         */
+        @Label("Line")
+        int line;
+
+        /**
+         * The error column number.
+         */
+        @Label("Column")
+        int column;
+    }
+}
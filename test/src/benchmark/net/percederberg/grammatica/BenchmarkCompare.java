@@ -0,0 +1,515 @@
+/*
+ * BenchmarkCompare.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+/**
+ * A benchmark result comparison program. This program reads two JMH
+ * result files in JSON format, a baseline and a current result, and
+ * prints the relative change in score for each benchmark. If any
+ * benchmark has regressed more than the threshold percentage, the
+ * program exits with a non-zero status.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class BenchmarkCompare {
+
+    /**
+     * The command-line usage information.
+     */
+    private static final String USAGE =
+        "Syntax: BenchmarkCompare <baseline.json> <result.json> " +
+        "[<threshold %>]";
+
+    /**
+     * The default regression threshold in percent.
+     */
+    private static final double DEFAULT_THRESHOLD = 10.0;
+
+    /**
+     * The application entry point.
+     *
+     * @param args           the command-line parameters
+     */
+    public static void main(String[] args) {
+        double    threshold = DEFAULT_THRESHOLD;
+        TreeMap   baseline;
+        TreeMap   current;
+        Iterator  iter;
+        String    key;
+        Result    before;
+        Result    after;
+        double    change;
+        int       regressions = 0;
+
+        if (args.length < 2 || args.length > 3) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        try {
+            if (args.length > 2) {
+                threshold = Double.parseDouble(args[2]);
+            }
+            baseline = readResults(args[0]);
+            current = readResults(args[1]);
+        } catch (NumberFormatException e) {
+            System.err.println("Error: invalid threshold: " + args[2]);
+            System.exit(1);
+            return;
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.out.println(pad("Benchmark", 60) + pad("Baseline", 14) +
+                           pad("Current", 14) + "Change");
+        iter = current.keySet().iterator();
+        while (iter.hasNext()) {
+            key = (String) iter.next();
+            after = (Result) current.get(key);
+            before = (Result) baseline.get(key);
+            if (before == null || before.score == 0) {
+                System.out.println(pad(key, 60) + pad("-", 14) +
+                                   pad(format(after.score), 14) + "new");
+                continue;
+            }
+            change = 100.0 * (after.score - before.score) / before.score;
+            System.out.print(pad(key, 60) + pad(format(before.score), 14) +
+                             pad(format(after.score), 14) +
+                             format(change) + "% " + after.unit);
+            if (after.isRegression(change, threshold)) {
+                System.out.print("  REGRESSION");
+                regressions++;
+            }
+            System.out.println();
+        }
+        if (regressions > 0) {
+            System.out.println();
+            System.out.println(regressions + " benchmark(s) regressed more " +
+                               "than " + format(threshold) + "%");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Reads a JMH result file. The results are indexed by the
+     * benchmark name and parameter values.
+     *
+     * @param fileName       the JSON result file name
+     *
+     * @return the map of benchmark keys to results
+     *
+     * @throws IOException if the file couldn't be read or parsed
+     */
+    private static TreeMap readResults(String fileName) throws IOException {
+        TreeMap    results = new TreeMap();
+        Object     json;
+        ArrayList  list;
+        HashMap    obj;
+        HashMap    metric;
+        Result     res;
+
+        json = new JsonReader(new FileReader(fileName), fileName).read();
+        if (!(json instanceof ArrayList)) {
+            throw new IOException(fileName + ": expected JSON array");
+        }
+        list = (ArrayList) json;
+        for (int i = 0; i < list.size(); i++) {
+            obj = (HashMap) list.get(i);
+            metric = (HashMap) obj.get("primaryMetric");
+            res = new Result();
+            res.mode = (String) obj.get("mode");
+            res.score = ((Double) metric.get("score")).doubleValue();
+            res.unit = (String) metric.get("scoreUnit");
+            results.put(createKey(obj), res);
+        }
+        return results;
+    }
+
+    /**
+     * Creates a benchmark key from a JMH result object. The key
+     * contains the short benchmark name and any parameter values.
+     *
+     * @param obj            the JMH result object
+     *
+     * @return the benchmark key
+     */
+    private static String createKey(HashMap obj) {
+        StringBuffer  buffer = new StringBuffer();
+        String        name = (String) obj.get("benchmark");
+        HashMap       params = (HashMap) obj.get("params");
+        Iterator      iter;
+        String        key;
+        int           pos;
+
+        pos = name.lastIndexOf('.', name.lastIndexOf('.') - 1);
+        buffer.append(name.substring(pos + 1));
+        if (params != null) {
+            iter = new TreeMap(params).keySet().iterator();
+            while (iter.hasNext()) {
+                key = (String) iter.next();
+                buffer.append(":");
+                buffer.append(key);
+                buffer.append("=");
+                buffer.append(params.get(key));
+            }
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Pads a string with spaces to the specified length.
+     *
+     * @param str            the string to pad
+     * @param length         the minimum length
+     *
+     * @return the padded string
+     */
+    private static String pad(String str, int length) {
+        StringBuffer  buffer = new StringBuffer(str);
+
+        do {
+            buffer.append(' ');
+        } while (buffer.length() < length);
+        return buffer.toString();
+    }
+
+    /**
+     * Formats a number with two decimals.
+     *
+     * @param value          the number to format
+     *
+     * @return the formatted number
+     */
+    private static String format(double value) {
+        return String.valueOf(Math.round(value * 100) / 100.0);
+    }
+
+
+    /**
+     * A benchmark result.
+     */
+    private static class Result {
+
+        /**
+         * The benchmark mode, for example "thrpt" or "avgt".
+         */
+        public String mode;
+
+        /**
+         * The benchmark score.
+         */
+        public double score;
+
+        /**
+         * The benchmark score unit.
+         */
+        public String unit;
+
+        /**
+         * Checks if a score change is a regression. For throughput
+         * benchmarks a lower score is worse, while for the time
+         * based modes a higher score is worse.
+         *
+         * @param change         the score change in percent
+         * @param threshold      the threshold in percent
+         *
+         * @return true if the change is a regression, or
+         *         false otherwise
+         */
+        public boolean isRegression(double change, double threshold) {
+            if ("thrpt".equals(mode)) {
+                return change < -threshold;
+            } else {
+                return change > threshold;
+            }
+        }
+    }
+
+
+    /**
+     * A minimal JSON reader. This reader only supports the subset of
+     * JSON needed for reading JMH result files. Objects are returned
+     * as hash maps, arrays as array lists and numbers as doubles.
+     */
+    private static class JsonReader {
+
+        /**
+         * The input stream to read.
+         */
+        private Reader input;
+
+        /**
+         * The input name, used in error messages.
+         */
+        private String name;
+
+        /**
+         * The current character, or -1 at end of input.
+         */
+        private int current;
+
+        /**
+         * Creates a new JSON reader.
+         *
+         * @param input          the input stream to read
+         * @param name           the input name
+         *
+         * @throws IOException if the input couldn't be read
+         */
+        public JsonReader(Reader input, String name) throws IOException {
+            this.input = input;
+            this.name = name;
+            this.current = input.read();
+        }
+
+        /**
+         * Reads the JSON value in the input stream. The input stream
+         * will be closed afterwards.
+         *
+         * @return the JSON value read
+         *
+         * @throws IOException if the input couldn't be read or parsed
+         */
+        public Object read() throws IOException {
+            try {
+                return readValue();
+            } finally {
+                input.close();
+            }
+        }
+
+        /**
+         * Reads a JSON value.
+         *
+         * @return the JSON value read
+         *
+         * @throws IOException if the input couldn't be read or parsed
+         */
+        private Object readValue() throws IOException {
+            skipSpace();
+            switch (current) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                readWord("true");
+                return Boolean.TRUE;
+            case 'f':
+                readWord("false");
+                return Boolean.FALSE;
+            case 'n':
+                readWord("null");
+                return null;
+            default:
+                return readNumber();
+            }
+        }
+
+        /**
+         * Reads a JSON object.
+         *
+         * @return the JSON object read
+         *
+         * @throws IOException if the input couldn't be read or parsed
+         */
+        private HashMap readObject() throws IOException {
+            HashMap  obj = new HashMap();
+            String   key;
+
+            next('{');
+            skipSpace();
+            if (current == '}') {
+                next('}');
+                return obj;
+            }
+            do {
+                skipSpace();
+                key = readString();
+                skipSpace();
+                next(':');
+                obj.put(key, readValue());
+                skipSpace();
+            } while (current == ',' && next(','));
+            next('}');
+            return obj;
+        }
+
+        /**
+         * Reads a JSON array.
+         *
+         * @return the JSON array read
+         *
+         * @throws IOException if the input couldn't be read or parsed
+         */
+        private ArrayList readArray() throws IOException {
+            ArrayList  list = new ArrayList();
+
+            next('[');
+            skipSpace();
+            if (current == ']') {
+                next(']');
+                return list;
+            }
+            do {
+                list.add(readValue());
+                skipSpace();
+            } while (current == ',' && next(','));
+            next(']');
+            return list;
+        }
+
+        /**
+         * Reads a JSON string.
+         *
+         * @return the JSON string read
+         *
+         * @throws IOException if the input couldn't be read or parsed
+         */
+        private String readString() throws IOException {
+            StringBuffer  buffer = new StringBuffer();
+            char[]        hex = new char[4];
+
+            next('"');
+            while (current != '"') {
+                if (current < 0) {
+                    throw error("unterminated string");
+                } else if (current == '\\') {
+                    current = input.read();
+                    switch (current) {
+                    case 'b':
+                        buffer.append('\b');
+                        break;
+                    case 'f':
+                        buffer.append('\f');
+                        break;
+                    case 'n':
+                        buffer.append('\n');
+                        break;
+                    case 'r':
+                        buffer.append('\r');
+                        break;
+                    case 't':
+                        buffer.append('\t');
+                        break;
+                    case 'u':
+                        for (int i = 0; i < 4; i++) {
+                            hex[i] = (char) input.read();
+                        }
+                        try {
+                            buffer.append((char) Integer.parseInt(new String(hex), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("invalid unicode escape");
+                        }
+                        break;
+                    default:
+                        buffer.append((char) current);
+                    }
+                } else {
+                    buffer.append((char) current);
+                }
+                current = input.read();
+            }
+            next('"');
+            return buffer.toString();
+        }
+
+        /**
+         * Reads a JSON number. Non-numeric values written by JMH,
+         * such as "NaN", are not supported.
+         *
+         * @return the JSON number read
+         *
+         * @throws IOException if the input couldn't be read or parsed
+         */
+        private Double readNumber() throws IOException {
+            StringBuffer  buffer = new StringBuffer();
+
+            while (current >= 0 && "+-0123456789.eE".indexOf(current) >= 0) {
+                buffer.append((char) current);
+                current = input.read();
+            }
+            try {
+                return Double.valueOf(buffer.toString());
+            } catch (NumberFormatException e) {
+                throw error("invalid number '" + buffer + "'");
+            }
+        }
+
+        /**
+         * Reads a fixed JSON keyword.
+         *
+         * @param word           the keyword to read
+         *
+         * @throws IOException if the input couldn't be read or parsed
+         */
+        private void readWord(String word) throws IOException {
+            for (int i = 0; i < word.length(); i++) {
+                next(word.charAt(i));
+            }
+        }
+
+        /**
+         * Skips any whitespace characters in the input.
+         *
+         * @throws IOException if the input couldn't be read
+         */
+        private void skipSpace() throws IOException {
+            while (current >= 0 && Character.isWhitespace((char) current)) {
+                current = input.read();
+            }
+        }
+
+        /**
+         * Reads the next character, checking the current one.
+         *
+         * @param c              the expected current character
+         *
+         * @return true if the character was read
+         *
+         * @throws IOException if the current character didn't match
+         */
+        private boolean next(char c) throws IOException {
+            if (current != c) {
+                throw error("expected '" + c + "'");
+            }
+            current = input.read();
+            return true;
+        }
+
+        /**
+         * Creates a JSON parse error.
+         *
+         * @param message        the error message
+         *
+         * @return the I/O exception created
+         */
+        private IOException error(String message) {
+            return new IOException(name + ": " + message);
+        }
+    }
+}
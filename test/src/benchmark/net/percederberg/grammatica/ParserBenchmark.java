@@ -0,0 +1,204 @@
+/*
+ * ParserBenchmark.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import net.percederberg.grammatica.parser.Analyzer;
+import net.percederberg.grammatica.parser.Node;
+import net.percederberg.grammatica.parser.ParseException;
+import net.percederberg.grammatica.parser.Parser;
+import net.percederberg.grammatica.parser.ParserCreationException;
+import net.percederberg.grammatica.parser.ParserLogException;
+import net.percederberg.grammatica.parser.Tokenizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A benchmark for the tokenizer, parser and analyzer. The grammars
+ * are loaded from the test and source directories, so the benchmark
+ * must be run from the project base directory.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParserBenchmark {
+
+    /**
+     * The name of the grammar to benchmark. The arithmetic and
+     * regexp grammars parse generated input, while the grammar file
+     * grammar parses itself.
+     */
+    @Param({ "arithmetic", "regexp", "grammar" })
+    public String grammar;
+
+    /**
+     * The input text to process.
+     */
+    private String input;
+
+    /**
+     * The tokenizer to benchmark.
+     */
+    private Tokenizer tokenizer;
+
+    /**
+     * The parser to benchmark.
+     */
+    private Parser parser;
+
+    /**
+     * The analyzer to benchmark.
+     */
+    private Analyzer analyzer = new Analyzer();
+
+    /**
+     * The parse tree to analyze.
+     */
+    private Node tree;
+
+    /**
+     * Loads the grammar and creates the input text.
+     *
+     * @throws Exception if the grammar couldn't be loaded or the
+     *             input couldn't be parsed
+     */
+    @Setup
+    public void setup() throws Exception {
+        Grammar  g;
+
+        if (grammar.equals("arithmetic")) {
+            g = new Grammar(new File("test/src/grammar/arithmetic.grammar"));
+            input = repeat("(1 + 2*a) * 345 - b / (6 - c) +\n", 200) + "0";
+        } else if (grammar.equals("regexp")) {
+            g = new Grammar(new File("test/src/grammar/regexp.grammar"));
+            input = repeat("[a-z.]+(a|bc)*.?x{2,3}?", 200);
+        } else {
+            g = new Grammar(new File("src/grammar/grammar.grammar"));
+            input = read(new FileReader("src/grammar/grammar.grammar"));
+        }
+        tokenizer = g.createTokenizer(new StringReader(input));
+        parser = g.createParser(g.createTokenizer(new StringReader(input)));
+        tree = parser.parse();
+    }
+
+    /**
+     * Benchmarks the tokenizer.
+     *
+     * @return the number of tokens found
+     *
+     * @throws ParseException if the input couldn't be tokenized
+     */
+    @Benchmark
+    public int tokenize() throws ParseException {
+        int  count = 0;
+
+        tokenizer.reset(new StringReader(input));
+        while (tokenizer.next() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Benchmarks the parser.
+     *
+     * @return the parse tree
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized
+     * @throws ParserLogException if the input couldn't be parsed
+     */
+    @Benchmark
+    public Node parse() throws ParserCreationException, ParserLogException {
+        parser.reset(new StringReader(input));
+        return parser.parse();
+    }
+
+    /**
+     * Benchmarks the analyzer tree traversal.
+     *
+     * @return the analyzed parse tree
+     *
+     * @throws ParserLogException if the tree analysis failed
+     */
+    @Benchmark
+    public Node analyze() throws ParserLogException {
+        return analyzer.analyze(tree);
+    }
+
+    /**
+     * Repeats a text a number of times.
+     *
+     * @param text           the text to repeat
+     * @param count          the number of repetitions
+     *
+     * @return the repeated text
+     */
+    private static String repeat(String text, int count) {
+        StringBuffer  buffer = new StringBuffer();
+
+        for (int i = 0; i < count; i++) {
+            buffer.append(text);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Reads the contents of a file.
+     *
+     * @param input          the file reader
+     *
+     * @return the file contents
+     *
+     * @throws IOException if the file couldn't be read
+     */
+    private static String read(Reader input) throws IOException {
+        StringBuffer  buffer = new StringBuffer();
+        char[]        chars = new char[4096];
+        int           length;
+
+        try {
+            while ((length = input.read(chars)) > 0) {
+                buffer.append(chars, 0, length);
+            }
+        } finally {
+            input.close();
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * MatcherBenchmark.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import net.percederberg.grammatica.parser.re.Matcher;
+import net.percederberg.grammatica.parser.re.RegExp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A benchmark for the token matching engines. Each benchmark scans
+ * a complete input string, matching a token at each position and
+ * skipping a single character where no token matched. The result is
+ * the number of tokens matched.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MatcherBenchmark {
+
+    /**
+     * The string tokens to match.
+     */
+    private static final String[] KEYWORDS = {
+        "abstract", "boolean", "break", "byte", "case", "catch", "char",
+        "class", "continue", "default", "do", "double", "else",
+        "extends", "final", "finally", "float", "for", "if",
+        "implements", "import", "int", "interface", "long", "new",
+        "package", "private", "protected", "public", "return", "short",
+        "static", "super", "switch", "this", "throw", "throws", "try",
+        "void", "while", "(", ")", "{", "}", ";", "=", "==", "+", "++"
+    };
+
+    /**
+     * The regular expression tokens to match.
+     */
+    private static final String[] REGEXPS = {
+        "[a-zA-Z_][a-zA-Z0-9_]*",
+        "[0-9]+",
+        "[ \t\n\r]+",
+        "\"([^\"\\\\]|\\\\.)*\""
+    };
+
+    /**
+     * The number of times to repeat the input text.
+     */
+    private static final int REPEAT = 200;
+
+    /**
+     * The string token input text.
+     */
+    private String keywordInput;
+
+    /**
+     * The regular expression token input text.
+     */
+    private String regExpInput;
+
+    /**
+     * The string DFA to benchmark.
+     */
+    private TokenStringDFA stringDfa;
+
+    /**
+     * The NFA to benchmark.
+     */
+    private TokenNFA nfa;
+
+    /**
+     * The native Java regular expressions to benchmark.
+     */
+    private Tokenizer.RE[] javaRegExps;
+
+    /**
+     * The Grammatica regular expressions to benchmark.
+     */
+    private RegExp[] regExps;
+
+    /**
+     * The Grammatica regular expression matchers, or null if not
+     * yet created.
+     */
+    private Matcher[] matchers;
+
+    /**
+     * The token match to reuse.
+     */
+    private TokenMatch match = new TokenMatch();
+
+    /**
+     * Creates the automata and input texts.
+     *
+     * @throws Exception if the automata couldn't be created
+     */
+    @Setup
+    public void setup() throws Exception {
+        Tokenizer     tokenizer = new Tokenizer(null);
+        StringBuffer  buffer = new StringBuffer();
+        TokenPattern  pattern;
+
+        stringDfa = new TokenStringDFA(false);
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            pattern = new TokenPattern(i + 1,
+                                       "KEYWORD" + i,
+                                       TokenPattern.STRING_TYPE,
+                                       KEYWORDS[i]);
+            stringDfa.addMatch(KEYWORDS[i], pattern);
+            buffer.append(KEYWORDS[i]);
+        }
+        keywordInput = repeat(buffer.toString());
+        nfa = new TokenNFA();
+        javaRegExps = new Tokenizer.RE[REGEXPS.length];
+        regExps = new RegExp[REGEXPS.length];
+        matchers = new Matcher[REGEXPS.length];
+        for (int i = 0; i < REGEXPS.length; i++) {
+            pattern = new TokenPattern(i + 1,
+                                       "REGEXP" + i,
+                                       TokenPattern.REGEXP_TYPE,
+                                       REGEXPS[i]);
+            nfa.addRegExpMatch(REGEXPS[i], false, pattern);
+            javaRegExps[i] = tokenizer.new JavaRE(REGEXPS[i]);
+            regExps[i] = new RegExp(REGEXPS[i]);
+        }
+        regExpInput = repeat("public static int x_12 = 4711;\n" +
+                             "\tString s = \"a \\\"quoted\\\" text\";\n");
+    }
+
+    /**
+     * Benchmarks the string DFA matching.
+     *
+     * @return the number of tokens matched
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    @Benchmark
+    public int stringDfa() throws IOException {
+        ReaderBuffer  buffer = new ReaderBuffer(new StringReader(keywordInput));
+        TokenPattern  pattern;
+        int           count = 0;
+
+        while (buffer.peek(0) >= 0) {
+            pattern = stringDfa.match(buffer);
+            if (pattern == null) {
+                buffer.read(1);
+            } else {
+                buffer.read(pattern.getPattern().length());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Benchmarks the NFA matching.
+     *
+     * @return the number of tokens matched
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    @Benchmark
+    public int nfa() throws IOException {
+        ReaderBuffer  buffer = new ReaderBuffer(new StringReader(regExpInput));
+        int           count = 0;
+
+        while (buffer.peek(0) >= 0) {
+            match.clear();
+            nfa.match(buffer, match);
+            count += skip(buffer, match.length());
+        }
+        return count;
+    }
+
+    /**
+     * Benchmarks the native Java regular expression matching.
+     *
+     * @return the number of tokens matched
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    @Benchmark
+    public int javaRegExp() throws IOException {
+        ReaderBuffer  buffer = new ReaderBuffer(new StringReader(regExpInput));
+        int           count = 0;
+        int           length;
+
+        while (buffer.peek(0) >= 0) {
+            length = 0;
+            for (int i = 0; i < javaRegExps.length; i++) {
+                length = Math.max(length, javaRegExps[i].match(buffer));
+            }
+            count += skip(buffer, length);
+        }
+        return count;
+    }
+
+    /**
+     * Benchmarks the Grammatica regular expression matching.
+     *
+     * @return the number of tokens matched
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    @Benchmark
+    public int regExp() throws IOException {
+        ReaderBuffer  buffer = new ReaderBuffer(new StringReader(regExpInput));
+        int           count = 0;
+        int           length;
+
+        while (buffer.peek(0) >= 0) {
+            length = 0;
+            for (int i = 0; i < regExps.length; i++) {
+                if (matchers[i] == null) {
+                    matchers[i] = regExps[i].matcher(buffer);
+                } else {
+                    matchers[i].reset(buffer);
+                }
+                if (matchers[i].matchFromBeginning()) {
+                    length = Math.max(length, matchers[i].length());
+                }
+            }
+            count += skip(buffer, length);
+        }
+        return count;
+    }
+
+    /**
+     * Skips past a match in the input buffer. If no match was found,
+     * a single character is skipped.
+     *
+     * @param buffer         the input buffer
+     * @param length         the match length, or zero (0)
+     *
+     * @return one (1) if a token was matched, or
+     *         zero (0) otherwise
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    private int skip(ReaderBuffer buffer, int length) throws IOException {
+        if (length > 0) {
+            buffer.read(length);
+            return 1;
+        } else {
+            buffer.read(1);
+            return 0;
+        }
+    }
+
+    /**
+     * Repeats a text a fixed number of times.
+     *
+     * @param text           the text to repeat
+     *
+     * @return the repeated text
+     */
+    private String repeat(String text) {
+        StringBuffer  buffer = new StringBuffer();
+
+        for (int i = 0; i < REPEAT; i++) {
+            buffer.append(text);
+            buffer.append(' ');
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * RegExpBenchmark.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser.re;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A benchmark for regular expressions with nested quantifiers. Each
+ * pattern is matched against a run of 'a' characters followed by a
+ * character that causes the match to fail, which forces a complete
+ * backtracking search. With a naive backtracking matcher the time
+ * grows exponentially with the input length. The matching time
+ * should grow polynomially, so doubling the input size should only
+ * increase the time by a constant factor.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegExpBenchmark {
+
+    /**
+     * The regular expression to match.
+     */
+    @Param({ "(a*)*b", "(a|aa)+b", "(a+a+)+b", "((a*)*)*b" })
+    public String pattern;
+
+    /**
+     * The number of 'a' characters in the input.
+     */
+    @Param({ "20", "40", "80", "160" })
+    public int size;
+
+    /**
+     * The regular expression matcher.
+     */
+    private Matcher matcher;
+
+    /**
+     * Creates the regular expression matcher and input text.
+     *
+     * @throws Exception if the regular expression couldn't be created
+     */
+    @Setup
+    public void setup() throws Exception {
+        StringBuffer  buffer = new StringBuffer();
+
+        for (int i = 0; i < size; i++) {
+            buffer.append('a');
+        }
+        buffer.append('x');
+        matcher = new RegExp(pattern).matcher(buffer.toString());
+    }
+
+    /**
+     * Benchmarks a failing match from the beginning of the input.
+     *
+     * @return true if the input was matched, or
+     *         false otherwise
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    @Benchmark
+    public boolean matchFromBeginning() throws IOException {
+        return matcher.matchFromBeginning();
+    }
+}
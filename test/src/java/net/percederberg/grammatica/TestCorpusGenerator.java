@@ -0,0 +1,153 @@
+/*
+ * TestCorpusGenerator.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import net.percederberg.grammatica.parser.ParserCreationException;
+import net.percederberg.grammatica.parser.ParserLogException;
+
+/**
+ * A test case for the CorpusGenerator class. The grammar files are
+ * loaded relative to the project base directory.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class TestCorpusGenerator extends TestCase {
+
+    /**
+     * Tests that the generated sentences can be parsed.
+     */
+    public void testArithmetic() {
+        checkSentences("test/src/grammar/arithmetic.grammar", 100);
+    }
+
+    /**
+     * Tests that the same seed generates the same corpus.
+     */
+    public void testSeed() {
+        Grammar  grammar = loadGrammar("test/src/grammar/arithmetic.grammar");
+        String   first = generate(grammar, 17, 1000);
+
+        assertEquals(first, generate(grammar, 17, 1000));
+        assertFalse(first.equals(generate(grammar, 18, 1000)));
+        assertTrue(first.length() >= 1000);
+    }
+
+    /**
+     * Tests the maximum depth and alternative weights.
+     *
+     * @throws GrammarException if the generator couldn't be created
+     */
+    public void testLimits() throws GrammarException {
+        Grammar          grammar;
+        CorpusGenerator  gen;
+        String           str;
+
+        grammar = loadGrammar("test/src/grammar/arithmetic.grammar");
+        gen = new CorpusGenerator(grammar, 0);
+        gen.setMaxDepth(1);
+        for (int i = 0; i < 10; i++) {
+            str = gen.generateSentence();
+            assertEquals("sentence '" + str + "'", -1, str.indexOf(' '));
+        }
+        gen = new CorpusGenerator(grammar, 0);
+        gen.setWeight("Factor", 0, 0);
+        gen.setMaxDepth(4);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(gen.generateSentence().startsWith("("));
+        }
+        try {
+            gen.setWeight("Factor", 2, 1);
+            fail("no exception for invalid alternative");
+        } catch (IllegalArgumentException expected) {
+            // Expected exception
+        }
+    }
+
+    /**
+     * Generates a number of sentences and checks that they can be
+     * parsed by the grammar.
+     *
+     * @param file           the grammar file name
+     * @param count          the number of sentences to check
+     */
+    private void checkSentences(String file, int count) {
+        Grammar          grammar = loadGrammar(file);
+        CorpusGenerator  gen;
+        String           str = null;
+
+        try {
+            gen = new CorpusGenerator(grammar, 4711);
+            for (int i = 0; i < count; i++) {
+                str = gen.generateSentence();
+                grammar.createParser(grammar.createTokenizer(
+                    new StringReader(str))).parse();
+            }
+        } catch (GrammarException e) {
+            fail(file + ": " + e.getMessage());
+        } catch (ParserCreationException e) {
+            fail(file + ": " + e.getMessage());
+        } catch (ParserLogException e) {
+            fail("couldn't parse '" + str + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Generates a random corpus.
+     *
+     * @param grammar        the grammar to use
+     * @param seed           the random seed
+     * @param size           the minimum corpus size
+     *
+     * @return the random corpus generated
+     */
+    private String generate(Grammar grammar, long seed, long size) {
+        StringWriter  out = new StringWriter();
+
+        try {
+            new CorpusGenerator(grammar, seed).generate(out, size);
+        } catch (GrammarException e) {
+            fail(e.getMessage());
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        return out.toString();
+    }
+
+    /**
+     * Loads a grammar file. A test failure will be reported if the
+     * grammar couldn't be read.
+     *
+     * @param file           the grammar file name
+     *
+     * @return the grammar loaded
+     */
+    private Grammar loadGrammar(String file) {
+        try {
+            return new Grammar(new File(file));
+        } catch (Exception e) {
+            fail("couldn't load grammar " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * TestProfiler.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the Profiler class. The grammar files are loaded
+ * relative to the project base directory.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class TestProfiler extends TestCase {
+
+    /**
+     * Tests the profiling sample and item counts.
+     *
+     * @throws Exception if the profiling failed
+     */
+    public void testCounts() throws Exception {
+        Grammar          grammar;
+        Profiler         profiler;
+        Profiler.Result  res;
+
+        grammar = new Grammar(new File("test/src/grammar/arithmetic.grammar"));
+        profiler = new Profiler(grammar);
+        profiler.setWarmup(2);
+        profiler.setIterations(3);
+        profiler.addInput("first", "1 + 2");
+        profiler.addInput("second", "(a * b) - 3");
+        res = profiler.profileTokenizer();
+        assertEquals("sample count", 6, res.getSampleCount());
+        assertEquals("token count", 3 * (3 + 7), res.getItemCount());
+        assertTrue(res.getPercentile(50) <= res.getPercentile(99));
+        assertTrue(res.getPercentile(99) <= res.getPercentile(100));
+        assertTrue(res.getPercentile(100) <= res.getTime());
+        res = profiler.profileParser();
+        assertEquals("sample count", 6, res.getSampleCount());
+        assertEquals("node count", 3 * 35, res.getItemCount());
+        assertNull(profiler.getCurrentInput());
+    }
+
+    /**
+     * Tests the JSON output format.
+     *
+     * @throws Exception if the profiling failed
+     */
+    public void testJson() throws Exception {
+        Grammar                grammar;
+        Profiler               profiler;
+        ByteArrayOutputStream  out = new ByteArrayOutputStream();
+        String                 str;
+
+        grammar = new Grammar(new File("test/src/grammar/arithmetic.grammar"));
+        profiler = new Profiler(grammar);
+        profiler.setWarmup(0);
+        profiler.setIterations(1);
+        profiler.addInput("in\"put", "1");
+        profiler.profileTokenizer();
+        profiler.printJson(new PrintStream(out));
+        str = out.toString();
+        assertTrue(str, str.indexOf("\"files\": [\"in\\\"put\"]") > 0);
+        assertTrue(str, str.indexOf("\"tokenizer\": {") > 0);
+        assertTrue(str, str.indexOf("\"items\": 1,") > 0);
+        assertTrue(str, str.indexOf("\"parser\"") < 0);
+    }
+}
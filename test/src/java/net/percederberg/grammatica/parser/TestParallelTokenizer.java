@@ -0,0 +1,294 @@
+/*
+ * TestParallelTokenizer.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the ParallelTokenizer class.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class TestParallelTokenizer extends TestCase {
+
+    /**
+     * The input fragments used for creating random input texts. The
+     * strings, comments and white space may span several lines, and
+     * the '@' character is invalid.
+     */
+    private static final String[] FRAGMENTS = {
+        "abc", "x", "123", "7", " ", "\n", "\n\n  ", "\"str\"",
+        "\"two\nlines\"", "{ comment }", "{\nlong\n\ncomment\n}", "!", "@",
+        "@@\n@", "\"\n", "{\n"
+    };
+
+    /**
+     * The executor service used.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Creates the executor service.
+     */
+    protected void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    /**
+     * Shuts down the executor service.
+     */
+    protected void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Tests that random input texts give the same tokens and parse
+     * exceptions as the sequential tokenizer, for varying chunk
+     * sizes.
+     *
+     * @throws Exception if the tokenizer couldn't be created
+     */
+    public void testRandomInput() throws Exception {
+        Random             random = new Random(31337);
+        int[]              sizes = { 1, 3, 10, 37, 200, 5000 };
+        ParallelTokenizer  tokenizer;
+        String             input;
+
+        for (int i = 0; i < 40; i++) {
+            input = createInput(random, 50 + random.nextInt(500));
+            for (int j = 0; j < sizes.length; j++) {
+                tokenizer = createTokenizer(sizes[j]);
+                tokenizer.setUseTokenList(i % 2 == 0);
+                tokenizer.reset(input);
+                assertTokens("input " + i + ", chunk size " + sizes[j],
+                             input,
+                             tokenizer);
+            }
+        }
+    }
+
+    /**
+     * Tests tokenizing a character buffer and reusing the tokenizer
+     * for several inputs.
+     *
+     * @throws Exception if the tokenizer couldn't be created
+     */
+    public void testReset() throws Exception {
+        ParallelTokenizer  tokenizer = createTokenizer(64);
+        String             input = createInput(new Random(42), 2000);
+
+        tokenizer.reset(CharBuffer.wrap(input));
+        readNext(tokenizer);
+        readNext(tokenizer);
+        tokenizer.reset(CharBuffer.wrap(input));
+        assertTokens("char buffer", input, tokenizer);
+        tokenizer.reset("");
+        assertNull("empty input", tokenizer.next());
+        tokenizer.reset(null);
+        assertNull("no input", tokenizer.next());
+    }
+
+    /**
+     * Tests creating a tokenizer with an invalid chunk size.
+     */
+    public void testInvalidChunkSize() {
+        try {
+            createTokenizer(0);
+            fail("could create tokenizer with zero chunk size");
+        } catch (IllegalArgumentException e) {
+            // Failure was expected
+        }
+    }
+
+    /**
+     * Checks that a parallel tokenizer returns the same tokens and
+     * parse exceptions as a sequential tokenizer.
+     *
+     * @param msg            the test message prefix
+     * @param input          the input text
+     * @param parallel       the parallel tokenizer
+     *
+     * @throws Exception if the tokenizer couldn't be created
+     */
+    private void assertTokens(String msg,
+                              String input,
+                              ParallelTokenizer parallel)
+        throws Exception {
+
+        Tokenizer  tokenizer = createTokenizer();
+        Object     expected;
+        Object     actual;
+        Token      token1;
+        Token      token2;
+
+        tokenizer.reset(new StringReader(input));
+        tokenizer.setUseTokenList(parallel.getUseTokenList());
+        for (int i = 0; true; i++) {
+            expected = readNext(tokenizer);
+            actual = readNext(parallel);
+            if (expected instanceof ParseException) {
+                assertTrue(msg + ", item " + i + ": " + actual,
+                           actual instanceof ParseException);
+                assertEquals(msg + ", item " + i,
+                             ((ParseException) expected).getMessage(),
+                             ((ParseException) actual).getMessage());
+            } else if (expected == null) {
+                assertNull(msg + ", item " + i, actual);
+                break;
+            } else {
+                assertTrue(msg + ", item " + i + ": " + actual,
+                           actual instanceof Token);
+                token1 = (Token) expected;
+                token2 = (Token) actual;
+                assertEquals(msg + ", item " + i,
+                             token1.toString(),
+                             token2.toString());
+                assertEquals(msg + ", item " + i + " end",
+                             token1.getEndLine() + ":" +
+                             token1.getEndColumn(),
+                             token2.getEndLine() + ":" +
+                             token2.getEndColumn());
+                assertEquals(msg + ", item " + i + " previous",
+                             String.valueOf(token1.getPreviousToken()),
+                             String.valueOf(token2.getPreviousToken()));
+                if (parallel.getUseTokenList()) {
+                    assertTrue(msg + ", item " + i + " look-ahead",
+                               token1.getLookAhead() <=
+                               token2.getLookAhead());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the next token or parse exception from a tokenizer.
+     *
+     * @param tokenizer      the tokenizer to read from
+     *
+     * @return the next token or parse exception, or
+     *         null if the end of the input was reached
+     */
+    private Object readNext(Tokenizer tokenizer) {
+        try {
+            return tokenizer.next();
+        } catch (ParseException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Reads the next token or parse exception from a parallel
+     * tokenizer.
+     *
+     * @param tokenizer      the tokenizer to read from
+     *
+     * @return the next token or parse exception, or
+     *         null if the end of the input was reached
+     */
+    private Object readNext(ParallelTokenizer tokenizer) {
+        try {
+            return tokenizer.next();
+        } catch (ParseException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Creates a new parallel tokenizer.
+     *
+     * @param chunkSize      the chunk size in characters
+     *
+     * @return a new parallel tokenizer
+     */
+    private ParallelTokenizer createTokenizer(int chunkSize) {
+        return new ParallelTokenizer(executor, chunkSize) {
+            protected Tokenizer newTokenizer()
+                throws ParserCreationException {
+
+                return createTokenizer();
+            }
+        };
+    }
+
+    /**
+     * Creates a new tokenizer that recognizes a trivial language.
+     *
+     * @return a new tokenizer
+     *
+     * @throws ParserCreationException if the tokenizer couldn't be
+     *             created
+     */
+    private Tokenizer createTokenizer() throws ParserCreationException {
+        Tokenizer     tokenizer = new Tokenizer(null);
+        TokenPattern  pattern;
+
+        tokenizer.addPattern(new TokenPattern(1,
+                                              "IDENTIFIER",
+                                              TokenPattern.REGEXP_TYPE,
+                                              "[a-z]+"));
+        tokenizer.addPattern(new TokenPattern(2,
+                                              "NUMBER",
+                                              TokenPattern.REGEXP_TYPE,
+                                              "[0-9]+"));
+        tokenizer.addPattern(new TokenPattern(3,
+                                              "STRING",
+                                              TokenPattern.REGEXP_TYPE,
+                                              "\"[^\"]*\""));
+        pattern = new TokenPattern(4,
+                                   "COMMENT",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\\{[^}]*\\}");
+        pattern.setIgnore();
+        tokenizer.addPattern(pattern);
+        pattern = new TokenPattern(5,
+                                   "WHITESPACE",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[ \t\n]+");
+        pattern.setIgnore();
+        tokenizer.addPattern(pattern);
+        pattern = new TokenPattern(6,
+                                   "ERROR",
+                                   TokenPattern.STRING_TYPE,
+                                   "!");
+        pattern.setError();
+        tokenizer.addPattern(pattern);
+        return tokenizer;
+    }
+
+    /**
+     * Creates a random input text.
+     *
+     * @param random         the random number generator
+     * @param count          the number of input fragments
+     *
+     * @return the random input text
+     */
+    private String createInput(Random random, int count) {
+        StringBuffer  buffer = new StringBuffer();
+
+        for (int i = 0; i < count; i++) {
+            buffer.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * TestReaderBuffer.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the ReaderBuffer class.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class TestReaderBuffer extends TestCase {
+
+    /**
+     * The test input text.
+     */
+    private static final String INPUT = createInput(200);
+
+    /**
+     * Tests reading the input in chunks of varying size, so that the
+     * characters wrap around the end of the character buffer.
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    public void testRead() throws IOException {
+        ReaderBuffer  buffer = createBuffer(INPUT, 3);
+        StringBuffer  result = new StringBuffer();
+        String        str;
+        int           line = 1;
+
+        for (int i = 0; (str = buffer.read(1 + i % 23)) != null; i++) {
+            result.append(str);
+            line += count(str, '\n');
+            assertEquals("line number", line, buffer.lineNumber());
+            assertEquals("offset", result.length(), buffer.offset());
+            assertEquals("peek",
+                         peekInput(result.length()),
+                         buffer.peek(0));
+        }
+        assertEquals("content", INPUT, result.toString());
+    }
+
+    /**
+     * Tests peeking far ahead, so that the character buffer must be
+     * enlarged.
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    public void testPeekAhead() throws IOException {
+        ReaderBuffer  buffer = createBuffer(INPUT, 4);
+
+        buffer.read(5);
+        for (int i = 0; i < INPUT.length() - 5; i += 97) {
+            assertEquals("peek " + i, INPUT.charAt(5 + i), buffer.peek(i));
+        }
+        assertEquals("peek end", -1, buffer.peek(INPUT.length()));
+        assertEquals("read", INPUT.substring(5), buffer.read(INPUT.length()));
+        assertEquals("read end", null, buffer.read(1));
+    }
+
+    /**
+     * Tests the character sequence methods with a native Java regular
+     * expression, as used by the tokenizer.
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    public void testCharSequence() throws IOException {
+        ReaderBuffer  buffer = createBuffer(INPUT, 3);
+        Matcher       m = Pattern.compile("line \\d+").matcher(buffer);
+        String        str;
+        int           pos;
+
+        for (int i = 0; i < 150; i++) {
+            str = "line " + i;
+            assertEquals('\n', buffer.peek(str.length()));
+            pos = buffer.position();
+            m.reset(buffer);
+            m.region(pos, buffer.length());
+            assertTrue("match " + i, m.lookingAt());
+            assertEquals(str, m.group());
+            assertEquals(str, buffer.subSequence(pos, m.end()).toString());
+            assertEquals(str, buffer.read(str.length() + 1).trim());
+        }
+    }
+
+    /**
+     * Tests creating a buffer with an invalid block size.
+     */
+    public void testInvalidBlockSize() {
+        try {
+            new ReaderBuffer(new StringReader(INPUT), 0);
+            fail("could create buffer with zero block size");
+        } catch (IllegalArgumentException e) {
+            // Failure was expected
+        }
+    }
+
+    /**
+     * Creates a new character buffer.
+     *
+     * @param input          the input string
+     * @param blockSize      the block size
+     *
+     * @return a new character buffer
+     */
+    private ReaderBuffer createBuffer(String input, int blockSize) {
+        return new ReaderBuffer(new StringReader(input), blockSize);
+    }
+
+    /**
+     * Returns an input character.
+     *
+     * @param index          the character index
+     *
+     * @return the input character, or
+     *         -1 if the index is at the end of the input
+     */
+    private int peekInput(int index) {
+        return (index < INPUT.length()) ? INPUT.charAt(index) : -1;
+    }
+
+    /**
+     * Counts the number of occurrences of a character in a string.
+     *
+     * @param str            the string to check
+     * @param c              the character to count
+     *
+     * @return the number of occurrences
+     */
+    private int count(String str, char c) {
+        int  res = 0;
+
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) == c) {
+                res++;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Creates a test input text.
+     *
+     * @param lines          the number of lines
+     *
+     * @return the test input text
+     */
+    private static String createInput(int lines) {
+        StringBuffer  buffer = new StringBuffer();
+
+        for (int i = 0; i < lines; i++) {
+            buffer.append("line ");
+            buffer.append(i);
+            buffer.append("\n");
+        }
+        return buffer.toString();
+    }
+}
@@ -14,13 +14,18 @@
 
 package net.percederberg.grammatica.parser;
 
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
 import junit.framework.TestCase;
 
 /**
  * A test case for the RecursiveDescentParser class.
  *
  * @author   Per Cederberg
- * @version  1.0
+ * @version  1.7
  */
 public class TestRecursiveDescentParser extends TestCase {
 
@@ -39,6 +44,16 @@ public class TestRecursiveDescentParser extends TestCase {
      */
     private static final int T3 = 1003;
 
+    /**
+     * A token constant.
+     */
+    private static final int T4 = 1004;
+
+    /**
+     * A token constant.
+     */
+    private static final int T5 = 1005;
+
     /**
      * A production constant.
      */
@@ -465,6 +480,151 @@ public class TestRecursiveDescentParser extends TestCase {
         prepareParser(parser);
     }
 
+    /**
+     * Tests incremental parsing after edits that merge several
+     * tokens into one. The parse tree is compared to a parse tree
+     * for the whole input after each edit.
+     *
+     * @throws Exception if the parser couldn't be created
+     */
+    public void testIncrementalMerge() throws Exception {
+        String[]     inserts = { "a", "b", "c", ";", "abc", "c;" };
+        Random       random = new Random(2718);
+        String       input = "ab;c;";
+        Parser       parser = createMergeParser(input);
+        Node         tree = parser.parse();
+        TokenChange  change;
+        Token        first = (Token) tree.getChildAt(0).getChildAt(0)
+                                         .getChildAt(0);
+        String       text;
+        int          offset;
+        int          length;
+
+        change = parser.getTokenizer().retokenize(first, 2, 0, "c");
+        first = change.getFirstAddedToken();
+        tree = parser.parse(tree, change);
+        input = "abc;c;";
+        assertEquals("merge", printTree(parseMerge(input)), printTree(tree));
+        assertEquals("abc", ((Token) tree.getChildAt(0).getChildAt(0))
+                                .getImage());
+        for (int i = 0; i < 200; i++) {
+            text = inserts[random.nextInt(inserts.length)];
+            offset = random.nextInt(input.length() + 1);
+            length = random.nextInt(Math.min(input.length() - offset, 3) + 1);
+            change = parser.getTokenizer().retokenize(first,
+                                                      offset,
+                                                      length,
+                                                      text);
+            if (change.getPreviousToken() == null) {
+                first = change.getFirstAddedToken();
+                if (first == null) {
+                    first = change.getNextToken();
+                }
+            }
+            input = input.substring(0, offset) + text +
+                    input.substring(offset + length);
+            try {
+                tree = parser.parse(tree, change);
+            } catch (ParserLogException e) {
+                tree = null;
+            }
+            assertEquals("edit " + i + ": " + input,
+                         printTree(parseMerge(input)),
+                         printTree(tree));
+        }
+    }
+
+    /**
+     * Creates a new parser for a grammar with overlapping string
+     * tokens. The string "abc" is a single token, but each of its
+     * characters is also a token. The token list feature is used.
+     *
+     * @param input          the input string
+     *
+     * @return a new prepared parser
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             created
+     */
+    private Parser createMergeParser(String input)
+        throws ParserCreationException {
+
+        Tokenizer  tokenizer = new Tokenizer(new StringReader(input));
+        String[]   strings = { "abc", "a", "b", "c", ";" };
+        Parser     parser;
+
+        for (int i = 0; i < strings.length; i++) {
+            tokenizer.addPattern(new TokenPattern(T1 + i,
+                                                  "T" + (i + 1),
+                                                  TokenPattern.STRING_TYPE,
+                                                  strings[i]));
+        }
+        tokenizer.setUseTokenList(true);
+        parser = new RecursiveDescentParser(tokenizer);
+        pattern = new ProductionPattern(P1, "P1");
+        alt = new ProductionPatternAlternative();
+        alt.addProduction(P2, 1, -1);
+        addAlternative(pattern, alt);
+        addPattern(parser, pattern);
+        pattern = new ProductionPattern(P2, "P2");
+        alt = new ProductionPatternAlternative();
+        alt.addToken(T1, 1, 1);
+        alt.addToken(T5, 1, 1);
+        addAlternative(pattern, alt);
+        alt = new ProductionPatternAlternative();
+        alt.addProduction(P3, 1, -1);
+        alt.addToken(T5, 1, 1);
+        addAlternative(pattern, alt);
+        addPattern(parser, pattern);
+        pattern = new ProductionPattern(P3, "P3");
+        for (int i = T2; i <= T4; i++) {
+            alt = new ProductionPatternAlternative();
+            alt.addToken(i, 1, 1);
+            addAlternative(pattern, alt);
+        }
+        addPattern(parser, pattern);
+        prepareParser(parser);
+        return parser;
+    }
+
+    /**
+     * Parses an input string with a new parser for the grammar with
+     * overlapping string tokens.
+     *
+     * @param input          the input string
+     *
+     * @return the parse tree, or
+     *         null if the input couldn't be parsed
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             created
+     */
+    private Node parseMerge(String input) throws ParserCreationException {
+        try {
+            return createMergeParser(input).parse();
+        } catch (ParserLogException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a string representation of a parse tree.
+     *
+     * @param tree           the parse tree, or null
+     *
+     * @return the string representation, or
+     *         null if the parse tree was null
+     */
+    private String printTree(Node tree) {
+        StringWriter  output = new StringWriter();
+
+        if (tree == null) {
+            return null;
+        }
+        tree.printTo(new PrintWriter(output));
+        return output.toString();
+    }
+
     /**
      * Creates a new parser.
      *
@@ -0,0 +1,139 @@
+/*
+ * TestTokenStringDFA.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the TokenStringDFA class.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class TestTokenStringDFA extends TestCase {
+
+    /**
+     * The characters used in the random strings.
+     */
+    private static final String CHARS = "abyzABKZ-019;\u00e5\u4e2d";
+
+    /**
+     * Tests a small string set that requires the automaton arrays
+     * to be enlarged while the states are being built.
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    public void testGrowth() throws IOException {
+        String[]  strings = { "Kb", "zbB", "z-ay", "1", "bK", "-" };
+
+        assertMatches(strings, strings);
+    }
+
+    /**
+     * Tests random string sets against a simple map lookup. Most sets
+     * are small, since the arrays are enlarged in smaller steps in
+     * the beginning. Every tenth set is larger, forcing the arrays to
+     * be enlarged many times.
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    public void testRandomStrings() throws IOException {
+        Random    random = new Random(4242);
+        String[]  strings;
+        String[]  inputs;
+        int       size;
+
+        for (int i = 0; i < 2000; i++) {
+            size = 1 + random.nextInt((i % 10 == 0) ? 300 : 8);
+            strings = new String[size];
+            inputs = new String[size * 2 + 10];
+            for (int j = 0; j < size; j++) {
+                strings[j] = createString(random, 1 + random.nextInt(5));
+                inputs[j] = strings[j];
+            }
+            for (int j = size; j < inputs.length; j++) {
+                if (j % 2 == 0) {
+                    inputs[j] = strings[random.nextInt(size)] +
+                                createString(random, random.nextInt(3));
+                } else {
+                    inputs[j] = createString(random, 1 + random.nextInt(7));
+                }
+            }
+            assertMatches(strings, inputs);
+        }
+    }
+
+    /**
+     * Checks that an automaton finds the same longest matches as a
+     * simple map lookup of all the input prefixes.
+     *
+     * @param strings        the strings to add to the automaton
+     * @param inputs         the input strings to check
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    private void assertMatches(String[] strings, String[] inputs)
+        throws IOException {
+
+        TokenStringDFA  dfa = new TokenStringDFA(false);
+        HashMap         map = new HashMap();
+        TokenPattern    pattern;
+        Object          expected;
+
+        for (int i = 0; i < strings.length; i++) {
+            pattern = new TokenPattern(i + 1,
+                                       "S" + (i + 1),
+                                       TokenPattern.STRING_TYPE,
+                                       strings[i]);
+            dfa.addMatch(strings[i], pattern);
+            map.put(strings[i], pattern);
+        }
+        for (int i = 0; i < inputs.length; i++) {
+            expected = null;
+            for (int j = 1; j <= inputs[i].length(); j++) {
+                if (map.containsKey(inputs[i].substring(0, j))) {
+                    expected = map.get(inputs[i].substring(0, j));
+                }
+            }
+            assertSame("match of '" + inputs[i] + "' in " + dfa,
+                       expected,
+                       dfa.match(new ReaderBuffer(
+                           new StringReader(inputs[i]))));
+        }
+    }
+
+    /**
+     * Creates a random string.
+     *
+     * @param random         the random number generator
+     * @param length         the string length
+     *
+     * @return the random string
+     */
+    private String createString(Random random, int length) {
+        StringBuffer  buffer = new StringBuffer();
+
+        for (int i = 0; i < length; i++) {
+            buffer.append(CHARS.charAt(random.nextInt(CHARS.length())));
+        }
+        return buffer.toString();
+    }
+}
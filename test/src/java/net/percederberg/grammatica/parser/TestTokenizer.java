@@ -15,6 +15,9 @@
 package net.percederberg.grammatica.parser;
 
 import java.io.StringReader;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import junit.framework.TestCase;
 
@@ -121,6 +124,51 @@ public class TestTokenizer extends TestCase {
         readToken(tokenizer, EOF);
     }
 
+    /**
+     * Tests reading a sequence of invalid characters.
+     */
+    public void testInvalidCharSequence() {
+        Tokenizer  tokenizer = createDefaultTokenizer("12 (%&)keyword", false);
+
+        readToken(tokenizer, NUMBER);
+        try {
+            tokenizer.next();
+            fail("could read token from invalid characters");
+        } catch (ParseException e) {
+            assertEquals("error type",
+                         ParseException.UNEXPECTED_CHAR_ERROR,
+                         e.getErrorType());
+            assertEquals("error info", "(%&)", e.getInfo());
+            assertEquals("line", 1, e.getLine());
+            assertEquals("column", 4, e.getColumn());
+            assertEquals("end line", 1, e.getEndLine());
+            assertEquals("end column", 7, e.getEndColumn());
+        }
+        readToken(tokenizer, KEYWORD);
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests aborting after too many consecutive invalid characters.
+     */
+    public void testInvalidCharLimit() {
+        Tokenizer  tokenizer = createDefaultTokenizer("12 (( ((((( 34", false);
+
+        tokenizer.setMaxInvalidChars(3);
+        readToken(tokenizer, NUMBER);
+        failReadToken(tokenizer);
+        try {
+            tokenizer.next();
+            fail("could read token after too many invalid characters");
+        } catch (ParseException e) {
+            assertEquals("error type",
+                         ParseException.ABORTED_ERROR,
+                         e.getErrorType());
+            assertEquals("column", 7, e.getColumn());
+        }
+        readToken(tokenizer, EOF);
+    }
+
     /**
      * Tests the token list functions.
      */
@@ -167,6 +215,32 @@ public class TestTokenizer extends TestCase {
         readToken(tokenizer, EOF);
     }
 
+    /**
+     * Tests the case-insensitive mode with characters having more
+     * than two case variants.
+     */
+    public void testCaseFolding() {
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+
+        tokenizer = createTokenizer("\u01c4OK \u01c5ok \u212ak", true);
+        pattern = new TokenPattern(KEYWORD,
+                                   "KEYWORD",
+                                   TokenPattern.STRING_TYPE,
+                                   "\u01c6ok");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "k+");
+        addPattern(tokenizer, pattern);
+        addWhitespacePattern(tokenizer);
+        readToken(tokenizer, KEYWORD);
+        readToken(tokenizer, KEYWORD);
+        assertEquals("\u212ak", readToken(tokenizer, IDENTIFIER).getImage());
+        readToken(tokenizer, EOF);
+    }
+
     /**
      * Tests resetting the tokenizer with different input streams.
      */
@@ -193,6 +267,519 @@ public class TestTokenizer extends TestCase {
         readToken(tokenizer, EOF);
     }
 
+    /**
+     * Tests the bounded repeat regular expressions.
+     */
+    public void testBoundedRepeat() {
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+
+        tokenizer = createTokenizer("1234 12 123456 12345678", false);
+        pattern = new TokenPattern(NUMBER,
+                                   "NUMBER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[0-9]{2}([0-9]{2,3})?|[0-9]{7,}");
+        addPattern(tokenizer, pattern);
+        addWhitespacePattern(tokenizer);
+        assertEquals("fallback patterns",
+                     0,
+                     tokenizer.getFallbackPatterns().length);
+        assertEquals("1234", readToken(tokenizer, NUMBER).getImage());
+        assertEquals("12", readToken(tokenizer, NUMBER).getImage());
+        assertEquals("12345", readToken(tokenizer, NUMBER).getImage());
+        failReadToken(tokenizer);
+        assertEquals("12345678", readToken(tokenizer, NUMBER).getImage());
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests the optional regular expression repeats. The final
+     * state is only reached through an epsilon transition here.
+     */
+    public void testOptionalRepeat() {
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+
+        assertRegExpMatch("AB?", "A", 0);
+        assertRegExpMatch("A{1,2}", "A", 0);
+        assertRegExpMatch("A{1,2}", "AC", 0);
+        assertRegExpMatch("A{1,2}", "AAA", 0);
+        assertRegExpMatch("[A-Z]{1,2}", "A", 0);
+        assertRegExpMatch("\\w{1,3}", "x", 0);
+        assertRegExpMatch("\\w{1,3}\\s?[A-Z]{1,3}", "A BB", 0);
+        tokenizer = createTokenizer("a", false);
+        pattern = new TokenPattern(KEYWORD,
+                                   "KEYWORD",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[a-z]{1,3}");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[a-z]");
+        addPattern(tokenizer, pattern);
+        assertEquals("a", readToken(tokenizer, KEYWORD).getImage());
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests the reluctant repeat regular expressions.
+     */
+    public void testReluctantRepeat() {
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+
+        tokenizer = createTokenizer("/* a */ /* b **/", false);
+        pattern = new TokenPattern(ERROR,
+                                   "COMMENT",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "/\\*(.|\n)*?\\*/");
+        addPattern(tokenizer, pattern);
+        addWhitespacePattern(tokenizer);
+        assertEquals("fallback patterns",
+                     0,
+                     tokenizer.getFallbackPatterns().length);
+        assertEquals("/* a */", readToken(tokenizer, ERROR).getImage());
+        assertEquals("/* b **/", readToken(tokenizer, ERROR).getImage());
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests reluctant repeats combined with alternatives. The first
+     * matching alternative is preferred, so the shortest match cannot
+     * be used for these.
+     */
+    public void testReluctantAlternative() {
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+
+        tokenizer = createTokenizer("abc", false);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "(abc|a)x*?");
+        addPattern(tokenizer, pattern);
+        assertEquals("fallback patterns",
+                     1,
+                     tokenizer.getFallbackPatterns().length);
+        assertEquals("abc", readToken(tokenizer, IDENTIFIER).getImage());
+        readToken(tokenizer, EOF);
+        tokenizer = createTokenizer("abcab", false);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "(abc|a)+?");
+        addPattern(tokenizer, pattern);
+        assertEquals("fallback patterns",
+                     1,
+                     tokenizer.getFallbackPatterns().length);
+        assertEquals("abc", readToken(tokenizer, IDENTIFIER).getImage());
+        assertEquals("a", readToken(tokenizer, IDENTIFIER).getImage());
+        failReadToken(tokenizer);
+    }
+
+    /**
+     * Tests the reluctant repeats matched by the Java regular
+     * expression library. The shortest match differs from the Java
+     * result for these.
+     */
+    public void testReluctantFallback() {
+        assertRegExpMatch("x(ab)+?a", "xababa", 0);
+        assertRegExpMatch("[a-z]*?[0-9]", "ab12", 0);
+        assertRegExpMatch("a*?(ab)*?b", "aabb", 1);
+        assertRegExpMatch("a*?b+", "aabb", 1);
+        assertRegExpMatch("a+?(b|bc)", "abc", 1);
+        assertRegExpMatch("x*?", "xxx", 1);
+        assertRegExpMatch("(x|y)??", "xy", 1);
+    }
+
+    /**
+     * Tests the regular expressions not supported by the NFA.
+     */
+    public void testFallbackPatterns() {
+        Tokenizer       tokenizer = createTokenizer("aab", false);
+        TokenPattern    pattern;
+        TokenPattern[]  fallback;
+
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "a*?b+");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(NUMBER,
+                                   "NUMBER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[0-9]{1,1000}");
+        addPattern(tokenizer, pattern);
+        fallback = tokenizer.getFallbackPatterns();
+        assertEquals("fallback patterns", 2, fallback.length);
+        assertEquals("IDENTIFIER", fallback[0].getName());
+        assertEquals("NUMBER", fallback[1].getName());
+        assertEquals("aab", readToken(tokenizer, IDENTIFIER).getImage());
+    }
+
+    /**
+     * Tests the native Java regexp matching of long tokens.
+     */
+    public void testFallbackWindow() {
+        StringBuffer  buffer = new StringBuffer();
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+        ParseProfile  profile = new ParseProfile();
+
+        buffer.append('"');
+        for (int i = 0; i < 5000; i++) {
+            buffer.append('a');
+        }
+        buffer.append("\" \"b\"");
+        tokenizer = createTokenizer(buffer.toString(), false);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "STRING",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\"[^\"]*+\"");
+        addPattern(tokenizer, pattern);
+        addWhitespacePattern(tokenizer);
+        assertEquals("fallback patterns",
+                     1,
+                     tokenizer.getFallbackPatterns().length);
+        tokenizer.setProfile(profile);
+        assertEquals("token length",
+                     5002,
+                     readToken(tokenizer, IDENTIFIER).getImage().length());
+        assertEquals("\"b\"", readToken(tokenizer, IDENTIFIER).getImage());
+        readToken(tokenizer, EOF);
+        assertEquals("re-matches", 3, profile.getRegExpRematchCount());
+        tokenizer = new Tokenizer(new StringReader(buffer.toString()),
+                                  false,
+                                  256);
+        addPattern(tokenizer, pattern);
+        addWhitespacePattern(tokenizer);
+        profile = new ParseProfile();
+        tokenizer.setProfile(profile);
+        assertEquals("token length",
+                     5002,
+                     readToken(tokenizer, IDENTIFIER).getImage().length());
+        readToken(tokenizer, IDENTIFIER);
+        readToken(tokenizer, EOF);
+        assertEquals("small block re-matches",
+                     5,
+                     profile.getRegExpRematchCount());
+    }
+
+    /**
+     * Tests the native Java regexp matching of anchors. The start of
+     * each token is matched by "^", and "$" is only matched at the
+     * end of the input.
+     */
+    public void testFallbackAnchors() {
+        StringBuffer  buffer = new StringBuffer();
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+
+        tokenizer = createTokenizer("aaa", false);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "^a");
+        addPattern(tokenizer, pattern);
+        assertEquals("fallback patterns",
+                     1,
+                     tokenizer.getFallbackPatterns().length);
+        assertEquals("a", readToken(tokenizer, IDENTIFIER).getImage());
+        assertEquals("a", readToken(tokenizer, IDENTIFIER).getImage());
+        assertEquals("a", readToken(tokenizer, IDENTIFIER).getImage());
+        readToken(tokenizer, EOF);
+        for (int i = 0; i < 300; i++) {
+            buffer.append('a');
+        }
+        tokenizer = new Tokenizer(new StringReader(buffer.toString()),
+                                  false,
+                                  256);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "a+$");
+        addPattern(tokenizer, pattern);
+        assertEquals("token length",
+                     300,
+                     readToken(tokenizer, IDENTIFIER).getImage().length());
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests that the native Java regexp matching is only used for
+     * the possible initial characters.
+     */
+    public void testFallbackDispatch() {
+        Tokenizer     tokenizer = createTokenizer("12 \"a\" 34 x", false);
+        TokenPattern  pattern;
+        ParseProfile  profile = new ParseProfile();
+
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "STRING",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\"[^\"]*+\"");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(NUMBER,
+                                   "NUMBER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[0-9]+");
+        addPattern(tokenizer, pattern);
+        addWhitespacePattern(tokenizer);
+        tokenizer.setProfile(profile);
+        readToken(tokenizer, NUMBER);
+        readToken(tokenizer, IDENTIFIER);
+        readToken(tokenizer, NUMBER);
+        failReadToken(tokenizer);
+        readToken(tokenizer, EOF);
+        assertEquals("regexp calls",
+                     1,
+                     profile.getMatcherCalls(ParseProfile.REGEXP_MATCHER));
+        pattern = new TokenPattern(KEYWORD,
+                                   "KEYWORD",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "(?<= )x");
+        addPattern(tokenizer, pattern);
+        tokenizer.reset(new StringReader("12 x"));
+        readToken(tokenizer, NUMBER);
+        readToken(tokenizer, KEYWORD);
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests the string patterns with common prefixes, non-ASCII
+     * characters and patterns added after reading the first token.
+     */
+    public void testStringPatterns() {
+        String[]      strings = { "in", "int", "i", "into", "\u00e5\u00e4" };
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+
+        tokenizer = createTokenizer("int in INTO \u00c5\u00c4 i", true);
+        addWhitespacePattern(tokenizer);
+        for (int i = 0; i < 2; i++) {
+            pattern = new TokenPattern(10 + i,
+                                       "STRING" + i,
+                                       TokenPattern.STRING_TYPE,
+                                       strings[i]);
+            addPattern(tokenizer, pattern);
+        }
+        readToken(tokenizer, 11);
+        readToken(tokenizer, 10);
+        for (int i = 2; i < strings.length; i++) {
+            pattern = new TokenPattern(10 + i,
+                                       "STRING" + i,
+                                       TokenPattern.STRING_TYPE,
+                                       strings[i]);
+            addPattern(tokenizer, pattern);
+        }
+        readToken(tokenizer, 13);
+        readToken(tokenizer, 14);
+        readToken(tokenizer, 12);
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests the string patterns matched as keywords.
+     */
+    public void testKeywordPatterns() {
+        Tokenizer       tokenizer = createTokenizer("if IFfy Then 0x", true);
+        TokenPattern    pattern;
+        TokenPattern[]  keywords;
+
+        pattern = new TokenPattern(KEYWORD,
+                                   "KEYWORD",
+                                   TokenPattern.STRING_TYPE,
+                                   "if");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[a-z]+");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(NUMBER,
+                                   "NUMBER",
+                                   TokenPattern.STRING_TYPE,
+                                   "0x");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(10,
+                                   "THEN",
+                                   TokenPattern.STRING_TYPE,
+                                   "then");
+        addPattern(tokenizer, pattern);
+        addWhitespacePattern(tokenizer);
+        keywords = tokenizer.getKeywordPatterns();
+        assertEquals("keyword patterns", 2, keywords.length);
+        assertEquals("KEYWORD", keywords[0].getName());
+        assertEquals("THEN", keywords[1].getName());
+        assertEquals("if", readToken(tokenizer, KEYWORD).getImage());
+        assertEquals("IFfy", readToken(tokenizer, IDENTIFIER).getImage());
+        assertEquals("Then", readToken(tokenizer, IDENTIFIER).getImage());
+        assertEquals("0x", readToken(tokenizer, NUMBER).getImage());
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests string token patterns with case variants not matched by
+     * the regular expressions. These cannot be matched as keywords.
+     */
+    public void testKeywordCaseVariants() {
+        Tokenizer     tokenizer;
+        TokenPattern  pattern;
+
+        tokenizer = createTokenizer("\u212A k K", true);
+        pattern = new TokenPattern(KEYWORD,
+                                   "KEYWORD",
+                                   TokenPattern.STRING_TYPE,
+                                   "k");
+        addPattern(tokenizer, pattern);
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "\\w+");
+        addPattern(tokenizer, pattern);
+        addWhitespacePattern(tokenizer);
+        assertEquals("keyword patterns",
+                     0,
+                     tokenizer.getKeywordPatterns().length);
+        assertEquals("\u212A", readToken(tokenizer, KEYWORD).getImage());
+        assertEquals("k", readToken(tokenizer, KEYWORD).getImage());
+        assertEquals("K", readToken(tokenizer, KEYWORD).getImage());
+        readToken(tokenizer, EOF);
+    }
+
+    /**
+     * Tests re-tokenizing a token list after random edits. The
+     * token list is compared to a token list for the whole input
+     * after each edit.
+     *
+     * @throws ParseException if the input couldn't be tokenized
+     */
+    public void testRetokenize() throws ParseException {
+        String[]     inserts = { "", "A", "BK", " ", "12", "\n",
+                                 "\n  ", "keyword", "AB 3\n" };
+        Random       random = new Random(1234);
+        String       input = "";
+        Tokenizer    tokenizer = createDefaultTokenizer(input, true);
+        TokenChange  change;
+        Token        first = null;
+        String       text;
+        int          offset;
+        int          length;
+
+        for (int i = 0; i < 500; i++) {
+            text = inserts[random.nextInt(inserts.length)];
+            offset = random.nextInt(input.length() + 1);
+            length = random.nextInt(Math.min(input.length() - offset, 4) + 1);
+            change = tokenizer.retokenize(first, offset, length, text);
+            if (first == null || first == change.getFirstRemovedToken()) {
+                first = change.getFirstAddedToken();
+                if (first == null) {
+                    first = change.getNextToken();
+                }
+            }
+            input = input.substring(0, offset) + text +
+                    input.substring(offset + length);
+            assertTokenList("edit " + i, readTokenList(input), first);
+        }
+        try {
+            tokenizer.retokenize(first, input.length() + 1, 0, "A");
+            fail("could re-tokenize outside token list");
+        } catch (IllegalArgumentException e) {
+            // Failure was expected
+        }
+        try {
+            tokenizer.retokenize(first, 0, 0, "#");
+            fail("could re-tokenize invalid input");
+        } catch (ParseException e) {
+            assertTokenList("invalid edit", readTokenList(input), first);
+        }
+    }
+
+    /**
+     * Tests re-tokenizing an edit that merges several previous tokens
+     * into a single token. The tokenizer must restart from the first
+     * token whose look-ahead reached the edit.
+     *
+     * @throws ParseException if the input couldn't be tokenized
+     */
+    public void testRetokenizeMerge() throws ParseException {
+        String[]     inserts = { "a", "b", "c", ";", "ab", "bc" };
+        Random       random = new Random(4321);
+        String       input = "ab;";
+        Tokenizer    tokenizer = createStringTokenizer(input);
+        TokenChange  change;
+        Token        first;
+        String       text;
+        int          offset;
+        int          length;
+
+        first = readTokenList(tokenizer);
+        change = tokenizer.retokenize(first, 2, 0, "c");
+        first = change.getFirstAddedToken();
+        assertEquals("abc", first.getImage());
+        assertTokenList("merge",
+                        readTokenList(createStringTokenizer("abc;")),
+                        first);
+        input = "abc;";
+        for (int i = 0; i < 300; i++) {
+            text = inserts[random.nextInt(inserts.length)];
+            offset = random.nextInt(input.length() + 1);
+            length = random.nextInt(Math.min(input.length() - offset, 3) + 1);
+            change = tokenizer.retokenize(first, offset, length, text);
+            if (change.getPreviousToken() == null) {
+                first = change.getFirstAddedToken();
+                if (first == null) {
+                    first = change.getNextToken();
+                }
+            }
+            input = input.substring(0, offset) + text +
+                    input.substring(offset + length);
+            assertTokenList("edit " + i + ": " + input,
+                            readTokenList(createStringTokenizer(input)),
+                            first);
+        }
+    }
+
+    /**
+     * Tests re-tokenizing a token list with a look-behind pattern.
+     * The type of a token may then depend on the characters before
+     * it, so all the tokens after an edit must be re-tokenized.
+     *
+     * @throws ParseException if the input couldn't be tokenized
+     */
+    public void testRetokenizeContext() throws ParseException {
+        String[]     inserts = { "1", "a", "-", " ", "\n" };
+        Random       random = new Random(1234);
+        String       input = " -b\n-\n";
+        Tokenizer    tokenizer = createContextTokenizer(input);
+        TokenChange  change;
+        Token        first;
+        String       text;
+        int          offset;
+        int          length;
+
+        first = readTokenList(tokenizer);
+        change = tokenizer.retokenize(first, 2, 1, "A1");
+        first = change.getFirstAddedToken();
+        input = " -A1\n-\n";
+        assertTokenList("look-behind",
+                        readTokenList(createContextTokenizer(input)),
+                        first);
+        for (int i = 0; i < 200; i++) {
+            text = inserts[random.nextInt(inserts.length)];
+            offset = random.nextInt(input.length() + 1);
+            length = random.nextInt(Math.min(input.length() - offset, 2) + 1);
+            change = tokenizer.retokenize(first, offset, length, text);
+            first = change.getFirstAddedToken();
+            input = input.substring(0, offset) + text +
+                    input.substring(offset + length);
+            assertTokenList("edit " + i + ": " + input,
+                            readTokenList(createContextTokenizer(input)),
+                            first);
+        }
+    }
+
     /**
      * Creates a new tokenizer.
      *
@@ -251,6 +838,176 @@ public class TestTokenizer extends TestCase {
         return tokenizer;
     }
 
+    /**
+     * Reads all tokens from an input string with the token list
+     * feature. The default tokenizer patterns are used, but without
+     * the ignore and error flags, so that all tokens are returned.
+     *
+     * @param input          the input string
+     *
+     * @return the first token in the token list, or
+     *         null if no tokens were found
+     *
+     * @throws ParseException if the input couldn't be tokenized
+     */
+    private Token readTokenList(String input) throws ParseException {
+        Tokenizer  tokenizer = createTokenizer(input, true);
+
+        addPattern(tokenizer, new TokenPattern(KEYWORD,
+                                               "KEYWORD",
+                                               TokenPattern.STRING_TYPE,
+                                               "keyword"));
+        addPattern(tokenizer, new TokenPattern(IDENTIFIER,
+                                               "IDENTIFIER",
+                                               TokenPattern.REGEXP_TYPE,
+                                               "[A-Z]+"));
+        addPattern(tokenizer, new TokenPattern(NUMBER,
+                                               "NUMBER",
+                                               TokenPattern.REGEXP_TYPE,
+                                               "[0-9]+"));
+        addPattern(tokenizer, new TokenPattern(WHITESPACE,
+                                               "WHITESPACE",
+                                               TokenPattern.REGEXP_TYPE,
+                                               "[ \t\n]+"));
+        addPattern(tokenizer, new TokenPattern(ERROR,
+                                               "ERROR",
+                                               TokenPattern.STRING_TYPE,
+                                               "error"));
+        return readTokenList(tokenizer);
+    }
+
+    /**
+     * Reads all tokens from a tokenizer with the token list feature.
+     *
+     * @param tokenizer      the tokenizer to read from
+     *
+     * @return the first token in the token list, or
+     *         null if no tokens were found
+     *
+     * @throws ParseException if the input couldn't be tokenized
+     */
+    private Token readTokenList(Tokenizer tokenizer) throws ParseException {
+        Token  first;
+        Token  token;
+
+        tokenizer.setUseTokenList(true);
+        first = tokenizer.next();
+        for (token = first; token != null; token = tokenizer.next()) {
+            // Read all tokens
+        }
+        return first;
+    }
+
+    /**
+     * Creates a new tokenizer with overlapping string tokens. The
+     * string "abc" is a single token, but its prefixes are also
+     * tokens.
+     *
+     * @param input          the input string
+     *
+     * @return a new tokenizer
+     */
+    private Tokenizer createStringTokenizer(String input) {
+        Tokenizer  tokenizer = createTokenizer(input, false);
+        String[]   strings = { "abc", "a", "b", "c", ";" };
+
+        for (int i = 0; i < strings.length; i++) {
+            addPattern(tokenizer, new TokenPattern(10 + i,
+                                                   "STRING" + i,
+                                                   TokenPattern.STRING_TYPE,
+                                                   strings[i]));
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Creates a new tokenizer with a look-behind token pattern. A
+     * whitespace character is only a whitespace token if it doesn't
+     * follow a digit.
+     *
+     * @param input          the input string
+     *
+     * @return a new tokenizer
+     */
+    private Tokenizer createContextTokenizer(String input) {
+        Tokenizer  tokenizer = createTokenizer(input, false);
+
+        addPattern(tokenizer, new TokenPattern(KEYWORD,
+                                               "KEYWORD",
+                                               TokenPattern.STRING_TYPE,
+                                               "-"));
+        addPattern(tokenizer, new TokenPattern(IDENTIFIER,
+                                               "IDENTIFIER",
+                                               TokenPattern.REGEXP_TYPE,
+                                               "[A-Za-z]+"));
+        addPattern(tokenizer, new TokenPattern(NUMBER,
+                                               "NUMBER",
+                                               TokenPattern.REGEXP_TYPE,
+                                               "[0-9]+"));
+        addPattern(tokenizer, new TokenPattern(WHITESPACE,
+                                               "WHITESPACE",
+                                               TokenPattern.REGEXP_TYPE,
+                                               "(?<![0-9])\\s"));
+        addPattern(tokenizer, new TokenPattern(ERROR,
+                                               "ERROR",
+                                               TokenPattern.REGEXP_TYPE,
+                                               "\\s"));
+        return tokenizer;
+    }
+
+    /**
+     * Checks that two token lists are equal. The token images, ids
+     * and positions are compared, as well as the token list links.
+     *
+     * @param message        the assertion message
+     * @param expected       the first token in the expected list
+     * @param first          the first token in the actual list
+     */
+    private void assertTokenList(String message,
+                                 Token expected,
+                                 Token first) {
+
+        Token  token = first;
+        Token  previous = null;
+
+        while (expected != null) {
+            assertNotNull(message + ", token list end", token);
+            assertEquals(message + ", previous token",
+                         previous,
+                         token.getPreviousToken());
+            assertEquals(message, expected.toString(), token.toString());
+            assertEquals(message + ", image",
+                         expected.getImage(),
+                         token.getImage());
+            assertEquals(message + ", end line",
+                         expected.getEndLine(),
+                         token.getEndLine());
+            assertEquals(message + ", end column",
+                         expected.getEndColumn(),
+                         token.getEndColumn());
+            previous = token;
+            token = token.getNextToken();
+            expected = expected.getNextToken();
+        }
+        assertNull(message + ", token list end", token);
+    }
+
+    /**
+     * Adds an ignored whitespace pattern to the tokenizer.
+     *
+     * @param tokenizer      the tokenizer
+     */
+    private void addWhitespacePattern(Tokenizer tokenizer) {
+        TokenPattern  pattern;
+
+        pattern = new TokenPattern(WHITESPACE,
+                                   "WHITESPACE",
+                                   TokenPattern.REGEXP_TYPE,
+                                   "[ \t\n]+");
+        pattern.setIgnore();
+        addPattern(tokenizer, pattern);
+    }
+
     /**
      * Adds a pattern to the tokenizer and reports a test failure if
      * it failed.
@@ -342,4 +1099,35 @@ public class TestTokenizer extends TestCase {
             // Failure was expected
         }
     }
+
+    /**
+     * Checks that a regular expression token pattern matches the
+     * same text as the Java regular expression library. This method
+     * reports a test failure if the first token read differs.
+     *
+     * @param regexp         the regular expression pattern
+     * @param input          the input string
+     * @param fallback       the expected number of fallback patterns
+     */
+    private void assertRegExpMatch(String regexp, String input, int fallback) {
+        Tokenizer     tokenizer = createTokenizer(input, false);
+        TokenPattern  pattern;
+        Matcher       m = Pattern.compile(regexp).matcher(input);
+
+        pattern = new TokenPattern(IDENTIFIER,
+                                   "IDENTIFIER",
+                                   TokenPattern.REGEXP_TYPE,
+                                   regexp);
+        addPattern(tokenizer, pattern);
+        assertEquals("fallback patterns for " + regexp,
+                     fallback,
+                     tokenizer.getFallbackPatterns().length);
+        if (m.lookingAt() && m.end() > 0) {
+            assertEquals(regexp + " on " + input,
+                         m.group(),
+                         readToken(tokenizer, IDENTIFIER).getImage());
+        } else {
+            failReadToken(tokenizer);
+        }
+    }
 }
@@ -0,0 +1,214 @@
+/*
+ * TestUtf8Reader.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the Utf8Reader class.
+ *
+ * @author   Per Cederberg
+ * @version  1.7
+ * @since    1.7
+ */
+public class TestUtf8Reader extends TestCase {
+
+    /**
+     * The test input text. It contains one, two, three and four byte
+     * characters.
+     */
+    private static final String INPUT =
+        "abc \u00e5\u00e4\u00f6 \u20ac\u4e2d \ud834\udd1e\n";
+
+    /**
+     * Tests decoding the input with all the input sources, and with
+     * varying read sizes.
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    public void testDecode() throws IOException {
+        String  input = createInput(500);
+        byte[]  bytes = getBytes(input);
+
+        for (int size = 1; size < 10; size++) {
+            assertEquals("stream " + size, input,
+                         readAll(new Utf8Reader(
+                             new ByteArrayInputStream(bytes)), size));
+            assertEquals("channel " + size, input,
+                         readAll(new Utf8Reader(Channels.newChannel(
+                             new ByteArrayInputStream(bytes))), size));
+            assertEquals("heap buffer " + size, input,
+                         readAll(new Utf8Reader(ByteBuffer.wrap(bytes)),
+                                 size));
+            assertEquals("direct buffer " + size, input,
+                         readAll(new Utf8Reader(createDirect(bytes)),
+                                 size));
+        }
+    }
+
+    /**
+     * Tests decoding malformed input. The malformed byte sequences
+     * should be replaced in the same way as when creating a string.
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    public void testMalformed() throws IOException {
+        byte[]  bytes = { 'a', (byte) 0x80, 'b', (byte) 0xc0, (byte) 0xaf,
+                          'c', (byte) 0xe2, (byte) 0x82, 'd',
+                          (byte) 0xed, (byte) 0xa0, (byte) 0x80, 'e',
+                          (byte) 0xf0, (byte) 0x9f };
+        String  str;
+
+        str = readAll(new Utf8Reader(new ByteArrayInputStream(bytes)), 4);
+        assertEquals(new String(bytes, "UTF-8"), str);
+    }
+
+    /**
+     * Tests that the tokens read from bytes are identical to the
+     * tokens read from characters.
+     *
+     * @throws Exception if the tokenizer couldn't be created
+     */
+    public void testTokenizer() throws Exception {
+        String     input = createInput(50);
+        Tokenizer  chars;
+        Tokenizer  bytes;
+        Token      token1;
+        Token      token2;
+
+        chars = createTokenizer(new StringReader(input));
+        bytes = createTokenizer(new Utf8Reader(
+            new ByteArrayInputStream(getBytes(input))));
+        do {
+            token1 = chars.next();
+            token2 = bytes.next();
+            if (token1 == null) {
+                assertNull("end of input", token2);
+            } else {
+                assertNotNull("token", token2);
+                assertEquals("image", token1.getImage(), token2.getImage());
+                assertEquals("line", token1.getStartLine(),
+                             token2.getStartLine());
+                assertEquals("column", token1.getStartColumn(),
+                             token2.getStartColumn());
+                assertEquals("end column", token1.getEndColumn(),
+                             token2.getEndColumn());
+            }
+        } while (token1 != null);
+    }
+
+    /**
+     * Creates a new tokenizer for words and white space.
+     *
+     * @param input          the input reader
+     *
+     * @return a new tokenizer
+     *
+     * @throws ParserCreationException if the tokenizer couldn't be
+     *             created
+     */
+    private Tokenizer createTokenizer(Reader input)
+        throws ParserCreationException {
+
+        Tokenizer  tokenizer = new Tokenizer(input);
+
+        tokenizer.addPattern(new TokenPattern(1, "WORD",
+                                              TokenPattern.REGEXP_TYPE,
+                                              "[^ \\n]+"));
+        tokenizer.addPattern(new TokenPattern(2, "SPACE",
+                                              TokenPattern.REGEXP_TYPE,
+                                              "[ \\n]+"));
+        return tokenizer;
+    }
+
+    /**
+     * Reads all characters from a reader.
+     *
+     * @param reader         the reader to read
+     * @param size           the maximum number of characters per read
+     *
+     * @return the characters read
+     *
+     * @throws IOException if the input couldn't be read
+     */
+    private String readAll(Reader reader, int size) throws IOException {
+        StringBuffer  buffer = new StringBuffer();
+        char[]        chars = new char[size];
+        int           count;
+
+        while ((count = reader.read(chars, 0, size)) >= 0) {
+            assertTrue("read count", count > 0);
+            buffer.append(chars, 0, count);
+        }
+        reader.close();
+        return buffer.toString();
+    }
+
+    /**
+     * Creates a direct byte buffer.
+     *
+     * @param bytes          the buffer content
+     *
+     * @return a new direct byte buffer
+     */
+    private ByteBuffer createDirect(byte[] bytes) {
+        ByteBuffer  buffer = ByteBuffer.allocateDirect(bytes.length);
+
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Returns the UTF-8 encoded bytes of a string.
+     *
+     * @param str            the string to encode
+     *
+     * @return the encoded bytes
+     */
+    private byte[] getBytes(String str) {
+        try {
+            return str.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a test input text.
+     *
+     * @param lines          the number of lines
+     *
+     * @return the test input text
+     */
+    private static String createInput(int lines) {
+        StringBuffer  buffer = new StringBuffer();
+
+        for (int i = 0; i < lines; i++) {
+            buffer.append(i);
+            buffer.append(" ");
+            buffer.append(INPUT);
+        }
+        return buffer.toString();
+    }
+}
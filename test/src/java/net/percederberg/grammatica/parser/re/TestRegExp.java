@@ -15,6 +15,7 @@
 package net.percederberg.grammatica.parser.re;
 
 import java.io.IOException;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -390,6 +391,9 @@ public class TestRegExp extends TestCase {
         failMatchRegExp("a++a", "aaaa");
         failMatchRegExp("a{3,}+a", "aaaaa");
         failMatchRegExp("a{2,3}+a", "aaa");
+        matchRegExp("(ab??){2,3}", "aba");
+        matchRegExp("(a|ab)+b", "abab");
+        matchRegExp("(abc|ab|cd)*x", "abcdx");
     }
 
     /**
@@ -412,6 +416,41 @@ public class TestRegExp extends TestCase {
         failMatchRegExp("a*+a", str);
     }
 
+    /**
+     * Tests nested quantifiers that previously caused an exponential
+     * number of backtracking steps, or a stack overflow for long
+     * inputs. The matching time should grow polynomially with the
+     * input length, so these long inputs should only take a fraction
+     * of the time limit.
+     */
+    public void testNestedQuantifiers() {
+        StringBuffer  buffer = new StringBuffer();
+        String        str;
+        long          time = System.currentTimeMillis();
+
+        for (int i = 0; i < 10000; i++) {
+            buffer.append("a");
+        }
+        str = buffer.toString();
+        matchRegExp("(a*)*b", str + "b");
+        failMatchRegExp("(a*)*b", str + "x");
+        matchRegExp("(a*)+?b", str + "b");
+        failMatchRegExp("(a*)+?b", str + "x");
+        failMatchRegExp("(a+)+b", str + "x");
+        failMatchRegExp("(a|a)*b", str + "x");
+        failMatchRegExp("(a|aa)+b", str + "x");
+        failMatchRegExp("(a+a+)+b", str + "x");
+        failMatchRegExp("((a*)*)*b", str + "x");
+        matchRegExp("(a|aa)+", str);
+        matchRegExp("(a+a+)+", str);
+        matchRegExp("(a*)*?b", "aab");
+        matchRegExp("(a{2,3})+a", "aaaaaa");
+        matchRegExp("(a{2,3}){2}a", "aaaaaa");
+        failMatchRegExp("(a{2,3}){2}a", "aaaa");
+        time = System.currentTimeMillis() - time;
+        assertTrue("nested quantifiers took " + time + " ms", time < 10000);
+    }
+
     /**
      * Tests matching of various logical operators.
      */
@@ -486,6 +525,92 @@ public class TestRegExp extends TestCase {
         }
     }
 
+    /**
+     * Tests searching for matches in a string.
+     */
+    public void testFind() {
+        String  log = "INFO [main] started\nERROR [io] failed\n" +
+                      "error [x] ignored\nERROR [net] lost\n";
+
+        findRegExp(createRegExp("ERROR \\[[a-z]+\\]"),
+                   log,
+                   new String[] { "ERROR [io]", "ERROR [net]" });
+        findRegExp(createRegExp("[0-9]+"),
+                   "a1b22c333",
+                   new String[] { "1", "22", "333" });
+        findRegExp(createRegExp("a|bc"),
+                   "xxbcxa",
+                   new String[] { "bc", "a" });
+        findRegExp(createRegExp("x*"),
+                   "ab",
+                   new String[] { "", "", "" });
+        findRegExp(createRegExp("abcabd"),
+                   "abcabcabdabcabd",
+                   new String[] { "abcabd", "abcabd" });
+        findRegExp(createRegExp("(foo|foobar)baz"),
+                   "foobarbaz foo foobaz",
+                   new String[] { "foobarbaz", "foobaz" });
+        findRegExp(createRegExp("ERROR"),
+                   "no errors here",
+                   new String[0]);
+        try {
+            findRegExp(new RegExp("error \\[[a-z]+\\]", true),
+                       log,
+                       new String[] {
+                           "ERROR [io]", "error [x]", "ERROR [net]"
+                       });
+        } catch (RegExpException e) {
+            fail("couldn't create regular expression: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tests matching with the same regular expression from several
+     * threads at the same time.
+     *
+     * @throws InterruptedException if the test was interrupted
+     */
+    public void testConcurrentMatchers() throws InterruptedException {
+        final RegExp    re = createRegExp("(a|ab)(c|bcd)(d*)x|(a+a+)+y");
+        final String[]  errors = new String[8];
+        Thread[]        threads = new Thread[errors.length];
+
+        for (int i = 0; i < threads.length; i++) {
+            final int  id = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    errors[id] = matchRepeatedly(re, id);
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            if (errors[i] != null) {
+                fail(errors[i]);
+            }
+        }
+    }
+
+    /**
+     * Tests generating random strings matching an expression.
+     */
+    public void testGenerate() {
+        String[]  patterns = {
+            "[a-zA-Z_][a-zA-Z0-9_]*", "[0-9]+(\\.[0-9]*)?", "a|bc|d{2,3}",
+            "\"([^\"\\\\]|\\\\.)*\"", "[^a-z]x?"
+        };
+        Random    random = new Random(4711);
+        String    str;
+
+        for (int i = 0; i < patterns.length; i++) {
+            for (int j = 0; j < 20; j++) {
+                str = createRegExp(patterns[i]).generate(random, 5);
+                matchRegExp(patterns[i], str);
+            }
+        }
+    }
+
     /**
      * Creates a new regular expression. If the expression couldn't be
      * parsed correctly, a test failure will be reported.
@@ -561,6 +686,82 @@ public class TestRegExp extends TestCase {
         }
     }
 
+    /**
+     * Checks that a regular expression finds the specified matches
+     * in an input string, and no other matches. This method will
+     * report a failure if the matches found differ.
+     *
+     * @param re             the regular expression to check
+     * @param input          the input string
+     * @param matches        the expected match strings
+     */
+    private void findRegExp(RegExp re, String input, String[] matches) {
+        Matcher  m = re.matcher(input);
+
+        try {
+            for (int i = 0; i < matches.length; i++) {
+                if (!m.find()) {
+                    fail("couldn't find '" + matches[i] + "' in input '" +
+                         input + "'");
+                } else if (!matches[i].equals(m.toString())) {
+                    fail("incorrect match found in '" + input +
+                         "', found: '" + m.toString() + "', expected: '" +
+                         matches[i] + "'");
+                }
+            }
+            if (m.find()) {
+                fail("found invalid match '" + m.toString() +
+                     "' in input '" + input + "'");
+            }
+        } catch (IOException e) {
+            fail("io error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Matches a series of different strings with a regular expression
+     * used by the concurrent matchers test. A new matcher is created
+     * for the regular expression, and reset for each string.
+     *
+     * @param re             the regular expression to use
+     * @param seed           the first string length
+     *
+     * @return an error message, or
+     *         null if all strings matched correctly
+     */
+    private String matchRepeatedly(RegExp re, int seed) {
+        Matcher       m = re.matcher("");
+        StringBuffer  buffer = new StringBuffer();
+        String        str;
+
+        try {
+            for (int i = 0; i < 2000; i++) {
+                buffer.setLength(0);
+                if (i % 2 == 0) {
+                    buffer.append("abcd");
+                    for (int j = 0; j < (seed + i) % 20; j++) {
+                        buffer.append("d");
+                    }
+                    buffer.append("x");
+                } else {
+                    for (int j = 0; j < (seed + i) % 20 + 2; j++) {
+                        buffer.append("a");
+                    }
+                    buffer.append("y");
+                }
+                str = buffer.toString();
+                m.reset(str);
+                if (!m.matchFromBeginning() || !str.equals(m.toString())) {
+                    return "incorrect match for '" + str + "', found: '" +
+                           m.toString() + "'";
+                }
+            }
+        } catch (Exception e) {
+            return "error matching: " + e;
+        }
+        return null;
+    }
+
     /**
      * Checks that a specified regular expression does not match the
      * input string. This method will report a failure if the regular
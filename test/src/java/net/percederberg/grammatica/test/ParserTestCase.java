@@ -21,6 +21,7 @@ import junit.framework.TestCase;
 
 import net.percederberg.grammatica.parser.Node;
 import net.percederberg.grammatica.parser.ParseException;
+import net.percederberg.grammatica.parser.ParseLimitException;
 import net.percederberg.grammatica.parser.Parser;
 import net.percederberg.grammatica.parser.ParserCreationException;
 import net.percederberg.grammatica.parser.ParserLogException;
@@ -90,6 +91,63 @@ abstract class ParserTestCase extends TestCase {
         }
     }
 
+    /**
+     * Parses with the parser and checks the parse limit error. If
+     * the parsing succeeded or if the parse limit exception didn't
+     * match the specified type, a test failure will be reported.
+     *
+     * @param parser         the parser to use
+     * @param type           the parse limit type
+     */
+    protected void failParseLimit(Parser parser, int type) {
+        try {
+            parser.parse();
+            fail("parsing succeeded");
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParseLimitException e) {
+            assertEquals("limit type", type, e.getLimitType());
+            assertEquals("error count", 1, e.getErrorCount());
+            assertEquals("error type",
+                         ParseException.ABORTED_ERROR,
+                         e.getError(0).getErrorType());
+        } catch (ParserLogException e) {
+            fail("parse limit not exceeded: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses with the parser and checks all the parse errors. If the
+     * parsing succeeded or if the parse exceptions didn't match the
+     * specified values, a test failure will be reported.
+     *
+     * @param parser         the parser to use
+     * @param types          the parse error types
+     * @param lines          the line numbers
+     * @param columns        the column numbers
+     */
+    protected void failParse(Parser parser,
+                             int[] types,
+                             int[] lines,
+                             int[] columns) {
+
+        try {
+            parser.parse();
+            fail("parsing succeeded");
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            assertEquals("error count", types.length, e.getErrorCount());
+            for (int i = 0; i < types.length; i++) {
+                ParseException  p = e.getError(i);
+
+                assertEquals("error type", types[i], p.getErrorType());
+                assertEquals("line number", lines[i], p.getLine());
+                assertEquals("column number", columns[i], p.getColumn());
+            }
+        }
+    }
+
     /**
      * Validates that a parse tree is identical to a string
      * representation. If the two representations mismatch, a test
@@ -14,11 +14,29 @@
 
 package net.percederberg.grammatica.test;
 
+import java.io.PrintWriter;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.percederberg.grammatica.parser.Node;
 import net.percederberg.grammatica.parser.ParseException;
+import net.percederberg.grammatica.parser.ParseLimitException;
+import net.percederberg.grammatica.parser.ParseMonitor;
+import net.percederberg.grammatica.parser.ParseOptions;
+import net.percederberg.grammatica.parser.ParseProfile;
 import net.percederberg.grammatica.parser.Parser;
 import net.percederberg.grammatica.parser.ParserCreationException;
+import net.percederberg.grammatica.parser.ParserLogException;
+import net.percederberg.grammatica.parser.ParserPool;
+import net.percederberg.grammatica.parser.Token;
+import net.percederberg.grammatica.parser.TokenChange;
+import net.percederberg.grammatica.parser.jmx.MetricsMonitor;
+import net.percederberg.grammatica.parser.jmx.ParserMetrics;
 
 /**
  * A test case for the generated ArithmeticParser class.
@@ -80,6 +98,12 @@ public class TestArithmeticParser extends ParserTestCase {
      */
     private static final String UNEXPECTED_TOKEN_INPUT = "1 + 2 3";
 
+    /**
+     * The multiple errors input string.
+     */
+    private static final String MULTIPLE_ERRORS_INPUT =
+        "1 + + + + 2 * (3 4 5 6 7 8 9) + 5 *)";
+
     /**
      * Creates a new test case.
      *
@@ -126,6 +150,71 @@ public class TestArithmeticParser extends ParserTestCase {
                   7);
     }
 
+    /**
+     * Tests parsing with error recovery for multiple errors.
+     */
+    public void testErrorRecovery() {
+        int[]  types = { ParseException.UNEXPECTED_TOKEN_ERROR,
+                         ParseException.UNEXPECTED_TOKEN_ERROR,
+                         ParseException.UNEXPECTED_TOKEN_ERROR };
+        int[]  lines = { 1, 1, 1 };
+        int[]  columns = { 5, 18, 36 };
+
+        failParse(createParser(MULTIPLE_ERRORS_INPUT), types, lines, columns);
+    }
+
+    /**
+     * Tests parsing with error recovery aborted by the error limit.
+     */
+    public void testErrorLimit() {
+        Parser  p = createParser(MULTIPLE_ERRORS_INPUT);
+        int[]   types = { ParseException.UNEXPECTED_TOKEN_ERROR,
+                          ParseException.UNEXPECTED_TOKEN_ERROR,
+                          ParseException.ABORTED_ERROR };
+        int[]   lines = { 1, 1, 1 };
+        int[]   columns = { 5, 18, 18 };
+
+        p.setMaxErrors(2);
+        failParse(p, types, lines, columns);
+    }
+
+    /**
+     * Tests parsing with the various parse limits exceeded.
+     */
+    public void testParseLimits() {
+        Parser        p = createParser(VALID_INPUT);
+        ParseOptions  options = new ParseOptions();
+
+        p.setOptions(options);
+        parse(p, VALID_OUTPUT);
+        options.setMaxDepth(2);
+        p.reset(new StringReader(VALID_INPUT));
+        failParseLimit(p, ParseLimitException.DEPTH_LIMIT);
+        options.setMaxDepth(0);
+        options.setMaxTokens(6);
+        p.reset(new StringReader(VALID_INPUT));
+        failParseLimit(p, ParseLimitException.TOKEN_COUNT_LIMIT);
+        options.setMaxTokens(0);
+        options.setMaxTokenLength(2);
+        p.reset(new StringReader(VALID_INPUT));
+        failParseLimit(p, ParseLimitException.TOKEN_LENGTH_LIMIT);
+        options.setMaxTokenLength(0);
+        options.setMaxNodes(5);
+        p.reset(new StringReader(VALID_INPUT));
+        failParseLimit(p, ParseLimitException.NODE_COUNT_LIMIT);
+        options.setMaxNodes(0);
+        options.setDeadline(1);
+        p.reset(new StringReader(VALID_INPUT));
+        failParseLimit(p, ParseLimitException.DEADLINE_LIMIT);
+        options.setDeadline(0);
+        options.cancel();
+        p.reset(new StringReader(VALID_INPUT));
+        failParseLimit(p, ParseLimitException.CANCELLED_LIMIT);
+        options.clearCancelled();
+        p.reset(new StringReader(VALID_INPUT));
+        parse(p, VALID_OUTPUT);
+    }
+
     /**
      * Tests reusing the same parser for various different inputs.
      */
@@ -140,6 +229,333 @@ public class TestArithmeticParser extends ParserTestCase {
         parse(p, VALID_OUTPUT);
     }
 
+    /**
+     * Tests parsing again after random edits. The parse tree is
+     * compared to a parse tree for the whole input after each edit.
+     *
+     * @throws Exception if the parser couldn't be created
+     */
+    public void testIncrementalParse() throws Exception {
+        String[]     inserts = { "1", "a", " ", "\n", "+", "*", "(", ")",
+                                 "2 * b", " + 3", "(4)" };
+        Random       random = new Random(4711);
+        String       input = VALID_INPUT;
+        Parser       p = createParser(input);
+        Node         tree;
+        TokenChange  change;
+        Token        first;
+        String       text;
+        int          offset;
+        int          length;
+
+        p.getTokenizer().setUseTokenList(true);
+        tree = p.parse();
+        first = getFirstToken(tree);
+        for (int i = 0; i < 300; i++) {
+            text = inserts[random.nextInt(inserts.length)];
+            offset = random.nextInt(input.length() + 1);
+            length = random.nextInt(Math.min(input.length() - offset, 3) + 1);
+            try {
+                change = p.getTokenizer().retokenize(first,
+                                                     offset,
+                                                     length,
+                                                     text);
+            } catch (ParseException e) {
+                continue;
+            }
+            if (first == null || first == change.getFirstRemovedToken()) {
+                first = change.getFirstAddedToken();
+                if (first == null) {
+                    first = change.getNextToken();
+                }
+            }
+            input = input.substring(0, offset) + text +
+                    input.substring(offset + length);
+            try {
+                tree = p.parse(tree, change);
+            } catch (ParserLogException e) {
+                tree = null;
+            }
+            assertEquals("edit " + i + ": " + input,
+                         printTree(parseInput(input)),
+                         printTree(tree));
+        }
+    }
+
+    /**
+     * Tests that only the changed productions are parsed again after
+     * an edit.
+     *
+     * @throws Exception if the parser couldn't be created
+     */
+    public void testIncrementalReuse() throws Exception {
+        final int[]  count = new int[1];
+        String       input = "(1 + 2) * 3 + (4 + 5) * 6 + (7 + 8) * 9";
+        Parser       p;
+        Node         tree;
+        Node         reused;
+        TokenChange  change;
+        int          full;
+
+        p = new ArithmeticParser(new StringReader(input),
+                                 new ArithmeticAnalyzer() {
+            protected void enter(Node node) throws ParseException {
+                count[0]++;
+            }
+        });
+        p.getTokenizer().setUseTokenList(true);
+        tree = p.parse();
+        reused = tree.getChildAt(0);
+        full = count[0];
+        count[0] = 0;
+        change = p.getTokenizer().retokenize(getFirstToken(tree),
+                                             input.indexOf('5'),
+                                             1,
+                                             "50 + c");
+        tree = p.parse(tree, change);
+        assertTrue("callback count " + count[0], count[0] < full / 2);
+        assertSame("reused node", reused, tree.getChildAt(0));
+        assertEquals(printTree(parseInput(input.replaceAll("5", "50 + c"))),
+                     printTree(tree));
+        count[0] = 0;
+        change = p.getTokenizer().retokenize(getFirstToken(tree),
+                                             input.indexOf('9') + 5,
+                                             0,
+                                             "\n  ");
+        assertSame("unchanged tree", tree, p.parse(tree, change));
+        assertEquals("callback count", 0, count[0]);
+    }
+
+    /**
+     * Tests reusing parsers from a parser pool.
+     */
+    public void testParserPool() {
+        ParserPool  pool = new ParserPool(1) {
+            protected Parser newParser() throws ParserCreationException {
+                return new ArithmeticParser(null);
+            }
+        };
+        Parser      first;
+        Parser      second;
+
+        try {
+            first = pool.acquire(new StringReader(VALID_INPUT));
+            parse(first, VALID_OUTPUT);
+            second = pool.acquire(new StringReader(UNEXPECTED_CHAR_INPUT));
+            assertNotSame("acquired parsers", first, second);
+            failParse(second, ParseException.UNEXPECTED_CHAR_ERROR, 2, 2);
+            pool.release(first);
+            pool.release(second);
+            assertEquals("pool size", 1, pool.getSize());
+            assertSame("reused parser",
+                       first,
+                       pool.acquire(new StringReader(VALID_INPUT)));
+            parse(first, VALID_OUTPUT);
+            assertEquals("pool size", 0, pool.getSize());
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Tests the runtime profiling counters.
+     */
+    public void testProfile() {
+        Parser        p = createParser(VALID_INPUT);
+        ParseProfile  profile = new ParseProfile();
+        long          calls;
+
+        p.setProfile(profile);
+        parse(p, VALID_OUTPUT);
+        assertEquals("NUMBER count", 3, findEntry(profile.getTokenEntries(),
+                                                  "NUMBER").getCount());
+        assertEquals("NUMBER chars", 5, findEntry(profile.getTokenEntries(),
+                                                  "NUMBER").getCharCount());
+        assertEquals("ADD count", 2, findEntry(profile.getTokenEntries(),
+                                               "ADD").getCount());
+        assertEquals("WHITESPACE count",
+                     4,
+                     findEntry(profile.getTokenEntries(),
+                               "WHITESPACE").getCount());
+        calls = profile.getMatcherCalls(ParseProfile.STRING_DFA_MATCHER);
+        assertTrue("string DFA calls", calls >= 11);
+        assertEquals("Expression count",
+                     3,
+                     findEntry(profile.getProductionEntries(),
+                               "Expression").getCount());
+        assertEquals("Expression look-ahead",
+                     1,
+                     findEntry(profile.getProductionEntries(),
+                               "Expression").getLookAhead());
+        assertEquals("Atom count",
+                     4,
+                     findEntry(profile.getProductionEntries(),
+                               "Atom").getCount());
+        assertEquals("first production",
+                     "Expression",
+                     profile.getProductionEntries()[0].getName());
+    }
+
+    /**
+     * Tests the parse monitor callbacks.
+     */
+    public void testMonitor() {
+        final int[]   counts = new int[4];
+        ParseMonitor  monitor = new ParseMonitor() {
+            public void parseStarted(Parser parser) {
+                counts[0]++;
+            }
+            public void parseFinished(Parser parser,
+                                      long time,
+                                      int chars,
+                                      int tokens,
+                                      Exception error) {
+                counts[1] += (error == null) ? chars : -1;
+                counts[2] += (error == null) ? tokens : -1;
+            }
+            public void errorRecovery(Parser parser, ParseException e) {
+                counts[3]++;
+            }
+        };
+
+        ParseMonitor.addMonitor(monitor);
+        try {
+            parse(createParser(VALID_INPUT), VALID_OUTPUT);
+            assertEquals("parse count", 1, counts[0]);
+            assertEquals("input size", VALID_INPUT.length(), counts[1]);
+            assertEquals("token count", 7, counts[2]);
+            failParse(createParser(UNEXPECTED_TOKEN_INPUT),
+                      ParseException.UNEXPECTED_TOKEN_ERROR,
+                      1,
+                      7);
+            assertEquals("parse count", 2, counts[0]);
+            assertEquals("error recoveries", 1, counts[3]);
+        } finally {
+            ParseMonitor.removeMonitor(monitor);
+        }
+        assertFalse("monitor enabled", ParseMonitor.isEnabled());
+    }
+
+    /**
+     * Tests the parser metrics monitor.
+     *
+     * @throws Exception if the metrics MBean couldn't be read
+     */
+    public void testMetrics() throws Exception {
+        MetricsMonitor  monitor = MetricsMonitor.register();
+        ParserMetrics   parser;
+        ParserMetrics   tokenizer;
+        MBeanServer     server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName      name;
+
+        try {
+            parse(createParser(VALID_INPUT), VALID_OUTPUT);
+            failParse(createParser(UNEXPECTED_TOKEN_INPUT),
+                      ParseException.UNEXPECTED_TOKEN_ERROR,
+                      1,
+                      7);
+            parser = monitor.getMetrics(ArithmeticParser.class);
+            tokenizer = monitor.getMetrics(ArithmeticTokenizer.class);
+            assertEquals("parse count", 2, parser.getParseCount());
+            assertEquals("failed count", 1, parser.getFailedParseCount());
+            assertEquals("error count", 1, parser.getErrorCount());
+            assertEquals("unexpected token count", 1,
+                         parser.getErrorCounts()[
+                             ParseException.UNEXPECTED_TOKEN_ERROR]);
+            assertEquals("parser token count", 10, parser.getTokenCount());
+            assertTrue("tokenizer token count",
+                       tokenizer.getTokenCount() >= 10);
+            assertTrue("parse rate", parser.getParsesPerSecond() > 0);
+            assertTrue(parser.getMedianLatency() <= parser.getLatency99());
+            assertTrue(parser.getLatency99() <= parser.getMaxLatency());
+            name = MetricsMonitor.getObjectName(parser);
+            assertEquals("MBean parse count", new Long(2),
+                         server.getAttribute(name, "ParseCount"));
+        } finally {
+            MetricsMonitor.unregister();
+        }
+        assertFalse("MBean registered", server.isRegistered(name));
+        assertFalse("monitor enabled", ParseMonitor.isEnabled());
+    }
+
+    /**
+     * Finds a named profile entry. A test failure will be reported
+     * if the entry wasn't found.
+     *
+     * @param entries        the profile entries
+     * @param name           the pattern name
+     *
+     * @return the profile entry found
+     */
+    private ParseProfile.Entry findEntry(ParseProfile.Entry[] entries,
+                                         String name) {
+
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].getName().equals(name)) {
+                return entries[i];
+            }
+        }
+        fail("no profile entry for " + name);
+        return null;
+    }
+
+    /**
+     * Parses an input string.
+     *
+     * @param input          the input to parse
+     *
+     * @return the parse tree, or
+     *         null if the input couldn't be parsed
+     */
+    private Node parseInput(String input) {
+        try {
+            return createParser(input).parse();
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            // Parse errors are expected
+        }
+        return null;
+    }
+
+    /**
+     * Returns a string representation of a parse tree.
+     *
+     * @param tree           the parse tree, or null
+     *
+     * @return the string representation, or
+     *         null if the parse tree was null
+     */
+    private String printTree(Node tree) {
+        StringWriter  output = new StringWriter();
+
+        if (tree == null) {
+            return null;
+        }
+        tree.printTo(new PrintWriter(output));
+        return output.toString();
+    }
+
+    /**
+     * Returns the first token in the token list of a parse tree.
+     *
+     * @param tree           the parse tree
+     *
+     * @return the first token in the token list
+     */
+    private Token getFirstToken(Node tree) {
+        Token  token;
+
+        while (!(tree instanceof Token)) {
+            tree = tree.getChildAt(0);
+        }
+        token = (Token) tree;
+        while (token.getPreviousToken() != null) {
+            token = token.getPreviousToken();
+        }
+        return token;
+    }
+
     /**
      * Creates a new parser.
      *